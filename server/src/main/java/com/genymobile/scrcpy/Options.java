@@ -5,7 +5,9 @@ import com.genymobile.scrcpy.audio.AudioSource;
 import com.genymobile.scrcpy.device.Device;
 import com.genymobile.scrcpy.device.NewDisplay;
 import com.genymobile.scrcpy.device.Orientation;
+import com.genymobile.scrcpy.device.PacketQueue;
 import com.genymobile.scrcpy.device.Size;
+import com.genymobile.scrcpy.device.StreamFanOut;
 import com.genymobile.scrcpy.util.CodecOption;
 import com.genymobile.scrcpy.util.Ln;
 import com.genymobile.scrcpy.video.CameraAspectRatio;
@@ -32,6 +34,9 @@ public class Options {
     private AudioSource audioSource = AudioSource.OUTPUT;
     private boolean audioDup;
     private int videoBitRate = 8000000;
+    private boolean videoBitRateAdaptive;
+    private int videoBitRateMin; // 0 for default
+    private int videoBitRateMax; // 0 for default
     private int audioBitRate = 128000;
     private float maxFps;
     private float angle;
@@ -55,7 +60,18 @@ public class Options {
     private String audioEncoder;
     private boolean powerOffScreenOnClose;
     private boolean clipboardAutosync = true;
+    private boolean clipboardChunked;
     private boolean downsizeOnError = true;
+    private int videoPacketQueueSize; // 0 to write packets from the encoder thread
+    private PacketQueue.OverflowPolicy videoPacketQueueOverflow = PacketQueue.OverflowPolicy.BLOCK;
+    private int touchMoveBatchMs; // 0 to inject each move event individually
+    private int statsIntervalMs; // 0 to disable
+    private int captureResetQuietMs; // 0 to reset the capture immediately on each invalidation
+    private int captureResetMaxDelayMs = 500;
+    private boolean broadcast;
+    private int broadcastViewers; // must be set explicitly in broadcast mode
+    private int broadcastQueueSize = 16;
+    private StreamFanOut.SlowClientPolicy broadcastSlowClientPolicy = StreamFanOut.SlowClientPolicy.SKIP;
     private boolean cleanup = true;
     private boolean powerOn = true;
 
@@ -74,6 +90,7 @@ public class Options {
     // Options not used by the scrcpy client, but useful to use scrcpy-server directly
     private boolean sendDeviceMeta = true; // send device name and size
     private boolean sendFrameMeta = true; // send PTS so that the client may record properly
+    private boolean sendFrameTimestamps; // extend the frame header with server-side pipeline timestamps
     private boolean sendDummyByte = true; // write a byte on start to detect connection issues
     private boolean sendCodecMeta = true; // write the codec metadata before the stream
 
@@ -121,6 +138,18 @@ public class Options {
         return videoBitRate;
     }
 
+    public boolean getVideoBitRateAdaptive() {
+        return videoBitRateAdaptive;
+    }
+
+    public int getVideoBitRateMin() {
+        return videoBitRateMin;
+    }
+
+    public int getVideoBitRateMax() {
+        return videoBitRateMax;
+    }
+
     public int getAudioBitRate() {
         return audioBitRate;
     }
@@ -209,10 +238,54 @@ public class Options {
         return clipboardAutosync;
     }
 
+    public boolean getClipboardChunked() {
+        return clipboardChunked;
+    }
+
     public boolean getDownsizeOnError() {
         return downsizeOnError;
     }
 
+    public int getVideoPacketQueueSize() {
+        return videoPacketQueueSize;
+    }
+
+    public PacketQueue.OverflowPolicy getVideoPacketQueueOverflow() {
+        return videoPacketQueueOverflow;
+    }
+
+    public int getTouchMoveBatchMs() {
+        return touchMoveBatchMs;
+    }
+
+    public int getStatsIntervalMs() {
+        return statsIntervalMs;
+    }
+
+    public int getCaptureResetQuietMs() {
+        return captureResetQuietMs;
+    }
+
+    public int getCaptureResetMaxDelayMs() {
+        return captureResetMaxDelayMs;
+    }
+
+    public boolean getBroadcast() {
+        return broadcast;
+    }
+
+    public int getBroadcastViewers() {
+        return broadcastViewers;
+    }
+
+    public int getBroadcastQueueSize() {
+        return broadcastQueueSize;
+    }
+
+    public StreamFanOut.SlowClientPolicy getBroadcastSlowClientPolicy() {
+        return broadcastSlowClientPolicy;
+    }
+
     public boolean getCleanup() {
         return cleanup;
     }
@@ -269,6 +342,10 @@ public class Options {
         return sendFrameMeta;
     }
 
+    public boolean getSendFrameTimestamps() {
+        return sendFrameTimestamps;
+    }
+
     public boolean getSendDummyByte() {
         return sendDummyByte;
     }
@@ -353,6 +430,21 @@ public class Options {
                 case "video_bit_rate":
                     options.videoBitRate = Integer.parseInt(value);
                     break;
+                case "video_bit_rate_adaptive":
+                    options.videoBitRateAdaptive = Boolean.parseBoolean(value);
+                    break;
+                case "video_bit_rate_min":
+                    options.videoBitRateMin = Integer.parseInt(value);
+                    if (options.videoBitRateMin < 0) {
+                        throw new IllegalArgumentException("Invalid minimum video bit rate: " + options.videoBitRateMin);
+                    }
+                    break;
+                case "video_bit_rate_max":
+                    options.videoBitRateMax = Integer.parseInt(value);
+                    if (options.videoBitRateMax < 0) {
+                        throw new IllegalArgumentException("Invalid maximum video bit rate: " + options.videoBitRateMax);
+                    }
+                    break;
                 case "audio_bit_rate":
                     options.audioBitRate = Integer.parseInt(value);
                     break;
@@ -409,9 +501,71 @@ public class Options {
                 case "clipboard_autosync":
                     options.clipboardAutosync = Boolean.parseBoolean(value);
                     break;
+                case "clipboard_chunked":
+                    options.clipboardChunked = Boolean.parseBoolean(value);
+                    break;
                 case "downsize_on_error":
                     options.downsizeOnError = Boolean.parseBoolean(value);
                     break;
+                case "video_packet_queue":
+                    options.videoPacketQueueSize = Integer.parseInt(value);
+                    if (options.videoPacketQueueSize < 0) {
+                        throw new IllegalArgumentException("Invalid video packet queue size: " + options.videoPacketQueueSize);
+                    }
+                    break;
+                case "video_packet_queue_overflow":
+                    PacketQueue.OverflowPolicy overflowPolicy = PacketQueue.OverflowPolicy.findByName(value);
+                    if (overflowPolicy == null) {
+                        throw new IllegalArgumentException("Video packet queue overflow policy " + value + " not supported");
+                    }
+                    options.videoPacketQueueOverflow = overflowPolicy;
+                    break;
+                case "touch_move_batch_ms":
+                    options.touchMoveBatchMs = Integer.parseInt(value);
+                    if (options.touchMoveBatchMs < 0) {
+                        throw new IllegalArgumentException("Invalid touch move batch duration: " + options.touchMoveBatchMs);
+                    }
+                    break;
+                case "stats_interval_ms":
+                    options.statsIntervalMs = Integer.parseInt(value);
+                    if (options.statsIntervalMs < 0) {
+                        throw new IllegalArgumentException("Invalid stats interval: " + options.statsIntervalMs);
+                    }
+                    break;
+                case "capture_reset_quiet_ms":
+                    options.captureResetQuietMs = Integer.parseInt(value);
+                    if (options.captureResetQuietMs < 0) {
+                        throw new IllegalArgumentException("Invalid capture reset quiet period: " + options.captureResetQuietMs);
+                    }
+                    break;
+                case "capture_reset_max_delay_ms":
+                    options.captureResetMaxDelayMs = Integer.parseInt(value);
+                    if (options.captureResetMaxDelayMs < 0) {
+                        throw new IllegalArgumentException("Invalid capture reset max delay: " + options.captureResetMaxDelayMs);
+                    }
+                    break;
+                case "broadcast":
+                    options.broadcast = Boolean.parseBoolean(value);
+                    break;
+                case "broadcast_viewers":
+                    options.broadcastViewers = Integer.parseInt(value);
+                    if (options.broadcastViewers < 1) {
+                        throw new IllegalArgumentException("Invalid broadcast viewers limit: " + options.broadcastViewers);
+                    }
+                    break;
+                case "broadcast_queue":
+                    options.broadcastQueueSize = Integer.parseInt(value);
+                    if (options.broadcastQueueSize < 2) {
+                        throw new IllegalArgumentException("Invalid broadcast queue size: " + options.broadcastQueueSize);
+                    }
+                    break;
+                case "broadcast_slow_client":
+                    StreamFanOut.SlowClientPolicy slowClientPolicy = StreamFanOut.SlowClientPolicy.findByName(value);
+                    if (slowClientPolicy == null) {
+                        throw new IllegalArgumentException("Broadcast slow client policy " + value + " not supported");
+                    }
+                    options.broadcastSlowClientPolicy = slowClientPolicy;
+                    break;
                 case "cleanup":
                     options.cleanup = Boolean.parseBoolean(value);
                     break;
@@ -480,6 +634,9 @@ public class Options {
                 case "send_frame_meta":
                     options.sendFrameMeta = Boolean.parseBoolean(value);
                     break;
+                case "send_frame_timestamps":
+                    options.sendFrameTimestamps = Boolean.parseBoolean(value);
+                    break;
                 case "send_dummy_byte":
                     options.sendDummyByte = Boolean.parseBoolean(value);
                     break;
@@ -501,6 +658,16 @@ public class Options {
             }
         }
 
+        if (options.videoBitRateMin != 0 && options.videoBitRateMax != 0 && options.videoBitRateMin > options.videoBitRateMax) {
+            throw new IllegalArgumentException(
+                    "Minimum video bit rate (" + options.videoBitRateMin + ") greater than maximum (" + options.videoBitRateMax + ")");
+        }
+
+        if (options.broadcast && options.broadcastViewers == 0) {
+            // The viewers socket is not authenticated, the number of viewers must be limited explicitly
+            throw new IllegalArgumentException("Broadcast requires an explicit viewers limit (broadcast_viewers)");
+        }
+
         if (options.newDisplay != null) {
             assert options.displayId == 0 : "Must not set both displayId and newDisplay";
             options.displayId = Device.DISPLAY_ID_NONE;
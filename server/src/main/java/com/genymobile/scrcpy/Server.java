@@ -13,7 +13,9 @@ import com.genymobile.scrcpy.device.ConfigurationException;
 import com.genymobile.scrcpy.device.DesktopConnection;
 import com.genymobile.scrcpy.device.Device;
 import com.genymobile.scrcpy.device.NewDisplay;
+import com.genymobile.scrcpy.device.StreamFanOut;
 import com.genymobile.scrcpy.device.Streamer;
+import com.genymobile.scrcpy.device.ViewerAcceptor;
 import com.genymobile.scrcpy.opengl.OpenGLRunner;
 import com.genymobile.scrcpy.util.Ln;
 import com.genymobile.scrcpy.util.LogUtils;
@@ -101,6 +103,7 @@ public final class Server {
         Workarounds.apply();
 
         List<AsyncProcessor> asyncProcessors = new ArrayList<>();
+        ViewerAcceptor viewerAcceptor = null;
 
         DesktopConnection connection = DesktopConnection.open(scid, tunnelForward, video, audio, control, sendDummyByte);
         try {
@@ -126,7 +129,8 @@ public final class Server {
                     audioCapture = new AudioPlaybackCapture(options.getAudioDup());
                 }
 
-                Streamer audioStreamer = new Streamer(connection.getAudioFd(), audioCodec, options.getSendCodecMeta(), options.getSendFrameMeta());
+                Streamer audioStreamer = new Streamer(connection.getAudioFd(), audioCodec, options.getSendCodecMeta(), options.getSendFrameMeta(),
+                        options.getSendFrameTimestamps());
                 AsyncProcessor audioRecorder;
                 if (audioCodec == AudioCodec.RAW) {
                     audioRecorder = new AudioRawRecorder(audioCapture, audioStreamer);
@@ -138,7 +142,7 @@ public final class Server {
 
             if (video) {
                 Streamer videoStreamer = new Streamer(connection.getVideoFd(), options.getVideoCodec(), options.getSendCodecMeta(),
-                        options.getSendFrameMeta());
+                        options.getSendFrameMeta(), options.getSendFrameTimestamps());
                 SurfaceCapture surfaceCapture;
                 if (options.getVideoSource() == VideoSource.DISPLAY) {
                     NewDisplay newDisplay = options.getNewDisplay();
@@ -151,11 +155,27 @@ public final class Server {
                 } else {
                     surfaceCapture = new CameraCapture(options);
                 }
-                SurfaceEncoder surfaceEncoder = new SurfaceEncoder(surfaceCapture, videoStreamer, options);
+                SurfaceEncoder surfaceEncoder;
+                if (options.getBroadcast()) {
+                    // A single encoder for the primary client and all the viewers
+                    StreamFanOut fanOut = new StreamFanOut(options.getBroadcastQueueSize(), options.getBroadcastSlowClientPolicy());
+                    fanOut.addClient(StreamFanOut.createSink(videoStreamer, null), true);
+                    surfaceEncoder = new SurfaceEncoder(surfaceCapture, fanOut, options);
+
+                    String deviceName = options.getSendDeviceMeta() ? Device.getDeviceName() : null;
+                    // The metrics of all the viewers are aggregated, separately from those of the primary client
+                    ViewerAcceptor.StreamerFactory viewerStreamerFactory = fd -> new Streamer(fd, options.getVideoCodec(), options.getSendCodecMeta(),
+                            options.getSendFrameMeta(), options.getSendFrameTimestamps(), "video.viewers");
+                    viewerAcceptor = new ViewerAcceptor(scid, fanOut, viewerStreamerFactory, options.getBroadcastViewers(), sendDummyByte,
+                            deviceName);
+                } else {
+                    surfaceEncoder = new SurfaceEncoder(surfaceCapture, videoStreamer, options);
+                }
                 asyncProcessors.add(surfaceEncoder);
 
                 if (controller != null) {
                     controller.setSurfaceCapture(surfaceCapture);
+                    controller.setSurfaceEncoder(surfaceEncoder);
                 }
             }
 
@@ -166,11 +186,18 @@ public final class Server {
                 });
             }
 
+            if (viewerAcceptor != null) {
+                viewerAcceptor.start();
+            }
+
             completion.await();
         } finally {
             if (cleanUp != null) {
                 cleanUp.interrupt();
             }
+            if (viewerAcceptor != null) {
+                viewerAcceptor.stop();
+            }
             for (AsyncProcessor asyncProcessor : asyncProcessors) {
                 asyncProcessor.stop();
             }
@@ -186,6 +213,9 @@ public final class Server {
                 for (AsyncProcessor asyncProcessor : asyncProcessors) {
                     asyncProcessor.join();
                 }
+                if (viewerAcceptor != null) {
+                    viewerAcceptor.join();
+                }
                 OpenGLRunner.join();
             } catch (InterruptedException e) {
                 // ignore
@@ -5,12 +5,15 @@ import com.genymobile.scrcpy.AsyncProcessor;
 import com.genymobile.scrcpy.Options;
 import com.genymobile.scrcpy.device.ConfigurationException;
 import com.genymobile.scrcpy.device.Streamer;
+import com.genymobile.scrcpy.metrics.Histogram;
+import com.genymobile.scrcpy.metrics.Metrics;
 import com.genymobile.scrcpy.util.Codec;
 import com.genymobile.scrcpy.util.CodecOption;
 import com.genymobile.scrcpy.util.CodecUtils;
 import com.genymobile.scrcpy.util.IO;
 import com.genymobile.scrcpy.util.Ln;
 import com.genymobile.scrcpy.util.LogUtils;
+import com.genymobile.scrcpy.util.TaskRing;
 
 import android.annotation.TargetApi;
 import android.media.MediaCodec;
@@ -23,29 +26,20 @@ import android.os.Looper;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
 
+/**
+ * Encode the captured audio, using {@link MediaCodec} in asynchronous mode.
+ * <p>
+ * Three threads are involved:
+ * <ul>
+ *     <li>the {@code media-codec} thread, running the codec callbacks, which publish the available buffers;</li>
+ *     <li>the {@code audio-in} thread, which reads the captured audio into the input buffers;</li>
+ *     <li>the {@code audio-encoder} thread, which writes the output buffers to the socket.</li>
+ * </ul>
+ * The buffers are passed between threads through lock-free rings of preallocated task slots, so that no allocation occurs per buffer.
+ */
 public final class AudioEncoder implements AsyncProcessor {
 
-    private static class InputTask {
-        private final int index;
-
-        InputTask(int index) {
-            this.index = index;
-        }
-    }
-
-    private static class OutputTask {
-        private final int index;
-        private final MediaCodec.BufferInfo bufferInfo;
-
-        OutputTask(int index, MediaCodec.BufferInfo bufferInfo) {
-            this.index = index;
-            this.bufferInfo = bufferInfo;
-        }
-    }
-
     private static final int SAMPLE_RATE = AudioConfig.SAMPLE_RATE;
     private static final int CHANNELS = AudioConfig.CHANNELS;
 
@@ -57,16 +51,30 @@ public final class AudioEncoder implements AsyncProcessor {
 
     // Capacity of 64 is in practice "infinite" (it is limited by the number of available MediaCodec buffers, typically 4).
     // So many pending tasks would lead to an unacceptable delay anyway.
-    private final BlockingQueue<InputTask> inputTasks = new ArrayBlockingQueue<>(64);
-    private final BlockingQueue<OutputTask> outputTasks = new ArrayBlockingQueue<>(64);
+    private static final int TASK_RING_CAPACITY = 64;
+
+    // Input tasks: the index of an available input buffer
+    private final TaskRing inputTasks = new TaskRing(TASK_RING_CAPACITY);
+    private final int[] inputIndexes = new int[TASK_RING_CAPACITY];
+
+    // Output tasks: the index of an available output buffer, its info, and the time when the encoder provided it
+    private final TaskRing outputTasks = new TaskRing(TASK_RING_CAPACITY);
+    private final int[] outputIndexes = new int[TASK_RING_CAPACITY];
+    private final int[] outputOffsets = new int[TASK_RING_CAPACITY];
+    private final int[] outputSizes = new int[TASK_RING_CAPACITY];
+    private final long[] outputPts = new long[TASK_RING_CAPACITY];
+    private final int[] outputFlags = new int[TASK_RING_CAPACITY];
+    private final long[] outputDequeueNs = new long[TASK_RING_CAPACITY];
 
     private Thread thread;
     private HandlerThread mediaCodecThread;
 
     private Thread inputThread;
-    private Thread outputThread;
 
-    private boolean ended;
+    // Time spent reading from the audio capture (input thread)
+    private final Histogram readDurations = Metrics.histogram("audio.read_us");
+    // Time spent waiting for an encoded packet (output thread)
+    private final Histogram outputWaits = Metrics.histogram("audio.output_wait_us");
 
     public AudioEncoder(AudioCapture capture, Streamer streamer, Options options) {
         this.capture = capture;
@@ -100,27 +108,50 @@ public final class AudioEncoder implements AsyncProcessor {
         final MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
 
         while (!Thread.currentThread().isInterrupted()) {
-            InputTask task = inputTasks.take();
-            ByteBuffer buffer = mediaCodec.getInputBuffer(task.index);
+            int slot = inputTasks.take();
+            if (slot == -1) {
+                // ended
+                return;
+            }
+            int index = inputIndexes[slot];
+            inputTasks.release();
+
+            ByteBuffer buffer = mediaCodec.getInputBuffer(index);
+            long readStartNs = System.nanoTime();
             int r = capture.read(buffer, bufferInfo);
+            readDurations.record((System.nanoTime() - readStartNs) / 1000);
             if (r <= 0) {
                 throw new IOException("Could not read audio: " + r);
             }
 
-            mediaCodec.queueInputBuffer(task.index, bufferInfo.offset, bufferInfo.size, bufferInfo.presentationTimeUs, bufferInfo.flags);
+            mediaCodec.queueInputBuffer(index, bufferInfo.offset, bufferInfo.size, bufferInfo.presentationTimeUs, bufferInfo.flags);
         }
     }
 
-    private void outputThread(MediaCodec mediaCodec) throws IOException, InterruptedException {
+    private void outputLoop(MediaCodec mediaCodec) throws IOException, InterruptedException {
+        final MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+
         streamer.writeAudioHeader();
 
         while (!Thread.currentThread().isInterrupted()) {
-            OutputTask task = outputTasks.take();
-            ByteBuffer buffer = mediaCodec.getOutputBuffer(task.index);
+            long waitStartNs = System.nanoTime();
+            int slot = outputTasks.take();
+            if (slot == -1) {
+                // ended
+                return;
+            }
+            outputWaits.record((System.nanoTime() - waitStartNs) / 1000);
+
+            int index = outputIndexes[slot];
+            bufferInfo.set(outputOffsets[slot], outputSizes[slot], outputPts[slot], outputFlags[slot]);
+            long dequeueNs = outputDequeueNs[slot];
+            outputTasks.release();
+
+            ByteBuffer buffer = mediaCodec.getOutputBuffer(index);
             try {
-                streamer.writePacket(buffer, task.bufferInfo);
+                streamer.writePacket(buffer, bufferInfo, dequeueNs, outputTasks.size());
             } finally {
-                mediaCodec.releaseOutputBuffer(task.index, false);
+                mediaCodec.releaseOutputBuffer(index, false);
             }
         }
     }
@@ -162,19 +193,10 @@ public final class AudioEncoder implements AsyncProcessor {
         }
     }
 
-    private synchronized void end() {
-        ended = true;
-        notify();
-    }
-
-    private synchronized void waitEnded() {
-        try {
-            while (!ended) {
-                wait();
-            }
-        } catch (InterruptedException e) {
-            // ignore
-        }
+    private void end() {
+        // Wake up the output loop (and the producers waiting for a slot, if any)
+        outputTasks.close();
+        inputTasks.close();
     }
 
     @TargetApi(AndroidVersions.API_23_ANDROID_6_0)
@@ -214,27 +236,23 @@ public final class AudioEncoder implements AsyncProcessor {
                 }
             }, "audio-in");
 
-            outputThread = new Thread(() -> {
-                try {
-                    outputThread(mediaCodecRef);
-                } catch (InterruptedException e) {
-                    // this is expected on close
-                } catch (IOException e) {
-                    // Broken pipe is expected on close, because the socket is closed by the client
-                    if (!IO.isBrokenPipe(e)) {
-                        Ln.e("Audio encoding error", e);
-                    }
-                } finally {
-                    end();
-                }
-            }, "audio-out");
-
             mediaCodec.start();
             mediaCodecStarted = true;
             inputThread.start();
-            outputThread.start();
 
-            waitEnded();
+            // Write the packets from the current thread until the end
+            try {
+                outputLoop(mediaCodec);
+            } catch (InterruptedException e) {
+                // this is expected on close
+            } catch (IOException e) {
+                // Broken pipe is expected on close, because the socket is closed by the client
+                if (!IO.isBrokenPipe(e)) {
+                    Ln.e("Audio encoding error", e);
+                }
+            } finally {
+                end();
+            }
         } catch (ConfigurationException e) {
             // Notify the error to make scrcpy exit
             streamer.writeDisableStream(true);
@@ -254,9 +272,6 @@ public final class AudioEncoder implements AsyncProcessor {
             if (inputThread != null) {
                 inputThread.interrupt();
             }
-            if (outputThread != null) {
-                outputThread.interrupt();
-            }
 
             try {
                 if (mediaCodecThread != null) {
@@ -265,9 +280,6 @@ public final class AudioEncoder implements AsyncProcessor {
                 if (inputThread != null) {
                     inputThread.join();
                 }
-                if (outputThread != null) {
-                    outputThread.join();
-                }
             } catch (InterruptedException e) {
                 // Should never happen
                 throw new AssertionError(e);
@@ -319,20 +331,30 @@ public final class AudioEncoder implements AsyncProcessor {
         @TargetApi(AndroidVersions.API_24_ANDROID_7_0)
         @Override
         public void onInputBufferAvailable(MediaCodec codec, int index) {
-            try {
-                inputTasks.put(new InputTask(index));
-            } catch (InterruptedException e) {
-                end();
+            int slot = inputTasks.claimOrWait();
+            if (slot == -1) {
+                // ended
+                return;
             }
+            inputIndexes[slot] = index;
+            inputTasks.publish();
         }
 
         @Override
         public void onOutputBufferAvailable(MediaCodec codec, int index, MediaCodec.BufferInfo bufferInfo) {
-            try {
-                outputTasks.put(new OutputTask(index, bufferInfo));
-            } catch (InterruptedException e) {
-                end();
+            long dequeueNs = System.nanoTime();
+            int slot = outputTasks.claimOrWait();
+            if (slot == -1) {
+                // ended
+                return;
             }
+            outputIndexes[slot] = index;
+            outputOffsets[slot] = bufferInfo.offset;
+            outputSizes[slot] = bufferInfo.size;
+            outputPts[slot] = bufferInfo.presentationTimeUs;
+            outputFlags[slot] = bufferInfo.flags;
+            outputDequeueNs[slot] = dequeueNs;
+            outputTasks.publish();
         }
 
         @Override
@@ -0,0 +1,160 @@
+package com.genymobile.scrcpy.control;
+
+import com.genymobile.scrcpy.metrics.Counter;
+import com.genymobile.scrcpy.metrics.Metrics;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Chunked clipboard transfers.
+ * <p>
+ * A clipboard content larger than a single message is transferred as a sequence of chunks (in order), so that other messages (for
+ * example input events) may be interleaved between them. Each chunk carries the hash of the whole content, its total size and the offset
+ * of the chunk.
+ */
+public final class ClipboardTransfer {
+
+    public static final int CHUNK_MAX_SIZE = 1 << 16; // 64k
+    public static final int CONTENT_MAX_SIZE = 1 << 24; // 16M
+
+    /**
+     * Value never returned by {@link #hash(byte[])}.
+     */
+    public static final long NO_HASH = 0;
+
+    private ClipboardTransfer() {
+        // not instantiable
+    }
+
+    /**
+     * Compute the hash of a clipboard content, to detect unchanged contents.
+     *
+     * @param content the content (UTF-8)
+     * @return the first 64 bits of the SHA-256 of the content (never {@link #NO_HASH})
+     */
+    public static long hash(byte[] content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            long hash = 0;
+            for (int i = 0; i < 8; ++i) {
+                hash = (hash << 8) | (digest[i] & 0xff);
+            }
+            return hash != NO_HASH ? hash : 1;
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Create a clipboard transfer, to be sent to the client.
+     * <p>
+     * The transfer is a single {@link DeviceMessage#TYPE_CLIPBOARD_CHUNK chunk} message covering the whole content: it is split into chunks of
+     * at most {@link #CHUNK_MAX_SIZE} bytes by the {@link DeviceMessageSender} when it is written (see {@link #splitFirstChunk(DeviceMessage)}),
+     * so that a newer content may supersede the remaining chunks.
+     * <p>
+     * The message shares the content array (it must not be modified afterwards).
+     *
+     * @param content the content (UTF-8)
+     * @param hash the hash of the content
+     * @return the transfer
+     */
+    public static DeviceMessage createTransfer(byte[] content, long hash) {
+        return DeviceMessage.createClipboardChunk(hash, content, 0, content.length);
+    }
+
+    /**
+     * Return the first chunk of a transfer.
+     *
+     * @param transfer the (remaining part of the) transfer
+     * @return the first chunk (the transfer itself if it fits in a single chunk)
+     */
+    static DeviceMessage splitFirstChunk(DeviceMessage transfer) {
+        if (transfer.getLength() <= CHUNK_MAX_SIZE) {
+            return transfer;
+        }
+        return DeviceMessage.createClipboardChunk(transfer.getHash(), transfer.getData(), transfer.getOffset(), CHUNK_MAX_SIZE);
+    }
+
+    /**
+     * Return the remaining part of a transfer, after its first chunk.
+     *
+     * @param transfer the (remaining part of the) transfer
+     * @return the remaining part, or {@code null} if the transfer fits in a single chunk
+     */
+    static DeviceMessage getRemaining(DeviceMessage transfer) {
+        if (transfer.getLength() <= CHUNK_MAX_SIZE) {
+            return null;
+        }
+        return DeviceMessage.createClipboardChunk(transfer.getHash(), transfer.getData(), transfer.getOffset() + CHUNK_MAX_SIZE,
+                transfer.getLength() - CHUNK_MAX_SIZE);
+    }
+
+    /**
+     * Reassemble the chunks received from the client.
+     */
+    public static final class Receiver {
+
+        private final Counter discardedTransfers = Metrics.counter("control.clipboard.transfers_discarded");
+
+        private byte[] content; // null if no transfer is in progress
+        private long sequence;
+        private long hash;
+        private int received;
+
+        /**
+         * Receive a chunk.
+         * <p>
+         * A chunk at offset 0 starts a new transfer (any incomplete transfer is discarded). A transfer is also discarded if its content is too
+         * large, if a chunk is unexpected, or if the hash does not match.
+         *
+         * @param chunk the {@link ControlMessage#TYPE_SET_CLIPBOARD_CHUNK chunk}
+         * @return the whole content if the chunk completes the transfer, {@code null} otherwise
+         */
+        public byte[] receive(ControlMessage chunk) {
+            byte[] data = chunk.getData();
+            int offset = chunk.getOffset();
+            int totalSize = chunk.getTotalSize();
+
+            if (offset == 0) {
+                if (content != null) {
+                    discardedTransfers.increment();
+                }
+                if (totalSize > CONTENT_MAX_SIZE) {
+                    discardedTransfers.increment();
+                    content = null;
+                    return null;
+                }
+                content = new byte[totalSize];
+                sequence = chunk.getSequence();
+                hash = chunk.getHash();
+                received = 0;
+            } else if (content == null) {
+                // The start of the transfer was discarded
+                return null;
+            }
+
+            if (chunk.getSequence() != sequence || chunk.getHash() != hash || totalSize != content.length || offset != received
+                    || data.length > content.length - offset) {
+                discardedTransfers.increment();
+                content = null;
+                return null;
+            }
+
+            System.arraycopy(data, 0, content, offset, data.length);
+            received += data.length;
+
+            if (received < content.length) {
+                return null;
+            }
+
+            byte[] result = content;
+            content = null;
+            if (hash(result) != hash) {
+                discardedTransfers.increment();
+                return null;
+            }
+            return result;
+        }
+    }
+}
@@ -1,16 +1,25 @@
 package com.genymobile.scrcpy.control;
 
+import com.genymobile.scrcpy.AndroidVersions;
+
 import android.net.LocalSocket;
+import android.os.Build;
 
+import java.io.FileDescriptor;
 import java.io.IOException;
 
 public final class ControlChannel {
 
+    private final LocalSocket controlSocket;
     private final ControlMessageReader reader;
     private final DeviceMessageWriter writer;
 
     public ControlChannel(LocalSocket controlSocket) throws IOException {
-        reader = new ControlMessageReader(controlSocket.getInputStream());
+        this.controlSocket = controlSocket;
+        // On Android >= 6, read directly from the socket file descriptor
+        FileDescriptor fd = Build.VERSION.SDK_INT >= AndroidVersions.API_23_ANDROID_6_0 ? controlSocket.getFileDescriptor() : null;
+        // The messages are handled synchronously by the Controller, so they may be reused
+        reader = new ControlMessageReader(controlSocket.getInputStream(), fd, true);
         writer = new DeviceMessageWriter(controlSocket.getOutputStream());
     }
 
@@ -18,7 +27,36 @@ public final class ControlChannel {
         return reader.read();
     }
 
+    /**
+     * Indicate whether a whole message is immediately available on the control socket (i.e. whether {@link #recv()} will not block).
+     */
+    public boolean hasPendingMessage() throws IOException {
+        return reader.hasPendingMessage();
+    }
+
+    /**
+     * Shutdown the input of the control socket, so that a pending (or later) call to {@link #recv()} fails immediately.
+     */
+    public void shutdownInput() throws IOException {
+        controlSocket.shutdownInput();
+    }
+
     public void send(DeviceMessage msg) throws IOException {
         writer.write(msg);
     }
+
+    /**
+     * Send a device message.
+     *
+     * @param msg the message
+     * @param flush {@code true} to flush the stream after the message
+     * @return the size of the serialized message, in bytes
+     */
+    public int send(DeviceMessage msg, boolean flush) throws IOException {
+        return writer.write(msg, flush);
+    }
+
+    public void flush() throws IOException {
+        writer.flush();
+    }
 }
@@ -0,0 +1,203 @@
+package com.genymobile.scrcpy.control;
+
+import com.genymobile.scrcpy.metrics.Gauge;
+import com.genymobile.scrcpy.metrics.Histogram;
+import com.genymobile.scrcpy.metrics.Metrics;
+import com.genymobile.scrcpy.util.Ln;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Dispatch the control messages to two lanes, so that slow commands never delay input injection.
+ * <p>
+ * The input lane (key, text, touch, scroll and UHID input events) is handled synchronously on the dispatching thread (so the input messages,
+ * which may be reused by the decoder, are never passed to another thread). The other messages (clipboard, display power, rotation, panels,
+ * settings, UHID device creation…), which may block on binder calls, are handled in the background lane, on a separate thread.
+ * <p>
+ * The messages are handled in order within each lane. When an input event must not overtake a previous background command (input events
+ * after a "set clipboard" with paste or a "get clipboard" with copy or cut, UHID input after UHID device creation), the input lane first
+ * waits for the background lane (a barrier).
+ */
+final class ControlLanes {
+
+    interface Handler {
+        void handle(ControlMessage msg) throws IOException;
+    }
+
+    interface ErrorListener {
+        /**
+         * Called from the background lane when it fails (it is stopped).
+         */
+        void onBackgroundError(IOException error);
+    }
+
+    static final int LANE_INPUT = 0;
+    static final int LANE_BACKGROUND = 1;
+
+    private static final int BACKGROUND_QUEUE_CAPACITY = 64;
+
+    private final Handler inputHandler;
+    private final Handler backgroundHandler;
+    private final ErrorListener errorListener;
+
+    private Thread backgroundThread;
+    private final BlockingQueue<ControlMessage> backgroundQueue = new ArrayBlockingQueue<>(BACKGROUND_QUEUE_CAPACITY);
+
+    private final Object lock = new Object();
+    // Number of messages submitted to the background lane (only written by the dispatching thread)
+    private long submitted;
+    // Number of messages handled by the background lane (only written by the background thread, under lock)
+    private volatile long completed;
+
+    // Sequence numbers of background messages that any input (resp. UHID input) must wait for (only accessed by the dispatching thread)
+    private long inputBarrier;
+    private long uhidInputBarrier;
+
+    // Failure of the background lane, reported to the dispatching thread
+    private volatile IOException backgroundError;
+
+    // The input lane has no queue (its backlog is the socket buffer), so only the time it spends waiting on barriers is measured
+    private final Gauge backgroundQueueDepth = Metrics.gauge("control.lane.background.queue_depth");
+    private final Histogram inputBarrierWait = Metrics.histogram("control.lane.input.barrier_wait_us");
+
+    ControlLanes(Handler inputHandler, Handler backgroundHandler) {
+        this(inputHandler, backgroundHandler, null);
+    }
+
+    ControlLanes(Handler inputHandler, Handler backgroundHandler, ErrorListener errorListener) {
+        this.inputHandler = inputHandler;
+        this.backgroundHandler = backgroundHandler;
+        this.errorListener = errorListener;
+    }
+
+    static int getLane(int type) {
+        switch (type) {
+            case ControlMessage.TYPE_INJECT_KEYCODE:
+            case ControlMessage.TYPE_INJECT_TEXT:
+            case ControlMessage.TYPE_INJECT_TOUCH_EVENT:
+            case ControlMessage.TYPE_INJECT_SCROLL_EVENT:
+            case ControlMessage.TYPE_BACK_OR_SCREEN_ON:
+            case ControlMessage.TYPE_UHID_INPUT:
+                return LANE_INPUT;
+            default:
+                return LANE_BACKGROUND;
+        }
+    }
+
+    public void start() {
+        backgroundThread = new Thread(this::runBackground, "control-bg");
+        backgroundThread.start();
+    }
+
+    public void stop() {
+        if (backgroundThread != null) {
+            backgroundThread.interrupt();
+        }
+    }
+
+    public void join() throws InterruptedException {
+        if (backgroundThread != null) {
+            backgroundThread.join();
+        }
+    }
+
+    /**
+     * Handle the message in its lane (must always be called from the same thread).
+     *
+     * @param msg the message (it must not be reused after the call if it belongs to the background lane)
+     * @throws IOException if the input handler failed, or if the background lane failed previously
+     * @throws InterruptedException if interrupted while waiting for the background lane
+     */
+    void dispatch(ControlMessage msg) throws IOException, InterruptedException {
+        IOException error = backgroundError;
+        if (error != null) {
+            throw error;
+        }
+
+        int type = msg.getType();
+        if (getLane(type) == LANE_BACKGROUND) {
+            submitBackground(msg);
+            return;
+        }
+
+        long barrier = type == ControlMessage.TYPE_UHID_INPUT ? Math.max(inputBarrier, uhidInputBarrier) : inputBarrier;
+        awaitBackground(barrier);
+
+        inputHandler.handle(msg);
+    }
+
+    private void submitBackground(ControlMessage msg) throws InterruptedException {
+        backgroundQueue.put(msg);
+        long seq;
+        synchronized (lock) {
+            seq = ++submitted;
+            backgroundQueueDepth.set(Math.max(0, seq - completed));
+        }
+
+        int type = msg.getType();
+        if ((type == ControlMessage.TYPE_SET_CLIPBOARD || (type == ControlMessage.TYPE_SET_CLIPBOARD_CHUNK && isLastChunk(msg)))
+                && msg.getPaste()) {
+            // The PASTE key must be injected before the next input events (the user may type just after pasting)
+            inputBarrier = seq;
+        } else if (type == ControlMessage.TYPE_GET_CLIPBOARD && msg.getCopyKey() != ControlMessage.COPY_KEY_NONE) {
+            // The COPY or CUT key must be injected before the next input events (which could change the selection)
+            inputBarrier = seq;
+        } else if (type == ControlMessage.TYPE_UHID_CREATE || type == ControlMessage.TYPE_UHID_DESTROY) {
+            uhidInputBarrier = seq;
+        }
+    }
+
+    private static boolean isLastChunk(ControlMessage chunk) {
+        return chunk.getOffset() + chunk.getData().length >= chunk.getTotalSize();
+    }
+
+    private void awaitBackground(long seq) throws InterruptedException {
+        if (completed >= seq) {
+            // Common case: nothing to wait for
+            return;
+        }
+
+        long startNs = System.nanoTime();
+        synchronized (lock) {
+            while (completed < seq) {
+                lock.wait();
+            }
+        }
+        inputBarrierWait.record((System.nanoTime() - startNs) / 1000);
+    }
+
+    private void runBackground() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                ControlMessage msg = backgroundQueue.take();
+                try {
+                    backgroundHandler.handle(msg);
+                } catch (IOException e) {
+                    backgroundError = e;
+                    if (errorListener != null) {
+                        // Do not wait for the next message to report the error
+                        errorListener.onBackgroundError(e);
+                    }
+                    return;
+                } finally {
+                    synchronized (lock) {
+                        ++completed;
+                        backgroundQueueDepth.set(Math.max(0, submitted - completed));
+                        lock.notifyAll();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            // this is expected on close
+        } finally {
+            synchronized (lock) {
+                // Never block the input lane on a stopped background lane
+                completed = Long.MAX_VALUE;
+                lock.notifyAll();
+            }
+            Ln.d("Control background lane stopped");
+        }
+    }
+}
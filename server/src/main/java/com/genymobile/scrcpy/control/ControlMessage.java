@@ -4,6 +4,9 @@ import com.genymobile.scrcpy.device.Position;
 
 /**
  * Union of all supported event types, identified by their {@code type}.
+ * <p>
+ * Input events (key, touch, scroll, UHID input) may be decoded into a reusable instance (see {@link ControlMessageReader}), to avoid
+ * allocations for high-rate events.
  */
 public final class ControlMessage {
 
@@ -25,6 +28,13 @@ public final class ControlMessage {
     public static final int TYPE_OPEN_HARD_KEYBOARD_SETTINGS = 15;
     public static final int TYPE_START_APP = 16;
     public static final int TYPE_RESET_VIDEO = 17;
+    // Wraps several control messages in a single length-prefixed frame (never returned by the reader)
+    public static final int TYPE_BATCH = 18;
+    public static final int TYPE_REQUEST_KEY_FRAME = 19;
+    public static final int TYPE_SET_VIDEO_BIT_RATE = 20;
+    public static final int TYPE_SET_MAX_FPS = 21;
+    public static final int TYPE_SET_MAX_SIZE = 22;
+    public static final int TYPE_SET_CLIPBOARD_CHUNK = 23;
 
     public static final long SEQUENCE_INVALID = 0;
 
@@ -41,7 +51,11 @@ public final class ControlMessage {
     private int buttons; // MotionEvent.BUTTON_*
     private long pointerId;
     private float pressure;
-    private Position position;
+    private int positionX;
+    private int positionY;
+    private int screenWidth;
+    private int screenHeight;
+    private Position position; // lazily created from the raw values
     private float hScroll;
     private float vScroll;
     private int copyKey;
@@ -51,20 +65,34 @@ public final class ControlMessage {
     private int id;
     private byte[] data;
     private boolean on;
+    private int videoBitRate;
+    private float maxFps;
+    private int maxSize;
+    private long hash;
+    private int totalSize;
+    private int offset;
 
     private ControlMessage() {
     }
 
+    static ControlMessage createReusable() {
+        return new ControlMessage();
+    }
+
     public static ControlMessage createInjectKeycode(int action, int keycode, int repeat, int metaState) {
         ControlMessage msg = new ControlMessage();
-        msg.type = TYPE_INJECT_KEYCODE;
-        msg.action = action;
-        msg.keycode = keycode;
-        msg.repeat = repeat;
-        msg.metaState = metaState;
+        msg.setInjectKeycode(action, keycode, repeat, metaState);
         return msg;
     }
 
+    void setInjectKeycode(int action, int keycode, int repeat, int metaState) {
+        type = TYPE_INJECT_KEYCODE;
+        this.action = action;
+        this.keycode = keycode;
+        this.repeat = repeat;
+        this.metaState = metaState;
+    }
+
     public static ControlMessage createInjectText(String text) {
         ControlMessage msg = new ControlMessage();
         msg.type = TYPE_INJECT_TEXT;
@@ -75,26 +103,49 @@ public final class ControlMessage {
     public static ControlMessage createInjectTouchEvent(int action, long pointerId, Position position, float pressure, int actionButton,
             int buttons) {
         ControlMessage msg = new ControlMessage();
-        msg.type = TYPE_INJECT_TOUCH_EVENT;
-        msg.action = action;
-        msg.pointerId = pointerId;
-        msg.pressure = pressure;
+        msg.setInjectTouchEvent(action, pointerId, pressure, actionButton, buttons);
+        msg.setPosition(position.getPoint().getX(), position.getPoint().getY(), position.getScreenSize().getWidth(),
+                position.getScreenSize().getHeight());
         msg.position = position;
-        msg.actionButton = actionButton;
-        msg.buttons = buttons;
         return msg;
     }
 
+    /**
+     * Initialize a touch event. The position must be set separately, by {@link #setPosition(int, int, int, int)}.
+     */
+    void setInjectTouchEvent(int action, long pointerId, float pressure, int actionButton, int buttons) {
+        type = TYPE_INJECT_TOUCH_EVENT;
+        this.action = action;
+        this.pointerId = pointerId;
+        this.pressure = pressure;
+        this.actionButton = actionButton;
+        this.buttons = buttons;
+    }
+
     public static ControlMessage createInjectScrollEvent(Position position, float hScroll, float vScroll, int buttons) {
         ControlMessage msg = new ControlMessage();
-        msg.type = TYPE_INJECT_SCROLL_EVENT;
+        msg.setInjectScrollEvent(position.getPoint().getX(), position.getPoint().getY(), position.getScreenSize().getWidth(),
+                position.getScreenSize().getHeight(), hScroll, vScroll, buttons);
         msg.position = position;
-        msg.hScroll = hScroll;
-        msg.vScroll = vScroll;
-        msg.buttons = buttons;
         return msg;
     }
 
+    void setInjectScrollEvent(int x, int y, int screenWidth, int screenHeight, float hScroll, float vScroll, int buttons) {
+        type = TYPE_INJECT_SCROLL_EVENT;
+        setPosition(x, y, screenWidth, screenHeight);
+        this.hScroll = hScroll;
+        this.vScroll = vScroll;
+        this.buttons = buttons;
+    }
+
+    void setPosition(int x, int y, int screenWidth, int screenHeight) {
+        positionX = x;
+        positionY = y;
+        this.screenWidth = screenWidth;
+        this.screenHeight = screenHeight;
+        position = null;
+    }
+
     public static ControlMessage createBackOrScreenOn(int action) {
         ControlMessage msg = new ControlMessage();
         msg.type = TYPE_BACK_OR_SCREEN_ON;
@@ -142,12 +193,16 @@ public final class ControlMessage {
 
     public static ControlMessage createUhidInput(int id, byte[] data) {
         ControlMessage msg = new ControlMessage();
-        msg.type = TYPE_UHID_INPUT;
-        msg.id = id;
-        msg.data = data;
+        msg.setUhidInput(id, data);
         return msg;
     }
 
+    void setUhidInput(int id, byte[] data) {
+        type = TYPE_UHID_INPUT;
+        this.id = id;
+        this.data = data;
+    }
+
     public static ControlMessage createUhidDestroy(int id) {
         ControlMessage msg = new ControlMessage();
         msg.type = TYPE_UHID_DESTROY;
@@ -155,6 +210,52 @@ public final class ControlMessage {
         return msg;
     }
 
+    public static ControlMessage createSetVideoBitRate(long sequence, int videoBitRate) {
+        ControlMessage msg = new ControlMessage();
+        msg.type = TYPE_SET_VIDEO_BIT_RATE;
+        msg.sequence = sequence;
+        msg.videoBitRate = videoBitRate;
+        return msg;
+    }
+
+    public static ControlMessage createSetMaxFps(long sequence, float maxFps) {
+        ControlMessage msg = new ControlMessage();
+        msg.type = TYPE_SET_MAX_FPS;
+        msg.sequence = sequence;
+        msg.maxFps = maxFps;
+        return msg;
+    }
+
+    public static ControlMessage createSetMaxSize(long sequence, int maxSize) {
+        ControlMessage msg = new ControlMessage();
+        msg.type = TYPE_SET_MAX_SIZE;
+        msg.sequence = sequence;
+        msg.maxSize = maxSize;
+        return msg;
+    }
+
+    /**
+     * Create a chunk of a clipboard content (see {@link ClipboardTransfer}).
+     *
+     * @param sequence the sequence of the transfer (to acknowledge once complete)
+     * @param paste whether to paste once the clipboard is set
+     * @param hash the hash of the whole content
+     * @param totalSize the size of the whole content, in bytes
+     * @param offset the offset of the chunk in the content
+     * @param data the chunk data
+     */
+    public static ControlMessage createSetClipboardChunk(long sequence, boolean paste, long hash, int totalSize, int offset, byte[] data) {
+        ControlMessage msg = new ControlMessage();
+        msg.type = TYPE_SET_CLIPBOARD_CHUNK;
+        msg.sequence = sequence;
+        msg.paste = paste;
+        msg.hash = hash;
+        msg.totalSize = totalSize;
+        msg.offset = offset;
+        msg.data = data;
+        return msg;
+    }
+
     public static ControlMessage createStartApp(String name) {
         ControlMessage msg = new ControlMessage();
         msg.type = TYPE_START_APP;
@@ -199,9 +300,28 @@ public final class ControlMessage {
     }
 
     public Position getPosition() {
+        if (position == null) {
+            position = new Position(positionX, positionY, screenWidth, screenHeight);
+        }
         return position;
     }
 
+    public int getPositionX() {
+        return positionX;
+    }
+
+    public int getPositionY() {
+        return positionY;
+    }
+
+    public int getScreenWidth() {
+        return screenWidth;
+    }
+
+    public int getScreenHeight() {
+        return screenHeight;
+    }
+
     public float getHScroll() {
         return hScroll;
     }
@@ -237,4 +357,28 @@ public final class ControlMessage {
     public boolean getOn() {
         return on;
     }
+
+    public int getVideoBitRate() {
+        return videoBitRate;
+    }
+
+    public float getMaxFps() {
+        return maxFps;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getHash() {
+        return hash;
+    }
+
+    public int getTotalSize() {
+        return totalSize;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
 }
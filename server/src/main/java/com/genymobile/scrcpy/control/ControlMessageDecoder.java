@@ -0,0 +1,365 @@
+package com.genymobile.scrcpy.control;
+
+import com.genymobile.scrcpy.util.Binary;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decode control messages from a {@link ByteBuffer} (in big-endian order).
+ * <p>
+ * If the buffer does not contain a whole message, nothing is consumed, so that the caller may retry once more bytes are available.
+ */
+final class ControlMessageDecoder {
+
+    // Number of UHID input scratch buffers (one per distinct report size)
+    private static final int UHID_INPUT_SCRATCH_COUNT = 4;
+
+    // If non-null, input events are decoded into this instance rather than into new instances
+    private final ControlMessage reusableMessage;
+    private final byte[][] uhidInputScratches;
+    private int nextUhidInputScratch;
+
+    ControlMessageDecoder(boolean reuseMessages) {
+        if (reuseMessages) {
+            reusableMessage = ControlMessage.createReusable();
+            uhidInputScratches = new byte[UHID_INPUT_SCRATCH_COUNT][];
+        } else {
+            reusableMessage = null;
+            uhidInputScratches = null;
+        }
+    }
+
+    private ControlMessage obtainMessage() {
+        return reusableMessage != null ? reusableMessage : ControlMessage.createReusable();
+    }
+
+    private byte[] getUhidInputScratch(int len) {
+        // The reports of a HID device typically have a constant size, so keep one buffer per size (the number of devices is small)
+        for (byte[] scratch : uhidInputScratches) {
+            if (scratch != null && scratch.length == len) {
+                return scratch;
+            }
+        }
+
+        byte[] scratch = new byte[len];
+        uhidInputScratches[nextUhidInputScratch] = scratch;
+        nextUhidInputScratch = (nextUhidInputScratch + 1) % uhidInputScratches.length;
+        return scratch;
+    }
+
+    /**
+     * Decode the message at the current position of {@code buffer}.
+     *
+     * @param buffer the buffer
+     * @return the message (and the buffer position is moved after it), or {@code null} if the buffer does not contain a whole message (and
+     * the buffer position is unchanged)
+     * @throws ControlProtocolException if the message is invalid
+     */
+    ControlMessage decode(ByteBuffer buffer) throws ControlProtocolException {
+        int start = buffer.position();
+        ControlMessage msg = decodeMessage(buffer);
+        if (msg == null) {
+            buffer.position(start);
+        }
+        return msg;
+    }
+
+    private ControlMessage decodeMessage(ByteBuffer buffer) throws ControlProtocolException {
+        if (!buffer.hasRemaining()) {
+            return null;
+        }
+
+        int type = buffer.get() & 0xff;
+        switch (type) {
+            case ControlMessage.TYPE_INJECT_KEYCODE:
+                return parseInjectKeycode(buffer);
+            case ControlMessage.TYPE_INJECT_TEXT:
+                return parseInjectText(buffer);
+            case ControlMessage.TYPE_INJECT_TOUCH_EVENT:
+                return parseInjectTouchEvent(buffer);
+            case ControlMessage.TYPE_INJECT_SCROLL_EVENT:
+                return parseInjectScrollEvent(buffer);
+            case ControlMessage.TYPE_BACK_OR_SCREEN_ON:
+                return parseBackOrScreenOnEvent(buffer);
+            case ControlMessage.TYPE_GET_CLIPBOARD:
+                return parseGetClipboard(buffer);
+            case ControlMessage.TYPE_SET_CLIPBOARD:
+                return parseSetClipboard(buffer);
+            case ControlMessage.TYPE_SET_DISPLAY_POWER:
+                return parseSetDisplayPower(buffer);
+            case ControlMessage.TYPE_EXPAND_NOTIFICATION_PANEL:
+            case ControlMessage.TYPE_EXPAND_SETTINGS_PANEL:
+            case ControlMessage.TYPE_COLLAPSE_PANELS:
+            case ControlMessage.TYPE_ROTATE_DEVICE:
+            case ControlMessage.TYPE_OPEN_HARD_KEYBOARD_SETTINGS:
+            case ControlMessage.TYPE_RESET_VIDEO:
+            case ControlMessage.TYPE_REQUEST_KEY_FRAME:
+                return ControlMessage.createEmpty(type);
+            case ControlMessage.TYPE_UHID_CREATE:
+                return parseUhidCreate(buffer);
+            case ControlMessage.TYPE_UHID_INPUT:
+                return parseUhidInput(buffer);
+            case ControlMessage.TYPE_UHID_DESTROY:
+                return parseUhidDestroy(buffer);
+            case ControlMessage.TYPE_START_APP:
+                return parseStartApp(buffer);
+            case ControlMessage.TYPE_SET_VIDEO_BIT_RATE:
+                return parseSetVideoBitRate(buffer);
+            case ControlMessage.TYPE_SET_MAX_FPS:
+                return parseSetMaxFps(buffer);
+            case ControlMessage.TYPE_SET_MAX_SIZE:
+                return parseSetMaxSize(buffer);
+            case ControlMessage.TYPE_SET_CLIPBOARD_CHUNK:
+                return parseSetClipboardChunk(buffer);
+            case ControlMessage.TYPE_BATCH:
+                throw new ControlProtocolException("Nested batch");
+            default:
+                throw new ControlProtocolException("Unknown event type: " + type);
+        }
+    }
+
+    private static int getBufferLength(ByteBuffer buffer, int sizeBytes) {
+        assert sizeBytes > 0 && sizeBytes <= 4;
+        int value = 0;
+        for (int i = 0; i < sizeBytes; ++i) {
+            value = (value << 8) | (buffer.get() & 0xff);
+        }
+        return value;
+    }
+
+    /**
+     * Read a length-prefixed string.
+     *
+     * @return the string, or {@code null} if the buffer does not contain the whole string
+     */
+    private static String parseString(ByteBuffer buffer, int sizeBytes) throws ControlProtocolException {
+        if (buffer.remaining() < sizeBytes) {
+            return null;
+        }
+        int len = getBufferLength(buffer, sizeBytes);
+        if (len < 0) {
+            throw new ControlProtocolException("Invalid string length: " + len);
+        }
+        if (buffer.remaining() < len) {
+            return null;
+        }
+        String s;
+        if (buffer.hasArray()) {
+            s = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), len, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + len);
+        } else {
+            byte[] data = new byte[len];
+            buffer.get(data);
+            s = new String(data, StandardCharsets.UTF_8);
+        }
+        return s;
+    }
+
+    /**
+     * Read a length-prefixed byte array.
+     *
+     * @return the array, or {@code null} if the buffer does not contain the whole array
+     */
+    private static byte[] parseByteArray(ByteBuffer buffer, int sizeBytes) {
+        if (buffer.remaining() < sizeBytes) {
+            return null;
+        }
+        int len = getBufferLength(buffer, sizeBytes);
+        if (buffer.remaining() < len) {
+            return null;
+        }
+        byte[] data = new byte[len];
+        buffer.get(data);
+        return data;
+    }
+
+    private ControlMessage parseInjectKeycode(ByteBuffer buffer) {
+        if (buffer.remaining() < 13) {
+            return null;
+        }
+        int action = buffer.get() & 0xff;
+        int keycode = buffer.getInt();
+        int repeat = buffer.getInt();
+        int metaState = buffer.getInt();
+        ControlMessage msg = obtainMessage();
+        msg.setInjectKeycode(action, keycode, repeat, metaState);
+        return msg;
+    }
+
+    private static ControlMessage parseInjectText(ByteBuffer buffer) throws ControlProtocolException {
+        String text = parseString(buffer, 4);
+        if (text == null) {
+            return null;
+        }
+        return ControlMessage.createInjectText(text);
+    }
+
+    private ControlMessage parseInjectTouchEvent(ByteBuffer buffer) {
+        if (buffer.remaining() < 31) {
+            return null;
+        }
+        int action = buffer.get() & 0xff;
+        long pointerId = buffer.getLong();
+        int x = buffer.getInt();
+        int y = buffer.getInt();
+        int screenWidth = buffer.getShort() & 0xffff;
+        int screenHeight = buffer.getShort() & 0xffff;
+        float pressure = Binary.u16FixedPointToFloat(buffer.getShort());
+        int actionButton = buffer.getInt();
+        int buttons = buffer.getInt();
+        ControlMessage msg = obtainMessage();
+        msg.setInjectTouchEvent(action, pointerId, pressure, actionButton, buttons);
+        msg.setPosition(x, y, screenWidth, screenHeight);
+        return msg;
+    }
+
+    private ControlMessage parseInjectScrollEvent(ByteBuffer buffer) {
+        if (buffer.remaining() < 20) {
+            return null;
+        }
+        int x = buffer.getInt();
+        int y = buffer.getInt();
+        int screenWidth = buffer.getShort() & 0xffff;
+        int screenHeight = buffer.getShort() & 0xffff;
+        float hScroll = Binary.i16FixedPointToFloat(buffer.getShort());
+        float vScroll = Binary.i16FixedPointToFloat(buffer.getShort());
+        int buttons = buffer.getInt();
+        ControlMessage msg = obtainMessage();
+        msg.setInjectScrollEvent(x, y, screenWidth, screenHeight, hScroll, vScroll, buttons);
+        return msg;
+    }
+
+    private static ControlMessage parseBackOrScreenOnEvent(ByteBuffer buffer) {
+        if (buffer.remaining() < 1) {
+            return null;
+        }
+        int action = buffer.get() & 0xff;
+        return ControlMessage.createBackOrScreenOn(action);
+    }
+
+    private static ControlMessage parseGetClipboard(ByteBuffer buffer) {
+        if (buffer.remaining() < 1) {
+            return null;
+        }
+        int copyKey = buffer.get() & 0xff;
+        return ControlMessage.createGetClipboard(copyKey);
+    }
+
+    private static ControlMessage parseSetClipboard(ByteBuffer buffer) throws ControlProtocolException {
+        if (buffer.remaining() < 9) {
+            return null;
+        }
+        long sequence = buffer.getLong();
+        boolean paste = buffer.get() != 0;
+        String text = parseString(buffer, 4);
+        if (text == null) {
+            return null;
+        }
+        return ControlMessage.createSetClipboard(sequence, text, paste);
+    }
+
+    private static ControlMessage parseSetDisplayPower(ByteBuffer buffer) {
+        if (buffer.remaining() < 1) {
+            return null;
+        }
+        boolean on = buffer.get() != 0;
+        return ControlMessage.createSetDisplayPower(on);
+    }
+
+    private static ControlMessage parseUhidCreate(ByteBuffer buffer) throws ControlProtocolException {
+        if (buffer.remaining() < 2) {
+            return null;
+        }
+        int id = buffer.getShort() & 0xffff;
+        String name = parseString(buffer, 1);
+        if (name == null) {
+            return null;
+        }
+        byte[] data = parseByteArray(buffer, 2);
+        if (data == null) {
+            return null;
+        }
+        return ControlMessage.createUhidCreate(id, name, data);
+    }
+
+    private ControlMessage parseUhidInput(ByteBuffer buffer) {
+        if (buffer.remaining() < 4) {
+            return null;
+        }
+        int id = buffer.getShort() & 0xffff;
+        int len = buffer.getShort() & 0xffff;
+        if (buffer.remaining() < len) {
+            return null;
+        }
+        byte[] data = reusableMessage != null ? getUhidInputScratch(len) : new byte[len];
+        buffer.get(data);
+        ControlMessage msg = obtainMessage();
+        msg.setUhidInput(id, data);
+        return msg;
+    }
+
+    private static ControlMessage parseUhidDestroy(ByteBuffer buffer) {
+        if (buffer.remaining() < 2) {
+            return null;
+        }
+        int id = buffer.getShort() & 0xffff;
+        return ControlMessage.createUhidDestroy(id);
+    }
+
+    private static ControlMessage parseStartApp(ByteBuffer buffer) throws ControlProtocolException {
+        String name = parseString(buffer, 1);
+        if (name == null) {
+            return null;
+        }
+        return ControlMessage.createStartApp(name);
+    }
+
+    private static ControlMessage parseSetVideoBitRate(ByteBuffer buffer) {
+        if (buffer.remaining() < 12) {
+            return null;
+        }
+        long sequence = buffer.getLong();
+        int videoBitRate = buffer.getInt();
+        return ControlMessage.createSetVideoBitRate(sequence, videoBitRate);
+    }
+
+    private static ControlMessage parseSetMaxFps(ByteBuffer buffer) {
+        if (buffer.remaining() < 12) {
+            return null;
+        }
+        long sequence = buffer.getLong();
+        float maxFps = buffer.getFloat();
+        return ControlMessage.createSetMaxFps(sequence, maxFps);
+    }
+
+    private static ControlMessage parseSetMaxSize(ByteBuffer buffer) {
+        if (buffer.remaining() < 10) {
+            return null;
+        }
+        long sequence = buffer.getLong();
+        int maxSize = buffer.getShort() & 0xffff;
+        return ControlMessage.createSetMaxSize(sequence, maxSize);
+    }
+
+    private static ControlMessage parseSetClipboardChunk(ByteBuffer buffer) throws ControlProtocolException {
+        if (buffer.remaining() < 29) {
+            return null;
+        }
+        long sequence = buffer.getLong();
+        boolean paste = buffer.get() != 0;
+        long hash = buffer.getLong();
+        int totalSize = buffer.getInt();
+        int offset = buffer.getInt();
+        int len = buffer.getInt();
+        if (totalSize < 0 || offset < 0 || len < 0 || len > ClipboardTransfer.CHUNK_MAX_SIZE) {
+            throw new ControlProtocolException("Invalid clipboard chunk: offset=" + offset + ", len=" + len + ", total=" + totalSize);
+        }
+        if (buffer.remaining() < len) {
+            return null;
+        }
+        byte[] data = new byte[len];
+        buffer.get(data);
+        return ControlMessage.createSetClipboardChunk(sequence, paste, hash, totalSize, offset, data);
+    }
+}
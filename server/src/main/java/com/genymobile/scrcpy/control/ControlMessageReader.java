@@ -1,14 +1,19 @@
 package com.genymobile.scrcpy.control;
 
-import com.genymobile.scrcpy.device.Position;
-import com.genymobile.scrcpy.util.Binary;
+import com.genymobile.scrcpy.util.IO;
 
-import java.io.BufferedInputStream;
-import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
-
+import java.nio.ByteBuffer;
+
+/**
+ * Read control messages from the client.
+ * <p>
+ * The bytes are read in bulk into a single reusable buffer, then the messages are decoded in place by a {@link ControlMessageDecoder}. A
+ * message split across several reads is decoded once all its bytes are available.
+ */
 public class ControlMessageReader {
 
     private static final int MESSAGE_MAX_SIZE = 1 << 18; // 256k
@@ -16,158 +21,177 @@ public class ControlMessageReader {
     public static final int CLIPBOARD_TEXT_MAX_LENGTH = MESSAGE_MAX_SIZE - 14; // type: 1 byte; sequence: 8 bytes; paste flag: 1 byte; length: 4 bytes
     public static final int INJECT_TEXT_MAX_LENGTH = 300;
 
-    private final DataInputStream dis;
-
-    public ControlMessageReader(InputStream rawInputStream) {
-        dis = new DataInputStream(new BufferedInputStream(rawInputStream));
-    }
-
-    public ControlMessage read() throws IOException {
-        int type = dis.readUnsignedByte();
-        switch (type) {
-            case ControlMessage.TYPE_INJECT_KEYCODE:
-                return parseInjectKeycode();
-            case ControlMessage.TYPE_INJECT_TEXT:
-                return parseInjectText();
-            case ControlMessage.TYPE_INJECT_TOUCH_EVENT:
-                return parseInjectTouchEvent();
-            case ControlMessage.TYPE_INJECT_SCROLL_EVENT:
-                return parseInjectScrollEvent();
-            case ControlMessage.TYPE_BACK_OR_SCREEN_ON:
-                return parseBackOrScreenOnEvent();
-            case ControlMessage.TYPE_GET_CLIPBOARD:
-                return parseGetClipboard();
-            case ControlMessage.TYPE_SET_CLIPBOARD:
-                return parseSetClipboard();
-            case ControlMessage.TYPE_SET_DISPLAY_POWER:
-                return parseSetDisplayPower();
-            case ControlMessage.TYPE_EXPAND_NOTIFICATION_PANEL:
-            case ControlMessage.TYPE_EXPAND_SETTINGS_PANEL:
-            case ControlMessage.TYPE_COLLAPSE_PANELS:
-            case ControlMessage.TYPE_ROTATE_DEVICE:
-            case ControlMessage.TYPE_OPEN_HARD_KEYBOARD_SETTINGS:
-            case ControlMessage.TYPE_RESET_VIDEO:
-                return ControlMessage.createEmpty(type);
-            case ControlMessage.TYPE_UHID_CREATE:
-                return parseUhidCreate();
-            case ControlMessage.TYPE_UHID_INPUT:
-                return parseUhidInput();
-            case ControlMessage.TYPE_UHID_DESTROY:
-                return parseUhidDestroy();
-            case ControlMessage.TYPE_START_APP:
-                return parseStartApp();
-            default:
-                throw new ControlProtocolException("Unknown event type: " + type);
+    private static final int BATCH_HEADER_SIZE = 5; // type: 1 byte; length: 4 bytes
+    private static final int INITIAL_CAPACITY = 4096;
+    private static final int MAX_CAPACITY = BATCH_HEADER_SIZE + MESSAGE_MAX_SIZE;
+
+    private final InputStream inputStream;
+    private final FileDescriptor fd; // if non-null, read directly from the file descriptor
+    private final ControlMessageDecoder decoder;
+
+    // The unread bytes are between position and limit
+    private ByteBuffer buffer;
+    // End position of the current batch in the buffer, or -1
+    private int batchEnd = -1;
+    // Message already decoded by hasPendingMessage(), to be returned by the next read()
+    private ControlMessage nextMessage;
+
+    public ControlMessageReader(InputStream inputStream) {
+        this(inputStream, false);
+    }
+
+    public ControlMessageReader(InputStream inputStream, boolean reuseMessages) {
+        this(inputStream, null, reuseMessages);
+    }
+
+    /**
+     * Create a control message reader.
+     * <p>
+     * If {@code reuseMessages} is {@code true}, then input events (key, touch, scroll and UHID input) are decoded without allocation into a
+     * single reusable instance: the message returned by {@link #read()} (and its UHID data) are only valid until the next call to
+     * {@link #read()} or {@link #hasPendingMessage()}.
+     * <p>
+     * A {@link ControlMessage#TYPE_BATCH batch} is read at once, then its messages are returned one by one.
+     *
+     * @param inputStream the input stream
+     * @param fd the file descriptor of the input stream, to read directly into a direct buffer using {@link IO#read(FileDescriptor,
+     * ByteBuffer)} (requires Android 6), or {@code null} to read from {@code inputStream}
+     * @param reuseMessages {@code true} to decode input events into a reusable message
+     */
+    public ControlMessageReader(InputStream inputStream, FileDescriptor fd, boolean reuseMessages) {
+        this.inputStream = inputStream;
+        this.fd = fd;
+        decoder = new ControlMessageDecoder(reuseMessages);
+        buffer = allocate(INITIAL_CAPACITY);
+        buffer.limit(0);
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        // InputStream.read() requires an array
+        return fd != null ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    /**
+     * Indicate whether a whole message is immediately available, i.e. whether the next call to {@link #read()} will not block.
+     * <p>
+     * Only the bytes already received are read.
+     */
+    public boolean hasPendingMessage() throws IOException {
+        if (nextMessage == null) {
+            nextMessage = readBuffered();
+            while (nextMessage == null && available() > 0) {
+                // Does not block, some bytes are available
+                readMore();
+                nextMessage = readBuffered();
+            }
         }
+        return nextMessage != null;
     }
 
-    private ControlMessage parseInjectKeycode() throws IOException {
-        int action = dis.readUnsignedByte();
-        int keycode = dis.readInt();
-        int repeat = dis.readInt();
-        int metaState = dis.readInt();
-        return ControlMessage.createInjectKeycode(action, keycode, repeat, metaState);
-    }
-
-    private int parseBufferLength(int sizeBytes) throws IOException {
-        assert sizeBytes > 0 && sizeBytes <= 4;
-        int value = 0;
-        for (int i = 0; i < sizeBytes; ++i) {
-            value = (value << 8) | dis.readUnsignedByte();
+    private int available() {
+        try {
+            return inputStream.available();
+        } catch (IOException e) {
+            // The error will be reported by the next read()
+            return 0;
         }
-        return value;
-    }
-
-    private String parseString(int sizeBytes) throws IOException {
-        assert sizeBytes > 0 && sizeBytes <= 4;
-        byte[] data = parseByteArray(sizeBytes);
-        return new String(data, StandardCharsets.UTF_8);
-    }
-
-    private String parseString() throws IOException {
-        return parseString(4);
-    }
-
-    private byte[] parseByteArray(int sizeBytes) throws IOException {
-        int len = parseBufferLength(sizeBytes);
-        byte[] data = new byte[len];
-        dis.readFully(data);
-        return data;
-    }
-
-    private ControlMessage parseInjectText() throws IOException {
-        String text = parseString();
-        return ControlMessage.createInjectText(text);
-    }
-
-    private ControlMessage parseInjectTouchEvent() throws IOException {
-        int action = dis.readUnsignedByte();
-        long pointerId = dis.readLong();
-        Position position = parsePosition();
-        float pressure = Binary.u16FixedPointToFloat(dis.readShort());
-        int actionButton = dis.readInt();
-        int buttons = dis.readInt();
-        return ControlMessage.createInjectTouchEvent(action, pointerId, position, pressure, actionButton, buttons);
-    }
-
-    private ControlMessage parseInjectScrollEvent() throws IOException {
-        Position position = parsePosition();
-        float hScroll = Binary.i16FixedPointToFloat(dis.readShort());
-        float vScroll = Binary.i16FixedPointToFloat(dis.readShort());
-        int buttons = dis.readInt();
-        return ControlMessage.createInjectScrollEvent(position, hScroll, vScroll, buttons);
     }
 
-    private ControlMessage parseBackOrScreenOnEvent() throws IOException {
-        int action = dis.readUnsignedByte();
-        return ControlMessage.createBackOrScreenOn(action);
-    }
-
-    private ControlMessage parseGetClipboard() throws IOException {
-        int copyKey = dis.readUnsignedByte();
-        return ControlMessage.createGetClipboard(copyKey);
-    }
+    public ControlMessage read() throws IOException {
+        ControlMessage msg = nextMessage;
+        if (msg != null) {
+            nextMessage = null;
+            return msg;
+        }
 
-    private ControlMessage parseSetClipboard() throws IOException {
-        long sequence = dis.readLong();
-        boolean paste = dis.readByte() != 0;
-        String text = parseString();
-        return ControlMessage.createSetClipboard(sequence, text, paste);
+        while ((msg = readBuffered()) == null) {
+            // The message is incomplete
+            readMore();
+        }
+        return msg;
     }
 
-    private ControlMessage parseSetDisplayPower() throws IOException {
-        boolean on = dis.readBoolean();
-        return ControlMessage.createSetDisplayPower(on);
-    }
+    /**
+     * Decode the next message from the bytes already in the buffer.
+     *
+     * @return the message, or {@code null} if the buffer does not contain a whole message (or a whole batch)
+     */
+    private ControlMessage readBuffered() throws ControlProtocolException {
+        if (batchEnd != -1) {
+            return readFromBatch();
+        }
 
-    private ControlMessage parseUhidCreate() throws IOException {
-        int id = dis.readUnsignedShort();
-        String name = parseString(1);
-        byte[] data = parseByteArray(2);
-        return ControlMessage.createUhidCreate(id, name, data);
-    }
+        while (buffer.hasRemaining() && (buffer.get(buffer.position()) & 0xff) == ControlMessage.TYPE_BATCH) {
+            if (buffer.remaining() < BATCH_HEADER_SIZE) {
+                return null;
+            }
+            int len = buffer.getInt(buffer.position() + 1);
+            if (len < 0 || len > MESSAGE_MAX_SIZE) {
+                throw new ControlProtocolException("Invalid batch length: " + len);
+            }
+            // Wait for the whole batch, so that no read (which could move the bytes in the buffer) occurs until it is consumed
+            if (buffer.remaining() < BATCH_HEADER_SIZE + len) {
+                return null;
+            }
+            buffer.position(buffer.position() + BATCH_HEADER_SIZE);
+            if (len > 0) {
+                batchEnd = buffer.position() + len;
+                return readFromBatch();
+            }
+            // The batch is empty, read the next message
+        }
 
-    private ControlMessage parseUhidInput() throws IOException {
-        int id = dis.readUnsignedShort();
-        byte[] data = parseByteArray(2);
-        return ControlMessage.createUhidInput(id, data);
+        return decoder.decode(buffer);
     }
 
-    private ControlMessage parseUhidDestroy() throws IOException {
-        int id = dis.readUnsignedShort();
-        return ControlMessage.createUhidDestroy(id);
-    }
+    private ControlMessage readFromBatch() throws ControlProtocolException {
+        int limit = buffer.limit();
+        buffer.limit(batchEnd);
+        ControlMessage msg;
+        try {
+            msg = decoder.decode(buffer);
+        } finally {
+            buffer.limit(limit);
+        }
+        if (msg == null) {
+            throw new ControlProtocolException("Truncated message in batch");
+        }
+        if (buffer.position() == batchEnd) {
+            batchEnd = -1;
+        }
+        return msg;
+    }
+
+    /**
+     * Read at least one more byte into the buffer.
+     */
+    private void readMore() throws IOException {
+        // Move the unread bytes to the beginning of the buffer, and switch to write mode
+        buffer.compact();
+        if (!buffer.hasRemaining()) {
+            buffer.flip();
+            int capacity = buffer.capacity();
+            if (capacity >= MAX_CAPACITY) {
+                throw new ControlProtocolException("Control message too large");
+            }
+            ByteBuffer newBuffer = allocate(Math.min(capacity * 2, MAX_CAPACITY));
+            newBuffer.put(buffer);
+            buffer = newBuffer;
+        }
 
-    private ControlMessage parseStartApp() throws IOException {
-        String name = parseString(1);
-        return ControlMessage.createStartApp(name);
-    }
+        int r;
+        if (fd != null) {
+            r = IO.read(fd, buffer);
+        } else {
+            r = inputStream.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            if (r > 0) {
+                buffer.position(buffer.position() + r);
+            }
+        }
+        buffer.flip();
 
-    private Position parsePosition() throws IOException {
-        int x = dis.readInt();
-        int y = dis.readInt();
-        int screenWidth = dis.readUnsignedShort();
-        int screenHeight = dis.readUnsignedShort();
-        return new Position(x, y, screenWidth, screenHeight);
+        if (r == -1) {
+            throw new EOFException("Control socket closed");
+        }
     }
 }
@@ -6,12 +6,14 @@ import com.genymobile.scrcpy.CleanUp;
 import com.genymobile.scrcpy.Options;
 import com.genymobile.scrcpy.device.Device;
 import com.genymobile.scrcpy.device.DeviceApp;
-import com.genymobile.scrcpy.device.Point;
-import com.genymobile.scrcpy.device.Position;
 import com.genymobile.scrcpy.device.Size;
+import com.genymobile.scrcpy.metrics.Counter;
+import com.genymobile.scrcpy.metrics.Histogram;
+import com.genymobile.scrcpy.metrics.Metrics;
 import com.genymobile.scrcpy.util.Ln;
 import com.genymobile.scrcpy.util.LogUtils;
 import com.genymobile.scrcpy.video.SurfaceCapture;
+import com.genymobile.scrcpy.video.SurfaceEncoder;
 import com.genymobile.scrcpy.video.VirtualDisplayListener;
 import com.genymobile.scrcpy.wrappers.ClipboardManager;
 import com.genymobile.scrcpy.wrappers.InputManager;
@@ -27,12 +29,15 @@ import android.view.KeyEvent;
 import android.view.MotionEvent;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 public class Controller implements AsyncProcessor, VirtualDisplayListener {
@@ -71,7 +76,10 @@ public class Controller implements AsyncProcessor, VirtualDisplayListener {
     private ExecutorService startAppExecutor;
 
     private Thread thread;
+    // Slow commands are handled in a background lane, so that they never delay input events
+    private final ControlLanes lanes = new ControlLanes(this::handleInputMessage, this::handleBackgroundMessage, this::onBackgroundError);
 
+    // Guarded by this
     private UhidManager uhidManager;
 
     private final int displayId;
@@ -80,11 +88,19 @@ public class Controller implements AsyncProcessor, VirtualDisplayListener {
     private final CleanUp cleanUp;
     private final DeviceMessageSender sender;
     private final boolean clipboardAutosync;
+    private final boolean clipboardChunked;
     private final boolean powerOn;
 
     private final KeyCharacterMap charMap = KeyCharacterMap.load(KeyCharacterMap.VIRTUAL_KEYBOARD);
+    // Only accessed from the input lane
+    private final KeyStrokeTable keyStrokes = new KeyStrokeTable(this::resolveKeyStrokes);
 
     private final AtomicBoolean isSettingClipboard = new AtomicBoolean();
+    // Hash of the clipboard content last synchronized (in either direction), to never resend an unchanged content
+    private final AtomicLong lastClipboardHash = new AtomicLong(ClipboardTransfer.NO_HASH);
+    private final Counter unchangedClipboards = Metrics.counter("control.clipboard.unchanged");
+    // Only accessed from the background lane
+    private final ClipboardTransfer.Receiver clipboardReceiver = new ClipboardTransfer.Receiver();
 
     private final AtomicReference<DisplayData> displayData = new AtomicReference<>();
     private final Object displayDataAvailable = new Object(); // condition variable
@@ -93,18 +109,36 @@ public class Controller implements AsyncProcessor, VirtualDisplayListener {
     private final PointersState pointersState = new PointersState();
     private final MotionEvent.PointerProperties[] pointerProperties = new MotionEvent.PointerProperties[PointersState.MAX_POINTERS];
     private final MotionEvent.PointerCoords[] pointerCoords = new MotionEvent.PointerCoords[PointersState.MAX_POINTERS];
+    // Device coordinates of the last mapped position (reused to avoid allocations)
+    private final float[] mappedPoint = new float[2];
 
-    private boolean keepDisplayPowerOff;
+    // Coalesce consecutive move events into a single MotionEvent (null if disabled)
+    private final TouchMoveBatcher moveBatcher;
+    private MotionEvent pendingMoveEvent;
+
+    private final int statsIntervalMs;
+    private ScheduledFuture<?> statsFuture;
+    // Handling duration per message type (created lazily)
+    private final Histogram[] handleDurations = new Histogram[32];
+
+    // Written by the background lane, read by the input lane
+    private volatile boolean keepDisplayPowerOff;
 
     // Used for resetting video encoding on RESET_VIDEO message
     private SurfaceCapture surfaceCapture;
+    // Used for requesting a key frame on REQUEST_KEY_FRAME message, and for changing the video settings at runtime
+    private SurfaceEncoder surfaceEncoder;
 
     public Controller(ControlChannel controlChannel, CleanUp cleanUp, Options options) {
         this.displayId = options.getDisplayId();
         this.controlChannel = controlChannel;
         this.cleanUp = cleanUp;
         this.clipboardAutosync = options.getClipboardAutosync();
+        this.clipboardChunked = options.getClipboardChunked();
         this.powerOn = options.getPowerOn();
+        int touchMoveBatchMs = options.getTouchMoveBatchMs();
+        moveBatcher = touchMoveBatchMs > 0 ? new TouchMoveBatcher(touchMoveBatchMs, createMoveBatcherSink()) : null;
+        this.statsIntervalMs = options.getStatsIntervalMs();
         initPointers();
         sender = new DeviceMessageSender(controlChannel);
 
@@ -126,8 +160,7 @@ public class Controller implements AsyncProcessor, VirtualDisplayListener {
                         }
                         String text = Device.getClipboardText();
                         if (text != null) {
-                            DeviceMessage msg = DeviceMessage.createClipboard(text);
-                            sender.send(msg);
+                            sendClipboard(text, true);
                         }
                     }
                 });
@@ -153,7 +186,12 @@ public class Controller implements AsyncProcessor, VirtualDisplayListener {
         this.surfaceCapture = surfaceCapture;
     }
 
-    private UhidManager getUhidManager() {
+    public void setSurfaceEncoder(SurfaceEncoder surfaceEncoder) {
+        this.surfaceEncoder = surfaceEncoder;
+    }
+
+    // Called from both lanes
+    private synchronized UhidManager getUhidManager() {
         if (uhidManager == null) {
             uhidManager = new UhidManager(sender);
         }
@@ -204,41 +242,125 @@ public class Controller implements AsyncProcessor, VirtualDisplayListener {
                 Ln.e("Controller error", e);
             } finally {
                 Ln.d("Controller stopped");
-                if (uhidManager != null) {
-                    uhidManager.closeAll();
-                }
+                stopLanes();
                 listener.onTerminated(true);
             }
         }, "control-recv");
         thread.start();
+        lanes.start();
         sender.start();
+
+        if (statsIntervalMs > 0) {
+            statsFuture = EXECUTOR.scheduleAtFixedRate(this::sendStats, statsIntervalMs, statsIntervalMs, TimeUnit.MILLISECONDS);
+        }
     }
 
     @Override
     public void stop() {
+        if (statsFuture != null) {
+            statsFuture.cancel(false);
+        }
         if (thread != null) {
             thread.interrupt();
         }
+        lanes.stop();
         sender.stop();
     }
 
+    private void onBackgroundError(IOException error) {
+        Ln.e("Controller error", error);
+        try {
+            // Make the receiving thread stop immediately, rather than on the next message
+            controlChannel.shutdownInput();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    private void stopLanes() {
+        lanes.stop();
+
+        // The background lane may be opening a UHID device: wait for it to terminate before closing all the devices
+        boolean interrupted = false;
+        boolean joined = false;
+        while (!joined) {
+            try {
+                lanes.join();
+                joined = true;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (this) {
+            if (uhidManager != null) {
+                uhidManager.closeAll();
+            }
+        }
+    }
+
+    private void sendStats() {
+        DeviceMessage msg = DeviceMessage.createStats(Metrics.serializeSnapshot());
+        sender.send(msg);
+    }
+
+    private void recordHandleDuration(int type, long durationNs) {
+        if (type >= handleDurations.length) {
+            return;
+        }
+        Histogram histogram = handleDurations[type];
+        if (histogram == null) {
+            histogram = Metrics.histogram("control.handle_us." + type);
+            handleDurations[type] = histogram;
+        }
+        histogram.record(durationNs / 1000);
+    }
+
     @Override
     public void join() throws InterruptedException {
         if (thread != null) {
             thread.join();
         }
+        lanes.join();
         sender.join();
     }
 
     private boolean handleEvent() throws IOException {
         ControlMessage msg;
         try {
+            if (moveBatcher != null && moveBatcher.hasPending()
+                    && (!controlChannel.hasPendingMessage() || moveBatcher.isExpired(SystemClock.uptimeMillis()))) {
+                // Do not delay the pending moves while waiting for the next message (a pending message is received without blocking, so the
+                // pending moves are never delayed by more than the time budget)
+                flushPendingMoves();
+            }
+
             msg = controlChannel.recv();
         } catch (IOException e) {
             // this is expected on close
             return false;
         }
 
+        if (moveBatcher != null && msg.getType() != ControlMessage.TYPE_INJECT_TOUCH_EVENT) {
+            // Preserve the order of events
+            flushPendingMoves();
+        }
+
+        try {
+            lanes.dispatch(msg);
+        } catch (InterruptedException e) {
+            // this is expected on close
+            return false;
+        }
+        return true;
+    }
+
+    private void handleInputMessage(ControlMessage msg) throws IOException {
+        long startNs = System.nanoTime();
+
         switch (msg.getType()) {
             case ControlMessage.TYPE_INJECT_KEYCODE:
                 if (supportsInputEvents) {
@@ -252,12 +374,13 @@ public class Controller implements AsyncProcessor, VirtualDisplayListener {
                 break;
             case ControlMessage.TYPE_INJECT_TOUCH_EVENT:
                 if (supportsInputEvents) {
-                    injectTouch(msg.getAction(), msg.getPointerId(), msg.getPosition(), msg.getPressure(), msg.getActionButton(), msg.getButtons());
+                    injectTouch(msg);
                 }
                 break;
             case ControlMessage.TYPE_INJECT_SCROLL_EVENT:
                 if (supportsInputEvents) {
-                    injectScroll(msg.getPosition(), msg.getHScroll(), msg.getVScroll(), msg.getButtons());
+                    injectScroll(msg.getPositionX(), msg.getPositionY(), msg.getScreenWidth(), msg.getScreenHeight(), msg.getHScroll(),
+                            msg.getVScroll(), msg.getButtons());
                 }
                 break;
             case ControlMessage.TYPE_BACK_OR_SCREEN_ON:
@@ -265,6 +388,20 @@ public class Controller implements AsyncProcessor, VirtualDisplayListener {
                     pressBackOrTurnScreenOn(msg.getAction());
                 }
                 break;
+            case ControlMessage.TYPE_UHID_INPUT:
+                getUhidManager().writeInput(msg.getId(), msg.getData());
+                break;
+            default:
+                throw new AssertionError("Not an input message: " + msg.getType());
+        }
+
+        recordHandleDuration(msg.getType(), System.nanoTime() - startNs);
+    }
+
+    private void handleBackgroundMessage(ControlMessage msg) throws IOException {
+        long startNs = System.nanoTime();
+
+        switch (msg.getType()) {
             case ControlMessage.TYPE_EXPAND_NOTIFICATION_PANEL:
                 Device.expandNotificationPanel();
                 break;
@@ -278,7 +415,15 @@ public class Controller implements AsyncProcessor, VirtualDisplayListener {
                 getClipboard(msg.getCopyKey());
                 break;
             case ControlMessage.TYPE_SET_CLIPBOARD:
-                setClipboard(msg.getText(), msg.getPaste(), msg.getSequence());
+                String text = msg.getText();
+                long hash = ClipboardTransfer.hash(text.getBytes(StandardCharsets.UTF_8));
+                setClipboard(text, hash, msg.getPaste(), msg.getSequence());
+                break;
+            case ControlMessage.TYPE_SET_CLIPBOARD_CHUNK:
+                byte[] content = clipboardReceiver.receive(msg);
+                if (content != null) {
+                    setClipboard(new String(content, StandardCharsets.UTF_8), msg.getHash(), msg.getPaste(), msg.getSequence());
+                }
                 break;
             case ControlMessage.TYPE_SET_DISPLAY_POWER:
                 if (supportsInputEvents && displayId != Device.DISPLAY_ID_NONE) {
@@ -291,9 +436,6 @@ public class Controller implements AsyncProcessor, VirtualDisplayListener {
             case ControlMessage.TYPE_UHID_CREATE:
                 getUhidManager().open(msg.getId(), msg.getText(), msg.getData());
                 break;
-            case ControlMessage.TYPE_UHID_INPUT:
-                getUhidManager().writeInput(msg.getId(), msg.getData());
-                break;
             case ControlMessage.TYPE_UHID_DESTROY:
                 getUhidManager().close(msg.getId());
                 break;
@@ -306,11 +448,19 @@ public class Controller implements AsyncProcessor, VirtualDisplayListener {
             case ControlMessage.TYPE_RESET_VIDEO:
                 resetVideo();
                 break;
+            case ControlMessage.TYPE_REQUEST_KEY_FRAME:
+                requestKeyFrame();
+                break;
+            case ControlMessage.TYPE_SET_VIDEO_BIT_RATE:
+            case ControlMessage.TYPE_SET_MAX_FPS:
+            case ControlMessage.TYPE_SET_MAX_SIZE:
+                reconfigureVideo(msg);
+                break;
             default:
                 // do nothing
         }
 
-        return true;
+        recordHandleDuration(msg.getType(), System.nanoTime() - startNs);
     }
 
     private boolean injectKeycode(int action, int keycode, int repeat, int metaState) {
@@ -321,17 +471,34 @@ public class Controller implements AsyncProcessor, VirtualDisplayListener {
         return injectKeyEvent(action, keycode, repeat, metaState, Device.INJECT_MODE_ASYNC);
     }
 
-    private boolean injectChar(char c) {
-        String decomposed = KeyComposition.decompose(c);
-        char[] chars = decomposed != null ? decomposed.toCharArray() : new char[]{c};
+    private int[] resolveKeyStrokes(char[] chars) {
         KeyEvent[] events = charMap.getEvents(chars);
         if (events == null) {
+            return null;
+        }
+
+        int[] strokes = new int[events.length * KeyStrokeTable.STROKE_SIZE];
+        for (int i = 0; i < events.length; ++i) {
+            KeyEvent event = events[i];
+            int offset = i * KeyStrokeTable.STROKE_SIZE;
+            strokes[offset + KeyStrokeTable.STROKE_ACTION] = event.getAction();
+            strokes[offset + KeyStrokeTable.STROKE_KEY_CODE] = event.getKeyCode();
+            strokes[offset + KeyStrokeTable.STROKE_META_STATE] = event.getMetaState();
+        }
+        return strokes;
+    }
+
+    private boolean injectChar(char c, int actionDisplayId) {
+        int[] strokes = keyStrokes.get(c);
+        if (strokes == null) {
             return false;
         }
 
-        int actionDisplayId = getActionDisplayId();
-        for (KeyEvent event : events) {
-            if (!Device.injectEvent(event, actionDisplayId, Device.INJECT_MODE_ASYNC)) {
+        for (int offset = 0; offset < strokes.length; offset += KeyStrokeTable.STROKE_SIZE) {
+            int action = strokes[offset + KeyStrokeTable.STROKE_ACTION];
+            int keyCode = strokes[offset + KeyStrokeTable.STROKE_KEY_CODE];
+            int metaState = strokes[offset + KeyStrokeTable.STROKE_META_STATE];
+            if (!Device.injectKeyEvent(action, keyCode, 0, metaState, actionDisplayId, Device.INJECT_MODE_ASYNC)) {
                 return false;
             }
         }
@@ -339,9 +506,11 @@ public class Controller implements AsyncProcessor, VirtualDisplayListener {
     }
 
     private int injectText(String text) {
+        int actionDisplayId = getActionDisplayId();
         int successCount = 0;
-        for (char c : text.toCharArray()) {
-            if (!injectChar(c)) {
+        for (int i = 0; i < text.length(); ++i) {
+            char c = text.charAt(i);
+            if (!injectChar(c, actionDisplayId)) {
                 Ln.w("Could not inject char u+" + String.format("%04x", (int) c));
                 continue;
             }
@@ -350,20 +519,28 @@ public class Controller implements AsyncProcessor, VirtualDisplayListener {
         return successCount;
     }
 
-    private boolean injectTouch(int action, long pointerId, Position position, float pressure, int actionButton, int buttons) {
+    private boolean injectTouch(ControlMessage msg) {
         long now = SystemClock.uptimeMillis();
 
+        int action = msg.getAction();
+        long pointerId = msg.getPointerId();
+        int x = msg.getPositionX();
+        int y = msg.getPositionY();
+        int screenWidth = msg.getScreenWidth();
+        int screenHeight = msg.getScreenHeight();
+        float pressure = msg.getPressure();
+        int actionButton = msg.getActionButton();
+        int buttons = msg.getButtons();
+
         // it hides the field on purpose, to read it with atomic access
         @SuppressWarnings("checkstyle:HiddenField")
         DisplayData displayData = this.displayData.get();
         assert displayData != null : "Cannot receive a touch event without a display";
 
-        Point point = displayData.positionMapper.map(position);
-        if (point == null) {
+        if (!displayData.positionMapper.map(x, y, screenWidth, screenHeight, mappedPoint)) {
             if (Ln.isEnabled(Ln.Level.VERBOSE)) {
-                Size eventSize = position.getScreenSize();
                 Size currentSize = displayData.positionMapper.getVideoSize();
-                Ln.v("Ignore touch event generated for size " + eventSize + " (current size is " + currentSize + ")");
+                Ln.v("Ignore touch event generated for size " + screenWidth + "x" + screenHeight + " (current size is " + currentSize + ")");
             }
             return false;
         }
@@ -373,9 +550,8 @@ public class Controller implements AsyncProcessor, VirtualDisplayListener {
             Ln.w("Too many pointers for touch event");
             return false;
         }
-        Pointer pointer = pointersState.get(pointerIndex);
-        pointer.setPoint(point);
-        pointer.setPressure(pressure);
+        pointersState.setPoint(pointerIndex, mappedPoint[0], mappedPoint[1]);
+        pointersState.setPressure(pointerIndex, pressure);
 
         int source;
         boolean activeSecondaryButtons = ((actionButton | buttons) & ~MotionEvent.BUTTON_PRIMARY) != 0;
@@ -383,14 +559,14 @@ public class Controller implements AsyncProcessor, VirtualDisplayListener {
             // real mouse event, or event incompatible with a finger
             pointerProperties[pointerIndex].toolType = MotionEvent.TOOL_TYPE_MOUSE;
             source = InputDevice.SOURCE_MOUSE;
-            pointer.setUp(buttons == 0);
+            pointersState.setUp(pointerIndex, buttons == 0);
         } else {
             // POINTER_ID_GENERIC_FINGER, POINTER_ID_VIRTUAL_FINGER or real touch from device
             pointerProperties[pointerIndex].toolType = MotionEvent.TOOL_TYPE_FINGER;
             source = InputDevice.SOURCE_TOUCHSCREEN;
             // Buttons must not be set for touch events
             buttons = 0;
-            pointer.setUp(action == MotionEvent.ACTION_UP);
+            pointersState.setUp(pointerIndex, action == MotionEvent.ACTION_UP);
         }
 
         int pointerCount = pointersState.update(pointerProperties, pointerCoords);
@@ -407,6 +583,14 @@ public class Controller implements AsyncProcessor, VirtualDisplayListener {
             }
         }
 
+        if (moveBatcher != null) {
+            if (action == MotionEvent.ACTION_MOVE || action == MotionEvent.ACTION_HOVER_MOVE) {
+                return moveBatcher.move(now, action, pointerCount, pointerProperties, buttons, source, displayData.virtualDisplayId);
+            }
+            // Preserve the order of events (a failure to inject the pending moves must not prevent injecting this event)
+            flushPendingMoves();
+        }
+
         /* If the input device is a mouse (on API >= 23):
          *   - the first button pressed must first generate ACTION_DOWN;
          *   - all button pressed (including the first one) must generate ACTION_BUTTON_PRESS;
@@ -468,7 +652,35 @@ public class Controller implements AsyncProcessor, VirtualDisplayListener {
         return Device.injectEvent(event, displayData.virtualDisplayId, Device.INJECT_MODE_ASYNC);
     }
 
-    private boolean injectScroll(Position position, float hScroll, float vScroll, int buttons) {
+    private TouchMoveBatcher.Sink createMoveBatcherSink() {
+        return new TouchMoveBatcher.Sink() {
+            @Override
+            public void startBatch(long now, int action, int pointerCount, int buttons, int source) {
+                pendingMoveEvent = MotionEvent.obtain(lastTouchDown, now, action, pointerCount, pointerProperties, pointerCoords, 0, buttons, 1f,
+                        1f, DEFAULT_DEVICE_ID, 0, source, 0);
+            }
+
+            @Override
+            public void addSample(long now) {
+                pendingMoveEvent.addBatch(now, pointerCoords, 0);
+            }
+
+            @Override
+            public boolean injectBatch(int displayId) {
+                MotionEvent event = pendingMoveEvent;
+                pendingMoveEvent = null;
+                return Device.injectEvent(event, displayId, Device.INJECT_MODE_ASYNC);
+            }
+        };
+    }
+
+    private void flushPendingMoves() {
+        if (!moveBatcher.flush()) {
+            Ln.w("Could not inject touch move event");
+        }
+    }
+
+    private boolean injectScroll(int x, int y, int screenWidth, int screenHeight, float hScroll, float vScroll, int buttons) {
         long now = SystemClock.uptimeMillis();
 
         // it hides the field on purpose, to read it with atomic access
@@ -476,12 +688,10 @@ public class Controller implements AsyncProcessor, VirtualDisplayListener {
         DisplayData displayData = this.displayData.get();
         assert displayData != null : "Cannot receive a scroll event without a display";
 
-        Point point = displayData.positionMapper.map(position);
-        if (point == null) {
+        if (!displayData.positionMapper.map(x, y, screenWidth, screenHeight, mappedPoint)) {
             if (Ln.isEnabled(Ln.Level.VERBOSE)) {
-                Size eventSize = position.getScreenSize();
                 Size currentSize = displayData.positionMapper.getVideoSize();
-                Ln.v("Ignore scroll event generated for size " + eventSize + " (current size is " + currentSize + ")");
+                Ln.v("Ignore scroll event generated for size " + screenWidth + "x" + screenHeight + " (current size is " + currentSize + ")");
             }
             return false;
         }
@@ -490,8 +700,8 @@ public class Controller implements AsyncProcessor, VirtualDisplayListener {
         props.id = 0;
 
         MotionEvent.PointerCoords coords = pointerCoords[0];
-        coords.x = point.getX();
-        coords.y = point.getY();
+        coords.x = mappedPoint[0];
+        coords.y = mappedPoint[1];
         coords.setAxisValue(MotionEvent.AXIS_HSCROLL, hScroll);
         coords.setAxisValue(MotionEvent.AXIS_VSCROLL, vScroll);
 
@@ -543,18 +753,42 @@ public class Controller implements AsyncProcessor, VirtualDisplayListener {
         if (!clipboardAutosync) {
             String clipboardText = Device.getClipboardText();
             if (clipboardText != null) {
-                DeviceMessage msg = DeviceMessage.createClipboard(clipboardText);
-                sender.send(msg);
+                // Explicitly requested, so send it even if unchanged
+                sendClipboard(clipboardText, false);
             }
         }
     }
 
-    private boolean setClipboard(String text, boolean paste, long sequence) {
+    private void sendClipboard(String text, boolean onlyIfChanged) {
+        byte[] content = text.getBytes(StandardCharsets.UTF_8);
+        long hash = ClipboardTransfer.hash(content);
+        long previousHash = lastClipboardHash.getAndSet(hash);
+        if (onlyIfChanged && hash == previousHash) {
+            // For example, the content set by the client, notified asynchronously after isSettingClipboard has been reset
+            unchangedClipboards.increment();
+            return;
+        }
+
+        if (clipboardChunked) {
+            // Split into chunks by the sender (a newer content supersedes the remaining chunks)
+            sender.send(ClipboardTransfer.createTransfer(content, hash));
+        } else {
+            sender.send(DeviceMessage.createClipboard(text));
+        }
+    }
+
+    private boolean setClipboard(String text, long hash, boolean paste, long sequence) {
+        // The client already has this content, do not send it back. The hash must be stored before setting the clipboard: the listener
+        // may be notified after isSettingClipboard is reset.
+        long previousHash = lastClipboardHash.getAndSet(hash);
         isSettingClipboard.set(true);
         boolean ok = Device.setClipboardText(text);
         isSettingClipboard.set(false);
         if (ok) {
             Ln.i("Device clipboard set");
+        } else {
+            // Restore the previous hash, unless it has been changed concurrently
+            lastClipboardHash.compareAndSet(hash, previousHash);
         }
 
         // On Android >= 7, also press the PASTE key if requested
@@ -708,4 +942,35 @@ public class Controller implements AsyncProcessor, VirtualDisplayListener {
             surfaceCapture.requestInvalidate();
         }
     }
+
+    private void requestKeyFrame() {
+        if (surfaceEncoder != null) {
+            surfaceEncoder.getKeyFrameRequester().request(System.nanoTime());
+        }
+    }
+
+    private void reconfigureVideo(ControlMessage msg) {
+        boolean applied = false;
+        if (surfaceEncoder != null) {
+            switch (msg.getType()) {
+                case ControlMessage.TYPE_SET_VIDEO_BIT_RATE:
+                    applied = surfaceEncoder.setVideoBitRate(msg.getVideoBitRate());
+                    Ln.i("Video bit rate change to " + msg.getVideoBitRate() + (applied ? "" : " rejected"));
+                    break;
+                case ControlMessage.TYPE_SET_MAX_FPS:
+                    applied = surfaceEncoder.setMaxFps(msg.getMaxFps());
+                    Ln.i("Max fps change to " + msg.getMaxFps() + (applied ? "" : " rejected"));
+                    break;
+                case ControlMessage.TYPE_SET_MAX_SIZE:
+                    applied = surfaceEncoder.setMaxSize(msg.getMaxSize());
+                    Ln.i("Max size change to " + msg.getMaxSize() + (applied ? "" : " rejected"));
+                    break;
+                default:
+                    throw new AssertionError("Not a video configuration message: " + msg.getType());
+            }
+        }
+
+        DeviceMessage ack = DeviceMessage.createAckVideoConfig(msg.getSequence(), applied);
+        sender.send(ack);
+    }
 }
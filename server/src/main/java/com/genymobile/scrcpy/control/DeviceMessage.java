@@ -5,12 +5,19 @@ public final class DeviceMessage {
     public static final int TYPE_CLIPBOARD = 0;
     public static final int TYPE_ACK_CLIPBOARD = 1;
     public static final int TYPE_UHID_OUTPUT = 2;
+    public static final int TYPE_STATS = 3;
+    public static final int TYPE_ACK_VIDEO_CONFIG = 4;
+    public static final int TYPE_CLIPBOARD_CHUNK = 5;
 
     private int type;
     private String text;
     private long sequence;
     private int id;
     private byte[] data;
+    private boolean applied;
+    private long hash;
+    private int offset;
+    private int length;
 
     private DeviceMessage() {
     }
@@ -37,6 +44,50 @@ public final class DeviceMessage {
         return event;
     }
 
+    /**
+     * Create a stats message.
+     *
+     * @param data the serialized metrics (see {@link com.genymobile.scrcpy.metrics.Metrics#serializeSnapshot()})
+     */
+    public static DeviceMessage createStats(byte[] data) {
+        DeviceMessage event = new DeviceMessage();
+        event.type = TYPE_STATS;
+        event.data = data;
+        return event;
+    }
+
+    /**
+     * Create an acknowledgement of a video configuration change.
+     *
+     * @param sequence the sequence of the request
+     * @param applied {@code true} if the change was applied, {@code false} if it was rejected
+     */
+    public static DeviceMessage createAckVideoConfig(long sequence, boolean applied) {
+        DeviceMessage event = new DeviceMessage();
+        event.type = TYPE_ACK_VIDEO_CONFIG;
+        event.sequence = sequence;
+        event.applied = applied;
+        return event;
+    }
+
+    /**
+     * Create a chunk of a clipboard content (see {@link ClipboardTransfer}).
+     *
+     * @param hash the hash of the whole content
+     * @param content the whole content (UTF-8), shared by all the chunks
+     * @param offset the offset of the chunk in the content
+     * @param length the length of the chunk
+     */
+    public static DeviceMessage createClipboardChunk(long hash, byte[] content, int offset, int length) {
+        DeviceMessage event = new DeviceMessage();
+        event.type = TYPE_CLIPBOARD_CHUNK;
+        event.hash = hash;
+        event.data = content;
+        event.offset = offset;
+        event.length = length;
+        return event;
+    }
+
     public int getType() {
         return type;
     }
@@ -56,4 +107,20 @@ public final class DeviceMessage {
     public byte[] getData() {
         return data;
     }
+
+    public boolean getApplied() {
+        return applied;
+    }
+
+    public long getHash() {
+        return hash;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
 }
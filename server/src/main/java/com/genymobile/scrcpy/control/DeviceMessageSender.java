@@ -1,32 +1,255 @@
 package com.genymobile.scrcpy.control;
 
+import com.genymobile.scrcpy.metrics.Counter;
+import com.genymobile.scrcpy.metrics.Gauge;
+import com.genymobile.scrcpy.metrics.Metrics;
 import com.genymobile.scrcpy.util.Ln;
 
 import java.io.IOException;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.ArrayDeque;
+import java.util.Iterator;
 
+/**
+ * Send device messages from a dedicated thread.
+ * <p>
+ * The queue applies a policy depending on the message type:
+ * <ul>
+ *     <li>acknowledgements are never dropped;</li>
+ *     <li>for clipboard content, only the latest one matters: if a previous one is still queued, it is replaced (at its position in the
+ *     queue);</li>
+ *     <li>a chunked clipboard transfer is split when it is written: after each chunk, the remaining part is queued again at the end (so that
+ *     the other messages are interleaved), unless a newer transfer has been queued in the meantime (the client discards the incomplete
+ *     one);</li>
+ *     <li>stats are dropped if the queue is congested.</li>
+ * </ul>
+ * The queue is bounded, and the producers never wait. If it is full, a queued stats message is dropped to make room; otherwise, a UHID
+ * output report replaces the queued report for the same device (only the latest state matters); otherwise, the new message is dropped.
+ * Some slots are reserved for the acknowledgements, which are always queued.
+ * <p>
+ * The pending messages are written in a batch, flushed once (or whenever the batch exceeds a byte budget).
+ */
 public final class DeviceMessageSender {
 
-    private final ControlChannel controlChannel;
+    interface Output {
+        /**
+         * Write a message.
+         *
+         * @return the size of the serialized message, in bytes
+         */
+        int send(DeviceMessage msg, boolean flush) throws IOException;
+
+        void flush() throws IOException;
+    }
+
+    static final int POLICY_RELIABLE = 0;
+    static final int POLICY_LATEST = 1;
+    static final int POLICY_DROPPABLE = 2;
+    static final int POLICY_COALESCED = 3;
+
+    // Droppable messages are dropped if there are already this number of messages in the queue
+    static final int DROPPABLE_QUEUE_LIMIT = 16;
+    // Limit of the queue size
+    static final int QUEUE_LIMIT = 256;
+    // Number of slots only usable by the acknowledgements
+    static final int ACK_RESERVED_SLOTS = 16;
+    // Flush at least once per this number of bytes
+    private static final int FLUSH_BUDGET = 16 * 1024;
+
+    private final Output output;
 
     private Thread thread;
-    private final BlockingQueue<DeviceMessage> queue = new ArrayBlockingQueue<>(16);
+
+    // All fields below are guarded by queue
+    private final ArrayDeque<DeviceMessage> queue = new ArrayDeque<>();
+    // For each type with the POLICY_LATEST policy, the latest message (or null if none is queued). The queue contains the first message
+    // of the type, but it is replaced by the latest one when it is dequeued.
+    private final DeviceMessage[] latest = new DeviceMessage[DeviceMessage.TYPE_CLIPBOARD_CHUNK + 1];
+
+    private final Counter droppedMessages = Metrics.counter("control.sender.dropped");
+    private final Counter supersededMessages = Metrics.counter("control.sender.superseded");
+    private final Counter coalescedMessages = Metrics.counter("control.sender.coalesced");
+    private final Gauge queueDepth = Metrics.gauge("control.sender.queue_depth");
 
     public DeviceMessageSender(ControlChannel controlChannel) {
-        this.controlChannel = controlChannel;
+        this(new Output() {
+            @Override
+            public int send(DeviceMessage msg, boolean flush) throws IOException {
+                return controlChannel.send(msg, flush);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                controlChannel.flush();
+            }
+        });
     }
 
+    DeviceMessageSender(Output output) {
+        this.output = output;
+    }
+
+    static int getPolicy(int type) {
+        switch (type) {
+            case DeviceMessage.TYPE_CLIPBOARD:
+            case DeviceMessage.TYPE_CLIPBOARD_CHUNK:
+                return POLICY_LATEST;
+            case DeviceMessage.TYPE_STATS:
+                return POLICY_DROPPABLE;
+            case DeviceMessage.TYPE_UHID_OUTPUT:
+                return POLICY_COALESCED;
+            default:
+                // Acknowledgements
+                return POLICY_RELIABLE;
+        }
+    }
+
+    /**
+     * Queue a message (from any thread).
+     * <p>
+     * This method never blocks: if the queue is full, a message is dropped according to the policies.
+     */
     public void send(DeviceMessage msg) {
-        if (!queue.offer(msg)) {
-            Ln.w("Device message dropped: " + msg.getType());
+        int type = msg.getType();
+        int policy = getPolicy(type);
+        synchronized (queue) {
+            switch (policy) {
+                case POLICY_LATEST:
+                    if (latest[type] != null) {
+                        // Already queued, only the content is replaced
+                        latest[type] = msg;
+                        supersededMessages.increment();
+                        return;
+                    }
+                    break;
+                case POLICY_DROPPABLE:
+                    if (queue.size() >= DROPPABLE_QUEUE_LIMIT) {
+                        drop(msg);
+                        return;
+                    }
+                    break;
+                default:
+                    break;
+            }
+
+            // Acknowledgements may use the reserved slots, and are never dropped: they only answer client requests, so they are bounded
+            if (policy != POLICY_RELIABLE && queue.size() >= QUEUE_LIMIT - ACK_RESERVED_SLOTS && !makeRoom(msg)) {
+                drop(msg);
+                return;
+            }
+
+            if (policy == POLICY_LATEST) {
+                latest[type] = msg;
+            }
+            queue.addLast(msg);
+            queueDepth.set(queue.size());
+            if (queue.size() == 1) {
+                queue.notifyAll();
+            }
+        }
+    }
+
+    private boolean makeRoom(DeviceMessage msg) {
+        // Must be called with the lock held
+        if (removeFirst(DeviceMessage.TYPE_STATS, -1)) {
+            droppedMessages.increment();
+            return true;
+        }
+
+        if (msg.getType() == DeviceMessage.TYPE_UHID_OUTPUT && removeFirst(DeviceMessage.TYPE_UHID_OUTPUT, msg.getId())) {
+            // The new report is queued at the end, in place of the previous report for the same device
+            coalescedMessages.increment();
+            return true;
         }
+
+        return false;
     }
 
-    private void loop() throws IOException, InterruptedException {
+    private boolean removeFirst(int type, int id) {
+        // Must be called with the lock held (id is -1 to match any message of the type)
+        Iterator<DeviceMessage> it = queue.iterator();
+        while (it.hasNext()) {
+            DeviceMessage queued = it.next();
+            if (queued.getType() == type && (id == -1 || queued.getId() == id)) {
+                it.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void drop(DeviceMessage msg) {
+        droppedMessages.increment();
+        Ln.v("Device message dropped: " + msg.getType());
+    }
+
+    private DeviceMessage poll() {
+        // Must be called with the lock held
+        DeviceMessage msg = queue.pollFirst();
+        if (msg != null) {
+            int type = msg.getType();
+            if (getPolicy(type) == POLICY_LATEST) {
+                msg = latest[type];
+                latest[type] = null;
+            }
+            queueDepth.set(queue.size());
+        }
+        return msg;
+    }
+
+    private DeviceMessage take() throws InterruptedException {
+        synchronized (queue) {
+            DeviceMessage msg;
+            while ((msg = poll()) == null) {
+                queue.wait();
+            }
+            return msg;
+        }
+    }
+
+    private DeviceMessage pollNext() {
+        synchronized (queue) {
+            return poll();
+        }
+    }
+
+    private DeviceMessage splitTransfer(DeviceMessage transfer) {
+        DeviceMessage remaining = ClipboardTransfer.getRemaining(transfer);
+        if (remaining != null) {
+            int type = DeviceMessage.TYPE_CLIPBOARD_CHUNK;
+            synchronized (queue) {
+                if (latest[type] != null) {
+                    // A newer transfer is queued
+                    supersededMessages.increment();
+                } else {
+                    // It replaces the transfer just dequeued, so the queue limit is not exceeded
+                    latest[type] = remaining;
+                    queue.addLast(remaining);
+                    queueDepth.set(queue.size());
+                }
+            }
+        }
+        return ClipboardTransfer.splitFirstChunk(transfer);
+    }
+
+    void loop() throws IOException, InterruptedException {
         while (!Thread.currentThread().isInterrupted()) {
-            DeviceMessage msg = queue.take();
-            controlChannel.send(msg);
+            DeviceMessage msg = take();
+            // Send all the pending messages with a single flush (or one flush per budget)
+            int unflushed = 0;
+            do {
+                if (msg.getType() == DeviceMessage.TYPE_CLIPBOARD_CHUNK) {
+                    msg = splitTransfer(msg);
+                }
+                unflushed += output.send(msg, false);
+                if (unflushed >= FLUSH_BUDGET) {
+                    output.flush();
+                    unflushed = 0;
+                }
+            } while ((msg = pollNext()) != null);
+
+            if (unflushed > 0) {
+                output.flush();
+            }
         }
     }
 
@@ -20,8 +20,23 @@ public class DeviceMessageWriter {
     }
 
     public void write(DeviceMessage msg) throws IOException {
+        write(msg, true);
+    }
+
+    /**
+     * Serialize a device message.
+     * <p>
+     * Several messages may be written with {@code flush} set to {@code false}, then flushed at once, to send them in a single write to the
+     * socket.
+     *
+     * @param msg the message
+     * @param flush {@code true} to flush the stream after the message
+     * @return the size of the serialized message, in bytes
+     */
+    public int write(DeviceMessage msg, boolean flush) throws IOException {
         int type = msg.getType();
         dos.writeByte(type);
+        int size;
         switch (type) {
             case DeviceMessage.TYPE_CLIPBOARD:
                 String text = msg.getText();
@@ -29,19 +44,49 @@ public class DeviceMessageWriter {
                 int len = StringUtils.getUtf8TruncationIndex(raw, CLIPBOARD_TEXT_MAX_LENGTH);
                 dos.writeInt(len);
                 dos.write(raw, 0, len);
+                size = 5 + len;
                 break;
             case DeviceMessage.TYPE_ACK_CLIPBOARD:
                 dos.writeLong(msg.getSequence());
+                size = 9;
                 break;
             case DeviceMessage.TYPE_UHID_OUTPUT:
                 dos.writeShort(msg.getId());
                 byte[] data = msg.getData();
                 dos.writeShort(data.length);
                 dos.write(data);
+                size = 5 + data.length;
+                break;
+            case DeviceMessage.TYPE_STATS:
+                byte[] stats = msg.getData();
+                dos.writeInt(stats.length);
+                dos.write(stats);
+                size = 5 + stats.length;
+                break;
+            case DeviceMessage.TYPE_ACK_VIDEO_CONFIG:
+                dos.writeLong(msg.getSequence());
+                dos.writeBoolean(msg.getApplied());
+                size = 10;
+                break;
+            case DeviceMessage.TYPE_CLIPBOARD_CHUNK:
+                byte[] content = msg.getData();
+                dos.writeLong(msg.getHash());
+                dos.writeInt(content.length);
+                dos.writeInt(msg.getOffset());
+                dos.writeInt(msg.getLength());
+                dos.write(content, msg.getOffset(), msg.getLength());
+                size = 21 + msg.getLength();
                 break;
             default:
                 throw new ControlProtocolException("Unknown event type: " + type);
         }
+        if (flush) {
+            dos.flush();
+        }
+        return size;
+    }
+
+    public void flush() throws IOException {
         dos.flush();
     }
 }
@@ -1,7 +1,8 @@
 package com.genymobile.scrcpy.control;
 
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Decompose accented characters.
@@ -15,44 +16,96 @@ import java.util.Map;
  */
 public final class KeyComposition {
 
-    private static final String KEY_DEAD_GRAVE = "\u0300";
-    private static final String KEY_DEAD_ACUTE = "\u0301";
-    private static final String KEY_DEAD_CIRCUMFLEX = "\u0302";
-    private static final String KEY_DEAD_TILDE = "\u0303";
-    private static final String KEY_DEAD_UMLAUT = "\u0308";
-
-    private static final Map<Character, String> COMPOSITION_MAP = createDecompositionMap();
+    private static final char KEY_DEAD_GRAVE = '\u0300';
+    private static final char KEY_DEAD_ACUTE = '\u0301';
+    private static final char KEY_DEAD_CIRCUMFLEX = '\u0302';
+    private static final char KEY_DEAD_TILDE = '\u0303';
+    private static final char KEY_DEAD_UMLAUT = '\u0308';
+
+    // Primitive lookup table: the composed characters (sorted, for binary search), and their decomposition at the same index, packed as
+    // (deadKey << 16) | baseChar
+    private static final char[] COMPOSED_CHARS;
+    private static final int[] DECOMPOSITIONS;
+
+    static {
+        Map<Character, Integer> map = createDecompositionMap();
+        COMPOSED_CHARS = new char[map.size()];
+        DECOMPOSITIONS = new int[map.size()];
+        int i = 0;
+        for (Map.Entry<Character, Integer> entry : map.entrySet()) {
+            COMPOSED_CHARS[i] = entry.getKey();
+            DECOMPOSITIONS[i] = entry.getValue();
+            ++i;
+        }
+    }
 
     private KeyComposition() {
         // not instantiable
     }
 
     public static String decompose(char c) {
-        return COMPOSITION_MAP.get(c);
+        char deadKey = getDeadKey(c);
+        if (deadKey == 0) {
+            return null;
+        }
+        return new String(new char[] {deadKey, getBaseChar(c)});
+    }
+
+    /**
+     * Return the dead key to type before the base character to compose {@code c}.
+     *
+     * @param c the character
+     * @return the dead key, or 0 if {@code c} is not a composed character
+     */
+    public static char getDeadKey(char c) {
+        int index = Arrays.binarySearch(COMPOSED_CHARS, c);
+        if (index < 0) {
+            return 0;
+        }
+        return (char) (DECOMPOSITIONS[index] >>> 16);
+    }
+
+    /**
+     * Return the base character of {@code c}.
+     *
+     * @param c the character
+     * @return the base character, or {@code c} itself if it is not a composed character
+     */
+    public static char getBaseChar(char c) {
+        int index = Arrays.binarySearch(COMPOSED_CHARS, c);
+        if (index < 0) {
+            return c;
+        }
+        return (char) DECOMPOSITIONS[index];
+    }
+
+    private static int compose(char deadKey, char c) {
+        return (deadKey << 16) | c;
     }
 
-    private static String grave(char c) {
-        return KEY_DEAD_GRAVE + c;
+    private static int grave(char c) {
+        return compose(KEY_DEAD_GRAVE, c);
     }
 
-    private static String acute(char c) {
-        return KEY_DEAD_ACUTE + c;
+    private static int acute(char c) {
+        return compose(KEY_DEAD_ACUTE, c);
     }
 
-    private static String circumflex(char c) {
-        return KEY_DEAD_CIRCUMFLEX + c;
+    private static int circumflex(char c) {
+        return compose(KEY_DEAD_CIRCUMFLEX, c);
     }
 
-    private static String tilde(char c) {
-        return KEY_DEAD_TILDE + c;
+    private static int tilde(char c) {
+        return compose(KEY_DEAD_TILDE, c);
     }
 
-    private static String umlaut(char c) {
-        return KEY_DEAD_UMLAUT + c;
+    private static int umlaut(char c) {
+        return compose(KEY_DEAD_UMLAUT, c);
     }
 
-    private static Map<Character, String> createDecompositionMap() {
-        Map<Character, String> map = new HashMap<>();
+    private static Map<Character, Integer> createDecompositionMap() {
+        // Sorted by key
+        Map<Character, Integer> map = new TreeMap<>();
         map.put('À', grave('A'));
         map.put('È', grave('E'));
         map.put('Ì', grave('I'));
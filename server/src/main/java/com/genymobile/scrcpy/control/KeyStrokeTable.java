@@ -0,0 +1,78 @@
+package com.genymobile.scrcpy.control;
+
+/**
+ * Cache of the key strokes to inject to type each character.
+ * <p>
+ * Resolving the key events for a character (via {@link android.view.KeyCharacterMap#getEvents(char[]) KeyCharacterMap.getEvents()}) is
+ * expensive, so it is done only once per character. The result is stored in a primitive table indexed by character: for each key event,
+ * the action, the key code and the meta state.
+ * <p>
+ * The table is split in pages of 256 characters, allocated on first use.
+ */
+final class KeyStrokeTable {
+
+    interface Resolver {
+        /**
+         * Resolve the key events to type a sequence of characters.
+         *
+         * @param chars the characters
+         * @return the key strokes, as {@link #STROKE_SIZE} values per key event (action, key code, meta state), or {@code null} if the
+         * characters cannot be typed
+         */
+        int[] resolve(char[] chars);
+    }
+
+    static final int STROKE_SIZE = 3;
+    static final int STROKE_ACTION = 0;
+    static final int STROKE_KEY_CODE = 1;
+    static final int STROKE_META_STATE = 2;
+
+    private static final int[] UNSUPPORTED = new int[0];
+
+    private final Resolver resolver;
+    private final int[][][] pages = new int[256][][];
+
+    // Reused for resolving
+    private final char[] singleChar = new char[1];
+    private final char[] composedChar = new char[2];
+
+    KeyStrokeTable(Resolver resolver) {
+        this.resolver = resolver;
+    }
+
+    /**
+     * Return the key strokes to type a character.
+     *
+     * @param c the character
+     * @return the key strokes ({@link #STROKE_SIZE} values per key event), or {@code null} if the character cannot be typed
+     */
+    int[] get(char c) {
+        int[][] page = pages[c >>> 8];
+        if (page == null) {
+            page = new int[256][];
+            pages[c >>> 8] = page;
+        }
+
+        int[] strokes = page[c & 0xff];
+        if (strokes == null) {
+            strokes = resolve(c);
+            if (strokes == null) {
+                strokes = UNSUPPORTED;
+            }
+            page[c & 0xff] = strokes;
+        }
+
+        return strokes != UNSUPPORTED ? strokes : null;
+    }
+
+    private int[] resolve(char c) {
+        char deadKey = KeyComposition.getDeadKey(c);
+        if (deadKey != 0) {
+            composedChar[0] = deadKey;
+            composedChar[1] = KeyComposition.getBaseChar(c);
+            return resolver.resolve(composedChar);
+        }
+        singleChar[0] = c;
+        return resolver.resolve(singleChar);
+    }
+}
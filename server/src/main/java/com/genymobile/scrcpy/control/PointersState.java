@@ -1,49 +1,40 @@
 package com.genymobile.scrcpy.control;
 
-import com.genymobile.scrcpy.device.Point;
-
 import android.view.MotionEvent;
 
-import java.util.ArrayList;
-import java.util.List;
-
+/**
+ * State of the active pointers, stored in parallel primitive arrays (indexed by pointer index) to avoid any allocation on event injection.
+ */
 public class PointersState {
 
     public static final int MAX_POINTERS = 10;
 
-    private final List<Pointer> pointers = new ArrayList<>();
+    // Pointer ids as received from the client
+    private final long[] ids = new long[MAX_POINTERS];
+    // Local pointer ids, using the lowest possible values to fill the MotionEvent.PointerProperties
+    private final int[] localIds = new int[MAX_POINTERS];
+    private final float[] xs = new float[MAX_POINTERS];
+    private final float[] ys = new float[MAX_POINTERS];
+    private final float[] pressures = new float[MAX_POINTERS];
+    private final boolean[] ups = new boolean[MAX_POINTERS];
+
+    private int count;
+    // Bit i is set if the local id i is used
+    private int usedLocalIds;
 
     private int indexOf(long id) {
-        for (int i = 0; i < pointers.size(); ++i) {
-            Pointer pointer = pointers.get(i);
-            if (pointer.getId() == id) {
+        for (int i = 0; i < count; ++i) {
+            if (ids[i] == id) {
                 return i;
             }
         }
         return -1;
     }
 
-    private boolean isLocalIdAvailable(int localId) {
-        for (int i = 0; i < pointers.size(); ++i) {
-            Pointer pointer = pointers.get(i);
-            if (pointer.getLocalId() == localId) {
-                return false;
-            }
-        }
-        return true;
-    }
-
     private int nextUnusedLocalId() {
-        for (int localId = 0; localId < MAX_POINTERS; ++localId) {
-            if (isLocalIdAvailable(localId)) {
-                return localId;
-            }
-        }
-        return -1;
-    }
-
-    public Pointer get(int index) {
-        return pointers.get(index);
+        // Lowest unset bit
+        int localId = Integer.numberOfTrailingZeros(~usedLocalIds);
+        return localId < MAX_POINTERS ? localId : -1;
     }
 
     public int getPointerIndex(long id) {
@@ -52,19 +43,50 @@ public class PointersState {
             // already exists, return it
             return index;
         }
-        if (pointers.size() >= MAX_POINTERS) {
+        if (count >= MAX_POINTERS) {
             // it's full
             return -1;
         }
-        // id 0 is reserved for mouse events
         int localId = nextUnusedLocalId();
         if (localId == -1) {
-            throw new AssertionError("pointers.size() < maxFingers implies that a local id is available");
+            throw new AssertionError("count < MAX_POINTERS implies that a local id is available");
         }
-        Pointer pointer = new Pointer(id, localId);
-        pointers.add(pointer);
+        usedLocalIds |= 1 << localId;
+
+        index = count++;
+        ids[index] = id;
+        localIds[index] = localId;
+        xs[index] = 0;
+        ys[index] = 0;
+        pressures[index] = 0;
+        ups[index] = false;
         // return the index of the pointer
-        return pointers.size() - 1;
+        return index;
+    }
+
+    public long getId(int index) {
+        return ids[index];
+    }
+
+    public int getLocalId(int index) {
+        return localIds[index];
+    }
+
+    public void setPoint(int index, float x, float y) {
+        xs[index] = x;
+        ys[index] = y;
+    }
+
+    public void setPressure(int index, float pressure) {
+        pressures[index] = pressure;
+    }
+
+    public void setUp(int index, boolean up) {
+        ups[index] = up;
+    }
+
+    public int getCount() {
+        return count;
     }
 
     /**
@@ -75,31 +97,39 @@ public class PointersState {
      * @return The number of items initialized (the number of pointers).
      */
     public int update(MotionEvent.PointerProperties[] props, MotionEvent.PointerCoords[] coords) {
-        int count = pointers.size();
-        for (int i = 0; i < count; ++i) {
-            Pointer pointer = pointers.get(i);
+        int initialized = count;
+        for (int i = 0; i < initialized; ++i) {
+            props[i].id = localIds[i];
 
-            // id 0 is reserved for mouse events
-            props[i].id = pointer.getLocalId();
-
-            Point point = pointer.getPoint();
-            coords[i].x = point.getX();
-            coords[i].y = point.getY();
-            coords[i].pressure = pointer.getPressure();
+            MotionEvent.PointerCoords c = coords[i];
+            c.x = xs[i];
+            c.y = ys[i];
+            c.pressure = pressures[i];
         }
         cleanUp();
-        return count;
+        return initialized;
     }
 
     /**
-     * Remove all pointers which are UP.
+     * Remove all pointers which are UP, preserving the order of the remaining pointers.
      */
     private void cleanUp() {
-        for (int i = pointers.size() - 1; i >= 0; --i) {
-            Pointer pointer = pointers.get(i);
-            if (pointer.isUp()) {
-                pointers.remove(i);
+        int kept = 0;
+        for (int i = 0; i < count; ++i) {
+            if (ups[i]) {
+                usedLocalIds &= ~(1 << localIds[i]);
+            } else {
+                if (kept != i) {
+                    ids[kept] = ids[i];
+                    localIds[kept] = localIds[i];
+                    xs[kept] = xs[i];
+                    ys[kept] = ys[i];
+                    pressures[kept] = pressures[i];
+                    ups[kept] = false;
+                }
+                ++kept;
             }
         }
+        count = kept;
     }
 }
@@ -1,18 +1,44 @@
 package com.genymobile.scrcpy.control;
 
-import com.genymobile.scrcpy.device.Point;
-import com.genymobile.scrcpy.device.Position;
 import com.genymobile.scrcpy.device.Size;
 import com.genymobile.scrcpy.util.AffineMatrix;
 
+/**
+ * Map the positions received from the client (relative to the video) to device positions.
+ * <p>
+ * The video-to-device transform is flattened into float coefficients once, so that mapping an event does not allocate.
+ */
 public final class PositionMapper {
 
     private final Size videoSize;
-    private final AffineMatrix videoToDeviceMatrix;
+    private final int videoWidth;
+    private final int videoHeight;
+
+    // The transform coefficients (ignored if identity is true):
+    //     x' = m00 * x + m01 * y + m02
+    //     y' = m10 * x + m11 * y + m12
+    private final boolean identity;
+    private final float m00, m01, m02;
+    private final float m10, m11, m12;
 
     public PositionMapper(Size videoSize, AffineMatrix videoToDeviceMatrix) {
         this.videoSize = videoSize;
-        this.videoToDeviceMatrix = videoToDeviceMatrix;
+        this.videoWidth = videoSize.getWidth();
+        this.videoHeight = videoSize.getHeight();
+
+        identity = videoToDeviceMatrix == null;
+        if (identity) {
+            m00 = m01 = m02 = m10 = m11 = m12 = 0;
+        } else {
+            float[] matrix = videoToDeviceMatrix.to4x4();
+            // column-major order
+            m00 = matrix[0];
+            m10 = matrix[1];
+            m01 = matrix[4];
+            m11 = matrix[5];
+            m02 = matrix[12];
+            m12 = matrix[13];
+        }
     }
 
     public static PositionMapper create(Size videoSize, AffineMatrix filterTransform, Size targetSize) {
@@ -31,18 +57,30 @@ public final class PositionMapper {
         return videoSize;
     }
 
-    public Point map(Position position) {
-        Size clientVideoSize = position.getScreenSize();
-        if (!videoSize.equals(clientVideoSize)) {
+    /**
+     * Map a position to device coordinates.
+     *
+     * @param x the horizontal coordinate, relative to the client video
+     * @param y the vertical coordinate, relative to the client video
+     * @param screenWidth the width of the client video
+     * @param screenHeight the height of the client video
+     * @param result the array to store the device coordinates into (at indices 0 and 1)
+     * @return {@code false} if the position is relative to a video with different dimensions (the result is not written)
+     */
+    public boolean map(int x, int y, int screenWidth, int screenHeight, float[] result) {
+        if (screenWidth != videoWidth || screenHeight != videoHeight) {
             // The client sends a click relative to a video with wrong dimensions,
             // the device may have been rotated since the event was generated, so ignore the event
-            return null;
+            return false;
         }
 
-        Point point = position.getPoint();
-        if (videoToDeviceMatrix != null) {
-            point = videoToDeviceMatrix.apply(point);
+        if (identity) {
+            result[0] = x;
+            result[1] = y;
+        } else {
+            result[0] = m00 * x + m01 * y + m02;
+            result[1] = m10 * x + m11 * y + m12;
         }
-        return point;
+        return true;
     }
 }
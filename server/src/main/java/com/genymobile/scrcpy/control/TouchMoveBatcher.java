@@ -0,0 +1,140 @@
+package com.genymobile.scrcpy.control;
+
+import android.view.MotionEvent;
+
+/**
+ * Coalesce consecutive move events for the same pointers into a single {@link MotionEvent} (with historical samples), so that a single
+ * injection covers several moves.
+ * <p>
+ * The pending event is injected when a move cannot be added to it (the pointers, buttons, source or display changed), when its first sample
+ * is older than the time budget, or explicitly by the caller via {@link #flush()} (before any other event, or when no more control message is
+ * immediately available).
+ * <p>
+ * The {@link MotionEvent} operations are delegated to a {@link Sink}.
+ */
+final class TouchMoveBatcher {
+
+    interface Sink {
+        /**
+         * Create the pending event from the current pointers.
+         */
+        void startBatch(long now, int action, int pointerCount, int buttons, int source);
+
+        /**
+         * Add the current pointer coordinates to the pending event, as a new sample.
+         */
+        void addSample(long now);
+
+        /**
+         * Inject the pending event.
+         *
+         * @return {@code true} on success
+         */
+        boolean injectBatch(int displayId);
+    }
+
+    private final int maxDelayMs;
+    private final Sink sink;
+
+    // Properties of the pending event
+    private boolean pending;
+    private long startTime; // time of the first sample
+    private int action;
+    private int pointerCount;
+    private int buttons;
+    private int source;
+    private int displayId;
+    private final int[] pointerIds = new int[PointersState.MAX_POINTERS];
+    private final int[] toolTypes = new int[PointersState.MAX_POINTERS];
+
+    /**
+     * Create a batcher.
+     *
+     * @param maxDelayMs the maximum duration between the first sample of a batch and its injection
+     * @param sink the sink
+     */
+    TouchMoveBatcher(int maxDelayMs, Sink sink) {
+        this.maxDelayMs = maxDelayMs;
+        this.sink = sink;
+    }
+
+    /**
+     * Add a move event, for the current pointers.
+     *
+     * @param now the event time (in milliseconds)
+     * @param pointerProperties the properties of the current pointers
+     * @return {@code false} if an injection failed
+     */
+    boolean move(long now, int action, int pointerCount, MotionEvent.PointerProperties[] pointerProperties, int buttons, int source,
+            int displayId) {
+        boolean ok = true;
+        if (pending && canBatch(action, pointerCount, pointerProperties, buttons, source, displayId)) {
+            sink.addSample(now);
+        } else {
+            ok = flush();
+            start(now, action, pointerCount, pointerProperties, buttons, source, displayId);
+        }
+
+        // The first sample of the batch must not be delayed by more than the time budget
+        if (isExpired(now)) {
+            ok &= flush();
+        }
+        return ok;
+    }
+
+    private void start(long now, int action, int pointerCount, MotionEvent.PointerProperties[] pointerProperties, int buttons, int source,
+            int displayId) {
+        sink.startBatch(now, action, pointerCount, buttons, source);
+        pending = true;
+        startTime = now;
+        this.action = action;
+        this.pointerCount = pointerCount;
+        this.buttons = buttons;
+        this.source = source;
+        this.displayId = displayId;
+        for (int i = 0; i < pointerCount; ++i) {
+            pointerIds[i] = pointerProperties[i].id;
+            toolTypes[i] = pointerProperties[i].toolType;
+        }
+    }
+
+    private boolean canBatch(int action, int pointerCount, MotionEvent.PointerProperties[] pointerProperties, int buttons, int source,
+            int displayId) {
+        if (this.action != action || this.pointerCount != pointerCount || this.buttons != buttons || this.source != source
+                || this.displayId != displayId) {
+            return false;
+        }
+
+        for (int i = 0; i < pointerCount; ++i) {
+            if (pointerIds[i] != pointerProperties[i].id || toolTypes[i] != pointerProperties[i].toolType) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    boolean hasPending() {
+        return pending;
+    }
+
+    /**
+     * Indicate whether the pending event must be injected now, because its first sample is older than the time budget.
+     */
+    boolean isExpired(long now) {
+        return pending && now - startTime >= maxDelayMs;
+    }
+
+    /**
+     * Inject the pending event, if any.
+     *
+     * @return {@code false} if the injection failed
+     */
+    boolean flush() {
+        if (!pending) {
+            return true;
+        }
+        pending = false;
+        return sink.injectBatch(displayId);
+    }
+}
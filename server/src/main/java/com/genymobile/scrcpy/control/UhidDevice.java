@@ -0,0 +1,73 @@
+package com.genymobile.scrcpy.control;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A UHID device opened by {@link UhidManager}.
+ * <p>
+ * The {@code UHID_INPUT2} event is preallocated, so that the input reports (which may be sent at a high rate, for example by gamepads or
+ * 1000 Hz mice) are written without allocations.
+ */
+final class UhidDevice {
+
+    interface Output {
+        void write(byte[] buffer, int offset, int len) throws IOException;
+    }
+
+    // Linux: include/uapi/linux/uhid.h
+    static final int UHID_INPUT2 = 12;
+    static final int UHID_DATA_MAX = 4096;
+
+    /*
+     * struct uhid_event {
+     *     uint32_t type;
+     *     union {
+     *         // ...
+     *         struct uhid_input2_req {
+     *             uint16_t size;
+     *             uint8_t data[UHID_DATA_MAX];
+     *         };
+     *     };
+     * } __attribute__((__packed__));
+     */
+    private static final int INPUT2_SIZE_OFFSET = 4;
+    private static final int INPUT2_DATA_OFFSET = 6;
+
+    private final FileDescriptor fd;
+    private final Output output;
+
+    private final byte[] inputEvent = new byte[INPUT2_DATA_OFFSET + UHID_DATA_MAX];
+    private final ByteBuffer inputEventBuffer = ByteBuffer.wrap(inputEvent).order(ByteOrder.nativeOrder());
+
+    UhidDevice(FileDescriptor fd, Output output) {
+        this.fd = fd;
+        this.output = output;
+        inputEventBuffer.putInt(0, UHID_INPUT2);
+    }
+
+    FileDescriptor getFd() {
+        return fd;
+    }
+
+    /**
+     * Write an input report (only from a single thread).
+     * <p>
+     * The kernel handles a single event per {@code write()}, so the reports cannot be coalesced into a single call.
+     *
+     * @param data the report
+     * @throws IOException if the report could not be written
+     */
+    void writeInput(byte[] data) throws IOException {
+        int len = data.length;
+        if (len > UHID_DATA_MAX) {
+            throw new IOException("UHID input report too large: " + len + " bytes");
+        }
+
+        inputEventBuffer.putShort(INPUT2_SIZE_OFFSET, (short) len);
+        System.arraycopy(data, 0, inputEvent, INPUT2_DATA_OFFSET, len);
+        output.write(inputEvent, 0, INPUT2_DATA_OFFSET + len);
+    }
+}
@@ -10,7 +10,7 @@ import android.os.MessageQueue;
 import android.system.ErrnoException;
 import android.system.Os;
 import android.system.OsConstants;
-import android.util.ArrayMap;
+import android.util.SparseArray;
 
 import java.io.FileDescriptor;
 import java.io.IOException;
@@ -24,14 +24,14 @@ public final class UhidManager {
     // Linux: include/uapi/linux/uhid.h
     private static final int UHID_OUTPUT = 6;
     private static final int UHID_CREATE2 = 11;
-    private static final int UHID_INPUT2 = 12;
 
     // Linux: include/uapi/linux/input.h
     private static final short BUS_VIRTUAL = 0x06;
 
     private static final int SIZE_OF_UHID_EVENT = 4380; // sizeof(struct uhid_event)
 
-    private final ArrayMap<Integer, FileDescriptor> fds = new ArrayMap<>();
+    // Devices are opened and closed from the background control lane, but written from the input lane
+    private final SparseArray<UhidDevice> devices = new SparseArray<>(); // guarded by devices
     private final ByteBuffer buffer = ByteBuffer.allocate(SIZE_OF_UHID_EVENT).order(ByteOrder.nativeOrder());
 
     private final DeviceMessageSender sender;
@@ -52,10 +52,23 @@ public final class UhidManager {
         try {
             FileDescriptor fd = Os.open("/dev/uhid", OsConstants.O_RDWR, 0);
             try {
-                FileDescriptor old = fds.put(id, fd);
+                UhidDevice device = new UhidDevice(fd, (buf, offset, len) -> {
+                    try {
+                        Os.write(fd, buf, offset, len);
+                    } catch (ErrnoException e) {
+                        throw new IOException(e);
+                    }
+                });
+
+                UhidDevice old;
+                synchronized (devices) {
+                    old = devices.get(id);
+                    devices.put(id, device);
+                }
                 if (old != null) {
                     Ln.w("Duplicate UHID id: " + id);
-                    close(old);
+                    unregisterUhidListener(old.getFd());
+                    close(old.getFd());
                 }
 
                 byte[] req = buildUhidCreate2Req(name, reportDesc);
@@ -134,18 +147,16 @@ public final class UhidManager {
     }
 
     public void writeInput(int id, byte[] data) throws IOException {
-        FileDescriptor fd = fds.get(id);
-        if (fd == null) {
+        UhidDevice device;
+        synchronized (devices) {
+            device = devices.get(id);
+        }
+        if (device == null) {
             Ln.w("Unknown UHID id: " + id);
             return;
         }
 
-        try {
-            byte[] req = buildUhidInput2Req(data);
-            Os.write(fd, req, 0, req.length);
-        } catch (ErrnoException e) {
-            throw new IOException(e);
-        }
+        device.writeInput(data);
     }
 
     private static byte[] buildUhidCreate2Req(String name, byte[] reportDesc) {
@@ -191,42 +202,27 @@ public final class UhidManager {
         return buf.array();
     }
 
-    private static byte[] buildUhidInput2Req(byte[] data) {
-        /*
-         * struct uhid_event {
-         *     uint32_t type;
-         *     union {
-         *         // ...
-         *         struct uhid_input2_req {
-         *             uint16_t size;
-         *             uint8_t data[UHID_DATA_MAX];
-         *         };
-         *     };
-         * } __attribute__((__packed__));
-         */
-
-        ByteBuffer buf = ByteBuffer.allocate(6 + data.length).order(ByteOrder.nativeOrder());
-        buf.putInt(UHID_INPUT2);
-        buf.putShort((short) data.length);
-        buf.put(data);
-        return buf.array();
-    }
-
     public void close(int id) {
         // Linux: Documentation/hid/uhid.rst
         // If you close() the fd, the device is automatically unregistered and destroyed internally.
-        FileDescriptor fd = fds.remove(id);
-        if (fd != null) {
-            unregisterUhidListener(fd);
-            close(fd);
+        UhidDevice device;
+        synchronized (devices) {
+            device = devices.get(id);
+            devices.remove(id);
+        }
+        if (device != null) {
+            unregisterUhidListener(device.getFd());
+            close(device.getFd());
         } else {
             Ln.w("Closing unknown UHID device: " + id);
         }
     }
 
     public void closeAll() {
-        for (FileDescriptor fd : fds.values()) {
-            close(fd);
+        synchronized (devices) {
+            for (int i = 0; i < devices.size(); ++i) {
+                close(devices.valueAt(i).getFd());
+            }
         }
     }
 
@@ -0,0 +1,99 @@
+package com.genymobile.scrcpy.device;
+
+import com.genymobile.scrcpy.util.Ln;
+
+import android.media.MediaCodec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Write packets to a {@link Streamer} from a dedicated thread, so that a slow connection does not block the encoder.
+ * <p>
+ * The packets are copied into a {@link PacketQueue}, so that the codec buffers may be released immediately.
+ */
+public final class AsyncPacketWriter {
+
+    private final Streamer streamer;
+    private final PacketQueue queue;
+    private final String threadName;
+
+    private Thread thread;
+
+    public AsyncPacketWriter(Streamer streamer, int capacity, PacketQueue.OverflowPolicy overflowPolicy, String threadName) {
+        this.streamer = streamer;
+        this.queue = new PacketQueue(capacity, overflowPolicy);
+        this.threadName = threadName;
+    }
+
+    private void loop() throws IOException, InterruptedException {
+        PacketQueue.Packet packet;
+        while ((packet = queue.take()) != null) {
+            try {
+                // The packets waiting behind this one
+                int queueDepth = queue.getCount() - 1;
+                streamer.writePacket(packet.getBuffer(), packet.getPts(), packet.isConfig(), packet.isKeyFrame(), packet.getDequeueNs(),
+                        queueDepth);
+            } finally {
+                queue.release();
+            }
+        }
+    }
+
+    public void start() {
+        thread = new Thread(() -> {
+            try {
+                loop();
+            } catch (IOException e) {
+                // Report the error to the encoder, which will handle it as if it had written the packet itself
+                queue.setConsumerError(e);
+            } catch (InterruptedException e) {
+                // stopped
+            } finally {
+                Ln.d("Packet writer stopped (max queued: " + queue.getMaxCount() + ", dropped: " + queue.getDroppedCount() + ")");
+            }
+        }, threadName);
+        thread.start();
+    }
+
+    public void stop() {
+        queue.close();
+    }
+
+    public void join() throws InterruptedException {
+        if (thread != null) {
+            thread.join();
+        }
+    }
+
+    /**
+     * Queue a packet to be written asynchronously.
+     *
+     * @param dequeueNs the time when the packet was dequeued from the encoder (from {@link System#nanoTime()})
+     * @return {@code true} if the packet has been dropped and the encoder must produce a key frame
+     * @throws IOException if a previous write failed
+     */
+    public boolean writePacket(ByteBuffer codecBuffer, MediaCodec.BufferInfo bufferInfo, long dequeueNs) throws IOException {
+        long pts = bufferInfo.presentationTimeUs;
+        boolean config = (bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0;
+        boolean keyFrame = (bufferInfo.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
+        try {
+            return queue.push(codecBuffer, pts, config, keyFrame, dequeueNs) == PacketQueue.DROPPED_REQUEST_SYNC_FRAME;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    public int getQueuedCount() {
+        return queue.getCount();
+    }
+
+    public int getMaxQueuedCount() {
+        return queue.getMaxCount();
+    }
+
+    public long getDroppedCount() {
+        return queue.getDroppedCount();
+    }
+}
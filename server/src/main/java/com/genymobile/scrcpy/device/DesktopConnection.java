@@ -44,7 +44,7 @@ public final class DesktopConnection implements Closeable {
         return localSocket;
     }
 
-    private static String getSocketName(int scid) {
+    static String getSocketName(int scid) {
         if (scid == -1) {
             // If no SCID is set, use "scrcpy" to simplify using scrcpy-server alone
             return SOCKET_NAME_PREFIX;
@@ -153,6 +153,11 @@ public final class DesktopConnection implements Closeable {
     }
 
     public void sendDeviceMeta(String deviceName) throws IOException {
+        FileDescriptor fd = getFirstSocket().getFileDescriptor();
+        writeDeviceMeta(fd, deviceName);
+    }
+
+    static void writeDeviceMeta(FileDescriptor fd, String deviceName) throws IOException {
         byte[] buffer = new byte[DEVICE_NAME_FIELD_LENGTH];
 
         byte[] deviceNameBytes = deviceName.getBytes(StandardCharsets.UTF_8);
@@ -160,7 +165,6 @@ public final class DesktopConnection implements Closeable {
         System.arraycopy(deviceNameBytes, 0, buffer, 0, len);
         // byte[] are always 0-initialized in java, no need to set '\0' explicitly
 
-        FileDescriptor fd = getFirstSocket().getFileDescriptor();
         IO.writeFully(fd, buffer, 0, buffer.length);
     }
 
@@ -0,0 +1,246 @@
+package com.genymobile.scrcpy.device;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Bounded ring of encoded packets, between a producer (the encoder) and a consumer (the thread writing to the socket).
+ * <p>
+ * Each slot owns a direct buffer, allocated once and only reallocated when a packet does not fit, so that in steady state, pushing a packet
+ * is just a copy.
+ */
+public final class PacketQueue {
+
+    public enum OverflowPolicy {
+        // Block the producer until a slot is available
+        BLOCK("block"),
+        // Drop non-key frames until the next key frame
+        DROP("drop");
+
+        private final String name;
+
+        OverflowPolicy(String name) {
+            this.name = name;
+        }
+
+        public static OverflowPolicy findByName(String name) {
+            for (OverflowPolicy policy : OverflowPolicy.values()) {
+                if (name.equals(policy.name)) {
+                    return policy;
+                }
+            }
+
+            return null;
+        }
+    }
+
+    public static final int PUSHED = 0;
+    public static final int DROPPED = 1;
+    // The packet has been dropped, and the producer must request a key frame to recover
+    public static final int DROPPED_REQUEST_SYNC_FRAME = 2;
+
+    private static final int MIN_SLOT_CAPACITY = 64 * 1024;
+
+    public static final class Packet {
+        private ByteBuffer buffer;
+        private long pts;
+        private boolean config;
+        private boolean keyFrame;
+        private long dequeueNs;
+
+        private Packet() {
+            // only created by PacketQueue
+        }
+
+        public ByteBuffer getBuffer() {
+            return buffer;
+        }
+
+        public long getPts() {
+            return pts;
+        }
+
+        public boolean isConfig() {
+            return config;
+        }
+
+        public boolean isKeyFrame() {
+            return keyFrame;
+        }
+
+        public long getDequeueNs() {
+            return dequeueNs;
+        }
+    }
+
+    private final Packet[] packets;
+    private final OverflowPolicy overflowPolicy;
+
+    private int head; // index of the next packet to take
+    private int count;
+    private boolean closed;
+    private IOException consumerError;
+
+    // Only accessed by the producer
+    private boolean waitingKeyFrame;
+
+    // Statistics
+    private int maxCount;
+    private long droppedCount;
+
+    public PacketQueue(int capacity, OverflowPolicy overflowPolicy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid packet queue capacity: " + capacity);
+        }
+        packets = new Packet[capacity];
+        for (int i = 0; i < capacity; ++i) {
+            packets[i] = new Packet();
+        }
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Copy the remaining bytes of {@code data} into the queue.
+     * <p>
+     * The position of {@code data} is not modified.
+     *
+     * @return {@link #PUSHED}, {@link #DROPPED} or {@link #DROPPED_REQUEST_SYNC_FRAME}
+     * @throws IOException if the consumer failed (the error is rethrown to the producer)
+     * @throws InterruptedException if interrupted while waiting for a slot
+     */
+    public int push(ByteBuffer data, long pts, boolean config, boolean keyFrame) throws IOException, InterruptedException {
+        return push(data, pts, config, keyFrame, 0);
+    }
+
+    /**
+     * Same as {@link #push(ByteBuffer, long, boolean, boolean)}, with the time when the packet was dequeued from the encoder.
+     */
+    public int push(ByteBuffer data, long pts, boolean config, boolean keyFrame, long dequeueNs) throws IOException, InterruptedException {
+        if (waitingKeyFrame && !config) {
+            if (!keyFrame) {
+                synchronized (this) {
+                    ++droppedCount;
+                }
+                return DROPPED;
+            }
+            waitingKeyFrame = false;
+        }
+
+        Packet packet;
+        synchronized (this) {
+            // Config packets must never be dropped
+            boolean block = overflowPolicy == OverflowPolicy.BLOCK || config;
+            while (count == packets.length && block && consumerError == null && !closed) {
+                wait();
+            }
+            if (consumerError != null) {
+                throw consumerError;
+            }
+            if (closed) {
+                throw new IOException("Packet queue closed");
+            }
+            if (count == packets.length) {
+                assert !block;
+                ++droppedCount;
+                waitingKeyFrame = true;
+                return DROPPED_REQUEST_SYNC_FRAME;
+            }
+            packet = packets[(head + count) % packets.length];
+        }
+
+        // The slot is not visible to the consumer until count is incremented, so it can be filled without lock
+        int size = data.remaining();
+        if (packet.buffer == null || packet.buffer.capacity() < size) {
+            packet.buffer = ByteBuffer.allocateDirect(Math.max(MIN_SLOT_CAPACITY, Integer.highestOneBit(size - 1) << 1));
+        }
+        int position = data.position();
+        packet.buffer.clear();
+        packet.buffer.put(data);
+        packet.buffer.flip();
+        data.position(position);
+        packet.pts = pts;
+        packet.config = config;
+        packet.keyFrame = keyFrame;
+        packet.dequeueNs = dequeueNs;
+
+        synchronized (this) {
+            ++count;
+            if (count > maxCount) {
+                maxCount = count;
+            }
+            notifyAll();
+        }
+        return PUSHED;
+    }
+
+    /**
+     * Wait for the next packet.
+     * <p>
+     * The packet remains owned by the consumer (and its slot is not reused) until {@link #release()} is called.
+     *
+     * @return the next packet, or {@code null} if the queue is closed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized Packet take() throws InterruptedException {
+        while (count == 0 && !closed) {
+            wait();
+        }
+        if (closed) {
+            return null;
+        }
+        return packets[head];
+    }
+
+    /**
+     * Release the packet returned by the last call to {@link #take()}.
+     */
+    public synchronized void release() {
+        assert count > 0;
+        head = (head + 1) % packets.length;
+        --count;
+        notifyAll();
+    }
+
+    /**
+     * Notify the producer that the consumer failed.
+     * <p>
+     * The error will be thrown by the next call to {@link #push(ByteBuffer, long, boolean, boolean)}.
+     */
+    public synchronized void setConsumerError(IOException error) {
+        consumerError = error;
+        notifyAll();
+    }
+
+    /**
+     * Throw the error reported by the consumer, if any.
+     */
+    public synchronized void checkConsumerError() throws IOException {
+        if (consumerError != null) {
+            throw consumerError;
+        }
+    }
+
+    /**
+     * Close the queue. The pending packets are discarded.
+     */
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    public int getCapacity() {
+        return packets.length;
+    }
+
+    public synchronized int getCount() {
+        return count;
+    }
+
+    public synchronized int getMaxCount() {
+        return maxCount;
+    }
+
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+}
@@ -0,0 +1,361 @@
+package com.genymobile.scrcpy.device;
+
+import com.genymobile.scrcpy.metrics.Counter;
+import com.genymobile.scrcpy.metrics.Gauge;
+import com.genymobile.scrcpy.metrics.Metrics;
+
+import android.media.MediaCodec;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fan out the packets of a single encoder to several clients.
+ * <p>
+ * Each client has its own bounded ring of packets ({@link PacketQueue}), written to its socket by a dedicated thread, so that a slow client
+ * never stalls the encoder or the other clients. A client starts receiving packets on a key frame (preceded by the last config packet).
+ * When its ring overflows, it is either disconnected or resynchronized on the next key frame, depending on the {@link SlowClientPolicy}.
+ * <p>
+ * The primary client (the one which started the server) is never disconnected: if writing to it fails, the error is reported to the
+ * encoder.
+ */
+public final class StreamFanOut {
+
+    public enum SlowClientPolicy {
+        // Skip the packets until the next key frame
+        SKIP("skip"),
+        // Disconnect the client (except the primary client, which is resynchronized)
+        DISCONNECT("disconnect");
+
+        private final String name;
+
+        SlowClientPolicy(String name) {
+            this.name = name;
+        }
+
+        public static SlowClientPolicy findByName(String name) {
+            for (SlowClientPolicy policy : SlowClientPolicy.values()) {
+                if (name.equals(policy.name)) {
+                    return policy;
+                }
+            }
+
+            return null;
+        }
+    }
+
+    public interface Sink {
+        void writeHeader(Size videoSize) throws IOException;
+
+        void writePacket(ByteBuffer buffer, long pts, boolean config, boolean keyFrame, long dequeueNs, int queueDepth) throws IOException;
+
+        /**
+         * Close the connection to the client (called from any thread, possibly while a write is in progress).
+         */
+        void close();
+    }
+
+    public interface Listener {
+        /**
+         * Called when a client is waiting for a key frame to join the stream.
+         */
+        void onClientPending();
+    }
+
+    private static final class Client {
+        private final Sink sink;
+        private final boolean primary;
+        private final PacketQueue queue;
+        private Thread thread;
+        // Only accessed by the producer
+        private boolean waitingKeyFrame = true;
+
+        Client(Sink sink, boolean primary, int capacity) {
+            this.sink = sink;
+            this.primary = primary;
+            this.queue = new PacketQueue(capacity, PacketQueue.OverflowPolicy.BLOCK);
+        }
+    }
+
+    private static final int PUSHED = 0;
+    // The client is waiting for a key frame (already requested) to (re)join the stream
+    private static final int WAITING_KEY_FRAME = 1;
+    // The ring of the client is full, the packet is not pushed and a key frame must be requested
+    private static final int OVERFLOWED = 2;
+
+    private final int capacity;
+    private final SlowClientPolicy slowClientPolicy;
+    private Listener listener;
+
+    // Only accessed by the producer
+    private final List<Client> clients = new ArrayList<>();
+    private byte[] lastConfig;
+    private long lastConfigPts;
+    private Size videoSize;
+
+    // Guarded by pendingClients
+    private final List<Client> pendingClients = new ArrayList<>();
+    private boolean closed;
+
+    private final Gauge clientCount = Metrics.gauge("video.broadcast.clients");
+    private final Counter resyncs = Metrics.counter("video.broadcast.resyncs");
+    private final Counter disconnections = Metrics.counter("video.broadcast.disconnections");
+
+    /**
+     * Create a fan-out.
+     *
+     * @param capacity the number of packets in the ring of each client (at least 2, for a config packet and a key frame)
+     * @param slowClientPolicy what to do when the ring of a client overflows
+     */
+    public StreamFanOut(int capacity, SlowClientPolicy slowClientPolicy) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("Invalid fan-out capacity: " + capacity);
+        }
+        this.capacity = capacity;
+        this.slowClientPolicy = slowClientPolicy;
+    }
+
+    /**
+     * Create a sink writing to a streamer.
+     *
+     * @param connection the connection to close along with the sink, or {@code null} if it is closed by the caller
+     */
+    public static Sink createSink(Streamer streamer, Closeable connection) {
+        return new Sink() {
+            @Override
+            public void writeHeader(Size videoSize) throws IOException {
+                streamer.writeVideoHeader(videoSize);
+            }
+
+            @Override
+            public void writePacket(ByteBuffer buffer, long pts, boolean config, boolean keyFrame, long dequeueNs, int queueDepth)
+                    throws IOException {
+                streamer.writePacket(buffer, pts, config, keyFrame, dequeueNs, queueDepth);
+            }
+
+            @Override
+            public void close() {
+                if (connection != null) {
+                    try {
+                        connection.close();
+                    } catch (IOException e) {
+                        // ignore
+                    }
+                }
+            }
+        };
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Set the current video size, written in the header sent to each client when it joins (from the producer thread).
+     */
+    public void setVideoSize(Size videoSize) {
+        this.videoSize = videoSize;
+    }
+
+    /**
+     * Add a client (from any thread).
+     * <p>
+     * The client starts receiving packets on the next key frame, which is requested via the {@link Listener}.
+     *
+     * @param sink the client connection
+     * @param primary {@code true} for the client which started the server
+     */
+    public void addClient(Sink sink, boolean primary) {
+        synchronized (pendingClients) {
+            if (closed) {
+                sink.close();
+                return;
+            }
+            pendingClients.add(new Client(sink, primary, capacity));
+        }
+
+        if (listener != null) {
+            listener.onClientPending();
+        }
+    }
+
+    /**
+     * Push a packet to all clients (from the producer thread).
+     * <p>
+     * The packet is copied, so the buffer may be released immediately.
+     *
+     * @param dequeueNs the time when the packet was dequeued from the encoder (from {@link System#nanoTime()})
+     * @return {@code true} if the encoder must produce a key frame, to resynchronize a client
+     * @throws IOException if writing to the primary client failed
+     */
+    public boolean push(ByteBuffer codecBuffer, MediaCodec.BufferInfo bufferInfo, long dequeueNs) throws IOException {
+        long pts = bufferInfo.presentationTimeUs;
+        boolean config = (bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0;
+        boolean keyFrame = (bufferInfo.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
+        return push(codecBuffer, pts, config, keyFrame, dequeueNs);
+    }
+
+    /**
+     * Same as {@link #push(ByteBuffer, MediaCodec.BufferInfo, long)}, with explicit packet properties.
+     */
+    public boolean push(ByteBuffer data, long pts, boolean config, boolean keyFrame, long dequeueNs) throws IOException {
+        if (config) {
+            // Config packets are rare, a copy may be allocated
+            lastConfig = new byte[data.remaining()];
+            data.duplicate().get(lastConfig);
+            lastConfigPts = pts;
+        } else if (keyFrame) {
+            // Join on the key frame
+            startPendingClients();
+        }
+
+        boolean syncFrameNeeded = false;
+        // Iterate backwards, so that a client may be removed
+        for (int i = clients.size() - 1; i >= 0; --i) {
+            Client client = clients.get(i);
+            int result;
+            try {
+                result = pushToClient(client, data, pts, config, keyFrame, dequeueNs);
+            } catch (IOException e) {
+                if (client.primary) {
+                    throw e;
+                }
+                removeClient(i);
+                continue;
+            }
+
+            if (result == OVERFLOWED && !client.primary && slowClientPolicy == SlowClientPolicy.DISCONNECT) {
+                removeClient(i);
+            } else if (result == OVERFLOWED) {
+                syncFrameNeeded = true;
+            }
+        }
+
+        return syncFrameNeeded;
+    }
+
+    /**
+     * Push a packet to a single client.
+     *
+     * @return {@link #PUSHED}, {@link #WAITING_KEY_FRAME} or {@link #OVERFLOWED}
+     */
+    private int pushToClient(Client client, ByteBuffer data, long pts, boolean config, boolean keyFrame, long dequeueNs) throws IOException {
+        PacketQueue queue = client.queue;
+        // Detect a failed client even if nothing is pushed to it (while it is waiting for a key frame)
+        queue.checkConsumerError();
+
+        // Only the producer increments the count, so if a slot is available now, the push will not block
+        int available = queue.getCapacity() - queue.getCount();
+
+        if (client.waitingKeyFrame) {
+            if (config || !keyFrame) {
+                // The last config packet will be sent along with the next key frame
+                return WAITING_KEY_FRAME;
+            }
+            if (available < 2) {
+                // Still congested
+                return OVERFLOWED;
+            }
+            if (lastConfig != null) {
+                push(queue, ByteBuffer.wrap(lastConfig), lastConfigPts, true, false, dequeueNs);
+            }
+            client.waitingKeyFrame = false;
+        } else if (available == 0) {
+            resyncs.increment();
+            client.waitingKeyFrame = true;
+            return OVERFLOWED;
+        }
+
+        push(queue, data, pts, config, keyFrame, dequeueNs);
+        return PUSHED;
+    }
+
+    private static void push(PacketQueue queue, ByteBuffer data, long pts, boolean config, boolean keyFrame, long dequeueNs)
+            throws IOException {
+        try {
+            // Never blocks, a slot is available
+            queue.push(data, pts, config, keyFrame, dequeueNs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    private void startPendingClients() {
+        synchronized (pendingClients) {
+            if (pendingClients.isEmpty()) {
+                return;
+            }
+            Size size = videoSize;
+            for (Client client : pendingClients) {
+                client.thread = new Thread(() -> runClient(client, size), client.primary ? "video-send" : "video-send-viewer");
+                client.thread.start();
+                clients.add(client);
+            }
+            pendingClients.clear();
+        }
+        clientCount.set(clients.size());
+    }
+
+    private static void runClient(Client client, Size videoSize) {
+        PacketQueue queue = client.queue;
+        try {
+            client.sink.writeHeader(videoSize);
+
+            PacketQueue.Packet packet;
+            while ((packet = queue.take()) != null) {
+                try {
+                    // The packets waiting behind this one
+                    int queueDepth = queue.getCount() - 1;
+                    client.sink.writePacket(packet.getBuffer(), packet.getPts(), packet.isConfig(), packet.isKeyFrame(), packet.getDequeueNs(),
+                            queueDepth);
+                } finally {
+                    queue.release();
+                }
+            }
+        } catch (IOException e) {
+            // Reported to the producer on the next push
+            queue.setConsumerError(e);
+        } catch (InterruptedException e) {
+            // stopped
+        }
+    }
+
+    private void removeClient(int index) {
+        Client client = clients.remove(index);
+        client.queue.close();
+        client.sink.close();
+        disconnections.increment();
+        clientCount.set(clients.size());
+    }
+
+    /**
+     * Close the fan-out (from the producer thread). The pending packets are discarded.
+     * <p>
+     * The connections to all the clients except the primary one are closed.
+     */
+    public void close() throws InterruptedException {
+        synchronized (pendingClients) {
+            closed = true;
+            for (Client client : pendingClients) {
+                client.sink.close();
+            }
+            pendingClients.clear();
+        }
+
+        for (Client client : clients) {
+            client.queue.close();
+            if (!client.primary) {
+                client.sink.close();
+            }
+        }
+        for (Client client : clients) {
+            client.thread.join();
+        }
+        clients.clear();
+        clientCount.set(0);
+    }
+}
@@ -1,7 +1,11 @@
 package com.genymobile.scrcpy.device;
 
 import com.genymobile.scrcpy.audio.AudioCodec;
+import com.genymobile.scrcpy.metrics.Counter;
+import com.genymobile.scrcpy.metrics.Histogram;
+import com.genymobile.scrcpy.metrics.Metrics;
 import com.genymobile.scrcpy.util.Codec;
+import com.genymobile.scrcpy.util.GatheringWriter;
 import com.genymobile.scrcpy.util.IO;
 
 import android.media.MediaCodec;
@@ -14,27 +18,90 @@ import java.util.Arrays;
 
 public final class Streamer {
 
+    public interface WriteListener {
+        /**
+         * Called after each packet is written.
+         *
+         * @param size the packet size, in bytes
+         * @param durationNs the time spent writing the packet
+         * @param nowNs the current time (from {@link System#nanoTime()})
+         */
+        void onPacketWritten(int size, long durationNs, long nowNs);
+    }
+
     private static final long PACKET_FLAG_CONFIG = 1L << 63;
     private static final long PACKET_FLAG_KEY_FRAME = 1L << 62;
 
+    static final int FRAME_META_SIZE = 12;
+    // The extended frame header also contains: dequeue time (8), write start time (8), previous write end time (8), queue depth (4)
+    static final int FRAME_META_EXTENDED_SIZE = FRAME_META_SIZE + 28;
+
     private final FileDescriptor fd;
     private final Codec codec;
     private final boolean sendCodecMeta;
     private final boolean sendFrameMeta;
+    private final boolean sendFrameTimestamps;
+
+    // Direct, so that the header and the packet may be written using a single writev()
+    private final ByteBuffer headerBuffer;
+    private final GatheringWriter gatheringWriter;
 
-    private final ByteBuffer headerBuffer = ByteBuffer.allocate(12);
+    // Time when the previous packet was completely written (0 if none), sent in the next extended frame header
+    private long lastWriteEndNs;
+
+    private WriteListener writeListener;
+
+    // Last config packet written, to avoid resending an identical one after each capture reset
+    private byte[] lastConfig;
+
+    private final Histogram writeDurations;
+    private final Counter writtenBytes;
+    private final Counter suppressedConfigs;
 
     public Streamer(FileDescriptor fd, Codec codec, boolean sendCodecMeta, boolean sendFrameMeta) {
+        this(fd, codec, sendCodecMeta, sendFrameMeta, false);
+    }
+
+    /**
+     * Create a streamer.
+     *
+     * @param sendFrameTimestamps if {@code true} (and {@code sendFrameMeta} is {@code true}), extend the frame header with the server-side
+     * timestamps of the packet (from {@link System#nanoTime()}) and the queue depth, so that the client may compute the latency of each
+     * step
+     */
+    public Streamer(FileDescriptor fd, Codec codec, boolean sendCodecMeta, boolean sendFrameMeta, boolean sendFrameTimestamps) {
+        this(fd, codec, sendCodecMeta, sendFrameMeta, sendFrameTimestamps, codec.getType() == Codec.Type.VIDEO ? "video" : "audio");
+    }
+
+    /**
+     * Create a streamer reporting its metrics under a specific prefix.
+     *
+     * @param metricPrefix the prefix of the metric names (e.g. "video" for {@code video.write_us}), so that the streamers of different
+     * clients are not mixed up
+     */
+    public Streamer(FileDescriptor fd, Codec codec, boolean sendCodecMeta, boolean sendFrameMeta, boolean sendFrameTimestamps,
+            String metricPrefix) {
         this.fd = fd;
         this.codec = codec;
         this.sendCodecMeta = sendCodecMeta;
         this.sendFrameMeta = sendFrameMeta;
+        this.sendFrameTimestamps = sendFrameMeta && sendFrameTimestamps;
+        headerBuffer = ByteBuffer.allocateDirect(this.sendFrameTimestamps ? FRAME_META_EXTENDED_SIZE : FRAME_META_SIZE);
+        gatheringWriter = sendFrameMeta ? new GatheringWriter(fd) : null;
+
+        writeDurations = Metrics.histogram(metricPrefix + ".write_us");
+        writtenBytes = Metrics.counter(metricPrefix + ".bytes");
+        suppressedConfigs = Metrics.counter(metricPrefix + ".config_packets_suppressed");
     }
 
     public Codec getCodec() {
         return codec;
     }
 
+    public void setWriteListener(WriteListener writeListener) {
+        this.writeListener = writeListener;
+    }
+
     public void writeAudioHeader() throws IOException {
         if (sendCodecMeta) {
             ByteBuffer buffer = ByteBuffer.allocate(4);
@@ -67,29 +134,85 @@ public final class Streamer {
     }
 
     public void writePacket(ByteBuffer buffer, long pts, boolean config, boolean keyFrame) throws IOException {
+        writePacket(buffer, pts, config, keyFrame, 0, 0);
+    }
+
+    /**
+     * Write a packet.
+     *
+     * @param dequeueNs the time when the packet was dequeued from the encoder (from {@link System#nanoTime()}), or 0 if unknown
+     * @param queueDepth the number of packets waiting to be written after this one
+     */
+    public void writePacket(ByteBuffer buffer, long pts, boolean config, boolean keyFrame, long dequeueNs, int queueDepth)
+            throws IOException {
         if (config) {
             if (codec == AudioCodec.OPUS) {
                 fixOpusConfigPacket(buffer);
             } else if (codec == AudioCodec.FLAC) {
                 fixFlacConfigPacket(buffer);
             }
+
+            if (isSameAsLastConfig(buffer)) {
+                // The encoder has been reconfigured (typically on capture reset) with the same parameters: the client decoder does not
+                // need to be reinitialized, the next key frame is decodable with the previous config
+                suppressedConfigs.increment();
+                return;
+            }
         }
 
+        int size = buffer.remaining();
+        long startNs = System.nanoTime();
+
         if (sendFrameMeta) {
-            writeFrameMeta(fd, buffer.remaining(), pts, config, keyFrame);
+            prepareFrameMeta(size, pts, config, keyFrame, dequeueNs, startNs, queueDepth);
+            // Write the header and the packet at once
+            gatheringWriter.writeFully(headerBuffer, buffer);
+        } else {
+            IO.writeFully(fd, buffer);
         }
 
-        IO.writeFully(fd, buffer);
+        long nowNs = System.nanoTime();
+        lastWriteEndNs = nowNs;
+        writeDurations.record((nowNs - startNs) / 1000);
+        writtenBytes.add(size);
+        if (writeListener != null) {
+            writeListener.onPacketWritten(size, nowNs - startNs, nowNs);
+        }
     }
 
     public void writePacket(ByteBuffer codecBuffer, MediaCodec.BufferInfo bufferInfo) throws IOException {
+        writePacket(codecBuffer, bufferInfo, 0, 0);
+    }
+
+    public void writePacket(ByteBuffer codecBuffer, MediaCodec.BufferInfo bufferInfo, long dequeueNs, int queueDepth) throws IOException {
         long pts = bufferInfo.presentationTimeUs;
         boolean config = (bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0;
         boolean keyFrame = (bufferInfo.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
-        writePacket(codecBuffer, pts, config, keyFrame);
+        writePacket(codecBuffer, pts, config, keyFrame, dequeueNs, queueDepth);
     }
 
-    private void writeFrameMeta(FileDescriptor fd, int packetSize, long pts, boolean config, boolean keyFrame) throws IOException {
+    /**
+     * Compare the config packet with the last one (and remember it if it is different).
+     *
+     * @param buffer the config packet (its position is unchanged)
+     * @return {@code true} if it is identical to the last config packet
+     */
+    // Package-private for testing
+    boolean isSameAsLastConfig(ByteBuffer buffer) {
+        // ByteBuffer.equals() compares the remaining bytes
+        if (lastConfig != null && lastConfig.length == buffer.remaining() && buffer.equals(ByteBuffer.wrap(lastConfig))) {
+            return true;
+        }
+
+        // Config packets are rare, a copy may be allocated
+        lastConfig = new byte[buffer.remaining()];
+        buffer.duplicate().get(lastConfig);
+        return false;
+    }
+
+    // Package-private for testing
+    ByteBuffer prepareFrameMeta(int packetSize, long pts, boolean config, boolean keyFrame, long dequeueNs, long writeStartNs,
+            int queueDepth) {
         headerBuffer.clear();
 
         long ptsAndFlags;
@@ -104,8 +227,15 @@ public final class Streamer {
 
         headerBuffer.putLong(ptsAndFlags);
         headerBuffer.putInt(packetSize);
+        if (sendFrameTimestamps) {
+            // The end of the write is only known once the packet has been written, so the header contains the one of the previous packet
+            headerBuffer.putLong(dequeueNs);
+            headerBuffer.putLong(writeStartNs);
+            headerBuffer.putLong(lastWriteEndNs);
+            headerBuffer.putInt(queueDepth);
+        }
         headerBuffer.flip();
-        IO.writeFully(fd, headerBuffer);
+        return headerBuffer;
     }
 
     private static void fixOpusConfigPacket(ByteBuffer buffer) throws IOException {
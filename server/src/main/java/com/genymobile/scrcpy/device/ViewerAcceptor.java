@@ -0,0 +1,153 @@
+package com.genymobile.scrcpy.device;
+
+import com.genymobile.scrcpy.util.IO;
+import com.genymobile.scrcpy.util.Ln;
+
+import android.net.LocalServerSocket;
+import android.net.LocalSocket;
+import android.net.LocalSocketAddress;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Accept additional video-only clients (viewers) in broadcast mode, and add them to a {@link StreamFanOut}.
+ * <p>
+ * Like a video socket, a viewer socket receives the dummy byte and the device meta (if enabled), then the video stream. Viewers have no
+ * control or audio socket: the control is only available to the primary client.
+ * <p>
+ * The viewers socket is not authenticated, so the number of simultaneous viewers is limited: any additional connection is closed
+ * immediately.
+ */
+public final class ViewerAcceptor {
+
+    public interface StreamerFactory {
+        Streamer create(FileDescriptor fd);
+    }
+
+    private static final String SOCKET_NAME_SUFFIX = "_viewers";
+
+    private final String socketName;
+    private final StreamFanOut fanOut;
+    private final StreamerFactory streamerFactory;
+    private final int maxViewers;
+    private final boolean sendDummyByte;
+    private final String deviceName; // null to not send the device meta
+
+    private LocalServerSocket serverSocket;
+    private Thread thread;
+    private volatile boolean stopped;
+    private final AtomicInteger viewerCount = new AtomicInteger();
+
+    public ViewerAcceptor(int scid, StreamFanOut fanOut, StreamerFactory streamerFactory, int maxViewers, boolean sendDummyByte,
+            String deviceName) {
+        this.socketName = DesktopConnection.getSocketName(scid) + SOCKET_NAME_SUFFIX;
+        this.fanOut = fanOut;
+        this.streamerFactory = streamerFactory;
+        this.maxViewers = maxViewers;
+        this.sendDummyByte = sendDummyByte;
+        this.deviceName = deviceName;
+    }
+
+    private void loop() {
+        try {
+            while (!stopped) {
+                LocalSocket socket = serverSocket.accept();
+                if (stopped) {
+                    closeSocket(socket);
+                    break;
+                }
+                if (viewerCount.incrementAndGet() > maxViewers) {
+                    viewerCount.decrementAndGet();
+                    Ln.w("Viewer rejected: limit of " + maxViewers + " viewer(s) reached");
+                    closeSocket(socket);
+                    continue;
+                }
+                try {
+                    addViewer(socket);
+                } catch (IOException e) {
+                    Ln.w("Could not add viewer: " + e.getMessage());
+                    viewerCount.decrementAndGet();
+                    closeSocket(socket);
+                }
+            }
+        } catch (IOException e) {
+            if (!stopped) {
+                Ln.e("Could not accept viewer", e);
+            }
+        } finally {
+            Ln.d("Viewer acceptor stopped");
+        }
+    }
+
+    private void addViewer(LocalSocket socket) throws IOException {
+        FileDescriptor fd = socket.getFileDescriptor();
+        if (sendDummyByte) {
+            // send one byte so the client may read() to detect a connection error
+            IO.writeFully(fd, new byte[1], 0, 1);
+        }
+        if (deviceName != null) {
+            DesktopConnection.writeDeviceMeta(fd, deviceName);
+        }
+
+        Streamer streamer = streamerFactory.create(fd);
+        AtomicBoolean closed = new AtomicBoolean();
+        fanOut.addClient(StreamFanOut.createSink(streamer, () -> {
+            if (closed.compareAndSet(false, true)) {
+                // Release the slot for another viewer
+                viewerCount.decrementAndGet();
+                closeSocket(socket);
+            }
+        }), false);
+        Ln.i("Viewer connected");
+    }
+
+    private static void closeSocket(LocalSocket socket) {
+        try {
+            // Unblock any pending write
+            socket.shutdownInput();
+            socket.shutdownOutput();
+        } catch (IOException e) {
+            // ignore
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    public void start() throws IOException {
+        serverSocket = new LocalServerSocket(socketName);
+        thread = new Thread(this::loop, "viewer-accept");
+        thread.start();
+        Ln.i("Accepting viewers on localabstract:" + socketName);
+    }
+
+    public void stop() {
+        if (thread == null) {
+            return;
+        }
+
+        stopped = true;
+        // Closing a LocalServerSocket does not unblock accept(), so connect to it
+        try (LocalSocket socket = new LocalSocket()) {
+            socket.connect(new LocalSocketAddress(socketName));
+        } catch (IOException e) {
+            // ignore
+        }
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    public void join() throws InterruptedException {
+        if (thread != null) {
+            thread.join();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.genymobile.scrcpy.metrics;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Monotonic counter, striped to avoid contention between threads (like {@code LongAdder}, which is not available before Android 7).
+ */
+public final class Counter extends Metric {
+
+    private static final int STRIPES = 4; // power of 2
+    // Spread the stripes over distinct cache lines (64 bytes)
+    private static final int PADDING = 8;
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    Counter(String name) {
+        super(name);
+    }
+
+    @Override
+    public int getKind() {
+        return KIND_COUNTER;
+    }
+
+    public void add(long delta) {
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        cells.getAndAdd(stripe * PADDING, delta);
+    }
+
+    public void increment() {
+        add(1);
+    }
+
+    public long get() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; ++i) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    @Override
+    void writeValues(DataOutputStream dos) throws IOException {
+        dos.writeLong(get());
+    }
+}
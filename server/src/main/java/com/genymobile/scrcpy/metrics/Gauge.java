@@ -0,0 +1,34 @@
+package com.genymobile.scrcpy.metrics;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Current value of a quantity (for example a bit rate or a queue size).
+ */
+public final class Gauge extends Metric {
+
+    private volatile long value;
+
+    Gauge(String name) {
+        super(name);
+    }
+
+    @Override
+    public int getKind() {
+        return KIND_GAUGE;
+    }
+
+    public void set(long value) {
+        this.value = value;
+    }
+
+    public long get() {
+        return value;
+    }
+
+    @Override
+    void writeValues(DataOutputStream dos) throws IOException {
+        dos.writeLong(value);
+    }
+}
@@ -0,0 +1,131 @@
+package com.genymobile.scrcpy.metrics;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of non-negative values (typically durations in microseconds or sizes in bytes), in fixed power-of-2 buckets.
+ * <p>
+ * Bucket 0 contains the value 0, bucket {@code i > 0} contains the values in {@code [2^(i-1), 2^i)}, so recording a value is O(1).
+ * <p>
+ * Each snapshot resets the histogram, so that it describes the values recorded since the previous snapshot.
+ */
+public final class Histogram extends Metric {
+
+    public static final int BUCKET_COUNT = 40;
+
+    public static final class Snapshot {
+        private final long count;
+        private final long sum;
+        private final long max;
+        private final long[] buckets;
+
+        private Snapshot(long count, long sum, long max, long[] buckets) {
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+            this.buckets = buckets;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * Return an upper bound of the given percentile (the upper bound of the bucket containing it).
+         *
+         * @param percentile the percentile, in [0, 100]
+         * @return the upper bound, or 0 if the histogram is empty
+         */
+        public long getPercentile(int percentile) {
+            long total = 0;
+            for (long bucket : buckets) {
+                total += bucket;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            // Rank of the value (1-based)
+            long rank = Math.max(1, (total * percentile + 99) / 100);
+            long cumulated = 0;
+            for (int i = 0; i < buckets.length; ++i) {
+                cumulated += buckets[i];
+                if (cumulated >= rank) {
+                    return Math.min(getUpperBound(i), max);
+                }
+            }
+            return max;
+        }
+    }
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    Histogram(String name) {
+        super(name);
+    }
+
+    @Override
+    public int getKind() {
+        return KIND_HISTOGRAM;
+    }
+
+    static int getBucket(long value) {
+        // 0 for 0, i for [2^(i-1), 2^i)
+        int bucket = 64 - Long.numberOfLeadingZeros(value);
+        return Math.min(bucket, BUCKET_COUNT - 1);
+    }
+
+    static long getUpperBound(int bucket) {
+        return bucket == BUCKET_COUNT - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        buckets.getAndIncrement(getBucket(value));
+        sum.getAndAdd(value);
+
+        long currentMax = max.get();
+        while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+            currentMax = max.get();
+        }
+    }
+
+    /**
+     * Return the values recorded since the last call, and reset the histogram.
+     */
+    public Snapshot snapshotAndReset() {
+        // The values recorded concurrently may be reported in this snapshot or the next one, but they are never lost
+        long[] values = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            values[i] = buckets.getAndSet(i, 0);
+            count += values[i];
+        }
+        return new Snapshot(count, sum.getAndSet(0), max.getAndSet(0), values);
+    }
+
+    @Override
+    void writeValues(DataOutputStream dos) throws IOException {
+        Snapshot snapshot = snapshotAndReset();
+        dos.writeLong(snapshot.getCount());
+        dos.writeLong(snapshot.getSum());
+        dos.writeLong(snapshot.getMax());
+        dos.writeLong(snapshot.getPercentile(50));
+        dos.writeLong(snapshot.getPercentile(90));
+        dos.writeLong(snapshot.getPercentile(99));
+    }
+}
@@ -0,0 +1,31 @@
+package com.genymobile.scrcpy.metrics;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A named metric, registered in {@link Metrics}.
+ */
+public abstract class Metric {
+
+    public static final int KIND_COUNTER = 0;
+    public static final int KIND_GAUGE = 1;
+    public static final int KIND_HISTOGRAM = 2;
+
+    private final String name;
+
+    Metric(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public abstract int getKind();
+
+    /**
+     * Write the current values (without the name and the kind).
+     */
+    abstract void writeValues(DataOutputStream dos) throws IOException;
+}
@@ -0,0 +1,86 @@
+package com.genymobile.scrcpy.metrics;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registry of the server metrics.
+ * <p>
+ * The metrics are created (or retrieved) by name once, typically on initialization; recording values is lock-free.
+ */
+public final class Metrics {
+
+    private static final Map<String, Metric> METRICS = new LinkedHashMap<>();
+
+    private Metrics() {
+        // not instantiable
+    }
+
+    private static synchronized <T extends Metric> T getOrCreate(String name, Class<T> metricClass, T newMetric) {
+        Metric metric = METRICS.get(name);
+        if (metric == null) {
+            METRICS.put(name, newMetric);
+            return newMetric;
+        }
+        if (!metricClass.isInstance(metric)) {
+            throw new IllegalArgumentException("Metric " + name + " already registered as " + metric.getClass().getSimpleName());
+        }
+        return metricClass.cast(metric);
+    }
+
+    public static Counter counter(String name) {
+        return getOrCreate(name, Counter.class, new Counter(name));
+    }
+
+    public static Gauge gauge(String name) {
+        return getOrCreate(name, Gauge.class, new Gauge(name));
+    }
+
+    public static Histogram histogram(String name) {
+        return getOrCreate(name, Histogram.class, new Histogram(name));
+    }
+
+    public static synchronized List<Metric> getAll() {
+        return new ArrayList<>(METRICS.values());
+    }
+
+    /**
+     * Serialize a snapshot of all the metrics (this resets the histograms).
+     * <p>
+     * The format is (big-endian):
+     * <pre>
+     * count: u16
+     * for each metric:
+     *     kind: u8 (Metric.KIND_*)
+     *     name_length: u8
+     *     name: UTF-8
+     *     counter or gauge: value (i64)
+     *     histogram: count, sum, max, p50, p90, p99 (i64 each, recorded since the previous snapshot)
+     * </pre>
+     */
+    public static byte[] serializeSnapshot() {
+        List<Metric> metrics = getAll();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        try {
+            dos.writeShort(metrics.size());
+            for (Metric metric : metrics) {
+                byte[] name = metric.getName().getBytes(StandardCharsets.UTF_8);
+                dos.writeByte(metric.getKind());
+                dos.writeByte(name.length);
+                dos.write(name);
+                metric.writeValues(dos);
+            }
+        } catch (IOException e) {
+            // ByteArrayOutputStream never throws
+            throw new AssertionError(e);
+        }
+        return bos.toByteArray();
+    }
+}
@@ -6,20 +6,25 @@ import android.opengl.GLES11Ext;
 import android.opengl.GLES20;
 
 import java.nio.FloatBuffer;
+import java.util.Arrays;
 
 public class AffineOpenGLFilter implements OpenGLFilter {
 
+    // Interleaved vertex attributes: position (x, y), then texture coordinates (s, t)
+    private static final int FLOATS_PER_VERTEX = 4;
+    private static final int VERTEX_STRIDE = FLOATS_PER_VERTEX * 4; // in bytes
+    private static final int TEX_COORDS_OFFSET = 2 * 4; // in bytes
+
     private int program;
-    private FloatBuffer vertexBuffer;
-    private FloatBuffer texCoordsBuffer;
+    private int vertexBufferId;
     private final float[] userMatrix;
 
-    private int vertexPosLoc;
-    private int texCoordsInLoc;
-
-    private int texLoc;
     private int texMatrixLoc;
-    private int userMatrixLoc;
+
+    // State already set in the OpenGL context, to avoid redundant calls on each frame
+    private int boundTextureId;
+    private final float[] uploadedTexMatrix = new float[16];
+    private boolean texMatrixUploaded;
 
     public AffineOpenGLFilter(AffineMatrix transform) {
         userMatrix = transform.to4x4();
@@ -59,76 +64,82 @@ public class AffineOpenGLFilter implements OpenGLFilter {
             throw new OpenGLException("Cannot create OpenGL program");
         }
 
+        // @formatter:off
         float[] vertices = {
-                -1, -1, // Bottom-left
-                1, -1, // Bottom-right
-                -1, 1, // Top-left
-                1, 1, // Top-right
+                // vertex_pos, tex_coords_in
+                -1, -1, 0, 0, // Bottom-left
+                1, -1, 1, 0, // Bottom-right
+                -1, 1, 0, 1, // Top-left
+                1, 1, 1, 1, // Top-right
         };
 
-        float[] texCoords = {
-                0, 0, // Bottom-left
-                1, 0, // Bottom-right
-                0, 1, // Top-left
-                1, 1, // Top-right
-        };
-
-        // OpenGL will fill the 3rd and 4th coordinates of the vec4 automatically with 0.0 and 1.0 respectively
-        vertexBuffer = GLUtils.createFloatBuffer(vertices);
-        texCoordsBuffer = GLUtils.createFloatBuffer(texCoords);
-
-        vertexPosLoc = GLES20.glGetAttribLocation(program, "vertex_pos");
+        int vertexPosLoc = GLES20.glGetAttribLocation(program, "vertex_pos");
         assert vertexPosLoc != -1;
 
-        texCoordsInLoc = GLES20.glGetAttribLocation(program, "tex_coords_in");
+        int texCoordsInLoc = GLES20.glGetAttribLocation(program, "tex_coords_in");
         assert texCoordsInLoc != -1;
 
-        texLoc = GLES20.glGetUniformLocation(program, "tex");
+        int texLoc = GLES20.glGetUniformLocation(program, "tex");
         assert texLoc != -1;
 
         texMatrixLoc = GLES20.glGetUniformLocation(program, "tex_matrix");
         assert texMatrixLoc != -1;
 
-        userMatrixLoc = GLES20.glGetUniformLocation(program, "user_matrix");
+        int userMatrixLoc = GLES20.glGetUniformLocation(program, "user_matrix");
         assert userMatrixLoc != -1;
-    }
 
-    @Override
-    public void draw(int textureId, float[] texMatrix) {
+        // The OpenGL context is dedicated to this filter, so all the state which does not change between frames is set once here (OpenGL ES
+        // 2.0 has no vertex array objects, but the vertex attributes setup is kept in the context anyway)
+
+        // Upload the vertices once to a vertex buffer object, rather than passing client-side arrays on each frame
+        int[] buffers = new int[1];
+        GLES20.glGenBuffers(1, buffers, 0);
+        vertexBufferId = buffers[0];
+        FloatBuffer vertexBuffer = GLUtils.createFloatBuffer(vertices);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBufferId);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, vertices.length * 4, vertexBuffer, GLES20.GL_STATIC_DRAW);
+
         GLES20.glUseProgram(program);
-        GLUtils.checkGlError();
 
+        // OpenGL will fill the 3rd and 4th coordinates of the vec4 automatically with 0.0 and 1.0 respectively
         GLES20.glEnableVertexAttribArray(vertexPosLoc);
-        GLUtils.checkGlError();
+        GLES20.glVertexAttribPointer(vertexPosLoc, 2, GLES20.GL_FLOAT, false, VERTEX_STRIDE, 0);
         GLES20.glEnableVertexAttribArray(texCoordsInLoc);
-        GLUtils.checkGlError();
-
-        GLES20.glVertexAttribPointer(vertexPosLoc, 2, GLES20.GL_FLOAT, false, 0, vertexBuffer);
-        GLUtils.checkGlError();
-        GLES20.glVertexAttribPointer(texCoordsInLoc, 2, GLES20.GL_FLOAT, false, 0, texCoordsBuffer);
-        GLUtils.checkGlError();
+        GLES20.glVertexAttribPointer(texCoordsInLoc, 2, GLES20.GL_FLOAT, false, VERTEX_STRIDE, TEX_COORDS_OFFSET);
 
         GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLUtils.checkGlError();
-        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, textureId);
-        GLUtils.checkGlError();
         GLES20.glUniform1i(texLoc, 0);
-        GLUtils.checkGlError();
+        GLES20.glUniformMatrix4fv(userMatrixLoc, 1, false, userMatrix, 0);
 
-        GLES20.glUniformMatrix4fv(texMatrixLoc, 1, false, texMatrix, 0);
+        // Check the errors once for the whole setup
         GLUtils.checkGlError();
+    }
 
-        GLES20.glUniformMatrix4fv(userMatrixLoc, 1, false, userMatrix, 0);
-        GLUtils.checkGlError();
+    @Override
+    public void draw(int textureId, float[] texMatrix) {
+        if (textureId != boundTextureId) {
+            GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, textureId);
+            boundTextureId = textureId;
+        }
+
+        // The texture matrix only changes on rotation (or never, if it is overridden)
+        if (!texMatrixUploaded || !Arrays.equals(texMatrix, uploadedTexMatrix)) {
+            GLES20.glUniformMatrix4fv(texMatrixLoc, 1, false, texMatrix, 0);
+            System.arraycopy(texMatrix, 0, uploadedTexMatrix, 0, uploadedTexMatrix.length);
+            texMatrixUploaded = true;
+        }
 
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
-        GLUtils.checkGlError();
         GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+
+        // Errors are checked once per frame (only in debug builds), since glGetError() may force a synchronization with the driver
         GLUtils.checkGlError();
     }
 
     @Override
     public void release() {
+        int[] buffers = {vertexBufferId};
+        GLES20.glDeleteBuffers(1, buffers, 0);
         GLES20.glDeleteProgram(program);
         GLUtils.checkGlError();
     }
@@ -4,6 +4,8 @@ public interface OpenGLFilter {
 
     /**
      * Initialize the OpenGL filter (typically compile the shaders and create the program).
+     * <p>
+     * The OpenGL context is dedicated to the filter, so the state which does not change between frames may be set once here.
      *
      * @throws OpenGLException if an initialization error occurs
      */
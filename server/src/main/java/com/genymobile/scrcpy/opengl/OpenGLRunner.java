@@ -1,6 +1,8 @@
 package com.genymobile.scrcpy.opengl;
 
 import com.genymobile.scrcpy.device.Size;
+import com.genymobile.scrcpy.metrics.Histogram;
+import com.genymobile.scrcpy.metrics.Metrics;
 
 import android.graphics.SurfaceTexture;
 import android.opengl.EGL14;
@@ -29,6 +31,10 @@ public final class OpenGLRunner {
 
     private final OpenGLFilter filter;
     private final float[] overrideTransformMatrix;
+    private final float[] transformMatrix = new float[16];
+
+    // Time to submit the rendering of a frame (draw and swap buffers), on the CPU side
+    private final Histogram submitDurations = Metrics.histogram("opengl.submit_us");
 
     private SurfaceTexture surfaceTexture;
     private Surface inputSurface;
@@ -191,6 +197,10 @@ public final class OpenGLRunner {
         surfaceTexture.setDefaultBufferSize(inputSize.getWidth(), inputSize.getHeight());
         inputSurface = new Surface(surfaceTexture);
 
+        // The output size never changes for a runner
+        GLES20.glViewport(0, 0, outputSize.getWidth(), outputSize.getHeight());
+        GLUtils.checkGlError();
+
         filter.init();
 
         surfaceTexture.setOnFrameAvailableListener(surfaceTexture -> {
@@ -199,28 +209,27 @@ public final class OpenGLRunner {
                 return;
             }
 
-            render(outputSize);
+            render();
         }, handler);
     }
 
-    private void render(Size outputSize) {
-        GLES20.glViewport(0, 0, outputSize.getWidth(), outputSize.getHeight());
-        GLUtils.checkGlError();
-
+    private void render() {
         surfaceTexture.updateTexImage();
 
         float[] matrix;
         if (overrideTransformMatrix != null) {
             matrix = overrideTransformMatrix;
         } else {
-            matrix = new float[16];
+            matrix = transformMatrix;
             surfaceTexture.getTransformMatrix(matrix);
         }
 
+        long startNs = System.nanoTime();
         filter.draw(textureId, matrix);
 
         EGLExt.eglPresentationTimeANDROID(eglDisplay, eglSurface, surfaceTexture.getTimestamp());
         EGL14.eglSwapBuffers(eglDisplay, eglSurface);
+        submitDurations.record((System.nanoTime() - startNs) / 1000);
     }
 
     public void stopAndRelease() {
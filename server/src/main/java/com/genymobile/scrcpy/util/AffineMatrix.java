@@ -91,6 +91,28 @@ public class AffineMatrix {
         return new Point(xx, yy);
     }
 
+    /**
+     * Return the horizontal coordinate of the transformed point {@code (x, y)}, without rounding.
+     *
+     * @param x the source horizontal coordinate
+     * @param y the source vertical coordinate
+     * @return the converted horizontal coordinate
+     */
+    public double applyX(double x, double y) {
+        return a * x + c * y + e;
+    }
+
+    /**
+     * Return the vertical coordinate of the transformed point {@code (x, y)}, without rounding.
+     *
+     * @param x the source horizontal coordinate
+     * @param y the source vertical coordinate
+     * @return the converted vertical coordinate
+     */
+    public double applyY(double x, double y) {
+        return b * x + d * y + f;
+    }
+
     /**
      * Compute <code>this * rhs</code>.
      *
@@ -184,6 +206,38 @@ public class AffineMatrix {
         return new AffineMatrix(aa, bb, cc, dd, ee, ff);
     }
 
+    /**
+     * Decompose the linear part of the matrix as a positive scaling followed by an orthogonal rotation.
+     * <p/>
+     * This is the case if the matrix only crops, scales and rotates by a multiple of 90° (the translation is ignored). If the matrix contains
+     * a flip or an arbitrary rotation, it cannot be decomposed this way.
+     *
+     * @return the counter-clockwise rotation (in the range [0, 3]), or -1 if the matrix cannot be decomposed
+     */
+    public int getOrthoRotation() {
+        if (isZero(b) && isZero(c)) {
+            if (a > 0 && d > 0) {
+                return 0;
+            }
+            if (a < 0 && d < 0) {
+                return 2;
+            }
+        } else if (isZero(a) && isZero(d)) {
+            if (b > 0 && c < 0) {
+                return 1;
+            }
+            if (b < 0 && c > 0) {
+                return 3;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isZero(double value) {
+        // Tolerate rounding errors from the matrix products
+        return Math.abs(value) < 1e-9;
+    }
+
     /**
      * Return this transform applied from the center (0.5, 0.5).
      *
@@ -0,0 +1,98 @@
+package com.genymobile.scrcpy.util;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Write a header and a payload to a file descriptor using a single {@code writev()} syscall (in the common case).
+ * <p>
+ * If the buffers are not direct, fallback to one {@code write()} per buffer.
+ * <p>
+ * This class is not thread-safe: each stream must use its own instance.
+ */
+public final class GatheringWriter {
+
+    interface Writev {
+        int writev(Object[] buffers, int[] offsets, int[] byteCounts) throws IOException;
+    }
+
+    private static final class OsWritev implements Writev {
+        private final FileDescriptor fd;
+
+        OsWritev(FileDescriptor fd) {
+            this.fd = fd;
+        }
+
+        @Override
+        public int writev(Object[] buffers, int[] offsets, int[] byteCounts) throws IOException {
+            while (true) {
+                try {
+                    return Os.writev(fd, buffers, offsets, byteCounts);
+                } catch (ErrnoException e) {
+                    if (e.errno != OsConstants.EINTR) {
+                        throw new IOException(e);
+                    }
+                }
+            }
+        }
+    }
+
+    private final FileDescriptor fd;
+    private final Writev writev;
+
+    private final Object[] buffers = new Object[2];
+    private final int[] offsets = new int[2];
+    private final int[] byteCounts = new int[2];
+
+    public GatheringWriter(FileDescriptor fd) {
+        this(fd, new OsWritev(fd));
+    }
+
+    GatheringWriter(FileDescriptor fd, Writev writev) {
+        this.fd = fd;
+        this.writev = writev;
+    }
+
+    /**
+     * Write all the remaining bytes of {@code header}, then all the remaining bytes of {@code payload}.
+     * <p>
+     * On return, the position of both buffers is set to their limit.
+     *
+     * @param header the header buffer
+     * @param payload the payload buffer
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeFully(ByteBuffer header, ByteBuffer payload) throws IOException {
+        // The native implementation only supports direct buffers (or arrays)
+        if (!header.isDirect() || !payload.isDirect()) {
+            IO.writeFully(fd, header);
+            IO.writeFully(fd, payload);
+            return;
+        }
+
+        buffers[0] = header;
+        buffers[1] = payload;
+        try {
+            while (header.hasRemaining() || payload.hasRemaining()) {
+                // The positions are handled manually, Os.writev() does not update them
+                offsets[0] = header.position();
+                byteCounts[0] = header.remaining();
+                offsets[1] = payload.position();
+                byteCounts[1] = payload.remaining();
+
+                int w = writev.writev(buffers, offsets, byteCounts);
+                int headerWritten = Math.min(w, byteCounts[0]);
+                header.position(offsets[0] + headerWritten);
+                payload.position(offsets[1] + w - headerWritten);
+            }
+        } finally {
+            buffers[0] = null;
+            buffers[1] = null;
+        }
+    }
+}
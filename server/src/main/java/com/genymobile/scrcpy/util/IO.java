@@ -3,6 +3,7 @@ package com.genymobile.scrcpy.util;
 import com.genymobile.scrcpy.AndroidVersions;
 import com.genymobile.scrcpy.BuildConfig;
 
+import android.annotation.TargetApi;
 import android.os.Build;
 import android.system.ErrnoException;
 import android.system.Os;
@@ -59,6 +60,26 @@ public final class IO {
         writeFully(fd, ByteBuffer.wrap(buffer, offset, len));
     }
 
+    /**
+     * Read some bytes from {@code fd} into {@code to}, and update its position.
+     *
+     * @return the number of bytes read, or -1 on end of stream
+     */
+    @TargetApi(AndroidVersions.API_23_ANDROID_6_0)
+    public static int read(FileDescriptor fd, ByteBuffer to) throws IOException {
+        assert to.hasRemaining();
+        while (true) {
+            try {
+                int r = Os.read(fd, to);
+                return r == 0 ? -1 : r;
+            } catch (ErrnoException e) {
+                if (e.errno != OsConstants.EINTR) {
+                    throw new IOException(e);
+                }
+            }
+        }
+    }
+
     public static String toString(InputStream inputStream) {
         StringBuilder builder = new StringBuilder();
         Scanner scanner = new Scanner(inputStream);
@@ -0,0 +1,139 @@
+package com.genymobile.scrcpy.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free bounded ring of task slots, between a single producer thread and a single consumer thread.
+ * <p>
+ * The ring only manages the slot indices: the task data is stored by the caller in preallocated (typically primitive) arrays indexed by
+ * slot. The producer fills the slot returned by {@link #claim()} then calls {@link #publish()}; the consumer reads the slot returned by
+ * {@link #take()} then calls {@link #release()}. Therefore, passing a task does not allocate anything.
+ */
+public final class TaskRing {
+
+    // Wait duration of a producer when the ring is full (this is not expected to happen in practice)
+    private static final long PRODUCER_BACKOFF_NS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final int mask;
+
+    // Number of slots released by the consumer (only written by the consumer)
+    private final AtomicLong head = new AtomicLong();
+    // Number of slots published by the producer (only written by the producer)
+    private final AtomicLong tail = new AtomicLong();
+
+    private volatile Thread waitingConsumer;
+    private volatile boolean closed;
+
+    /**
+     * Create a ring.
+     *
+     * @param capacity the number of slots (must be a power of 2)
+     */
+    public TaskRing(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Task ring capacity must be a power of 2: " + capacity);
+        }
+        mask = capacity - 1;
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Return the next slot to fill, without waiting (producer only).
+     *
+     * @return the slot index, or -1 if the ring is full
+     */
+    public int claim() {
+        long t = tail.get();
+        if (t - head.get() > mask) {
+            return -1;
+        }
+        return (int) t & mask;
+    }
+
+    /**
+     * Return the next slot to fill, waiting for the consumer if the ring is full (producer only).
+     *
+     * @return the slot index, or -1 if the ring is closed
+     */
+    public int claimOrWait() {
+        while (!closed) {
+            int slot = claim();
+            if (slot != -1) {
+                return slot;
+            }
+            LockSupport.parkNanos(this, PRODUCER_BACKOFF_NS);
+        }
+        return -1;
+    }
+
+    /**
+     * Make the slot returned by the last call to {@link #claim()} available to the consumer (producer only).
+     */
+    public void publish() {
+        // Volatile write, then volatile read: a consumer registered before it is either seen here, or it sees the new tail
+        tail.set(tail.get() + 1);
+        Thread consumer = waitingConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * Wait for the next published slot (consumer only).
+     * <p>
+     * The slot remains owned by the consumer (and is not reused) until {@link #release()} is called.
+     *
+     * @return the slot index, or -1 if the ring is closed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public int take() throws InterruptedException {
+        long h = head.get();
+        while (true) {
+            if (closed) {
+                return -1;
+            }
+            if (tail.get() != h) {
+                return (int) h & mask;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            waitingConsumer = Thread.currentThread();
+            // Check again after registering, so that a concurrent publish() may not be missed
+            if (tail.get() == h && !closed) {
+                LockSupport.park(this);
+            }
+            waitingConsumer = null;
+        }
+    }
+
+    /**
+     * Release the slot returned by the last call to {@link #take()} (consumer only).
+     */
+    public void release() {
+        head.lazySet(head.get() + 1);
+    }
+
+    /**
+     * Return the number of published slots not released yet.
+     */
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    /**
+     * Close the ring: the pending slots are discarded, and the waiting producer and consumer are woken up.
+     */
+    public void close() {
+        closed = true;
+        Thread consumer = waitingConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+}
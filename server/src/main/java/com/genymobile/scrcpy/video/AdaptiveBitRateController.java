@@ -0,0 +1,117 @@
+package com.genymobile.scrcpy.video;
+
+/**
+ * Adapt the video bit rate to the connection throughput, detected from the time spent blocked on writes to the socket.
+ * <p>
+ * The time is split into windows. For each window, the "stall ratio" is the proportion of time spent in blocking writes:
+ * <ul>
+ *     <li>if it is above {@link #CONGESTED_STALL_RATIO}, the connection cannot keep up: the bit rate is immediately decreased below the
+ *     throughput observed during the window;</li>
+ *     <li>if it stays below {@link #FREE_STALL_RATIO} for several consecutive windows, the bit rate is increased progressively;</li>
+ *     <li>otherwise, the bit rate is kept as is.</li>
+ * </ul>
+ * After a congestion, the bit rate may not be increased above the congestion level for some time, to avoid oscillations.
+ * <p>
+ * This class does not depend on Android, all timestamps are provided by the caller.
+ */
+public final class AdaptiveBitRateController {
+
+    private static final long WINDOW_NS = 500_000_000; // 500ms
+    private static final float CONGESTED_STALL_RATIO = 0.02f;
+    private static final float FREE_STALL_RATIO = 0.002f;
+    private static final int FREE_WINDOWS_BEFORE_INCREASE = 4;
+    private static final float DECREASE_FACTOR = 0.7f;
+    private static final float OBSERVED_THROUGHPUT_MARGIN = 0.85f;
+    private static final float INCREASE_FACTOR = 1.1f;
+    private static final float CEILING_MARGIN = 0.95f;
+    private static final long CEILING_DURATION_NS = 10_000_000_000L; // 10s
+
+    private final int minBitRate;
+    private final int maxBitRate;
+    private int bitRate;
+
+    private long windowStartNs = -1;
+    private long windowStallNs;
+    private long windowBytes;
+    private int freeWindows;
+
+    // Bit rate at which the last congestion occurred (0 if none)
+    private int ceilingBitRate;
+    private long ceilingEndNs;
+
+    public AdaptiveBitRateController(int initialBitRate, int minBitRate, int maxBitRate) {
+        if (minBitRate <= 0 || minBitRate > maxBitRate) {
+            throw new IllegalArgumentException("Invalid bit rate bounds: [" + minBitRate + ", " + maxBitRate + "]");
+        }
+        this.minBitRate = minBitRate;
+        this.maxBitRate = maxBitRate;
+        this.bitRate = clamp(initialBitRate);
+    }
+
+    private int clamp(long value) {
+        return (int) Math.max(minBitRate, Math.min(maxBitRate, value));
+    }
+
+    /**
+     * Notify that a packet has been written.
+     *
+     * @param size the packet size, in bytes
+     * @param writeDurationNs the time spent in the write call
+     * @param nowNs the current (monotonic) time, at the end of the write
+     * @return {@code true} if the bit rate has changed
+     */
+    public synchronized boolean onPacketWritten(int size, long writeDurationNs, long nowNs) {
+        if (windowStartNs == -1) {
+            windowStartNs = nowNs - writeDurationNs;
+        }
+
+        windowStallNs += writeDurationNs;
+        windowBytes += size;
+
+        long elapsedNs = nowNs - windowStartNs;
+        if (elapsedNs < WINDOW_NS) {
+            return false;
+        }
+
+        float stallRatio = (float) windowStallNs / elapsedNs;
+        long observedBitRate = windowBytes * 8 * 1_000_000_000L / elapsedNs;
+
+        windowStartNs = nowNs;
+        windowStallNs = 0;
+        windowBytes = 0;
+
+        int oldBitRate = bitRate;
+        if (stallRatio > CONGESTED_STALL_RATIO) {
+            freeWindows = 0;
+            ceilingBitRate = bitRate;
+            ceilingEndNs = nowNs + CEILING_DURATION_NS;
+            // The connection could not transmit more than the observed throughput during this window
+            long target = Math.min((long) (bitRate * DECREASE_FACTOR), (long) (observedBitRate * OBSERVED_THROUGHPUT_MARGIN));
+            bitRate = clamp(target);
+        } else if (stallRatio < FREE_STALL_RATIO) {
+            ++freeWindows;
+            if (freeWindows >= FREE_WINDOWS_BEFORE_INCREASE) {
+                freeWindows = 0;
+                long target = (long) (bitRate * INCREASE_FACTOR);
+                if (ceilingBitRate != 0) {
+                    if (nowNs < ceilingEndNs) {
+                        target = Math.min(target, (long) (ceilingBitRate * CEILING_MARGIN));
+                    } else {
+                        ceilingBitRate = 0;
+                    }
+                }
+                // Never decrease on increase (if the bit rate is already close to the ceiling)
+                bitRate = clamp(Math.max(target, bitRate));
+            }
+        } else {
+            // Hysteresis band: keep the current bit rate
+            freeWindows = 0;
+        }
+
+        return bitRate != oldBitRate;
+    }
+
+    public synchronized int getBitRate() {
+        return bitRate;
+    }
+}
@@ -56,7 +56,7 @@ public class CameraCapture extends SurfaceCapture {
     private final String explicitCameraId;
     private final CameraFacing cameraFacing;
     private final Size explicitSize;
-    private int maxSize;
+    private volatile int maxSize; // may be changed at runtime from the controller
     private final CameraAspectRatio aspectRatio;
     private final int fps;
     private final boolean highSpeed;
@@ -0,0 +1,104 @@
+package com.genymobile.scrcpy.video;
+
+import com.genymobile.scrcpy.device.Size;
+import com.genymobile.scrcpy.util.AffineMatrix;
+
+import android.graphics.Rect;
+
+/**
+ * A video filter expressed as a display projection, so that it is applied by the compositor instead of an OpenGL pass.
+ * <p/>
+ * The display projection selects a rectangle of the layer stack (the source crop), rotates it by a multiple of 90° and scales it to the
+ * whole target surface. It cannot flip the content or rotate it by an arbitrary angle.
+ */
+public final class DisplayProjection {
+
+    private final int orientation;
+    private final int left;
+    private final int top;
+    private final int right;
+    private final int bottom;
+
+    private DisplayProjection(int orientation, int left, int top, int right, int bottom) {
+        this.orientation = orientation;
+        this.left = left;
+        this.top = top;
+        this.right = right;
+        this.bottom = bottom;
+    }
+
+    /**
+     * Create the display projection equivalent to a filter transform, if any.
+     *
+     * @param inverseTransform the inverse filter transform (as returned by {@link VideoFilter#getInverseTransform()})
+     * @param inputSize the size of the filter input (the display size)
+     * @return the display projection, or {@code null} if the transform cannot be applied by a display projection
+     */
+    public static DisplayProjection fromInverseTransform(AffineMatrix inverseTransform, Size inputSize) {
+        if (inverseTransform == null) {
+            return new DisplayProjection(0, 0, 0, inputSize.getWidth(), inputSize.getHeight());
+        }
+
+        // The inverse transform maps the output to the input: if the output is rotated by r counter-clockwise, it is rotated by -r
+        int rotation = inverseTransform.getOrthoRotation();
+        if (rotation == -1) {
+            // Flip or arbitrary angle
+            return null;
+        }
+
+        // The source crop is the image of the whole output by the inverse transform
+        AffineMatrix toPixels = AffineMatrix.ndcToPixels(inputSize).multiply(inverseTransform);
+        double x0 = toPixels.applyX(0, 0);
+        double y0 = toPixels.applyY(0, 0);
+        double x1 = toPixels.applyX(1, 1);
+        double y1 = toPixels.applyY(1, 1);
+
+        int left = (int) Math.round(Math.min(x0, x1));
+        int top = (int) Math.round(Math.min(y0, y1));
+        int right = (int) Math.round(Math.max(x0, x1));
+        int bottom = (int) Math.round(Math.max(y0, y1));
+        if (left < 0 || top < 0 || right > inputSize.getWidth() || bottom > inputSize.getHeight() || left >= right || top >= bottom) {
+            // The output is not a sub-rectangle of the input
+            return null;
+        }
+
+        // The display projection orientation is a clockwise rotation of the content (like Surface.ROTATION_*), i.e. the counter-clockwise
+        // rotation of the inverse transform
+        return new DisplayProjection(rotation, left, top, right, bottom);
+    }
+
+    /**
+     * Return the orientation of the projection (one of the {@code Surface.ROTATION_*} constants).
+     */
+    public int getOrientation() {
+        return orientation;
+    }
+
+    public int getLeft() {
+        return left;
+    }
+
+    public int getTop() {
+        return top;
+    }
+
+    public int getRight() {
+        return right;
+    }
+
+    public int getBottom() {
+        return bottom;
+    }
+
+    /**
+     * Return the source crop, in layer stack coordinates.
+     */
+    public Rect getLayerStackRect() {
+        return new Rect(left, top, right, bottom);
+    }
+
+    @Override
+    public String toString() {
+        return "DisplayProjection{orientation=" + orientation + ", crop=[" + left + ", " + top + ", " + right + ", " + bottom + "]}";
+    }
+}
@@ -0,0 +1,110 @@
+package com.genymobile.scrcpy.video;
+
+import com.genymobile.scrcpy.metrics.Counter;
+import com.genymobile.scrcpy.metrics.Metrics;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesce bursts of capture invalidations into a single reset.
+ * <p>
+ * On rotation, fold or resize, several display change callbacks may arrive within a few milliseconds, and each of them would restart the
+ * encoder. Instead, the reset is forwarded once no invalidation occurred during the quiet period, or at most after the max delay since the
+ * first invalidation of the burst. Since the capture reads the display properties when it is prepared after the reset, the single reset
+ * uses the latest ones.
+ */
+final class InvalidationDebouncer implements SurfaceCapture.CaptureListener {
+
+    interface Timer {
+        long nanoTime();
+
+        void schedule(Runnable task, long delayNs);
+    }
+
+    private final SurfaceCapture.CaptureListener target;
+    private final long quietNs;
+    private final long maxDelayNs;
+    private final Timer timer;
+    private final ScheduledExecutorService executor; // null if the timer is provided
+
+    private final Counter suppressedResets = Metrics.counter("video.capture_resets_suppressed");
+
+    private boolean pending;
+    private long firstInvalidationNs;
+    private long lastInvalidationNs;
+
+    InvalidationDebouncer(SurfaceCapture.CaptureListener target, long quietNs, long maxDelayNs, Timer timer) {
+        this(target, quietNs, maxDelayNs, timer, null);
+    }
+
+    private InvalidationDebouncer(SurfaceCapture.CaptureListener target, long quietNs, long maxDelayNs, Timer timer,
+            ScheduledExecutorService executor) {
+        this.target = target;
+        this.quietNs = quietNs;
+        this.maxDelayNs = maxDelayNs;
+        this.timer = timer;
+        this.executor = executor;
+    }
+
+    /**
+     * Create a debouncer running its timer on a dedicated thread (it must be released by {@link #release()}).
+     */
+    static InvalidationDebouncer create(SurfaceCapture.CaptureListener target, int quietMs, int maxDelayMs) {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "capture-reset");
+            // Never prevent the process from exiting
+            thread.setDaemon(true);
+            return thread;
+        });
+        Timer timer = new Timer() {
+            @Override
+            public long nanoTime() {
+                return System.nanoTime();
+            }
+
+            @Override
+            public void schedule(Runnable task, long delayNs) {
+                executor.schedule(task, delayNs, TimeUnit.NANOSECONDS);
+            }
+        };
+        return new InvalidationDebouncer(target, TimeUnit.MILLISECONDS.toNanos(quietMs), TimeUnit.MILLISECONDS.toNanos(maxDelayMs), timer,
+                executor);
+    }
+
+    void release() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    @Override
+    public synchronized void onInvalidated() {
+        long nowNs = timer.nanoTime();
+        if (pending) {
+            // Fulfilled by the reset already scheduled
+            suppressedResets.increment();
+        } else {
+            pending = true;
+            firstInvalidationNs = nowNs;
+            timer.schedule(this::check, Math.min(quietNs, maxDelayNs));
+        }
+        lastInvalidationNs = nowNs;
+    }
+
+    private void check() {
+        synchronized (this) {
+            long nowNs = timer.nanoTime();
+            long deadlineNs = Math.min(lastInvalidationNs + quietNs, firstInvalidationNs + maxDelayNs);
+            if (nowNs < deadlineNs) {
+                // Invalidated again in the meantime
+                timer.schedule(this::check, deadlineNs - nowNs);
+                return;
+            }
+            pending = false;
+        }
+
+        target.onInvalidated();
+    }
+}
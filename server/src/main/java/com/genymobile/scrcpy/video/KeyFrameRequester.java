@@ -0,0 +1,96 @@
+package com.genymobile.scrcpy.video;
+
+import com.genymobile.scrcpy.metrics.Counter;
+import com.genymobile.scrcpy.metrics.Metrics;
+
+/**
+ * Request key frames from the running encoder, without restarting it (unlike a {@link CaptureReset capture reset}).
+ * <p>
+ * The requests are coalesced: a key frame produced after a request satisfies all the pending requests. They are also rate-limited: a new
+ * request is not forwarded to the encoder while the key frame requested just before may still be in flight (it is forwarded later if no key
+ * frame has been produced in the meantime).
+ * <p>
+ * This class does not depend on Android, all timestamps are provided by the caller.
+ */
+public final class KeyFrameRequester {
+
+    public interface Encoder {
+        /**
+         * Ask the encoder to produce a key frame as soon as possible.
+         */
+        void requestKeyFrame();
+    }
+
+    // The encoder typically produces the requested key frame within a few frames
+    private static final long MIN_FORWARD_INTERVAL_NS = 100_000_000; // 100ms
+
+    private final Counter requests = Metrics.counter("video.key_frame_requests");
+    private final Counter forwardedRequests = Metrics.counter("video.key_frame_requests_forwarded");
+
+    private Encoder runningEncoder; // null if no encoder is running
+    // Written under lock, but read without lock on each frame
+    private volatile boolean pending;
+    private boolean forwarded; // at least once
+    private long lastForwardNs;
+
+    /**
+     * Set the encoder to forward the requests to (or {@code null} if no encoder is running).
+     * <p>
+     * A new encoding session always starts with a key frame, so the pending requests are kept and will be satisfied by its first frame.
+     */
+    public synchronized void setRunningEncoder(Encoder encoder) {
+        this.runningEncoder = encoder;
+        forwarded = false;
+    }
+
+    /**
+     * Request a key frame (from any thread).
+     *
+     * @param nowNs the current (monotonic) time
+     */
+    public synchronized void request(long nowNs) {
+        requests.increment();
+        pending = true;
+        forwardIfAllowed(nowNs);
+    }
+
+    /**
+     * Notify that the encoder produced a frame (from the encoder thread).
+     *
+     * @param keyFrame whether the frame is a key frame
+     * @param nowNs the current (monotonic) time
+     */
+    public void onFrame(boolean keyFrame, long nowNs) {
+        if (!pending) {
+            // Fast path: nothing is requested
+            return;
+        }
+
+        synchronized (this) {
+            if (keyFrame) {
+                pending = false;
+            } else {
+                forwardIfAllowed(nowNs);
+            }
+        }
+    }
+
+    boolean isPending() {
+        return pending;
+    }
+
+    private void forwardIfAllowed(long nowNs) {
+        if (runningEncoder == null) {
+            return;
+        }
+        if (forwarded && nowNs - lastForwardNs < MIN_FORWARD_INTERVAL_NS) {
+            // Wait for the key frame requested recently
+            return;
+        }
+
+        runningEncoder.requestKeyFrame();
+        forwardedRequests.increment();
+        forwarded = true;
+        lastForwardNs = nowNs;
+    }
+}
@@ -29,7 +29,7 @@ public class ScreenCapture extends SurfaceCapture {
 
     private final VirtualDisplayListener vdListener;
     private final int displayId;
-    private int maxSize;
+    private volatile int maxSize; // may be changed at runtime from the controller
     private final Rect crop;
     private Orientation.Lock captureOrientationLock;
     private Orientation captureOrientation;
@@ -44,6 +44,8 @@ public class ScreenCapture extends SurfaceCapture {
     private VirtualDisplay virtualDisplay;
 
     private AffineMatrix transform;
+    private DisplayProjection projection; // null if the transform requires OpenGL
+    private boolean projectionUnsupported; // set if the display could not be created using SurfaceControl
     private OpenGLRunner glRunner;
 
     public ScreenCapture(VirtualDisplayListener vdListener, Options options) {
@@ -97,6 +99,7 @@ public class ScreenCapture extends SurfaceCapture {
         filter.addAngle(angle);
 
         transform = filter.getInverseTransform();
+        projection = filter.getDisplayProjection();
         videoSize = filter.getOutputSize().limit(maxSize).round8();
     }
 
@@ -111,6 +114,13 @@ public class ScreenCapture extends SurfaceCapture {
             virtualDisplay = null;
         }
 
+        if (transform != null && projection != null && !projectionUnsupported) {
+            // The filter only crops, scales or rotates by a multiple of 90°: let the compositor apply it, to avoid an OpenGL pass
+            if (startWithDisplayProjection(surface)) {
+                return;
+            }
+        }
+
         Size inputSize;
         if (transform != null) {
             // If there is a filter, it must receive the full display content
@@ -141,7 +151,7 @@ public class ScreenCapture extends SurfaceCapture {
                 Size deviceSize = displayInfo.getSize();
                 int layerStack = displayInfo.getLayerStack();
 
-                setDisplaySurface(display, surface, deviceSize.toRect(), inputSize.toRect(), layerStack);
+                setDisplaySurface(display, surface, 0, deviceSize.toRect(), inputSize.toRect(), layerStack);
                 virtualDisplayId = displayId;
 
                 positionMapper = PositionMapper.create(videoSize, transform, deviceSize);
@@ -158,6 +168,31 @@ public class ScreenCapture extends SurfaceCapture {
         }
     }
 
+    private boolean startWithDisplayProjection(Surface surface) {
+        // A virtual display created by the DisplayManager API mirrors the whole display, so the projection requires the SurfaceControl API
+        try {
+            display = createDisplay();
+            setDisplaySurface(display, surface, projection.getOrientation(), projection.getLayerStackRect(), videoSize.toRect(),
+                    displayInfo.getLayerStack());
+        } catch (Exception e) {
+            Ln.d("Could not create display using SurfaceControl, fallback to OpenGL filter: " + e);
+            if (display != null) {
+                SurfaceControl.destroyDisplay(display);
+                display = null;
+            }
+            projectionUnsupported = true;
+            return false;
+        }
+
+        Ln.d("Display: using SurfaceControl API (" + projection + ")");
+        if (vdListener != null) {
+            // The positions are relative to the original display
+            PositionMapper positionMapper = PositionMapper.create(videoSize, transform, displayInfo.getSize());
+            vdListener.onNewVirtualDisplay(displayId, positionMapper);
+        }
+        return true;
+    }
+
     @Override
     public void stop() {
         if (glRunner != null) {
@@ -199,11 +234,11 @@ public class ScreenCapture extends SurfaceCapture {
         return SurfaceControl.createDisplay("scrcpy", secure);
     }
 
-    private static void setDisplaySurface(IBinder display, Surface surface, Rect deviceRect, Rect displayRect, int layerStack) {
+    private static void setDisplaySurface(IBinder display, Surface surface, int orientation, Rect deviceRect, Rect displayRect, int layerStack) {
         SurfaceControl.openTransaction();
         try {
             SurfaceControl.setDisplaySurface(display, surface);
-            SurfaceControl.setDisplayProjection(display, 0, deviceRect, displayRect);
+            SurfaceControl.setDisplayProjection(display, orientation, deviceRect, displayRect);
             SurfaceControl.setDisplayLayerStack(display, layerStack);
         } finally {
             SurfaceControl.closeTransaction();
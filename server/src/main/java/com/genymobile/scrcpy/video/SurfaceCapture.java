@@ -72,7 +72,9 @@ public abstract class SurfaceCapture {
     public abstract Size getSize();
 
     /**
-     * Set the maximum capture size (set by the encoder if it does not support the current size).
+     * Set the maximum capture size (set by the encoder if it does not support the current size, or changed at runtime by the client).
+     * <p>
+     * It may be called from any thread, and takes effect on the next {@link #prepare()}.
      *
      * @param maxSize Maximum size
      */
@@ -3,9 +3,16 @@ package com.genymobile.scrcpy.video;
 import com.genymobile.scrcpy.AndroidVersions;
 import com.genymobile.scrcpy.AsyncProcessor;
 import com.genymobile.scrcpy.Options;
+import com.genymobile.scrcpy.device.AsyncPacketWriter;
 import com.genymobile.scrcpy.device.ConfigurationException;
+import com.genymobile.scrcpy.device.PacketQueue;
 import com.genymobile.scrcpy.device.Size;
+import com.genymobile.scrcpy.device.StreamFanOut;
 import com.genymobile.scrcpy.device.Streamer;
+import com.genymobile.scrcpy.metrics.Counter;
+import com.genymobile.scrcpy.metrics.Gauge;
+import com.genymobile.scrcpy.metrics.Histogram;
+import com.genymobile.scrcpy.metrics.Metrics;
 import com.genymobile.scrcpy.util.Codec;
 import com.genymobile.scrcpy.util.CodecOption;
 import com.genymobile.scrcpy.util.CodecUtils;
@@ -17,6 +24,7 @@ import android.media.MediaCodec;
 import android.media.MediaCodecInfo;
 import android.media.MediaFormat;
 import android.os.Build;
+import android.os.Bundle;
 import android.os.Looper;
 import android.os.SystemClock;
 import android.view.Surface;
@@ -37,12 +45,29 @@ public class SurfaceEncoder implements AsyncProcessor {
     private static final int MAX_CONSECUTIVE_ERRORS = 3;
 
     private final SurfaceCapture capture;
-    private final Streamer streamer;
+    private final Codec codec;
+    private final Streamer streamer; // null in broadcast mode
+    private final StreamFanOut fanOut; // null if not in broadcast mode
     private final String encoderName;
     private final List<CodecOption> codecOptions;
-    private final int videoBitRate;
-    private final float maxFps;
+    // May be changed at runtime (from another thread)
+    private volatile int videoBitRate;
+    private volatile float maxFps;
+    // Until changed at runtime, the values from the format (possibly set by the codec options) are kept
+    private volatile boolean videoBitRateChanged;
+    private volatile boolean maxFpsChanged;
     private final boolean downsizeOnError;
+    private final int packetQueueSize;
+    private final PacketQueue.OverflowPolicy packetQueueOverflow;
+    private final AdaptiveBitRateController bitRateController; // null if the bit rate is not adaptive
+    private final int captureResetQuietMs;
+    private final int captureResetMaxDelayMs;
+    private int appliedBitRate;
+
+    private final Histogram dequeueWaits = Metrics.histogram("video.dequeue_wait_us");
+    private final Histogram packetSizes = Metrics.histogram("video.packet_size");
+    private final Counter frames = Metrics.counter("video.frames");
+    private final Gauge bitRateGauge = Metrics.gauge("video.bit_rate");
 
     private boolean firstFrameSent;
     private int consecutiveErrors;
@@ -51,23 +76,137 @@ public class SurfaceEncoder implements AsyncProcessor {
     private final AtomicBoolean stopped = new AtomicBoolean();
 
     private final CaptureReset reset = new CaptureReset();
+    private final KeyFrameRequester keyFrameRequester = new KeyFrameRequester();
 
     public SurfaceEncoder(SurfaceCapture capture, Streamer streamer, Options options) {
+        this(capture, streamer.getCodec(), streamer, null, options);
+    }
+
+    /**
+     * Create an encoder in broadcast mode: the packets are pushed to all the clients of the fan-out.
+     * <p>
+     * The fan-out has its own ring per client, so the video packet queue and the adaptive bit rate options are ignored.
+     */
+    public SurfaceEncoder(SurfaceCapture capture, StreamFanOut fanOut, Options options) {
+        this(capture, options.getVideoCodec(), null, fanOut, options);
+        // A joining client needs a key frame
+        fanOut.setListener(() -> keyFrameRequester.request(System.nanoTime()));
+    }
+
+    private SurfaceEncoder(SurfaceCapture capture, Codec codec, Streamer streamer, StreamFanOut fanOut, Options options) {
         this.capture = capture;
+        this.codec = codec;
         this.streamer = streamer;
+        this.fanOut = fanOut;
         this.videoBitRate = options.getVideoBitRate();
         this.maxFps = options.getMaxFps();
         this.codecOptions = options.getVideoCodecOptions();
         this.encoderName = options.getVideoEncoder();
         this.downsizeOnError = options.getDownsizeOnError();
+        this.packetQueueSize = fanOut == null ? options.getVideoPacketQueueSize() : 0;
+        this.packetQueueOverflow = options.getVideoPacketQueueOverflow();
+        this.captureResetQuietMs = options.getCaptureResetQuietMs();
+        this.captureResetMaxDelayMs = options.getCaptureResetMaxDelayMs();
+        if (options.getVideoBitRateAdaptive() && fanOut == null) {
+            int minBitRate = options.getVideoBitRateMin();
+            int maxBitRate = options.getVideoBitRateMax();
+            if (minBitRate == 0) {
+                minBitRate = videoBitRate / 8;
+                if (maxBitRate != 0) {
+                    minBitRate = Math.min(minBitRate, maxBitRate);
+                }
+                // The bit rate must remain positive, even if the requested one is very low
+                minBitRate = Math.max(1, minBitRate);
+            }
+            if (maxBitRate == 0) {
+                maxBitRate = Math.max(videoBitRate, minBitRate);
+            }
+            bitRateController = new AdaptiveBitRateController(videoBitRate, minBitRate, maxBitRate);
+        } else {
+            bitRateController = null;
+        }
+    }
+
+    public KeyFrameRequester getKeyFrameRequester() {
+        return keyFrameRequester;
+    }
+
+    /**
+     * Change the video bit rate, without restarting the encoder (from any thread).
+     *
+     * @param bitRate the new bit rate
+     * @return {@code true} if the change is accepted, {@code false} if the bit rate is invalid or adaptive
+     */
+    public boolean setVideoBitRate(int bitRate) {
+        if (bitRate <= 0 || bitRateController != null) {
+            return false;
+        }
+        // Applied by the encoding thread on the next frame
+        videoBitRate = bitRate;
+        videoBitRateChanged = true;
+        return true;
+    }
+
+    /**
+     * Change the maximum frame rate (from any thread).
+     * <p>
+     * The encoder only accepts this value on configuration, so this resets the capture.
+     *
+     * @param fps the new maximum frame rate (0 for unlimited)
+     * @return {@code true} if the change is accepted
+     */
+    public boolean setMaxFps(float fps) {
+        if (!isValidMaxFps(fps)) {
+            return false;
+        }
+        maxFps = fps;
+        maxFpsChanged = true;
+        reset.reset();
+        return true;
+    }
+
+    static boolean isValidMaxFps(float fps) {
+        // Also reject NaN, which would be passed as is to the encoder
+        return fps >= 0 && !Float.isInfinite(fps);
+    }
+
+    /**
+     * Change the maximum video size (from any thread).
+     * <p>
+     * This resets the capture.
+     *
+     * @param maxSize the new maximum size (0 for unlimited)
+     * @return {@code true} if the change is accepted by the capture
+     */
+    public boolean setMaxSize(int maxSize) {
+        if (!capture.setMaxSize(maxSize & ~7)) { // multiple of 8
+            return false;
+        }
+        reset.reset();
+        return true;
     }
 
     private void streamCapture() throws IOException, ConfigurationException {
-        Codec codec = streamer.getCodec();
         MediaCodec mediaCodec = createMediaCodec(codec, encoderName);
         MediaFormat format = createFormat(codec.getMimeType(), videoBitRate, maxFps, codecOptions);
 
-        capture.init(reset);
+        InvalidationDebouncer debouncer = null;
+        if (captureResetQuietMs > 0) {
+            debouncer = InvalidationDebouncer.create(reset, captureResetQuietMs, captureResetMaxDelayMs);
+            capture.init(debouncer);
+        } else {
+            capture.init(reset);
+        }
+
+        if (bitRateController != null) {
+            streamer.setWriteListener(bitRateController::onPacketWritten);
+        }
+
+        AsyncPacketWriter packetWriter = null;
+        if (packetQueueSize > 0) {
+            packetWriter = new AsyncPacketWriter(streamer, packetQueueSize, packetQueueOverflow, "video-send");
+            packetWriter.start();
+        }
 
         try {
             boolean alive;
@@ -77,11 +216,22 @@ public class SurfaceEncoder implements AsyncProcessor {
                 reset.consumeReset(); // If a capture reset was requested, it is implicitly fulfilled
                 capture.prepare();
                 Size size = capture.getSize();
-                if (!headerWritten) {
+                if (fanOut != null) {
+                    // The header is written to each client when it joins
+                    fanOut.setVideoSize(size);
+                } else if (!headerWritten) {
                     streamer.writeVideoHeader(size);
                     headerWritten = true;
                 }
 
+                if (bitRateController != null) {
+                    // Start the new encoding session with the current adapted bit rate
+                    appliedBitRate = applySessionSettings(format, bitRateController.getBitRate(), true, maxFps, maxFpsChanged);
+                } else {
+                    appliedBitRate = applySessionSettings(format, videoBitRate, videoBitRateChanged, maxFps, maxFpsChanged);
+                }
+                bitRateGauge.set(appliedBitRate);
+
                 format.setInteger(MediaFormat.KEY_WIDTH, size.getWidth());
                 format.setInteger(MediaFormat.KEY_HEIGHT, size.getHeight());
 
@@ -100,6 +250,7 @@ public class SurfaceEncoder implements AsyncProcessor {
 
                     // Set the MediaCodec instance to "interrupt" (by signaling an EOS) on reset
                     reset.setRunningMediaCodec(mediaCodec);
+                    keyFrameRequester.setRunningEncoder(() -> requestSyncFrame(mediaCodec));
 
                     if (stopped.get()) {
                         alive = false;
@@ -107,7 +258,7 @@ public class SurfaceEncoder implements AsyncProcessor {
                         boolean resetRequested = reset.consumeReset();
                         if (!resetRequested) {
                             // If a reset is requested during encode(), it will interrupt the encoding by an EOS
-                            encode(mediaCodec, streamer);
+                            encode(mediaCodec, packetWriter);
                         }
                         // The capture might have been closed internally (for example if the camera is disconnected)
                         alive = !stopped.get() && !capture.isClosed();
@@ -120,6 +271,7 @@ public class SurfaceEncoder implements AsyncProcessor {
                     alive = true;
                 } finally {
                     reset.setRunningMediaCodec(null);
+                    keyFrameRequester.setRunningEncoder(null);
                     if (captureStarted) {
                         capture.stop();
                     }
@@ -137,8 +289,26 @@ public class SurfaceEncoder implements AsyncProcessor {
                 }
             } while (alive);
         } finally {
+            if (packetWriter != null) {
+                packetWriter.stop();
+                try {
+                    packetWriter.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (fanOut != null) {
+                try {
+                    fanOut.close();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
             mediaCodec.release();
             capture.release();
+            if (debouncer != null) {
+                debouncer.release();
+            }
         }
     }
 
@@ -190,12 +360,16 @@ public class SurfaceEncoder implements AsyncProcessor {
         return 0;
     }
 
-    private void encode(MediaCodec codec, Streamer streamer) throws IOException {
+    private void encode(MediaCodec codec, AsyncPacketWriter packetWriter) throws IOException {
         MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
 
         boolean eos;
         do {
+            long dequeueStartNs = System.nanoTime();
             int outputBufferId = codec.dequeueOutputBuffer(bufferInfo, -1);
+            long dequeueNs = System.nanoTime();
+            dequeueWaits.record((dequeueNs - dequeueStartNs) / 1000);
+            updateBitRate(codec);
             try {
                 eos = (bufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
                 // On EOS, there might be data or not, depending on bufferInfo.size
@@ -207,9 +381,26 @@ public class SurfaceEncoder implements AsyncProcessor {
                         // If this is not a config packet, then it contains a frame
                         firstFrameSent = true;
                         consecutiveErrors = 0;
+                        frames.increment();
+                        keyFrameRequester.onFrame((bufferInfo.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0, dequeueNs);
                     }
+                    packetSizes.record(bufferInfo.size);
 
-                    streamer.writePacket(codecBuffer, bufferInfo);
+                    if (fanOut != null) {
+                        // The packet is copied to the ring of each client
+                        boolean syncFrameNeeded = fanOut.push(codecBuffer, bufferInfo, dequeueNs);
+                        if (syncFrameNeeded) {
+                            keyFrameRequester.request(dequeueNs);
+                        }
+                    } else if (packetWriter != null) {
+                        // The packet is copied, so the codec buffer is released without waiting for the socket
+                        boolean syncFrameNeeded = packetWriter.writePacket(codecBuffer, bufferInfo, dequeueNs);
+                        if (syncFrameNeeded) {
+                            keyFrameRequester.request(dequeueNs);
+                        }
+                    } else {
+                        streamer.writePacket(codecBuffer, bufferInfo, dequeueNs, 0);
+                    }
                 }
             } finally {
                 if (outputBufferId >= 0) {
@@ -219,6 +410,40 @@ public class SurfaceEncoder implements AsyncProcessor {
         } while (!eos);
     }
 
+    private void updateBitRate(MediaCodec codec) {
+        int bitRate;
+        if (bitRateController != null) {
+            bitRate = bitRateController.getBitRate();
+        } else if (videoBitRateChanged) {
+            bitRate = videoBitRate;
+        } else {
+            // Keep the bit rate of the format
+            return;
+        }
+        if (bitRate != appliedBitRate) {
+            Bundle params = new Bundle();
+            params.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, bitRate);
+            try {
+                codec.setParameters(params);
+                Ln.d("Video bit rate: " + appliedBitRate + " -> " + bitRate);
+                appliedBitRate = bitRate;
+                bitRateGauge.set(bitRate);
+            } catch (IllegalStateException e) {
+                // ignore
+            }
+        }
+    }
+
+    private static void requestSyncFrame(MediaCodec codec) {
+        Bundle params = new Bundle();
+        params.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+        try {
+            codec.setParameters(params);
+        } catch (IllegalStateException e) {
+            // ignore
+        }
+    }
+
     private static MediaCodec createMediaCodec(Codec codec, String encoderName) throws IOException, ConfigurationException {
         if (encoderName != null) {
             Ln.d("Creating encoder by name: '" + encoderName + "'");
@@ -281,6 +506,30 @@ public class SurfaceEncoder implements AsyncProcessor {
         return format;
     }
 
+    /**
+     * Apply the settings changed at runtime to the format, before configuring a new encoding session.
+     * <p>
+     * The other values of the format (possibly set by the codec options, which are applied after the initial settings) are kept as is.
+     *
+     * @return the bit rate of the session
+     */
+    static int applySessionSettings(MediaFormat format, int bitRate, boolean bitRateChanged, float maxFps, boolean maxFpsChanged) {
+        if (bitRateChanged) {
+            format.setInteger(MediaFormat.KEY_BIT_RATE, bitRate);
+        }
+        if (maxFpsChanged) {
+            // 0 disables the limit
+            format.setFloat(KEY_MAX_FPS_TO_ENCODER, maxFps);
+        }
+
+        try {
+            return format.getInteger(MediaFormat.KEY_BIT_RATE);
+        } catch (ClassCastException e) {
+            // The codec options set the bit rate with another type
+            return bitRate;
+        }
+    }
+
     @Override
     public void start(TerminationListener listener) {
         thread = new Thread(() -> {
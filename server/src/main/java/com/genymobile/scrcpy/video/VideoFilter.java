@@ -8,10 +8,12 @@ import android.graphics.Rect;
 
 public class VideoFilter {
 
+    private final Size inputSize;
     private Size size;
     private AffineMatrix transform;
 
     public VideoFilter(Size inputSize) {
+        this.inputSize = inputSize;
         this.size = inputSize;
     }
 
@@ -43,6 +45,17 @@ public class VideoFilter {
         return transform.invert();
     }
 
+    /**
+     * Return the display projection equivalent to the transform, so that the compositor can apply it instead of an OpenGL filter.
+     * <p/>
+     * This is possible for crops, resizes and rotations by a multiple of 90°, but not for flips or arbitrary angles.
+     *
+     * @return the display projection, or {@code null} if the transform requires an OpenGL filter
+     */
+    public DisplayProjection getDisplayProjection() {
+        return DisplayProjection.fromInverseTransform(getInverseTransform(), inputSize);
+    }
+
     private static Rect transposeRect(Rect rect) {
         return new Rect(rect.top, rect.left, rect.bottom, rect.right);
     }
@@ -14,24 +14,22 @@ import android.os.IBinder;
 import android.os.IInterface;
 
 import java.lang.reflect.Field;
-import java.lang.reflect.Method;
 
 @SuppressLint("PrivateApi,DiscouragedPrivateApi")
 public final class ActivityManager {
 
     private final IInterface manager;
-    private Method getContentProviderExternalMethod;
-    private boolean getContentProviderExternalMethodNewVersion = true;
-    private Method removeContentProviderExternalMethod;
-    private Method startActivityAsUserMethod;
-    private Method forceStopPackageMethod;
+    private HiddenMethod getContentProviderExternalMethod;
+    private HiddenMethod removeContentProviderExternalMethod;
+    private HiddenMethod startActivityAsUserMethod;
+    private HiddenMethod forceStopPackageMethod;
 
     static ActivityManager create() {
         try {
             // On old Android versions, the ActivityManager is not exposed via AIDL,
             // so use ActivityManagerNative.getDefault()
             Class<?> cls = Class.forName("android.app.ActivityManagerNative");
-            Method getDefaultMethod = cls.getDeclaredMethod("getDefault");
+            HiddenMethod getDefaultMethod = HiddenMethod.resolveDeclared(cls, HiddenMethod.signature("getDefault"));
             IInterface am = (IInterface) getDefaultMethod.invoke(null);
             return new ActivityManager(am);
         } catch (ReflectiveOperationException e) {
@@ -43,23 +41,20 @@ public final class ActivityManager {
         this.manager = manager;
     }
 
-    private Method getGetContentProviderExternalMethod() throws NoSuchMethodException {
+    private HiddenMethod getGetContentProviderExternalMethod() throws NoSuchMethodException {
         if (getContentProviderExternalMethod == null) {
-            try {
-                getContentProviderExternalMethod = manager.getClass()
-                        .getMethod("getContentProviderExternal", String.class, int.class, IBinder.class, String.class);
-            } catch (NoSuchMethodException e) {
-                // old version
-                getContentProviderExternalMethod = manager.getClass().getMethod("getContentProviderExternal", String.class, int.class, IBinder.class);
-                getContentProviderExternalMethodNewVersion = false;
-            }
+            getContentProviderExternalMethod = HiddenMethod.resolve(manager.getClass(),
+                    HiddenMethod.signature("getContentProviderExternal", String.class, int.class, IBinder.class, String.class),
+                    // old version
+                    HiddenMethod.signature("getContentProviderExternal", String.class, int.class, IBinder.class));
         }
         return getContentProviderExternalMethod;
     }
 
-    private Method getRemoveContentProviderExternalMethod() throws NoSuchMethodException {
+    private HiddenMethod getRemoveContentProviderExternalMethod() throws NoSuchMethodException {
         if (removeContentProviderExternalMethod == null) {
-            removeContentProviderExternalMethod = manager.getClass().getMethod("removeContentProviderExternal", String.class, IBinder.class);
+            removeContentProviderExternalMethod = HiddenMethod.resolve(manager.getClass(),
+                    HiddenMethod.signature("removeContentProviderExternal", String.class, IBinder.class));
         }
         return removeContentProviderExternalMethod;
     }
@@ -67,17 +62,16 @@ public final class ActivityManager {
     @TargetApi(AndroidVersions.API_29_ANDROID_10)
     public IContentProvider getContentProviderExternal(String name, IBinder token) {
         try {
-            Method method = getGetContentProviderExternalMethod();
-            Object[] args;
-            if (getContentProviderExternalMethodNewVersion) {
+            HiddenMethod method = getGetContentProviderExternalMethod();
+            // ContentProviderHolder providerHolder = getContentProviderExternal(...);
+            Object providerHolder;
+            if (method.getVariant() == 0) {
                 // new version
-                args = new Object[]{name, FakeContext.ROOT_UID, token, null};
+                providerHolder = method.invoke(manager, name, FakeContext.ROOT_UID, token, null);
             } else {
                 // old version
-                args = new Object[]{name, FakeContext.ROOT_UID, token};
+                providerHolder = method.invoke(manager, name, FakeContext.ROOT_UID, token);
             }
-            // ContentProviderHolder providerHolder = getContentProviderExternal(...);
-            Object providerHolder = method.invoke(manager, args);
             if (providerHolder == null) {
                 return null;
             }
@@ -93,7 +87,7 @@ public final class ActivityManager {
 
     void removeContentProviderExternal(String name, IBinder token) {
         try {
-            Method method = getRemoveContentProviderExternalMethod();
+            HiddenMethod method = getRemoveContentProviderExternalMethod();
             method.invoke(manager, name, token);
         } catch (ReflectiveOperationException e) {
             Ln.e("Could not invoke method", e);
@@ -109,13 +103,13 @@ public final class ActivityManager {
         return new ContentProvider(this, provider, "settings", token);
     }
 
-    private Method getStartActivityAsUserMethod() throws NoSuchMethodException, ClassNotFoundException {
+    private HiddenMethod getStartActivityAsUserMethod() throws NoSuchMethodException, ClassNotFoundException {
         if (startActivityAsUserMethod == null) {
             Class<?> iApplicationThreadClass = Class.forName("android.app.IApplicationThread");
             Class<?> profilerInfo = Class.forName("android.app.ProfilerInfo");
-            startActivityAsUserMethod = manager.getClass()
-                    .getMethod("startActivityAsUser", iApplicationThreadClass, String.class, Intent.class, String.class, IBinder.class, String.class,
-                            int.class, int.class, profilerInfo, Bundle.class, int.class);
+            startActivityAsUserMethod = HiddenMethod.resolve(manager.getClass(),
+                    HiddenMethod.signature("startActivityAsUser", iApplicationThreadClass, String.class, Intent.class, String.class, IBinder.class,
+                            String.class, int.class, int.class, profilerInfo, Bundle.class, int.class));
         }
         return startActivityAsUserMethod;
     }
@@ -127,8 +121,8 @@ public final class ActivityManager {
     @SuppressWarnings("ConstantConditions")
     public int startActivity(Intent intent, Bundle options) {
         try {
-            Method method = getStartActivityAsUserMethod();
-            return (int) method.invoke(
+            HiddenMethod method = getStartActivityAsUserMethod();
+            return method.invokeInt(
                     /* this */ manager,
                     /* caller */ null,
                     /* callingPackage */ FakeContext.PACKAGE_NAME,
@@ -147,16 +141,16 @@ public final class ActivityManager {
         }
     }
 
-    private Method getForceStopPackageMethod() throws NoSuchMethodException {
+    private HiddenMethod getForceStopPackageMethod() throws NoSuchMethodException {
         if (forceStopPackageMethod == null) {
-            forceStopPackageMethod = manager.getClass().getMethod("forceStopPackage", String.class, int.class);
+            forceStopPackageMethod = HiddenMethod.resolve(manager.getClass(), HiddenMethod.signature("forceStopPackage", String.class, int.class));
         }
         return forceStopPackageMethod;
     }
 
     public void forceStopPackage(String packageName) {
         try {
-            Method method = getForceStopPackageMethod();
+            HiddenMethod method = getForceStopPackageMethod();
             method.invoke(manager, packageName, /* userId */ /* UserHandle.USER_CURRENT */ -2);
         } catch (Throwable e) {
             Ln.e("Could not invoke method", e);
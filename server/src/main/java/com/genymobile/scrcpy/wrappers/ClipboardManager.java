@@ -9,16 +9,35 @@ import android.content.IOnPrimaryClipChangedListener;
 import android.os.Build;
 import android.os.IInterface;
 
-import java.lang.reflect.Method;
-
 public final class ClipboardManager {
+
+    // Known signatures of IClipboard methods, in order of preference (the index is the variant passed to the invocation)
+    private static final HiddenMethod.Signature[] GET_PRIMARY_CLIP_SIGNATURES = {
+            HiddenMethod.signature("getPrimaryClip", String.class, int.class),
+            HiddenMethod.signature("getPrimaryClip", String.class, String.class, int.class),
+            HiddenMethod.signature("getPrimaryClip", String.class, String.class, int.class, int.class),
+            HiddenMethod.signature("getPrimaryClip", String.class, int.class, String.class),
+            HiddenMethod.signature("getPrimaryClip", String.class, String.class, int.class, int.class, boolean.class),
+            HiddenMethod.signature("getPrimaryClip", String.class, String.class, String.class, String.class, int.class, int.class, boolean.class),
+            HiddenMethod.signature("getPrimaryClip", String.class, String.class, int.class, int.class, String.class),
+    };
+    private static final HiddenMethod.Signature[] SET_PRIMARY_CLIP_SIGNATURES = {
+            HiddenMethod.signature("setPrimaryClip", ClipData.class, String.class, int.class),
+            HiddenMethod.signature("setPrimaryClip", ClipData.class, String.class, String.class, int.class),
+            HiddenMethod.signature("setPrimaryClip", ClipData.class, String.class, String.class, int.class, int.class),
+            HiddenMethod.signature("setPrimaryClip", ClipData.class, String.class, String.class, int.class, int.class, boolean.class),
+    };
+    private static final HiddenMethod.Signature[] ADD_PRIMARY_CLIP_CHANGED_LISTENER_SIGNATURES = {
+            HiddenMethod.signature("addPrimaryClipChangedListener", IOnPrimaryClipChangedListener.class, String.class, int.class),
+            HiddenMethod.signature("addPrimaryClipChangedListener", IOnPrimaryClipChangedListener.class, String.class, String.class, int.class),
+            HiddenMethod.signature("addPrimaryClipChangedListener", IOnPrimaryClipChangedListener.class, String.class, String.class, int.class,
+                    int.class),
+    };
+
     private final IInterface manager;
-    private Method getPrimaryClipMethod;
-    private Method setPrimaryClipMethod;
-    private Method addPrimaryClipChangedListener;
-    private int getMethodVersion;
-    private int setMethodVersion;
-    private int addListenerMethodVersion;
+    private HiddenMethod getPrimaryClipMethod;
+    private HiddenMethod setPrimaryClipMethod;
+    private HiddenMethod addPrimaryClipChangedListener;
 
     static ClipboardManager create() {
         IInterface clipboard = ServiceManager.getService("clipboard", "android.content.IClipboard");
@@ -35,114 +54,35 @@ public final class ClipboardManager {
         this.manager = manager;
     }
 
-    private Method getGetPrimaryClipMethod() throws NoSuchMethodException {
+    private HiddenMethod getGetPrimaryClipMethod() throws NoSuchMethodException {
         if (getPrimaryClipMethod == null) {
             if (Build.VERSION.SDK_INT < AndroidVersions.API_29_ANDROID_10) {
-                getPrimaryClipMethod = manager.getClass().getMethod("getPrimaryClip", String.class);
-                return getPrimaryClipMethod;
-            }
-
-            try {
-                getPrimaryClipMethod = manager.getClass().getMethod("getPrimaryClip", String.class, int.class);
-                getMethodVersion = 0;
-                return getPrimaryClipMethod;
-            } catch (NoSuchMethodException e) {
-                // fall-through
-            }
-
-            try {
-                getPrimaryClipMethod = manager.getClass().getMethod("getPrimaryClip", String.class, String.class, int.class);
-                getMethodVersion = 1;
-                return getPrimaryClipMethod;
-            } catch (NoSuchMethodException e) {
-                // fall-through
-            }
-
-            try {
-                getPrimaryClipMethod = manager.getClass().getMethod("getPrimaryClip", String.class, String.class, int.class, int.class);
-                getMethodVersion = 2;
-                return getPrimaryClipMethod;
-            } catch (NoSuchMethodException e) {
-                // fall-through
-            }
-
-            try {
-                getPrimaryClipMethod = manager.getClass().getMethod("getPrimaryClip", String.class, int.class, String.class);
-                getMethodVersion = 3;
-                return getPrimaryClipMethod;
-            } catch (NoSuchMethodException e) {
-                // fall-through
-            }
-
-            try {
-                getPrimaryClipMethod = manager.getClass()
-                        .getMethod("getPrimaryClip", String.class, String.class, int.class, int.class, boolean.class);
-                getMethodVersion = 4;
-                return getPrimaryClipMethod;
-            } catch (NoSuchMethodException e) {
-                // fall-through
-            }
-
-            try {
-                getPrimaryClipMethod = manager.getClass()
-                        .getMethod("getPrimaryClip", String.class, String.class, String.class, String.class, int.class, int.class, boolean.class);
-                getMethodVersion = 5;
-                return getPrimaryClipMethod;
-            } catch (NoSuchMethodException e) {
-                // fall-through
+                getPrimaryClipMethod = HiddenMethod.resolve(manager.getClass(), HiddenMethod.signature("getPrimaryClip", String.class));
+            } else {
+                getPrimaryClipMethod = HiddenMethod.resolve(manager.getClass(), GET_PRIMARY_CLIP_SIGNATURES);
             }
-
-            getPrimaryClipMethod = manager.getClass().getMethod("getPrimaryClip", String.class, String.class, int.class, int.class, String.class);
-            getMethodVersion = 6;
         }
         return getPrimaryClipMethod;
     }
 
-    private Method getSetPrimaryClipMethod() throws NoSuchMethodException {
+    private HiddenMethod getSetPrimaryClipMethod() throws NoSuchMethodException {
         if (setPrimaryClipMethod == null) {
             if (Build.VERSION.SDK_INT < AndroidVersions.API_29_ANDROID_10) {
-                setPrimaryClipMethod = manager.getClass().getMethod("setPrimaryClip", ClipData.class, String.class);
-                return setPrimaryClipMethod;
-            }
-
-            try {
-                setPrimaryClipMethod = manager.getClass().getMethod("setPrimaryClip", ClipData.class, String.class, int.class);
-                setMethodVersion = 0;
-                return setPrimaryClipMethod;
-            } catch (NoSuchMethodException e1) {
-                // fall-through
-            }
-
-            try {
-                setPrimaryClipMethod = manager.getClass().getMethod("setPrimaryClip", ClipData.class, String.class, String.class, int.class);
-                setMethodVersion = 1;
-                return setPrimaryClipMethod;
-            } catch (NoSuchMethodException e2) {
-                // fall-through
-            }
-
-            try {
-                setPrimaryClipMethod = manager.getClass()
-                        .getMethod("setPrimaryClip", ClipData.class, String.class, String.class, int.class, int.class);
-                setMethodVersion = 2;
-                return setPrimaryClipMethod;
-            } catch (NoSuchMethodException e3) {
-                // fall-through
+                setPrimaryClipMethod = HiddenMethod.resolve(manager.getClass(),
+                        HiddenMethod.signature("setPrimaryClip", ClipData.class, String.class));
+            } else {
+                setPrimaryClipMethod = HiddenMethod.resolve(manager.getClass(), SET_PRIMARY_CLIP_SIGNATURES);
             }
-
-            setPrimaryClipMethod = manager.getClass()
-                    .getMethod("setPrimaryClip", ClipData.class, String.class, String.class, int.class, int.class, boolean.class);
-            setMethodVersion = 3;
         }
         return setPrimaryClipMethod;
     }
 
-    private static ClipData getPrimaryClip(Method method, int methodVersion, IInterface manager) throws ReflectiveOperationException {
+    private static ClipData getPrimaryClip(HiddenMethod method, IInterface manager) throws ReflectiveOperationException {
         if (Build.VERSION.SDK_INT < AndroidVersions.API_29_ANDROID_10) {
             return (ClipData) method.invoke(manager, FakeContext.PACKAGE_NAME);
         }
 
-        switch (methodVersion) {
+        switch (method.getVariant()) {
             case 0:
                 return (ClipData) method.invoke(manager, FakeContext.PACKAGE_NAME, FakeContext.ROOT_UID);
             case 1:
@@ -161,13 +101,13 @@ public final class ClipboardManager {
         }
     }
 
-    private static void setPrimaryClip(Method method, int methodVersion, IInterface manager, ClipData clipData) throws ReflectiveOperationException {
+    private static void setPrimaryClip(HiddenMethod method, IInterface manager, ClipData clipData) throws ReflectiveOperationException {
         if (Build.VERSION.SDK_INT < AndroidVersions.API_29_ANDROID_10) {
             method.invoke(manager, clipData, FakeContext.PACKAGE_NAME);
             return;
         }
 
-        switch (methodVersion) {
+        switch (method.getVariant()) {
             case 0:
                 method.invoke(manager, clipData, FakeContext.PACKAGE_NAME, FakeContext.ROOT_UID);
                 break;
@@ -185,8 +125,8 @@ public final class ClipboardManager {
 
     public CharSequence getText() {
         try {
-            Method method = getGetPrimaryClipMethod();
-            ClipData clipData = getPrimaryClip(method, getMethodVersion, manager);
+            HiddenMethod method = getGetPrimaryClipMethod();
+            ClipData clipData = getPrimaryClip(method, manager);
             if (clipData == null || clipData.getItemCount() == 0) {
                 return null;
             }
@@ -199,9 +139,9 @@ public final class ClipboardManager {
 
     public boolean setText(CharSequence text) {
         try {
-            Method method = getSetPrimaryClipMethod();
+            HiddenMethod method = getSetPrimaryClipMethod();
             ClipData clipData = ClipData.newPlainText(null, text);
-            setPrimaryClip(method, setMethodVersion, manager, clipData);
+            setPrimaryClip(method, manager, clipData);
             return true;
         } catch (ReflectiveOperationException e) {
             Ln.e("Could not invoke method", e);
@@ -209,14 +149,14 @@ public final class ClipboardManager {
         }
     }
 
-    private static void addPrimaryClipChangedListener(Method method, int methodVersion, IInterface manager, IOnPrimaryClipChangedListener listener)
+    private static void addPrimaryClipChangedListener(HiddenMethod method, IInterface manager, IOnPrimaryClipChangedListener listener)
             throws ReflectiveOperationException {
         if (Build.VERSION.SDK_INT < AndroidVersions.API_29_ANDROID_10) {
             method.invoke(manager, listener, FakeContext.PACKAGE_NAME);
             return;
         }
 
-        switch (methodVersion) {
+        switch (method.getVariant()) {
             case 0:
                 method.invoke(manager, listener, FakeContext.PACKAGE_NAME, FakeContext.ROOT_UID);
                 break;
@@ -229,29 +169,13 @@ public final class ClipboardManager {
         }
     }
 
-    private Method getAddPrimaryClipChangedListener() throws NoSuchMethodException {
+    private HiddenMethod getAddPrimaryClipChangedListener() throws NoSuchMethodException {
         if (addPrimaryClipChangedListener == null) {
             if (Build.VERSION.SDK_INT < AndroidVersions.API_29_ANDROID_10) {
-                addPrimaryClipChangedListener = manager.getClass()
-                        .getMethod("addPrimaryClipChangedListener", IOnPrimaryClipChangedListener.class, String.class);
+                addPrimaryClipChangedListener = HiddenMethod.resolve(manager.getClass(),
+                        HiddenMethod.signature("addPrimaryClipChangedListener", IOnPrimaryClipChangedListener.class, String.class));
             } else {
-                try {
-                    addPrimaryClipChangedListener = manager.getClass()
-                            .getMethod("addPrimaryClipChangedListener", IOnPrimaryClipChangedListener.class, String.class, int.class);
-                    addListenerMethodVersion = 0;
-                } catch (NoSuchMethodException e1) {
-                    try {
-                        addPrimaryClipChangedListener = manager.getClass()
-                                .getMethod("addPrimaryClipChangedListener", IOnPrimaryClipChangedListener.class, String.class, String.class,
-                                        int.class);
-                        addListenerMethodVersion = 1;
-                    } catch (NoSuchMethodException e2) {
-                        addPrimaryClipChangedListener = manager.getClass()
-                                .getMethod("addPrimaryClipChangedListener", IOnPrimaryClipChangedListener.class, String.class, String.class,
-                                        int.class, int.class);
-                        addListenerMethodVersion = 2;
-                    }
-                }
+                addPrimaryClipChangedListener = HiddenMethod.resolve(manager.getClass(), ADD_PRIMARY_CLIP_CHANGED_LISTENER_SIGNATURES);
             }
         }
         return addPrimaryClipChangedListener;
@@ -259,8 +183,8 @@ public final class ClipboardManager {
 
     public boolean addPrimaryClipChangedListener(IOnPrimaryClipChangedListener listener) {
         try {
-            Method method = getAddPrimaryClipChangedListener();
-            addPrimaryClipChangedListener(method, addListenerMethodVersion, manager, listener);
+            HiddenMethod method = getAddPrimaryClipChangedListener();
+            addPrimaryClipChangedListener(method, manager, listener);
             return true;
         } catch (ReflectiveOperationException e) {
             Ln.e("Could not invoke method", e);
@@ -17,7 +17,6 @@ import android.view.Surface;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
-import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -46,13 +45,16 @@ public final class DisplayManager {
     }
 
     private final Object manager; // instance of hidden class android.hardware.display.DisplayManagerGlobal
-    private Method createVirtualDisplayMethod;
-    private Method requestDisplayPowerMethod;
+    private HiddenMethod getDisplayInfoMethod;
+    private HiddenMethod getDisplayIdsMethod;
+    private HiddenMethod createVirtualDisplayMethod;
+    private HiddenMethod requestDisplayPowerMethod;
+    private HiddenMethod unregisterDisplayListenerMethod;
 
     static DisplayManager create() {
         try {
             Class<?> clazz = Class.forName("android.hardware.display.DisplayManagerGlobal");
-            Method getInstanceMethod = clazz.getDeclaredMethod("getInstance");
+            HiddenMethod getInstanceMethod = HiddenMethod.resolveDeclared(clazz, HiddenMethod.signature("getInstance"));
             Object dmg = getInstanceMethod.invoke(null);
             return new DisplayManager(dmg);
         } catch (ReflectiveOperationException e) {
@@ -114,9 +116,16 @@ public final class DisplayManager {
         return flags;
     }
 
+    private HiddenMethod getGetDisplayInfoMethod() throws NoSuchMethodException {
+        if (getDisplayInfoMethod == null) {
+            getDisplayInfoMethod = HiddenMethod.resolve(manager.getClass(), HiddenMethod.signature("getDisplayInfo", int.class));
+        }
+        return getDisplayInfoMethod;
+    }
+
     public DisplayInfo getDisplayInfo(int displayId) {
         try {
-            Object displayInfo = manager.getClass().getMethod("getDisplayInfo", int.class).invoke(manager, displayId);
+            Object displayInfo = getGetDisplayInfoMethod().invoke(manager, displayId);
             if (displayInfo == null) {
                 // fallback when displayInfo is null
                 return getDisplayInfoFromDumpsysDisplay(displayId);
@@ -135,24 +144,31 @@ public final class DisplayManager {
         }
     }
 
+    private HiddenMethod getGetDisplayIdsMethod() throws NoSuchMethodException {
+        if (getDisplayIdsMethod == null) {
+            getDisplayIdsMethod = HiddenMethod.resolve(manager.getClass(), HiddenMethod.signature("getDisplayIds"));
+        }
+        return getDisplayIdsMethod;
+    }
+
     public int[] getDisplayIds() {
         try {
-            return (int[]) manager.getClass().getMethod("getDisplayIds").invoke(manager);
+            return (int[]) getGetDisplayIdsMethod().invoke(manager);
         } catch (ReflectiveOperationException e) {
             throw new AssertionError(e);
         }
     }
 
-    private Method getCreateVirtualDisplayMethod() throws NoSuchMethodException {
+    private HiddenMethod getCreateVirtualDisplayMethod() throws NoSuchMethodException {
         if (createVirtualDisplayMethod == null) {
-            createVirtualDisplayMethod = android.hardware.display.DisplayManager.class
-                    .getMethod("createVirtualDisplay", String.class, int.class, int.class, int.class, Surface.class);
+            createVirtualDisplayMethod = HiddenMethod.resolve(android.hardware.display.DisplayManager.class,
+                    HiddenMethod.signature("createVirtualDisplay", String.class, int.class, int.class, int.class, Surface.class));
         }
         return createVirtualDisplayMethod;
     }
 
     public VirtualDisplay createVirtualDisplay(String name, int width, int height, int displayIdToMirror, Surface surface) throws Exception {
-        Method method = getCreateVirtualDisplayMethod();
+        HiddenMethod method = getCreateVirtualDisplayMethod();
         return (VirtualDisplay) method.invoke(null, name, width, height, displayIdToMirror, surface);
     }
 
@@ -164,9 +180,10 @@ public final class DisplayManager {
         return dm.createVirtualDisplay(name, width, height, dpi, surface, flags);
     }
 
-    private Method getRequestDisplayPowerMethod() throws NoSuchMethodException {
+    private HiddenMethod getRequestDisplayPowerMethod() throws NoSuchMethodException {
         if (requestDisplayPowerMethod == null) {
-            requestDisplayPowerMethod = manager.getClass().getMethod("requestDisplayPower", int.class, boolean.class);
+            requestDisplayPowerMethod = HiddenMethod.resolve(manager.getClass(),
+                    HiddenMethod.signature("requestDisplayPower", int.class, boolean.class));
         }
         return requestDisplayPowerMethod;
     }
@@ -174,8 +191,8 @@ public final class DisplayManager {
     @TargetApi(AndroidVersions.API_35_ANDROID_15)
     public boolean requestDisplayPower(int displayId, boolean on) {
         try {
-            Method method = getRequestDisplayPowerMethod();
-            return (boolean) method.invoke(manager, displayId, on);
+            HiddenMethod method = getRequestDisplayPowerMethod();
+            return method.invokeBoolean(manager, displayId, on);
         } catch (ReflectiveOperationException e) {
             Ln.e("Could not invoke method", e);
             return false;
@@ -194,20 +211,20 @@ public final class DisplayManager {
                         }
                         return null;
                     });
-            try {
-                manager.getClass()
-                        .getMethod("registerDisplayListener", displayListenerClass, Handler.class, long.class, String.class)
-                        .invoke(manager, displayListenerProxy, handler, EVENT_FLAG_DISPLAY_CHANGED, FakeContext.PACKAGE_NAME);
-            } catch (NoSuchMethodException e) {
-                try {
-                    manager.getClass()
-                            .getMethod("registerDisplayListener", displayListenerClass, Handler.class, long.class)
-                            .invoke(manager, displayListenerProxy, handler, EVENT_FLAG_DISPLAY_CHANGED);
-                } catch (NoSuchMethodException e2) {
-                    manager.getClass()
-                            .getMethod("registerDisplayListener", displayListenerClass, Handler.class)
-                            .invoke(manager, displayListenerProxy, handler);
-                }
+            HiddenMethod method = HiddenMethod.resolve(manager.getClass(),
+                    HiddenMethod.signature("registerDisplayListener", displayListenerClass, Handler.class, long.class, String.class),
+                    HiddenMethod.signature("registerDisplayListener", displayListenerClass, Handler.class, long.class),
+                    HiddenMethod.signature("registerDisplayListener", displayListenerClass, Handler.class));
+            switch (method.getVariant()) {
+                case 0:
+                    method.invoke(manager, displayListenerProxy, handler, EVENT_FLAG_DISPLAY_CHANGED, FakeContext.PACKAGE_NAME);
+                    break;
+                case 1:
+                    method.invoke(manager, displayListenerProxy, handler, EVENT_FLAG_DISPLAY_CHANGED);
+                    break;
+                default:
+                    method.invoke(manager, displayListenerProxy, handler);
+                    break;
             }
 
             return new DisplayListenerHandle(displayListenerProxy);
@@ -219,10 +236,18 @@ public final class DisplayManager {
         return null;
     }
 
+    private HiddenMethod getUnregisterDisplayListenerMethod() throws ReflectiveOperationException {
+        if (unregisterDisplayListenerMethod == null) {
+            Class<?> displayListenerClass = Class.forName("android.hardware.display.DisplayManager$DisplayListener");
+            unregisterDisplayListenerMethod = HiddenMethod.resolve(manager.getClass(),
+                    HiddenMethod.signature("unregisterDisplayListener", displayListenerClass));
+        }
+        return unregisterDisplayListenerMethod;
+    }
+
     public void unregisterDisplayListener(DisplayListenerHandle listener) {
         try {
-            Class<?> displayListenerClass = Class.forName("android.hardware.display.DisplayManager$DisplayListener");
-            manager.getClass().getMethod("unregisterDisplayListener", displayListenerClass).invoke(manager, listener.displayListenerProxy);
+            getUnregisterDisplayListenerMethod().invoke(manager, listener.displayListenerProxy);
         } catch (Exception e) {
             Ln.e("Could not unregister display listener", e);
         }
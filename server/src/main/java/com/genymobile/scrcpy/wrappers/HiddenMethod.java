@@ -0,0 +1,121 @@
+package com.genymobile.scrcpy.wrappers;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+
+/**
+ * A (hidden) framework method, resolved once among a table of known signature variants.
+ * <p>
+ * The signatures of hidden methods change between Android versions. Instead of calling {@link Class#getMethod(String, Class[])} for each
+ * candidate (which throws a {@link NoSuchMethodException} for each mismatch), the methods of the class are scanned once, and the first
+ * signature of the table (in order of preference) which matches is retained. The caller then passes the arguments expected by
+ * {@link #getVariant() the resolved variant}.
+ * <p>
+ * {@code MethodHandle.invokeExact()} would avoid the boxing and the argument array, but it requires Android 8 (the server supports Android 5),
+ * so the resolved {@link Method} is invoked directly (it is made accessible once, to skip the access checks on each call).
+ */
+final class HiddenMethod {
+
+    static final class Signature {
+        private final String name;
+        private final Class<?>[] parameterTypes;
+
+        private Signature(String name, Class<?>... parameterTypes) {
+            this.name = name;
+            this.parameterTypes = parameterTypes;
+        }
+
+        boolean matches(Method method) {
+            return name.equals(method.getName()) && Arrays.equals(parameterTypes, method.getParameterTypes());
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder(name).append('(');
+            for (int i = 0; i < parameterTypes.length; ++i) {
+                if (i != 0) {
+                    builder.append(", ");
+                }
+                builder.append(parameterTypes[i].getSimpleName());
+            }
+            return builder.append(')').toString();
+        }
+    }
+
+    private final Method method;
+    private final int variant;
+    private final boolean isStatic;
+
+    private HiddenMethod(Method method, int variant) {
+        this.method = method;
+        this.variant = variant;
+        isStatic = Modifier.isStatic(method.getModifiers());
+    }
+
+    static Signature signature(String name, Class<?>... parameterTypes) {
+        return new Signature(name, parameterTypes);
+    }
+
+    /**
+     * Resolve a public method (possibly inherited) of a class.
+     *
+     * @param cls the class
+     * @param signatures the candidate signatures, in order of preference
+     * @return the resolved method
+     * @throws NoSuchMethodException if none of the signatures match
+     */
+    static HiddenMethod resolve(Class<?> cls, Signature... signatures) throws NoSuchMethodException {
+        return resolve(cls, cls.getMethods(), signatures);
+    }
+
+    /**
+     * Resolve a method declared by a class (whatever its visibility).
+     *
+     * @param cls the class
+     * @param signatures the candidate signatures, in order of preference
+     * @return the resolved method
+     * @throws NoSuchMethodException if none of the signatures match
+     */
+    static HiddenMethod resolveDeclared(Class<?> cls, Signature... signatures) throws NoSuchMethodException {
+        return resolve(cls, cls.getDeclaredMethods(), signatures);
+    }
+
+    private static HiddenMethod resolve(Class<?> cls, Method[] methods, Signature[] signatures) throws NoSuchMethodException {
+        for (int variant = 0; variant < signatures.length; ++variant) {
+            Signature signature = signatures[variant];
+            for (Method method : methods) {
+                if (signature.matches(method)) {
+                    method.setAccessible(true);
+                    return new HiddenMethod(method, variant);
+                }
+            }
+        }
+        throw new NoSuchMethodException(cls.getName() + ": none of " + Arrays.toString(signatures));
+    }
+
+    /**
+     * Return the index, in the signature table, of the resolved variant.
+     */
+    int getVariant() {
+        return variant;
+    }
+
+    Object invoke(Object receiver, Object... args) throws ReflectiveOperationException {
+        assert isStatic == (receiver == null) : "The receiver must be null if and only if the method is static";
+        return method.invoke(receiver, args);
+    }
+
+    boolean invokeBoolean(Object receiver, Object... args) throws ReflectiveOperationException {
+        return (boolean) invoke(receiver, args);
+    }
+
+    int invokeInt(Object receiver, Object... args) throws ReflectiveOperationException {
+        return (int) invoke(receiver, args);
+    }
+
+    @Override
+    public String toString() {
+        return method.toString();
+    }
+}
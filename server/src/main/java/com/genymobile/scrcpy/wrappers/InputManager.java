@@ -6,8 +6,6 @@ import android.annotation.SuppressLint;
 import android.view.InputEvent;
 import android.view.MotionEvent;
 
-import java.lang.reflect.Method;
-
 @SuppressLint("PrivateApi,DiscouragedPrivateApi")
 public final class InputManager {
 
@@ -16,15 +14,15 @@ public final class InputManager {
     public static final int INJECT_INPUT_EVENT_MODE_WAIT_FOR_FINISH = 2;
 
     private final Object manager;
-    private Method injectInputEventMethod;
+    private HiddenMethod injectInputEventMethod;
 
-    private static Method setDisplayIdMethod;
-    private static Method setActionButtonMethod;
+    private static HiddenMethod setDisplayIdMethod;
+    private static HiddenMethod setActionButtonMethod;
 
     static InputManager create() {
         try {
             Class<?> inputManagerClass = getInputManagerClass();
-            Method getInstanceMethod = inputManagerClass.getDeclaredMethod("getInstance");
+            HiddenMethod getInstanceMethod = HiddenMethod.resolveDeclared(inputManagerClass, HiddenMethod.signature("getInstance"));
             Object im = getInstanceMethod.invoke(null);
             return new InputManager(im);
         } catch (ReflectiveOperationException e) {
@@ -45,33 +43,34 @@ public final class InputManager {
         this.manager = manager;
     }
 
-    private Method getInjectInputEventMethod() throws NoSuchMethodException {
+    private HiddenMethod getInjectInputEventMethod() throws NoSuchMethodException {
         if (injectInputEventMethod == null) {
-            injectInputEventMethod = manager.getClass().getMethod("injectInputEvent", InputEvent.class, int.class);
+            injectInputEventMethod = HiddenMethod.resolve(manager.getClass(),
+                    HiddenMethod.signature("injectInputEvent", InputEvent.class, int.class));
         }
         return injectInputEventMethod;
     }
 
     public boolean injectInputEvent(InputEvent inputEvent, int mode) {
         try {
-            Method method = getInjectInputEventMethod();
-            return (boolean) method.invoke(manager, inputEvent, mode);
+            HiddenMethod method = getInjectInputEventMethod();
+            return method.invokeBoolean(manager, inputEvent, mode);
         } catch (ReflectiveOperationException e) {
             Ln.e("Could not invoke method", e);
             return false;
         }
     }
 
-    private static Method getSetDisplayIdMethod() throws NoSuchMethodException {
+    private static HiddenMethod getSetDisplayIdMethod() throws NoSuchMethodException {
         if (setDisplayIdMethod == null) {
-            setDisplayIdMethod = InputEvent.class.getMethod("setDisplayId", int.class);
+            setDisplayIdMethod = HiddenMethod.resolve(InputEvent.class, HiddenMethod.signature("setDisplayId", int.class));
         }
         return setDisplayIdMethod;
     }
 
     public static boolean setDisplayId(InputEvent inputEvent, int displayId) {
         try {
-            Method method = getSetDisplayIdMethod();
+            HiddenMethod method = getSetDisplayIdMethod();
             method.invoke(inputEvent, displayId);
             return true;
         } catch (ReflectiveOperationException e) {
@@ -80,16 +79,16 @@ public final class InputManager {
         }
     }
 
-    private static Method getSetActionButtonMethod() throws NoSuchMethodException {
+    private static HiddenMethod getSetActionButtonMethod() throws NoSuchMethodException {
         if (setActionButtonMethod == null) {
-            setActionButtonMethod = MotionEvent.class.getMethod("setActionButton", int.class);
+            setActionButtonMethod = HiddenMethod.resolve(MotionEvent.class, HiddenMethod.signature("setActionButton", int.class));
         }
         return setActionButtonMethod;
     }
 
     public static boolean setActionButton(MotionEvent motionEvent, int actionButton) {
         try {
-            Method method = getSetActionButtonMethod();
+            HiddenMethod method = getSetActionButtonMethod();
             method.invoke(motionEvent, actionButton);
             return true;
         } catch (ReflectiveOperationException e) {
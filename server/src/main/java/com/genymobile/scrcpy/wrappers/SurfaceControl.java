@@ -9,8 +9,6 @@ import android.os.Build;
 import android.os.IBinder;
 import android.view.Surface;
 
-import java.lang.reflect.Method;
-
 @SuppressLint("PrivateApi")
 public final class SurfaceControl {
 
@@ -28,68 +26,117 @@ public final class SurfaceControl {
         }
     }
 
-    private static Method getBuiltInDisplayMethod;
-    private static Method setDisplayPowerModeMethod;
-    private static Method getPhysicalDisplayTokenMethod;
-    private static Method getPhysicalDisplayIdsMethod;
+    private static HiddenMethod openTransactionMethod;
+    private static HiddenMethod closeTransactionMethod;
+    private static HiddenMethod setDisplayProjectionMethod;
+    private static HiddenMethod setDisplayLayerStackMethod;
+    private static HiddenMethod setDisplaySurfaceMethod;
+    private static HiddenMethod createDisplayMethod;
+    private static HiddenMethod destroyDisplayMethod;
+    private static HiddenMethod getBuiltInDisplayMethod;
+    private static HiddenMethod setDisplayPowerModeMethod;
+    private static HiddenMethod getPhysicalDisplayTokenMethod;
+    private static HiddenMethod getPhysicalDisplayIdsMethod;
 
     private SurfaceControl() {
         // only static methods
     }
 
+    private static HiddenMethod getOpenTransactionMethod() throws NoSuchMethodException {
+        if (openTransactionMethod == null) {
+            openTransactionMethod = HiddenMethod.resolve(CLASS, HiddenMethod.signature("openTransaction"));
+        }
+        return openTransactionMethod;
+    }
+
     public static void openTransaction() {
         try {
-            CLASS.getMethod("openTransaction").invoke(null);
+            getOpenTransactionMethod().invoke(null);
         } catch (Exception e) {
             throw new AssertionError(e);
         }
     }
 
+    private static HiddenMethod getCloseTransactionMethod() throws NoSuchMethodException {
+        if (closeTransactionMethod == null) {
+            closeTransactionMethod = HiddenMethod.resolve(CLASS, HiddenMethod.signature("closeTransaction"));
+        }
+        return closeTransactionMethod;
+    }
+
     public static void closeTransaction() {
         try {
-            CLASS.getMethod("closeTransaction").invoke(null);
+            getCloseTransactionMethod().invoke(null);
         } catch (Exception e) {
             throw new AssertionError(e);
         }
     }
 
+    private static HiddenMethod getSetDisplayProjectionMethod() throws NoSuchMethodException {
+        if (setDisplayProjectionMethod == null) {
+            setDisplayProjectionMethod = HiddenMethod.resolve(CLASS,
+                    HiddenMethod.signature("setDisplayProjection", IBinder.class, int.class, Rect.class, Rect.class));
+        }
+        return setDisplayProjectionMethod;
+    }
+
     public static void setDisplayProjection(IBinder displayToken, int orientation, Rect layerStackRect, Rect displayRect) {
         try {
-            CLASS.getMethod("setDisplayProjection", IBinder.class, int.class, Rect.class, Rect.class)
-                    .invoke(null, displayToken, orientation, layerStackRect, displayRect);
+            getSetDisplayProjectionMethod().invoke(null, displayToken, orientation, layerStackRect, displayRect);
         } catch (Exception e) {
             throw new AssertionError(e);
         }
     }
 
+    private static HiddenMethod getSetDisplayLayerStackMethod() throws NoSuchMethodException {
+        if (setDisplayLayerStackMethod == null) {
+            setDisplayLayerStackMethod = HiddenMethod.resolve(CLASS, HiddenMethod.signature("setDisplayLayerStack", IBinder.class, int.class));
+        }
+        return setDisplayLayerStackMethod;
+    }
+
     public static void setDisplayLayerStack(IBinder displayToken, int layerStack) {
         try {
-            CLASS.getMethod("setDisplayLayerStack", IBinder.class, int.class).invoke(null, displayToken, layerStack);
+            getSetDisplayLayerStackMethod().invoke(null, displayToken, layerStack);
         } catch (Exception e) {
             throw new AssertionError(e);
         }
     }
 
+    private static HiddenMethod getSetDisplaySurfaceMethod() throws NoSuchMethodException {
+        if (setDisplaySurfaceMethod == null) {
+            setDisplaySurfaceMethod = HiddenMethod.resolve(CLASS, HiddenMethod.signature("setDisplaySurface", IBinder.class, Surface.class));
+        }
+        return setDisplaySurfaceMethod;
+    }
+
     public static void setDisplaySurface(IBinder displayToken, Surface surface) {
         try {
-            CLASS.getMethod("setDisplaySurface", IBinder.class, Surface.class).invoke(null, displayToken, surface);
+            getSetDisplaySurfaceMethod().invoke(null, displayToken, surface);
         } catch (Exception e) {
             throw new AssertionError(e);
         }
     }
 
+    private static HiddenMethod getCreateDisplayMethod() throws NoSuchMethodException {
+        if (createDisplayMethod == null) {
+            createDisplayMethod = HiddenMethod.resolve(CLASS, HiddenMethod.signature("createDisplay", String.class, boolean.class));
+        }
+        return createDisplayMethod;
+    }
+
     public static IBinder createDisplay(String name, boolean secure) throws Exception {
-        return (IBinder) CLASS.getMethod("createDisplay", String.class, boolean.class).invoke(null, name, secure);
+        return (IBinder) getCreateDisplayMethod().invoke(null, name, secure);
     }
 
-    private static Method getGetBuiltInDisplayMethod() throws NoSuchMethodException {
+    private static HiddenMethod getGetBuiltInDisplayMethod() throws NoSuchMethodException {
         if (getBuiltInDisplayMethod == null) {
             // the method signature has changed in Android 10
             // <https://github.com/Genymobile/scrcpy/issues/586>
             if (Build.VERSION.SDK_INT < AndroidVersions.API_29_ANDROID_10) {
-                getBuiltInDisplayMethod = CLASS.getMethod("getBuiltInDisplay", int.class);
+                getBuiltInDisplayMethod = HiddenMethod.resolve(CLASS, HiddenMethod.signature("getBuiltInDisplay", int.class));
             } else {
-                getBuiltInDisplayMethod = CLASS.getMethod("getInternalDisplayToken");
+                getBuiltInDisplayMethod = HiddenMethod.resolve(CLASS, HiddenMethod.signature("getInternalDisplayToken"));
             }
         }
         return getBuiltInDisplayMethod;
@@ -106,7 +153,7 @@ public final class SurfaceControl {
 
     public static IBinder getBuiltInDisplay() {
         try {
-            Method method = getGetBuiltInDisplayMethod();
+            HiddenMethod method = getGetBuiltInDisplayMethod();
             if (Build.VERSION.SDK_INT < AndroidVersions.API_29_ANDROID_10) {
                 // call getBuiltInDisplay(0)
                 return (IBinder) method.invoke(null, 0);
@@ -120,16 +167,16 @@ public final class SurfaceControl {
         }
     }
 
-    private static Method getGetPhysicalDisplayTokenMethod() throws NoSuchMethodException {
+    private static HiddenMethod getGetPhysicalDisplayTokenMethod() throws NoSuchMethodException {
         if (getPhysicalDisplayTokenMethod == null) {
-            getPhysicalDisplayTokenMethod = CLASS.getMethod("getPhysicalDisplayToken", long.class);
+            getPhysicalDisplayTokenMethod = HiddenMethod.resolve(CLASS, HiddenMethod.signature("getPhysicalDisplayToken", long.class));
         }
         return getPhysicalDisplayTokenMethod;
     }
 
     public static IBinder getPhysicalDisplayToken(long physicalDisplayId) {
         try {
-            Method method = getGetPhysicalDisplayTokenMethod();
+            HiddenMethod method = getGetPhysicalDisplayTokenMethod();
             return (IBinder) method.invoke(null, physicalDisplayId);
         } catch (ReflectiveOperationException e) {
             Ln.e("Could not invoke method", e);
@@ -137,9 +184,9 @@ public final class SurfaceControl {
         }
     }
 
-    private static Method getGetPhysicalDisplayIdsMethod() throws NoSuchMethodException {
+    private static HiddenMethod getGetPhysicalDisplayIdsMethod() throws NoSuchMethodException {
         if (getPhysicalDisplayIdsMethod == null) {
-            getPhysicalDisplayIdsMethod = CLASS.getMethod("getPhysicalDisplayIds");
+            getPhysicalDisplayIdsMethod = HiddenMethod.resolve(CLASS, HiddenMethod.signature("getPhysicalDisplayIds"));
         }
         return getPhysicalDisplayIdsMethod;
     }
@@ -155,7 +202,7 @@ public final class SurfaceControl {
 
     public static long[] getPhysicalDisplayIds() {
         try {
-            Method method = getGetPhysicalDisplayIdsMethod();
+            HiddenMethod method = getGetPhysicalDisplayIdsMethod();
             return (long[]) method.invoke(null);
         } catch (ReflectiveOperationException e) {
             Ln.e("Could not invoke method", e);
@@ -163,16 +210,16 @@ public final class SurfaceControl {
         }
     }
 
-    private static Method getSetDisplayPowerModeMethod() throws NoSuchMethodException {
+    private static HiddenMethod getSetDisplayPowerModeMethod() throws NoSuchMethodException {
         if (setDisplayPowerModeMethod == null) {
-            setDisplayPowerModeMethod = CLASS.getMethod("setDisplayPowerMode", IBinder.class, int.class);
+            setDisplayPowerModeMethod = HiddenMethod.resolve(CLASS, HiddenMethod.signature("setDisplayPowerMode", IBinder.class, int.class));
         }
         return setDisplayPowerModeMethod;
     }
 
     public static boolean setDisplayPowerMode(IBinder displayToken, int mode) {
         try {
-            Method method = getSetDisplayPowerModeMethod();
+            HiddenMethod method = getSetDisplayPowerModeMethod();
             method.invoke(null, displayToken, mode);
             return true;
         } catch (ReflectiveOperationException e) {
@@ -181,9 +228,16 @@ public final class SurfaceControl {
         }
     }
 
+    private static HiddenMethod getDestroyDisplayMethod() throws NoSuchMethodException {
+        if (destroyDisplayMethod == null) {
+            destroyDisplayMethod = HiddenMethod.resolve(CLASS, HiddenMethod.signature("destroyDisplay", IBinder.class));
+        }
+        return destroyDisplayMethod;
+    }
+
     public static void destroyDisplay(IBinder displayToken) {
         try {
-            CLASS.getMethod("destroyDisplay", IBinder.class).invoke(null, displayToken);
+            getDestroyDisplayMethod().invoke(null, displayToken);
         } catch (Exception e) {
             throw new AssertionError(e);
         }
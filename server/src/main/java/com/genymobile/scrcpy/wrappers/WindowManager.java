@@ -9,20 +9,13 @@ import android.view.IDisplayFoldListener;
 import android.view.IDisplayWindowListener;
 import android.view.IRotationWatcher;
 
-import java.lang.reflect.Method;
-
 public final class WindowManager {
     private final IInterface manager;
-    private Method getRotationMethod;
-
-    private Method freezeDisplayRotationMethod;
-    private int freezeDisplayRotationMethodVersion;
-
-    private Method isDisplayRotationFrozenMethod;
-    private int isDisplayRotationFrozenMethodVersion;
-
-    private Method thawDisplayRotationMethod;
-    private int thawDisplayRotationMethodVersion;
+    private HiddenMethod getRotationMethod;
+    private HiddenMethod freezeDisplayRotationMethod;
+    private HiddenMethod isDisplayRotationFrozenMethod;
+    private HiddenMethod thawDisplayRotationMethod;
+    private HiddenMethod watchRotationMethod;
 
     static WindowManager create() {
         IInterface manager = ServiceManager.getService("window", "android.view.IWindowManager");
@@ -33,84 +26,73 @@ public final class WindowManager {
         this.manager = manager;
     }
 
-    private Method getGetRotationMethod() throws NoSuchMethodException {
+    private HiddenMethod getGetRotationMethod() throws NoSuchMethodException {
         if (getRotationMethod == null) {
-            Class<?> cls = manager.getClass();
-            try {
-                // method changed since this commit:
-                // https://android.googlesource.com/platform/frameworks/base/+/8ee7285128c3843401d4c4d0412cd66e86ba49e3%5E%21/#F2
-                getRotationMethod = cls.getMethod("getDefaultDisplayRotation");
-            } catch (NoSuchMethodException e) {
-                // old version
-                getRotationMethod = cls.getMethod("getRotation");
-            }
+            getRotationMethod = HiddenMethod.resolve(manager.getClass(),
+                    // method changed since this commit:
+                    // https://android.googlesource.com/platform/frameworks/base/+/8ee7285128c3843401d4c4d0412cd66e86ba49e3%5E%21/#F2
+                    HiddenMethod.signature("getDefaultDisplayRotation"),
+                    // old version
+                    HiddenMethod.signature("getRotation"));
         }
         return getRotationMethod;
     }
 
-    private Method getFreezeDisplayRotationMethod() throws NoSuchMethodException {
+    private HiddenMethod getFreezeDisplayRotationMethod() throws NoSuchMethodException {
         if (freezeDisplayRotationMethod == null) {
-            try {
-                // Android 15 preview and 14 QPR3 Beta added a String caller parameter for debugging:
-                // <https://android.googlesource.com/platform/frameworks/base/+/670fb7f5c0d23cf51ead25538bcb017e03ed73ac%5E%21/>
-                freezeDisplayRotationMethod = manager.getClass().getMethod("freezeDisplayRotation", int.class, int.class, String.class);
-                freezeDisplayRotationMethodVersion = 0;
-            } catch (NoSuchMethodException e) {
-                try {
+            freezeDisplayRotationMethod = HiddenMethod.resolve(manager.getClass(),
+                    // Android 15 preview and 14 QPR3 Beta added a String caller parameter for debugging:
+                    // <https://android.googlesource.com/platform/frameworks/base/+/670fb7f5c0d23cf51ead25538bcb017e03ed73ac%5E%21/>
+                    HiddenMethod.signature("freezeDisplayRotation", int.class, int.class, String.class),
                     // New method added by this commit:
                     // <https://android.googlesource.com/platform/frameworks/base/+/90c9005e687aa0f63f1ac391adc1e8878ab31759%5E%21/>
-                    freezeDisplayRotationMethod = manager.getClass().getMethod("freezeDisplayRotation", int.class, int.class);
-                    freezeDisplayRotationMethodVersion = 1;
-                } catch (NoSuchMethodException e1) {
-                    freezeDisplayRotationMethod = manager.getClass().getMethod("freezeRotation", int.class);
-                    freezeDisplayRotationMethodVersion = 2;
-                }
-            }
+                    HiddenMethod.signature("freezeDisplayRotation", int.class, int.class),
+                    HiddenMethod.signature("freezeRotation", int.class));
         }
         return freezeDisplayRotationMethod;
     }
 
-    private Method getIsDisplayRotationFrozenMethod() throws NoSuchMethodException {
+    private HiddenMethod getIsDisplayRotationFrozenMethod() throws NoSuchMethodException {
         if (isDisplayRotationFrozenMethod == null) {
-            try {
-                // New method added by this commit:
-                // <https://android.googlesource.com/platform/frameworks/base/+/90c9005e687aa0f63f1ac391adc1e8878ab31759%5E%21/>
-                isDisplayRotationFrozenMethod = manager.getClass().getMethod("isDisplayRotationFrozen", int.class);
-                isDisplayRotationFrozenMethodVersion = 0;
-            } catch (NoSuchMethodException e) {
-                isDisplayRotationFrozenMethod = manager.getClass().getMethod("isRotationFrozen");
-                isDisplayRotationFrozenMethodVersion = 1;
-            }
+            isDisplayRotationFrozenMethod = HiddenMethod.resolve(manager.getClass(),
+                    // New method added by this commit:
+                    // <https://android.googlesource.com/platform/frameworks/base/+/90c9005e687aa0f63f1ac391adc1e8878ab31759%5E%21/>
+                    HiddenMethod.signature("isDisplayRotationFrozen", int.class),
+                    HiddenMethod.signature("isRotationFrozen"));
         }
         return isDisplayRotationFrozenMethod;
     }
 
-    private Method getThawDisplayRotationMethod() throws NoSuchMethodException {
+    private HiddenMethod getThawDisplayRotationMethod() throws NoSuchMethodException {
         if (thawDisplayRotationMethod == null) {
-            try {
-                // Android 15 preview and 14 QPR3 Beta added a String caller parameter for debugging:
-                // <https://android.googlesource.com/platform/frameworks/base/+/670fb7f5c0d23cf51ead25538bcb017e03ed73ac%5E%21/>
-                thawDisplayRotationMethod = manager.getClass().getMethod("thawDisplayRotation", int.class, String.class);
-                thawDisplayRotationMethodVersion = 0;
-            } catch (NoSuchMethodException e) {
-                try {
+            thawDisplayRotationMethod = HiddenMethod.resolve(manager.getClass(),
+                    // Android 15 preview and 14 QPR3 Beta added a String caller parameter for debugging:
+                    // <https://android.googlesource.com/platform/frameworks/base/+/670fb7f5c0d23cf51ead25538bcb017e03ed73ac%5E%21/>
+                    HiddenMethod.signature("thawDisplayRotation", int.class, String.class),
                     // New method added by this commit:
                     // <https://android.googlesource.com/platform/frameworks/base/+/90c9005e687aa0f63f1ac391adc1e8878ab31759%5E%21/>
-                    thawDisplayRotationMethod = manager.getClass().getMethod("thawDisplayRotation", int.class);
-                    thawDisplayRotationMethodVersion = 1;
-                } catch (NoSuchMethodException e1) {
-                    thawDisplayRotationMethod = manager.getClass().getMethod("thawRotation");
-                    thawDisplayRotationMethodVersion = 2;
-                }
-            }
+                    HiddenMethod.signature("thawDisplayRotation", int.class),
+                    HiddenMethod.signature("thawRotation"));
         }
         return thawDisplayRotationMethod;
     }
 
+    private HiddenMethod getWatchRotationMethod() throws NoSuchMethodException {
+        if (watchRotationMethod == null) {
+            watchRotationMethod = HiddenMethod.resolve(manager.getClass(),
+                    // display parameter added since this commit:
+                    // https://android.googlesource.com/platform/frameworks/base/+/35fa3c26adcb5f6577849fd0df5228b1f67cf2c6%5E%21/#F1
+                    HiddenMethod.signature("watchRotation", IRotationWatcher.class, int.class),
+                    // old version
+                    HiddenMethod.signature("watchRotation", IRotationWatcher.class));
+        }
+        return watchRotationMethod;
+    }
+
     public int getRotation() {
         try {
-            Method method = getGetRotationMethod();
-            return (int) method.invoke(manager);
+            HiddenMethod method = getGetRotationMethod();
+            return method.invokeInt(manager);
         } catch (ReflectiveOperationException e) {
             Ln.e("Could not invoke method", e);
             return 0;
@@ -119,8 +101,8 @@ public final class WindowManager {
 
     public void freezeRotation(int displayId, int rotation) {
         try {
-            Method method = getFreezeDisplayRotationMethod();
-            switch (freezeDisplayRotationMethodVersion) {
+            HiddenMethod method = getFreezeDisplayRotationMethod();
+            switch (method.getVariant()) {
                 case 0:
                     method.invoke(manager, displayId, rotation, "scrcpy#freezeRotation");
                     break;
@@ -142,16 +124,16 @@ public final class WindowManager {
 
     public boolean isRotationFrozen(int displayId) {
         try {
-            Method method = getIsDisplayRotationFrozenMethod();
-            switch (isDisplayRotationFrozenMethodVersion) {
+            HiddenMethod method = getIsDisplayRotationFrozenMethod();
+            switch (method.getVariant()) {
                 case 0:
-                    return (boolean) method.invoke(manager, displayId);
+                    return method.invokeBoolean(manager, displayId);
                 default:
                     if (displayId != 0) {
                         Ln.e("Secondary display rotation not supported on this device");
                         return false;
                     }
-                    return (boolean) method.invoke(manager);
+                    return method.invokeBoolean(manager);
             }
         } catch (ReflectiveOperationException e) {
             Ln.e("Could not invoke method", e);
@@ -161,8 +143,8 @@ public final class WindowManager {
 
     public void thawRotation(int displayId) {
         try {
-            Method method = getThawDisplayRotationMethod();
-            switch (thawDisplayRotationMethodVersion) {
+            HiddenMethod method = getThawDisplayRotationMethod();
+            switch (method.getVariant()) {
                 case 0:
                     method.invoke(manager, displayId, "scrcpy#thawRotation");
                     break;
@@ -184,18 +166,15 @@ public final class WindowManager {
 
     public void registerRotationWatcher(IRotationWatcher rotationWatcher, int displayId) {
         try {
-            Class<?> cls = manager.getClass();
-            try {
-                // display parameter added since this commit:
-                // https://android.googlesource.com/platform/frameworks/base/+/35fa3c26adcb5f6577849fd0df5228b1f67cf2c6%5E%21/#F1
-                cls.getMethod("watchRotation", IRotationWatcher.class, int.class).invoke(manager, rotationWatcher, displayId);
-            } catch (NoSuchMethodException e) {
-                // old version
+            HiddenMethod method = getWatchRotationMethod();
+            if (method.getVariant() == 0) {
+                method.invoke(manager, rotationWatcher, displayId);
+            } else {
                 if (displayId != 0) {
                     Ln.e("Secondary display rotation not supported on this device");
                     return;
                 }
-                cls.getMethod("watchRotation", IRotationWatcher.class).invoke(manager, rotationWatcher);
+                method.invoke(manager, rotationWatcher);
             }
         } catch (Exception e) {
             Ln.e("Could not register rotation watcher", e);
@@ -204,7 +183,8 @@ public final class WindowManager {
 
     public void unregisterRotationWatcher(IRotationWatcher rotationWatcher) {
         try {
-            manager.getClass().getMethod("removeRotationWatcher", IRotationWatcher.class).invoke(manager, rotationWatcher);
+            HiddenMethod.resolve(manager.getClass(), HiddenMethod.signature("removeRotationWatcher", IRotationWatcher.class))
+                    .invoke(manager, rotationWatcher);
         } catch (Exception e) {
             Ln.e("Could not unregister rotation watcher", e);
         }
@@ -213,7 +193,8 @@ public final class WindowManager {
     @TargetApi(AndroidVersions.API_29_ANDROID_10)
     public void registerDisplayFoldListener(IDisplayFoldListener foldListener) {
         try {
-            manager.getClass().getMethod("registerDisplayFoldListener", IDisplayFoldListener.class).invoke(manager, foldListener);
+            HiddenMethod.resolve(manager.getClass(), HiddenMethod.signature("registerDisplayFoldListener", IDisplayFoldListener.class))
+                    .invoke(manager, foldListener);
         } catch (Exception e) {
             Ln.e("Could not register display fold listener", e);
         }
@@ -222,7 +203,8 @@ public final class WindowManager {
     @TargetApi(AndroidVersions.API_29_ANDROID_10)
     public void unregisterDisplayFoldListener(IDisplayFoldListener foldListener) {
         try {
-            manager.getClass().getMethod("unregisterDisplayFoldListener", IDisplayFoldListener.class).invoke(manager, foldListener);
+            HiddenMethod.resolve(manager.getClass(), HiddenMethod.signature("unregisterDisplayFoldListener", IDisplayFoldListener.class))
+                    .invoke(manager, foldListener);
         } catch (Exception e) {
             Ln.e("Could not unregister display fold listener", e);
         }
@@ -231,7 +213,9 @@ public final class WindowManager {
     @TargetApi(AndroidVersions.API_30_ANDROID_11)
     public int[] registerDisplayWindowListener(IDisplayWindowListener listener) {
         try {
-            return (int[]) manager.getClass().getMethod("registerDisplayWindowListener", IDisplayWindowListener.class).invoke(manager, listener);
+            HiddenMethod method = HiddenMethod.resolve(manager.getClass(),
+                    HiddenMethod.signature("registerDisplayWindowListener", IDisplayWindowListener.class));
+            return (int[]) method.invoke(manager, listener);
         } catch (Exception e) {
             Ln.e("Could not register display window listener", e);
         }
@@ -241,7 +225,8 @@ public final class WindowManager {
     @TargetApi(AndroidVersions.API_30_ANDROID_11)
     public void unregisterDisplayWindowListener(IDisplayWindowListener listener) {
         try {
-            manager.getClass().getMethod("unregisterDisplayWindowListener", IDisplayWindowListener.class).invoke(manager, listener);
+            HiddenMethod.resolve(manager.getClass(), HiddenMethod.signature("unregisterDisplayWindowListener", IDisplayWindowListener.class))
+                    .invoke(manager, listener);
         } catch (Exception e) {
             Ln.e("Could not unregister display window listener", e);
         }
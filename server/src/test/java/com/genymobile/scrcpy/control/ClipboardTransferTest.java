@@ -0,0 +1,277 @@
+package com.genymobile.scrcpy.control;
+
+import com.genymobile.scrcpy.metrics.Counter;
+import com.genymobile.scrcpy.metrics.Metrics;
+
+import android.view.MotionEvent;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ClipboardTransferTest {
+
+    private static String createLargeText(int minLength) {
+        // Multibyte characters (2, 3 and 4 bytes in UTF-8), so that chunk boundaries split some of them
+        StringBuilder builder = new StringBuilder(minLength + 32);
+        int i = 0;
+        while (builder.length() < minLength) {
+            builder.append("line ").append(i++).append(": héllo wörld € 😀\n");
+        }
+        return builder.toString();
+    }
+
+    private static void writeChunk(DataOutputStream dos, long sequence, boolean paste, long hash, int totalSize, int offset, byte[] data,
+            int len) throws IOException {
+        dos.writeByte(ControlMessage.TYPE_SET_CLIPBOARD_CHUNK);
+        dos.writeLong(sequence);
+        dos.writeByte(paste ? 1 : 0);
+        dos.writeLong(hash);
+        dos.writeInt(totalSize);
+        dos.writeInt(offset);
+        dos.writeInt(len);
+        dos.write(data, offset, len);
+    }
+
+    private static void writeTouchEvent(DataOutputStream dos, int x) throws IOException {
+        dos.writeByte(ControlMessage.TYPE_INJECT_TOUCH_EVENT);
+        dos.writeByte(MotionEvent.ACTION_MOVE);
+        dos.writeLong(0); // pointerId
+        dos.writeInt(x);
+        dos.writeInt(200);
+        dos.writeShort(1080);
+        dos.writeShort(1920);
+        dos.writeShort(0xffff); // pressure
+        dos.writeInt(0); // action button
+        dos.writeInt(0); // buttons
+    }
+
+    private static ControlMessage createChunk(long sequence, long hash, byte[] content, int offset, int len) {
+        byte[] data = new byte[len];
+        System.arraycopy(content, offset, data, 0, len);
+        return ControlMessage.createSetClipboardChunk(sequence, false, hash, content.length, offset, data);
+    }
+
+    @Test
+    public void testHash() {
+        byte[] content = "hello".getBytes(StandardCharsets.UTF_8);
+        Assert.assertEquals(ClipboardTransfer.hash(content), ClipboardTransfer.hash("hello".getBytes(StandardCharsets.UTF_8)));
+        Assert.assertNotEquals(ClipboardTransfer.hash(content), ClipboardTransfer.hash("hellO".getBytes(StandardCharsets.UTF_8)));
+        Assert.assertNotEquals(ClipboardTransfer.NO_HASH, ClipboardTransfer.hash(new byte[0]));
+    }
+
+    @Test
+    public void testSplit() {
+        int size = 2 * ClipboardTransfer.CHUNK_MAX_SIZE + 42;
+        byte[] content = new byte[size];
+        DeviceMessage transfer = ClipboardTransfer.createTransfer(content, 1234);
+        Assert.assertEquals(size, transfer.getLength());
+
+        List<DeviceMessage> chunks = new ArrayList<>();
+        while (transfer != null) {
+            chunks.add(ClipboardTransfer.splitFirstChunk(transfer));
+            transfer = ClipboardTransfer.getRemaining(transfer);
+        }
+
+        Assert.assertEquals(3, chunks.size());
+        int offset = 0;
+        for (DeviceMessage chunk : chunks) {
+            Assert.assertEquals(DeviceMessage.TYPE_CLIPBOARD_CHUNK, chunk.getType());
+            Assert.assertEquals(1234, chunk.getHash());
+            Assert.assertSame(content, chunk.getData());
+            Assert.assertEquals(offset, chunk.getOffset());
+            offset += chunk.getLength();
+        }
+        Assert.assertEquals(size, offset);
+        Assert.assertEquals(42, chunks.get(2).getLength());
+
+        // An empty content is sent as a single empty chunk
+        transfer = ClipboardTransfer.createTransfer(new byte[0], 1234);
+        Assert.assertSame(transfer, ClipboardTransfer.splitFirstChunk(transfer));
+        Assert.assertNull(ClipboardTransfer.getRemaining(transfer));
+    }
+
+    @Test
+    public void testReceiveInterleavedWithInputEvents() throws IOException {
+        String text = createLargeText(3 * 1024 * 1024);
+        byte[] content = text.getBytes(StandardCharsets.UTF_8);
+        long hash = ClipboardTransfer.hash(content);
+
+        // Write the stream as the client would: a touch event between each chunk
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(content.length + 4096);
+        DataOutputStream dos = new DataOutputStream(bos);
+        int chunkCount = 0;
+        for (int offset = 0; offset < content.length; offset += ClipboardTransfer.CHUNK_MAX_SIZE) {
+            int len = Math.min(content.length - offset, ClipboardTransfer.CHUNK_MAX_SIZE);
+            writeChunk(dos, 42, true, hash, content.length, offset, content, len);
+            writeTouchEvent(dos, chunkCount);
+            ++chunkCount;
+        }
+
+        ByteArrayInputStream bis = new ByteArrayInputStream(bos.toByteArray());
+        ControlMessageReader reader = new ControlMessageReader(bis);
+        ClipboardTransfer.Receiver receiver = new ClipboardTransfer.Receiver();
+
+        byte[] result = null;
+        for (int i = 0; i < chunkCount; ++i) {
+            ControlMessage chunk = reader.read();
+            Assert.assertEquals(ControlMessage.TYPE_SET_CLIPBOARD_CHUNK, chunk.getType());
+            Assert.assertEquals(42, chunk.getSequence());
+            Assert.assertTrue(chunk.getPaste());
+            Assert.assertNull(result);
+            result = receiver.receive(chunk);
+            Assert.assertEquals(i == chunkCount - 1, result != null);
+
+            // The input events are not delayed until the end of the transfer
+            ControlMessage event = reader.read();
+            Assert.assertEquals(ControlMessage.TYPE_INJECT_TOUCH_EVENT, event.getType());
+            Assert.assertEquals(i, event.getPosition().getPoint().getX());
+        }
+
+        Assert.assertEquals(-1, bis.read()); // EOS
+        Assert.assertEquals(text, new String(result, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testSendInterleavedWithUhidOutput() throws IOException, InterruptedException {
+        String text = createLargeText(3 * 1024 * 1024);
+        byte[] content = text.getBytes(StandardCharsets.UTF_8);
+        long hash = ClipboardTransfer.hash(content);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(content.length + 4096);
+        DeviceMessageWriter writer = new DeviceMessageWriter(bos);
+        byte[] report = {1, 2, 3};
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<DeviceMessageSender> senderRef = new AtomicReference<>();
+        DeviceMessageSender sender = new DeviceMessageSender(new DeviceMessageSender.Output() {
+            @Override
+            public int send(DeviceMessage msg, boolean flush) throws IOException {
+                int size = writer.write(msg, flush);
+                if (msg.getType() == DeviceMessage.TYPE_CLIPBOARD_CHUNK) {
+                    // Simulate a UHID output report produced while the transfer is in progress
+                    senderRef.get().send(DeviceMessage.createUhidOutput(7, report));
+                    if (msg.getOffset() + msg.getLength() == content.length) {
+                        senderRef.get().send(DeviceMessage.createAckClipboard(-1));
+                    }
+                } else if (msg.getType() == DeviceMessage.TYPE_ACK_CLIPBOARD) {
+                    done.countDown();
+                }
+                return size;
+            }
+
+            @Override
+            public void flush() throws IOException {
+                writer.flush();
+            }
+        });
+        senderRef.set(sender);
+        sender.send(ClipboardTransfer.createTransfer(content, hash));
+        sender.start();
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        sender.stop();
+        sender.join();
+
+        // Parse the stream as the client would
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(bos.toByteArray()));
+        byte[] received = null;
+        int receivedSize = 0;
+        int uhidOutputs = 0;
+        int chunks = 0;
+        int type;
+        while ((type = dis.read()) != -1) {
+            if (type == DeviceMessage.TYPE_CLIPBOARD_CHUNK) {
+                // The UHID output reports are not delayed until the end of the transfer
+                Assert.assertEquals(Math.max(0, chunks - 1), uhidOutputs);
+                Assert.assertEquals(hash, dis.readLong());
+                int totalSize = dis.readInt();
+                int offset = dis.readInt();
+                int len = dis.readInt();
+                if (received == null) {
+                    received = new byte[totalSize];
+                }
+                Assert.assertEquals(receivedSize, offset);
+                dis.readFully(received, offset, len);
+                receivedSize += len;
+                ++chunks;
+            } else if (type == DeviceMessage.TYPE_ACK_CLIPBOARD) {
+                dis.readLong();
+            } else {
+                Assert.assertEquals(DeviceMessage.TYPE_UHID_OUTPUT, type);
+                Assert.assertEquals(7, dis.readShort());
+                byte[] data = new byte[dis.readShort()];
+                dis.readFully(data);
+                Assert.assertArrayEquals(report, data);
+                ++uhidOutputs;
+            }
+        }
+
+        Assert.assertEquals(chunks, uhidOutputs);
+        Assert.assertEquals(content.length, receivedSize);
+        Assert.assertEquals(hash, ClipboardTransfer.hash(received));
+        Assert.assertEquals(text, new String(received, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testReceiveHashMismatch() {
+        Counter discarded = Metrics.counter("control.clipboard.transfers_discarded");
+        long before = discarded.get();
+
+        byte[] content = createLargeText(100_000).getBytes(StandardCharsets.UTF_8);
+        long wrongHash = ClipboardTransfer.hash(content) + 1;
+
+        ClipboardTransfer.Receiver receiver = new ClipboardTransfer.Receiver();
+        int chunkSize = ClipboardTransfer.CHUNK_MAX_SIZE;
+        Assert.assertNull(receiver.receive(createChunk(1, wrongHash, content, 0, chunkSize)));
+        Assert.assertNull(receiver.receive(createChunk(1, wrongHash, content, chunkSize, content.length - chunkSize)));
+
+        Assert.assertEquals(before + 1, discarded.get());
+    }
+
+    @Test
+    public void testReceiveRestartedTransfer() {
+        Counter discarded = Metrics.counter("control.clipboard.transfers_discarded");
+        long before = discarded.get();
+
+        byte[] content = createLargeText(100_000).getBytes(StandardCharsets.UTF_8);
+        long hash = ClipboardTransfer.hash(content);
+        int chunkSize = ClipboardTransfer.CHUNK_MAX_SIZE;
+
+        ClipboardTransfer.Receiver receiver = new ClipboardTransfer.Receiver();
+        Assert.assertNull(receiver.receive(createChunk(1, hash, content, 0, chunkSize)));
+        // A new transfer starts before the end of the previous one
+        Assert.assertNull(receiver.receive(createChunk(2, hash, content, 0, chunkSize)));
+        // A chunk of the previous transfer is ignored
+        Assert.assertNull(receiver.receive(createChunk(1, hash, content, chunkSize, content.length - chunkSize)));
+        Assert.assertEquals(before + 2, discarded.get());
+
+        // A chunk after a discarded transfer is ignored
+        Assert.assertNull(receiver.receive(createChunk(2, hash, content, chunkSize, content.length - chunkSize)));
+
+        Assert.assertNull(receiver.receive(createChunk(3, hash, content, 0, chunkSize)));
+        byte[] result = receiver.receive(createChunk(3, hash, content, chunkSize, content.length - chunkSize));
+        Assert.assertArrayEquals(content, result);
+        Assert.assertEquals(before + 2, discarded.get());
+    }
+
+    @Test
+    public void testReceiveTooLarge() {
+        Counter discarded = Metrics.counter("control.clipboard.transfers_discarded");
+        long before = discarded.get();
+
+        ClipboardTransfer.Receiver receiver = new ClipboardTransfer.Receiver();
+        byte[] data = new byte[16];
+        ControlMessage chunk = ControlMessage.createSetClipboardChunk(1, false, 1234, ClipboardTransfer.CONTENT_MAX_SIZE + 1, 0, data);
+        Assert.assertNull(receiver.receive(chunk));
+        Assert.assertEquals(before + 1, discarded.get());
+    }
+}
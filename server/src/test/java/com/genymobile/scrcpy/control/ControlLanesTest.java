@@ -0,0 +1,178 @@
+package com.genymobile.scrcpy.control;
+
+import android.view.KeyEvent;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ControlLanesTest {
+
+    private static final long SLOW_HANDLER_MS = 200;
+
+    // Record the order in which the messages are handled (by type)
+    private static final class Recorder {
+        private final List<Integer> handled = new ArrayList<>();
+
+        synchronized void record(int type) {
+            handled.add(type);
+        }
+
+        synchronized List<Integer> get() {
+            return new ArrayList<>(handled);
+        }
+    }
+
+    private static ControlLanes.Handler slowHandler(Recorder recorder) {
+        return msg -> {
+            try {
+                Thread.sleep(SLOW_HANDLER_MS);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            recorder.record(msg.getType());
+        };
+    }
+
+    private static ControlMessage createKey() {
+        return ControlMessage.createInjectKeycode(KeyEvent.ACTION_DOWN, KeyEvent.KEYCODE_A, 0, 0);
+    }
+
+    private static void stop(ControlLanes lanes) throws InterruptedException {
+        lanes.stop();
+        lanes.join();
+    }
+
+    @Test
+    public void testLanes() {
+        Assert.assertEquals(ControlLanes.LANE_INPUT, ControlLanes.getLane(ControlMessage.TYPE_INJECT_TOUCH_EVENT));
+        Assert.assertEquals(ControlLanes.LANE_INPUT, ControlLanes.getLane(ControlMessage.TYPE_INJECT_KEYCODE));
+        Assert.assertEquals(ControlLanes.LANE_INPUT, ControlLanes.getLane(ControlMessage.TYPE_UHID_INPUT));
+        Assert.assertEquals(ControlLanes.LANE_BACKGROUND, ControlLanes.getLane(ControlMessage.TYPE_SET_CLIPBOARD));
+        Assert.assertEquals(ControlLanes.LANE_BACKGROUND, ControlLanes.getLane(ControlMessage.TYPE_ROTATE_DEVICE));
+        Assert.assertEquals(ControlLanes.LANE_BACKGROUND, ControlLanes.getLane(ControlMessage.TYPE_UHID_CREATE));
+    }
+
+    @Test
+    public void testInputNotBlockedBySlowCommands() throws IOException, InterruptedException {
+        Recorder input = new Recorder();
+        Recorder background = new Recorder();
+        ControlLanes lanes = new ControlLanes(msg -> input.record(msg.getType()), slowHandler(background));
+        lanes.start();
+
+        lanes.dispatch(ControlMessage.createGetClipboard(ControlMessage.COPY_KEY_NONE));
+        lanes.dispatch(ControlMessage.createEmpty(ControlMessage.TYPE_ROTATE_DEVICE));
+        lanes.dispatch(ControlMessage.createSetClipboard(ControlMessage.SEQUENCE_INVALID, "text", false));
+
+        long maxLatencyNs = 0;
+        for (int i = 0; i < 100; ++i) {
+            long startNs = System.nanoTime();
+            lanes.dispatch(createKey());
+            maxLatencyNs = Math.max(maxLatencyNs, System.nanoTime() - startNs);
+        }
+
+        // All input events have been handled while the first slow command is still running
+        Assert.assertEquals(100, input.get().size());
+        Assert.assertTrue(background.get().size() < 3);
+        Assert.assertTrue("Input latency: " + maxLatencyNs + " ns", maxLatencyNs < SLOW_HANDLER_MS * 1_000_000 / 4);
+
+        // Wait for the background lane
+        Thread.sleep(4 * SLOW_HANDLER_MS);
+        stop(lanes);
+
+        List<Integer> expected = new ArrayList<>();
+        expected.add(ControlMessage.TYPE_GET_CLIPBOARD);
+        expected.add(ControlMessage.TYPE_ROTATE_DEVICE);
+        expected.add(ControlMessage.TYPE_SET_CLIPBOARD);
+        Assert.assertEquals(expected, background.get());
+    }
+
+    @Test
+    public void testPasteBarrier() throws IOException, InterruptedException {
+        Recorder recorder = new Recorder();
+        ControlLanes lanes = new ControlLanes(msg -> recorder.record(msg.getType()), slowHandler(recorder));
+        lanes.start();
+
+        lanes.dispatch(ControlMessage.createSetClipboard(ControlMessage.SEQUENCE_INVALID, "text", true));
+        // Must wait for the paste
+        lanes.dispatch(createKey());
+        stop(lanes);
+
+        List<Integer> expected = new ArrayList<>();
+        expected.add(ControlMessage.TYPE_SET_CLIPBOARD);
+        expected.add(ControlMessage.TYPE_INJECT_KEYCODE);
+        Assert.assertEquals(expected, recorder.get());
+    }
+
+    @Test
+    public void testCopyBarrier() throws IOException, InterruptedException {
+        Recorder recorder = new Recorder();
+        ControlLanes lanes = new ControlLanes(msg -> recorder.record(msg.getType()), slowHandler(recorder));
+        lanes.start();
+
+        lanes.dispatch(ControlMessage.createGetClipboard(ControlMessage.COPY_KEY_CUT));
+        // Must wait for the CUT key (the next events could change the selection)
+        lanes.dispatch(createKey());
+        // Without copy key, the input events do not wait
+        lanes.dispatch(ControlMessage.createGetClipboard(ControlMessage.COPY_KEY_NONE));
+        lanes.dispatch(createKey());
+
+        // Wait for the background lane
+        Thread.sleep(2 * SLOW_HANDLER_MS);
+        stop(lanes);
+
+        List<Integer> expected = new ArrayList<>();
+        expected.add(ControlMessage.TYPE_GET_CLIPBOARD);
+        expected.add(ControlMessage.TYPE_INJECT_KEYCODE);
+        expected.add(ControlMessage.TYPE_INJECT_KEYCODE);
+        expected.add(ControlMessage.TYPE_GET_CLIPBOARD);
+        Assert.assertEquals(expected, recorder.get());
+    }
+
+    @Test
+    public void testUhidBarrier() throws IOException, InterruptedException {
+        Recorder recorder = new Recorder();
+        ControlLanes lanes = new ControlLanes(msg -> recorder.record(msg.getType()), slowHandler(recorder));
+        lanes.start();
+
+        lanes.dispatch(ControlMessage.createUhidCreate(1, "test", new byte[0]));
+        // Other input events do not wait for the UHID device creation
+        lanes.dispatch(createKey());
+        // But UHID input events do
+        lanes.dispatch(ControlMessage.createUhidInput(1, new byte[] {1, 2, 3}));
+        stop(lanes);
+
+        List<Integer> expected = new ArrayList<>();
+        expected.add(ControlMessage.TYPE_INJECT_KEYCODE);
+        expected.add(ControlMessage.TYPE_UHID_CREATE);
+        expected.add(ControlMessage.TYPE_UHID_INPUT);
+        Assert.assertEquals(expected, recorder.get());
+    }
+
+    @Test
+    public void testBackgroundError() throws IOException, InterruptedException {
+        List<IOException> reportedErrors = new ArrayList<>();
+        ControlLanes lanes = new ControlLanes(msg -> {
+            // do nothing
+        }, msg -> {
+            throw new IOException("test");
+        }, reportedErrors::add);
+        lanes.start();
+
+        lanes.dispatch(ControlMessage.createUhidCreate(1, "test", new byte[0]));
+        lanes.join(); // the background lane stops on error
+
+        // The error is reported immediately, without waiting for the next message
+        Assert.assertEquals(1, reportedErrors.size());
+        Assert.assertEquals("test", reportedErrors.get(0).getMessage());
+
+        try {
+            lanes.dispatch(createKey());
+            Assert.fail("The background error must be reported");
+        } catch (IOException e) {
+            Assert.assertEquals("test", e.getMessage());
+        }
+    }
+}
@@ -2,7 +2,9 @@ package com.genymobile.scrcpy.control;
 
 import android.view.KeyEvent;
 import android.view.MotionEvent;
+import com.sun.management.ThreadMXBean;
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
@@ -10,31 +12,106 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.lang.management.ManagementFactory;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.Random;
 
 public class ControlMessageReaderTest {
 
-    @Test
-    public void testParseKeycodeEvent() throws IOException {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        DataOutputStream dos = new DataOutputStream(bos);
+    private static void writeKeycodeEvent(DataOutputStream dos) throws IOException {
         dos.writeByte(ControlMessage.TYPE_INJECT_KEYCODE);
         dos.writeByte(KeyEvent.ACTION_UP);
         dos.writeInt(KeyEvent.KEYCODE_ENTER);
         dos.writeInt(5); // repeat
         dos.writeInt(KeyEvent.META_CTRL_ON);
-        byte[] packet = bos.toByteArray();
-
-        ByteArrayInputStream bis = new ByteArrayInputStream(packet);
-        ControlMessageReader reader = new ControlMessageReader(bis);
+    }
 
-        ControlMessage event = reader.read();
+    private static void assertKeycodeEvent(ControlMessage event) {
         Assert.assertEquals(ControlMessage.TYPE_INJECT_KEYCODE, event.getType());
         Assert.assertEquals(KeyEvent.ACTION_UP, event.getAction());
         Assert.assertEquals(KeyEvent.KEYCODE_ENTER, event.getKeycode());
         Assert.assertEquals(5, event.getRepeat());
         Assert.assertEquals(KeyEvent.META_CTRL_ON, event.getMetaState());
+    }
+
+    private static void writeTouchEvent(DataOutputStream dos) throws IOException {
+        dos.writeByte(ControlMessage.TYPE_INJECT_TOUCH_EVENT);
+        dos.writeByte(MotionEvent.ACTION_DOWN);
+        dos.writeLong(-42); // pointerId
+        dos.writeInt(100);
+        dos.writeInt(200);
+        dos.writeShort(1080);
+        dos.writeShort(1920);
+        dos.writeShort(0xffff); // pressure
+        dos.writeInt(MotionEvent.BUTTON_PRIMARY); // action button
+        dos.writeInt(MotionEvent.BUTTON_PRIMARY); // buttons
+    }
+
+    private static void assertTouchEvent(ControlMessage event) {
+        Assert.assertEquals(ControlMessage.TYPE_INJECT_TOUCH_EVENT, event.getType());
+        Assert.assertEquals(MotionEvent.ACTION_DOWN, event.getAction());
+        Assert.assertEquals(-42, event.getPointerId());
+        Assert.assertEquals(100, event.getPosition().getPoint().getX());
+        Assert.assertEquals(200, event.getPosition().getPoint().getY());
+        Assert.assertEquals(1080, event.getPosition().getScreenSize().getWidth());
+        Assert.assertEquals(1920, event.getPosition().getScreenSize().getHeight());
+        Assert.assertEquals(1f, event.getPressure(), 0f); // must be exact
+        Assert.assertEquals(MotionEvent.BUTTON_PRIMARY, event.getActionButton());
+        Assert.assertEquals(MotionEvent.BUTTON_PRIMARY, event.getButtons());
+    }
+
+    private static void writeScrollEvent(DataOutputStream dos) throws IOException {
+        dos.writeByte(ControlMessage.TYPE_INJECT_SCROLL_EVENT);
+        dos.writeInt(260);
+        dos.writeInt(1026);
+        dos.writeShort(1080);
+        dos.writeShort(1920);
+        dos.writeShort(0); // 0.0f encoded as i16
+        dos.writeShort(0x8000); // -1.0f encoded as i16
+        dos.writeInt(1);
+    }
+
+    private static void assertScrollEvent(ControlMessage event) {
+        Assert.assertEquals(ControlMessage.TYPE_INJECT_SCROLL_EVENT, event.getType());
+        Assert.assertEquals(260, event.getPosition().getPoint().getX());
+        Assert.assertEquals(1026, event.getPosition().getPoint().getY());
+        Assert.assertEquals(1080, event.getPosition().getScreenSize().getWidth());
+        Assert.assertEquals(1920, event.getPosition().getScreenSize().getHeight());
+        Assert.assertEquals(0f, event.getHScroll(), 0f);
+        Assert.assertEquals(-1f, event.getVScroll(), 0f);
+        Assert.assertEquals(1, event.getButtons());
+    }
+
+    private static final byte[] UHID_INPUT_DATA = {1, 2, 3, 4, 5};
+
+    private static void writeUhidInput(DataOutputStream dos) throws IOException {
+        dos.writeByte(ControlMessage.TYPE_UHID_INPUT);
+        dos.writeShort(42); // id
+        dos.writeShort(UHID_INPUT_DATA.length); // size
+        dos.write(UHID_INPUT_DATA);
+    }
+
+    private static void assertUhidInput(ControlMessage event) {
+        Assert.assertEquals(ControlMessage.TYPE_UHID_INPUT, event.getType());
+        Assert.assertEquals(42, event.getId());
+        Assert.assertArrayEquals(UHID_INPUT_DATA, event.getData());
+    }
+
+    @Test
+    public void testParseKeycodeEvent() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        writeKeycodeEvent(dos);
+        byte[] packet = bos.toByteArray();
+
+        ByteArrayInputStream bis = new ByteArrayInputStream(packet);
+        ControlMessageReader reader = new ControlMessageReader(bis);
+
+        ControlMessage event = reader.read();
+        assertKeycodeEvent(event);
 
         Assert.assertEquals(-1, bis.read()); // EOS
     }
@@ -84,33 +161,14 @@ public class ControlMessageReaderTest {
     public void testParseTouchEvent() throws IOException {
         ByteArrayOutputStream bos = new ByteArrayOutputStream();
         DataOutputStream dos = new DataOutputStream(bos);
-        dos.writeByte(ControlMessage.TYPE_INJECT_TOUCH_EVENT);
-        dos.writeByte(MotionEvent.ACTION_DOWN);
-        dos.writeLong(-42); // pointerId
-        dos.writeInt(100);
-        dos.writeInt(200);
-        dos.writeShort(1080);
-        dos.writeShort(1920);
-        dos.writeShort(0xffff); // pressure
-        dos.writeInt(MotionEvent.BUTTON_PRIMARY); // action button
-        dos.writeInt(MotionEvent.BUTTON_PRIMARY); // buttons
-
+        writeTouchEvent(dos);
         byte[] packet = bos.toByteArray();
 
         ByteArrayInputStream bis = new ByteArrayInputStream(packet);
         ControlMessageReader reader = new ControlMessageReader(bis);
 
         ControlMessage event = reader.read();
-        Assert.assertEquals(ControlMessage.TYPE_INJECT_TOUCH_EVENT, event.getType());
-        Assert.assertEquals(MotionEvent.ACTION_DOWN, event.getAction());
-        Assert.assertEquals(-42, event.getPointerId());
-        Assert.assertEquals(100, event.getPosition().getPoint().getX());
-        Assert.assertEquals(200, event.getPosition().getPoint().getY());
-        Assert.assertEquals(1080, event.getPosition().getScreenSize().getWidth());
-        Assert.assertEquals(1920, event.getPosition().getScreenSize().getHeight());
-        Assert.assertEquals(1f, event.getPressure(), 0f); // must be exact
-        Assert.assertEquals(MotionEvent.BUTTON_PRIMARY, event.getActionButton());
-        Assert.assertEquals(MotionEvent.BUTTON_PRIMARY, event.getButtons());
+        assertTouchEvent(event);
 
         Assert.assertEquals(-1, bis.read()); // EOS
     }
@@ -119,28 +177,14 @@ public class ControlMessageReaderTest {
     public void testParseScrollEvent() throws IOException {
         ByteArrayOutputStream bos = new ByteArrayOutputStream();
         DataOutputStream dos = new DataOutputStream(bos);
-        dos.writeByte(ControlMessage.TYPE_INJECT_SCROLL_EVENT);
-        dos.writeInt(260);
-        dos.writeInt(1026);
-        dos.writeShort(1080);
-        dos.writeShort(1920);
-        dos.writeShort(0); // 0.0f encoded as i16
-        dos.writeShort(0x8000); // -1.0f encoded as i16
-        dos.writeInt(1);
+        writeScrollEvent(dos);
         byte[] packet = bos.toByteArray();
 
         ByteArrayInputStream bis = new ByteArrayInputStream(packet);
         ControlMessageReader reader = new ControlMessageReader(bis);
 
         ControlMessage event = reader.read();
-        Assert.assertEquals(ControlMessage.TYPE_INJECT_SCROLL_EVENT, event.getType());
-        Assert.assertEquals(260, event.getPosition().getPoint().getX());
-        Assert.assertEquals(1026, event.getPosition().getPoint().getY());
-        Assert.assertEquals(1080, event.getPosition().getScreenSize().getWidth());
-        Assert.assertEquals(1920, event.getPosition().getScreenSize().getHeight());
-        Assert.assertEquals(0f, event.getHScroll(), 0f);
-        Assert.assertEquals(-1f, event.getVScroll(), 0f);
-        Assert.assertEquals(1, event.getButtons());
+        assertScrollEvent(event);
 
         Assert.assertEquals(-1, bis.read()); // EOS
     }
@@ -316,6 +360,107 @@ public class ControlMessageReaderTest {
         Assert.assertEquals(-1, bis.read()); // EOS
     }
 
+    @Test
+    public void testParseRequestKeyFrame() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        dos.writeByte(ControlMessage.TYPE_REQUEST_KEY_FRAME);
+        byte[] packet = bos.toByteArray();
+
+        ByteArrayInputStream bis = new ByteArrayInputStream(packet);
+        ControlMessageReader reader = new ControlMessageReader(bis);
+
+        ControlMessage event = reader.read();
+        Assert.assertEquals(ControlMessage.TYPE_REQUEST_KEY_FRAME, event.getType());
+
+        Assert.assertEquals(-1, bis.read()); // EOS
+    }
+
+    @Test
+    public void testParseSetVideoBitRate() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        dos.writeByte(ControlMessage.TYPE_SET_VIDEO_BIT_RATE);
+        dos.writeLong(0x0102030405060708L); // sequence
+        dos.writeInt(4_000_000);
+        byte[] packet = bos.toByteArray();
+
+        ByteArrayInputStream bis = new ByteArrayInputStream(packet);
+        ControlMessageReader reader = new ControlMessageReader(bis);
+
+        ControlMessage event = reader.read();
+        Assert.assertEquals(ControlMessage.TYPE_SET_VIDEO_BIT_RATE, event.getType());
+        Assert.assertEquals(0x0102030405060708L, event.getSequence());
+        Assert.assertEquals(4_000_000, event.getVideoBitRate());
+
+        Assert.assertEquals(-1, bis.read()); // EOS
+    }
+
+    @Test
+    public void testParseSetMaxFps() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        dos.writeByte(ControlMessage.TYPE_SET_MAX_FPS);
+        dos.writeLong(0x0102030405060708L); // sequence
+        dos.writeFloat(29.97f);
+        byte[] packet = bos.toByteArray();
+
+        ByteArrayInputStream bis = new ByteArrayInputStream(packet);
+        ControlMessageReader reader = new ControlMessageReader(bis);
+
+        ControlMessage event = reader.read();
+        Assert.assertEquals(ControlMessage.TYPE_SET_MAX_FPS, event.getType());
+        Assert.assertEquals(0x0102030405060708L, event.getSequence());
+        Assert.assertEquals(29.97f, event.getMaxFps(), 0f);
+
+        Assert.assertEquals(-1, bis.read()); // EOS
+    }
+
+    @Test
+    public void testParseSetMaxFpsInvalid() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        float[] values = {Float.NaN, Float.POSITIVE_INFINITY, -1f};
+        for (float value : values) {
+            dos.writeByte(ControlMessage.TYPE_SET_MAX_FPS);
+            dos.writeLong(42); // sequence
+            dos.writeFloat(value);
+        }
+        byte[] packet = bos.toByteArray();
+
+        ByteArrayInputStream bis = new ByteArrayInputStream(packet);
+        ControlMessageReader reader = new ControlMessageReader(bis);
+
+        // The values are decoded as is, they are validated by the encoder (see SurfaceEncoderTest)
+        for (float value : values) {
+            ControlMessage event = reader.read();
+            Assert.assertEquals(ControlMessage.TYPE_SET_MAX_FPS, event.getType());
+            Assert.assertEquals(value, event.getMaxFps(), 0f);
+        }
+
+        Assert.assertEquals(-1, bis.read()); // EOS
+    }
+
+    @Test
+    public void testParseSetMaxSize() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        dos.writeByte(ControlMessage.TYPE_SET_MAX_SIZE);
+        dos.writeLong(0x0102030405060708L); // sequence
+        dos.writeShort(1920);
+        byte[] packet = bos.toByteArray();
+
+        ByteArrayInputStream bis = new ByteArrayInputStream(packet);
+        ControlMessageReader reader = new ControlMessageReader(bis);
+
+        ControlMessage event = reader.read();
+        Assert.assertEquals(ControlMessage.TYPE_SET_MAX_SIZE, event.getType());
+        Assert.assertEquals(0x0102030405060708L, event.getSequence());
+        Assert.assertEquals(1920, event.getMaxSize());
+
+        Assert.assertEquals(-1, bis.read()); // EOS
+    }
+
     @Test
     public void testParseUhidCreate() throws IOException {
         ByteArrayOutputStream bos = new ByteArrayOutputStream();
@@ -345,20 +490,14 @@ public class ControlMessageReaderTest {
     public void testParseUhidInput() throws IOException {
         ByteArrayOutputStream bos = new ByteArrayOutputStream();
         DataOutputStream dos = new DataOutputStream(bos);
-        dos.writeByte(ControlMessage.TYPE_UHID_INPUT);
-        dos.writeShort(42); // id
-        byte[] data = {1, 2, 3, 4, 5};
-        dos.writeShort(data.length); // size
-        dos.write(data);
+        writeUhidInput(dos);
         byte[] packet = bos.toByteArray();
 
         ByteArrayInputStream bis = new ByteArrayInputStream(packet);
         ControlMessageReader reader = new ControlMessageReader(bis);
 
         ControlMessage event = reader.read();
-        Assert.assertEquals(ControlMessage.TYPE_UHID_INPUT, event.getType());
-        Assert.assertEquals(42, event.getId());
-        Assert.assertArrayEquals(data, event.getData());
+        assertUhidInput(event);
 
         Assert.assertEquals(-1, bis.read()); // EOS
     }
@@ -489,4 +628,273 @@ public class ControlMessageReaderTest {
             // expected
         }
     }
+
+    private static void writeBatch(DataOutputStream dos, byte[] payload) throws IOException {
+        dos.writeByte(ControlMessage.TYPE_BATCH);
+        dos.writeInt(payload.length);
+        dos.write(payload);
+    }
+
+    private static void assertTextEvent(ControlMessage event, String text) {
+        Assert.assertEquals(ControlMessage.TYPE_INJECT_TEXT, event.getType());
+        Assert.assertEquals(text, event.getText());
+    }
+
+    private static void writeTextEvent(DataOutputStream dos, String text) throws IOException {
+        byte[] data = text.getBytes(StandardCharsets.UTF_8);
+        dos.writeByte(ControlMessage.TYPE_INJECT_TEXT);
+        dos.writeInt(data.length);
+        dos.write(data);
+    }
+
+    @Test
+    public void testParseBatch() throws IOException {
+        ByteArrayOutputStream payloadBos = new ByteArrayOutputStream();
+        DataOutputStream payloadDos = new DataOutputStream(payloadBos);
+        writeTouchEvent(payloadDos);
+        writeKeycodeEvent(payloadDos);
+        writeTextEvent(payloadDos, "testé");
+        payloadDos.writeByte(ControlMessage.TYPE_UHID_CREATE);
+        payloadDos.writeShort(42); // id
+        payloadDos.writeByte(3); // name size
+        payloadDos.write("abc".getBytes(StandardCharsets.US_ASCII));
+        payloadDos.writeShort(2); // report desc size
+        payloadDos.write(new byte[] {7, 8});
+        writeUhidInput(payloadDos);
+        writeScrollEvent(payloadDos);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        writeBatch(dos, new byte[0]); // an empty batch is valid
+        writeBatch(dos, payloadBos.toByteArray());
+        writeKeycodeEvent(dos); // not batched
+        byte[] packet = bos.toByteArray();
+
+        ByteArrayInputStream bis = new ByteArrayInputStream(packet);
+        ControlMessageReader reader = new ControlMessageReader(bis);
+
+        assertTouchEvent(reader.read());
+        Assert.assertTrue(reader.hasPendingMessage());
+        assertKeycodeEvent(reader.read());
+        assertTextEvent(reader.read(), "testé");
+
+        ControlMessage event = reader.read();
+        Assert.assertEquals(ControlMessage.TYPE_UHID_CREATE, event.getType());
+        Assert.assertEquals(42, event.getId());
+        Assert.assertEquals("abc", event.getText());
+        Assert.assertArrayEquals(new byte[] {7, 8}, event.getData());
+
+        assertUhidInput(reader.read());
+        assertScrollEvent(reader.read());
+        assertKeycodeEvent(reader.read());
+
+        Assert.assertFalse(reader.hasPendingMessage());
+        Assert.assertEquals(-1, bis.read()); // EOS
+    }
+
+    @Test
+    public void testHasPendingMessage() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        writeKeycodeEvent(dos);
+        writeTouchEvent(dos);
+        ByteArrayOutputStream payloadBos = new ByteArrayOutputStream();
+        writeScrollEvent(new DataOutputStream(payloadBos));
+        writeBatch(dos, payloadBos.toByteArray());
+        byte[] packet = bos.toByteArray();
+        int touchEnd = packet.length - payloadBos.size() - 5;
+        int touchStart = touchEnd - 32;
+
+        PipedOutputStream out = new PipedOutputStream();
+        PipedInputStream in = new PipedInputStream(out, packet.length);
+        ControlMessageReader reader = new ControlMessageReader(in, true);
+        Assert.assertFalse(reader.hasPendingMessage());
+
+        // The keycode event and the beginning of the touch event
+        out.write(packet, 0, touchStart + 10);
+        Assert.assertTrue(reader.hasPendingMessage());
+        assertKeycodeEvent(reader.read());
+        // A partial message must not be reported, a read() would block
+        Assert.assertFalse(reader.hasPendingMessage());
+        Assert.assertFalse(reader.hasPendingMessage());
+
+        out.write(packet, touchStart + 10, touchEnd - touchStart - 10);
+        Assert.assertTrue(reader.hasPendingMessage());
+        Assert.assertTrue(reader.hasPendingMessage());
+        assertTouchEvent(reader.read());
+
+        // A partial batch is not available either
+        out.write(packet, touchEnd, packet.length - touchEnd - 1);
+        Assert.assertFalse(reader.hasPendingMessage());
+        out.write(packet, packet.length - 1, 1);
+        Assert.assertTrue(reader.hasPendingMessage());
+        assertScrollEvent(reader.read());
+        Assert.assertFalse(reader.hasPendingMessage());
+    }
+
+    @Test(expected = ControlProtocolException.class)
+    public void testParseNestedBatch() throws IOException {
+        ByteArrayOutputStream payloadBos = new ByteArrayOutputStream();
+        DataOutputStream payloadDos = new DataOutputStream(payloadBos);
+        writeBatch(payloadDos, new byte[0]);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        writeBatch(dos, payloadBos.toByteArray());
+
+        ControlMessageReader reader = new ControlMessageReader(new ByteArrayInputStream(bos.toByteArray()));
+        reader.read();
+    }
+
+    @Test(expected = ControlProtocolException.class)
+    public void testParseTruncatedBatch() throws IOException {
+        ByteArrayOutputStream payloadBos = new ByteArrayOutputStream();
+        DataOutputStream payloadDos = new DataOutputStream(payloadBos);
+        writeKeycodeEvent(payloadDos);
+        byte[] payload = payloadBos.toByteArray();
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        // The last byte of the message is not in the batch
+        writeBatch(dos, Arrays.copyOf(payload, payload.length - 1));
+
+        ControlMessageReader reader = new ControlMessageReader(new ByteArrayInputStream(bos.toByteArray()));
+        reader.read();
+    }
+
+    /**
+     * Input stream returning the data in small chunks of random sizes, to split messages across reads.
+     */
+    private static final class ChunkedInputStream extends ByteArrayInputStream {
+        private final Random random = new Random(42);
+
+        ChunkedInputStream(byte[] data) {
+            super(data);
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            return super.read(b, off, Math.min(len, 1 + random.nextInt(7)));
+        }
+    }
+
+    @Test
+    public void testChunkedReads() throws IOException {
+        ByteArrayOutputStream payloadBos = new ByteArrayOutputStream();
+        DataOutputStream payloadDos = new DataOutputStream(payloadBos);
+        writeScrollEvent(payloadDos);
+        writeKeycodeEvent(payloadDos);
+
+        char[] longText = new char[10_000];
+        Arrays.fill(longText, 'x');
+        String text = new String(longText);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        for (int i = 0; i < 10; ++i) {
+            writeTouchEvent(dos);
+            writeTextEvent(dos, text);
+            writeBatch(dos, payloadBos.toByteArray());
+            writeUhidInput(dos);
+        }
+        byte[] packet = bos.toByteArray();
+
+        for (boolean reuseMessages : new boolean[] {false, true}) {
+            ChunkedInputStream in = new ChunkedInputStream(packet);
+            ControlMessageReader reader = new ControlMessageReader(in, reuseMessages);
+            for (int i = 0; i < 10; ++i) {
+                assertTouchEvent(reader.read());
+                assertTextEvent(reader.read(), text);
+                assertScrollEvent(reader.read());
+                assertKeycodeEvent(reader.read());
+                assertUhidInput(reader.read());
+            }
+
+            try {
+                reader.read();
+                Assert.fail("Reader did not reach EOF");
+            } catch (EOFException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testParseReusedMessages() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        writeTouchEvent(dos);
+        writeKeycodeEvent(dos);
+        writeUhidInput(dos);
+        writeScrollEvent(dos);
+        writeTouchEvent(dos);
+        byte[] packet = bos.toByteArray();
+
+        ByteArrayInputStream bis = new ByteArrayInputStream(packet);
+        ControlMessageReader reader = new ControlMessageReader(bis, true);
+
+        ControlMessage event = reader.read();
+        assertTouchEvent(event);
+        ControlMessage reused = event;
+
+        event = reader.read();
+        Assert.assertSame(reused, event);
+        assertKeycodeEvent(event);
+
+        event = reader.read();
+        Assert.assertSame(reused, event);
+        assertUhidInput(event);
+
+        event = reader.read();
+        Assert.assertSame(reused, event);
+        assertScrollEvent(event);
+
+        event = reader.read();
+        Assert.assertSame(reused, event);
+        assertTouchEvent(event);
+
+        Assert.assertEquals(-1, bis.read()); // EOS
+    }
+
+    @Test
+    public void testReusedMessagesDoNotAllocate() throws IOException {
+        ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+
+        final int warmupCount = 10_000;
+        final int count = 10_000;
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        for (int i = 0; i < warmupCount + count; ++i) {
+            writeTouchEvent(dos);
+            writeScrollEvent(dos);
+            writeKeycodeEvent(dos);
+            writeUhidInput(dos);
+        }
+        byte[] packet = bos.toByteArray();
+
+        ByteArrayInputStream bis = new ByteArrayInputStream(packet);
+        ControlMessageReader reader = new ControlMessageReader(bis, true);
+
+        for (int i = 0; i < warmupCount * 4; ++i) {
+            reader.read();
+        }
+
+        long threadId = Thread.currentThread().getId();
+        // Call it once before measuring, in case the first call allocates
+        threadMXBean.getThreadAllocatedBytes(threadId);
+
+        long before = threadMXBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < count * 4; ++i) {
+            reader.read();
+        }
+        long after = threadMXBean.getThreadAllocatedBytes(threadId);
+
+        // No allocation per message (tolerate a few bytes allocated by the measurement itself)
+        long allocated = after - before;
+        Assert.assertTrue("Allocated: " + allocated + " bytes", allocated < 8L * count * 4);
+        Assert.assertEquals(-1, bis.read()); // EOS
+    }
 }
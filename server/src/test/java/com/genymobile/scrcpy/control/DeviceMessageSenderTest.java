@@ -0,0 +1,299 @@
+package com.genymobile.scrcpy.control;
+
+import com.genymobile.scrcpy.metrics.Counter;
+import com.genymobile.scrcpy.metrics.Metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class DeviceMessageSenderTest {
+
+    private static final int PRODUCERS = 4;
+    private static final int MESSAGES_PER_PRODUCER = 2000;
+
+    /**
+     * Record the sent messages, and slow down the flushes to congest the queue.
+     */
+    private static class SlowOutput implements DeviceMessageSender.Output {
+        private final List<DeviceMessage> messages = new ArrayList<>();
+        private int flushes;
+
+        @Override
+        public synchronized int send(DeviceMessage msg, boolean flush) {
+            messages.add(msg);
+            notifyAll();
+            return 100;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (this) {
+                ++flushes;
+            }
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+        }
+
+        synchronized void waitForAck(long sequence) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (true) {
+                for (DeviceMessage msg : messages) {
+                    if (msg.getType() == DeviceMessage.TYPE_ACK_CLIPBOARD && msg.getSequence() == sequence) {
+                        return;
+                    }
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                Assert.assertTrue("Timeout", remaining > 0);
+                wait(remaining);
+            }
+        }
+
+        synchronized List<DeviceMessage> getMessages() {
+            return new ArrayList<>(messages);
+        }
+    }
+
+    private static DeviceMessage createUhidOutput(int producer, int index) {
+        byte[] data = {(byte) (index >> 8), (byte) index};
+        return DeviceMessage.createUhidOutput(producer, data);
+    }
+
+    private static int getUhidOutputIndex(DeviceMessage msg) {
+        byte[] data = msg.getData();
+        return ((data[0] & 0xff) << 8) | (data[1] & 0xff);
+    }
+
+    @Test
+    public void testPolicies() {
+        Assert.assertEquals(DeviceMessageSender.POLICY_RELIABLE, DeviceMessageSender.getPolicy(DeviceMessage.TYPE_ACK_CLIPBOARD));
+        Assert.assertEquals(DeviceMessageSender.POLICY_COALESCED, DeviceMessageSender.getPolicy(DeviceMessage.TYPE_UHID_OUTPUT));
+        Assert.assertEquals(DeviceMessageSender.POLICY_RELIABLE, DeviceMessageSender.getPolicy(DeviceMessage.TYPE_ACK_VIDEO_CONFIG));
+        Assert.assertEquals(DeviceMessageSender.POLICY_LATEST, DeviceMessageSender.getPolicy(DeviceMessage.TYPE_CLIPBOARD));
+        Assert.assertEquals(DeviceMessageSender.POLICY_LATEST, DeviceMessageSender.getPolicy(DeviceMessage.TYPE_CLIPBOARD_CHUNK));
+        Assert.assertEquals(DeviceMessageSender.POLICY_DROPPABLE, DeviceMessageSender.getPolicy(DeviceMessage.TYPE_STATS));
+    }
+
+    /**
+     * Output which blocks on the first message until it is released, to simulate a client which does not read the device messages.
+     */
+    private static final class GatedOutput extends SlowOutput {
+        private final CountDownLatch sending = new CountDownLatch(1);
+        private final CountDownLatch released = new CountDownLatch(1);
+
+        @Override
+        public int send(DeviceMessage msg, boolean flush) {
+            sending.countDown();
+            try {
+                released.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.send(msg, flush);
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void testQueueLimit() throws InterruptedException {
+        Counter dropped = Metrics.counter("control.sender.dropped");
+        Counter coalesced = Metrics.counter("control.sender.coalesced");
+        long initialDropped = dropped.get();
+        long initialCoalesced = coalesced.get();
+
+        GatedOutput output = new GatedOutput();
+        DeviceMessageSender sender = new DeviceMessageSender(output);
+        sender.start();
+
+        // Wait for the sender thread to be blocked, so that the queue is not consumed anymore
+        sender.send(DeviceMessage.createAckClipboard(1000));
+        output.sending.await();
+
+        // The producer never waits, even if the queue is full
+        int devices = 100;
+        int rounds = 4;
+        sender.send(DeviceMessage.createStats(new byte[16]));
+        for (int round = 0; round < rounds; ++round) {
+            for (int id = 0; id < devices; ++id) {
+                sender.send(createUhidOutput(id, round));
+                if (round < rounds - 1) {
+                    sender.send(DeviceMessage.createAckClipboard(round * devices + id));
+                }
+            }
+        }
+        sender.send(DeviceMessage.createAckClipboard(-1));
+
+        output.released.countDown();
+        output.waitForAck(-1);
+        sender.stop();
+        sender.join();
+
+        int[] lastUhidIndex = new int[devices];
+        Arrays.fill(lastUhidIndex, -1);
+        List<Long> acks = new ArrayList<>();
+        for (DeviceMessage msg : output.getMessages()) {
+            switch (msg.getType()) {
+                case DeviceMessage.TYPE_UHID_OUTPUT:
+                    // In order for each device
+                    int index = getUhidOutputIndex(msg);
+                    Assert.assertTrue(index > lastUhidIndex[msg.getId()]);
+                    lastUhidIndex[msg.getId()] = index;
+                    break;
+                case DeviceMessage.TYPE_ACK_CLIPBOARD:
+                    acks.add(msg.getSequence());
+                    break;
+                default:
+                    // The stats message has been dropped to make room
+                    Assert.fail("Unexpected message type: " + msg.getType());
+            }
+        }
+
+        // The latest report for each device has been delivered
+        for (int id = 0; id < devices; ++id) {
+            Assert.assertEquals(rounds - 1, lastUhidIndex[id]);
+        }
+
+        // All the acknowledgements have been delivered, in order
+        Assert.assertEquals((rounds - 1) * devices + 2, acks.size());
+        Assert.assertEquals(1000L, (long) acks.get(0));
+        for (int i = 0; i < (rounds - 1) * devices; ++i) {
+            Assert.assertEquals(i, (long) acks.get(i + 1));
+        }
+        Assert.assertEquals(-1L, (long) acks.get(acks.size() - 1));
+
+        Assert.assertEquals(initialDropped + 1, dropped.get());
+        Assert.assertTrue(coalesced.get() > initialCoalesced);
+    }
+
+    @Test
+    public void testClipboardTransferSuperseded() throws InterruptedException {
+        Counter superseded = Metrics.counter("control.sender.superseded");
+        long initialSuperseded = superseded.get();
+
+        byte[] contentA = new byte[3 * ClipboardTransfer.CHUNK_MAX_SIZE];
+        byte[] contentB = new byte[2 * ClipboardTransfer.CHUNK_MAX_SIZE + 42];
+        AtomicReference<DeviceMessageSender> senderRef = new AtomicReference<>();
+        SlowOutput output = new SlowOutput() {
+            @Override
+            public synchronized int send(DeviceMessage msg, boolean flush) {
+                if (msg.getType() == DeviceMessage.TYPE_CLIPBOARD_CHUNK) {
+                    if (msg.getHash() == 1 && msg.getOffset() == 0) {
+                        // The clipboard changes while the first transfer is in progress
+                        senderRef.get().send(ClipboardTransfer.createTransfer(contentB, 2));
+                    } else if (msg.getHash() == 2 && msg.getOffset() + msg.getLength() == contentB.length) {
+                        senderRef.get().send(DeviceMessage.createAckClipboard(42));
+                    }
+                }
+                return super.send(msg, flush);
+            }
+        };
+        DeviceMessageSender sender = new DeviceMessageSender(output);
+        senderRef.set(sender);
+        sender.send(ClipboardTransfer.createTransfer(contentA, 1));
+        sender.start();
+
+        output.waitForAck(42);
+        sender.stop();
+        sender.join();
+
+        List<DeviceMessage> messages = output.getMessages();
+        // Only the first chunk of the superseded transfer, then the whole new transfer
+        Assert.assertEquals(5, messages.size());
+        Assert.assertEquals(1, messages.get(0).getHash());
+        Assert.assertEquals(0, messages.get(0).getOffset());
+        int offset = 0;
+        for (int i = 1; i < 4; ++i) {
+            DeviceMessage chunk = messages.get(i);
+            Assert.assertEquals(DeviceMessage.TYPE_CLIPBOARD_CHUNK, chunk.getType());
+            Assert.assertEquals(2, chunk.getHash());
+            Assert.assertEquals(offset, chunk.getOffset());
+            offset += chunk.getLength();
+        }
+        Assert.assertEquals(contentB.length, offset);
+        Assert.assertEquals(DeviceMessage.TYPE_ACK_CLIPBOARD, messages.get(4).getType());
+        Assert.assertTrue(superseded.get() > initialSuperseded);
+    }
+
+    @Test
+    public void testFlood() throws InterruptedException {
+        SlowOutput output = new SlowOutput();
+        DeviceMessageSender sender = new DeviceMessageSender(output);
+        sender.start();
+
+        Thread[] producers = new Thread[PRODUCERS];
+        for (int p = 0; p < PRODUCERS; ++p) {
+            final int producer = p;
+            producers[p] = new Thread(() -> {
+                for (int i = 0; i < MESSAGES_PER_PRODUCER; ++i) {
+                    sender.send(createUhidOutput(producer, i));
+                    sender.send(DeviceMessage.createStats(new byte[16]));
+                    sender.send(DeviceMessage.createClipboard("clipboard " + producer + " " + i));
+                    if (i % 100 == 0) {
+                        sender.send(DeviceMessage.createAckClipboard(producer * MESSAGES_PER_PRODUCER + i));
+                    }
+                }
+            });
+            producers[p].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        sender.send(DeviceMessage.createClipboard("last"));
+        sender.send(DeviceMessage.createAckClipboard(-1));
+        output.waitForAck(-1);
+
+        sender.stop();
+        sender.join();
+
+        List<DeviceMessage> messages = output.getMessages();
+
+        int[] lastUhidIndex = new int[PRODUCERS];
+        Arrays.fill(lastUhidIndex, -1);
+        int acks = 0;
+        int stats = 0;
+        int clipboards = 0;
+        String lastClipboard = null;
+        for (DeviceMessage msg : messages) {
+            switch (msg.getType()) {
+                case DeviceMessage.TYPE_UHID_OUTPUT:
+                    // Some reports may be coalesced or dropped if the queue is full, but they are delivered in order
+                    int index = getUhidOutputIndex(msg);
+                    Assert.assertTrue(index > lastUhidIndex[msg.getId()]);
+                    lastUhidIndex[msg.getId()] = index;
+                    break;
+                case DeviceMessage.TYPE_ACK_CLIPBOARD:
+                    ++acks;
+                    break;
+                case DeviceMessage.TYPE_STATS:
+                    ++stats;
+                    break;
+                case DeviceMessage.TYPE_CLIPBOARD:
+                    ++clipboards;
+                    lastClipboard = msg.getText();
+                    break;
+                default:
+                    Assert.fail("Unexpected message type: " + msg.getType());
+            }
+        }
+
+        Assert.assertEquals(PRODUCERS * MESSAGES_PER_PRODUCER / 100 + 1, acks);
+
+        // The queue was congested, so some stats were dropped and some clipboard contents were replaced
+        Assert.assertTrue(stats < PRODUCERS * MESSAGES_PER_PRODUCER);
+        Assert.assertTrue(clipboards < PRODUCERS * MESSAGES_PER_PRODUCER);
+        Assert.assertEquals("last", lastClipboard);
+
+        // Messages are flushed in batches
+        Assert.assertTrue(output.flushes < messages.size());
+    }
+}
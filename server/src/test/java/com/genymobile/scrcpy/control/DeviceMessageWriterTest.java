@@ -25,11 +25,12 @@ public class DeviceMessageWriterTest {
         DeviceMessageWriter writer = new DeviceMessageWriter(bos);
 
         DeviceMessage msg = DeviceMessage.createClipboard(text);
-        writer.write(msg);
+        int size = writer.write(msg, true);
 
         byte[] actual = bos.toByteArray();
 
         Assert.assertArrayEquals(expected, actual);
+        Assert.assertEquals(expected.length, size);
     }
 
     @Test
@@ -51,6 +52,26 @@ public class DeviceMessageWriterTest {
         Assert.assertArrayEquals(expected, actual);
     }
 
+    @Test
+    public void testSerializeAckVideoConfig() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        dos.writeByte(DeviceMessage.TYPE_ACK_VIDEO_CONFIG);
+        dos.writeLong(0x0102030405060708L);
+        dos.writeByte(1); // applied
+        byte[] expected = bos.toByteArray();
+
+        bos = new ByteArrayOutputStream();
+        DeviceMessageWriter writer = new DeviceMessageWriter(bos);
+
+        DeviceMessage msg = DeviceMessage.createAckVideoConfig(0x0102030405060708L, true);
+        writer.write(msg);
+
+        byte[] actual = bos.toByteArray();
+
+        Assert.assertArrayEquals(expected, actual);
+    }
+
     @Test
     public void testSerializeUhidOutput() throws IOException {
         ByteArrayOutputStream bos = new ByteArrayOutputStream();
@@ -72,4 +93,56 @@ public class DeviceMessageWriterTest {
 
         Assert.assertArrayEquals(expected, actual);
     }
+
+    @Test
+    public void testSerializeStats() throws IOException {
+        byte[] stats = {0, 1, 2, 3};
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        dos.writeByte(DeviceMessage.TYPE_STATS);
+        dos.writeInt(stats.length);
+        dos.write(stats);
+        byte[] expected = bos.toByteArray();
+
+        bos = new ByteArrayOutputStream();
+        DeviceMessageWriter writer = new DeviceMessageWriter(bos);
+
+        DeviceMessage msg = DeviceMessage.createStats(stats);
+        writer.write(msg);
+
+        byte[] actual = bos.toByteArray();
+
+        Assert.assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void testSerializeWithSingleFlush() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        dos.writeByte(DeviceMessage.TYPE_ACK_CLIPBOARD);
+        dos.writeLong(1);
+        dos.writeByte(DeviceMessage.TYPE_ACK_CLIPBOARD);
+        dos.writeLong(2);
+        dos.writeByte(DeviceMessage.TYPE_ACK_CLIPBOARD);
+        dos.writeLong(3);
+        byte[] expected = bos.toByteArray();
+
+        int[] writeCount = new int[1];
+        ByteArrayOutputStream out = new ByteArrayOutputStream() {
+            @Override
+            public synchronized void write(byte[] b, int off, int len) {
+                ++writeCount[0];
+                super.write(b, off, len);
+            }
+        };
+        DeviceMessageWriter writer = new DeviceMessageWriter(out);
+
+        writer.write(DeviceMessage.createAckClipboard(1), false);
+        writer.write(DeviceMessage.createAckClipboard(2), false);
+        Assert.assertEquals(0, out.size()); // not flushed yet
+        writer.write(DeviceMessage.createAckClipboard(3), true);
+
+        Assert.assertEquals(1, writeCount[0]);
+        Assert.assertArrayEquals(expected, out.toByteArray());
+    }
 }
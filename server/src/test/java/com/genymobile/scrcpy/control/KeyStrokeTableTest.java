@@ -0,0 +1,265 @@
+package com.genymobile.scrcpy.control;
+
+import android.view.KeyEvent;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class KeyStrokeTableTest {
+
+    /**
+     * Fake key character map: each character is typed by a single key (the key code is the character value, with SHIFT for upper case
+     * letters), except for the characters in the range [0x80, 0xa0) which cannot be typed.
+     */
+    private static final class FakeResolver implements KeyStrokeTable.Resolver {
+        private int calls;
+
+        @Override
+        public int[] resolve(char[] chars) {
+            ++calls;
+            int[] strokes = new int[chars.length * 2 * KeyStrokeTable.STROKE_SIZE];
+            for (int i = 0; i < chars.length; ++i) {
+                char c = chars[i];
+                if (c >= 0x80 && c < 0xa0) {
+                    return null;
+                }
+                int metaState = Character.isUpperCase(c) ? KeyEvent.META_SHIFT_ON : 0;
+                int offset = 2 * i * KeyStrokeTable.STROKE_SIZE;
+                strokes[offset + KeyStrokeTable.STROKE_ACTION] = KeyEvent.ACTION_DOWN;
+                strokes[offset + KeyStrokeTable.STROKE_KEY_CODE] = c;
+                strokes[offset + KeyStrokeTable.STROKE_META_STATE] = metaState;
+                offset += KeyStrokeTable.STROKE_SIZE;
+                strokes[offset + KeyStrokeTable.STROKE_ACTION] = KeyEvent.ACTION_UP;
+                strokes[offset + KeyStrokeTable.STROKE_KEY_CODE] = c;
+                strokes[offset + KeyStrokeTable.STROKE_META_STATE] = metaState;
+            }
+            return strokes;
+        }
+    }
+
+    /**
+     * Previous implementation of the decompositions (a map), used as a reference.
+     */
+    private static final class LegacyKeyComposition {
+
+        private static final String KEY_DEAD_GRAVE = "\u0300";
+        private static final String KEY_DEAD_ACUTE = "\u0301";
+        private static final String KEY_DEAD_CIRCUMFLEX = "\u0302";
+        private static final String KEY_DEAD_TILDE = "\u0303";
+        private static final String KEY_DEAD_UMLAUT = "\u0308";
+
+        private static final Map<Character, String> COMPOSITION_MAP = createDecompositionMap();
+
+        static String decompose(char c) {
+            return COMPOSITION_MAP.get(c);
+        }
+
+        private static String grave(char c) {
+            return KEY_DEAD_GRAVE + c;
+        }
+
+        private static String acute(char c) {
+            return KEY_DEAD_ACUTE + c;
+        }
+
+        private static String circumflex(char c) {
+            return KEY_DEAD_CIRCUMFLEX + c;
+        }
+
+        private static String tilde(char c) {
+            return KEY_DEAD_TILDE + c;
+        }
+
+        private static String umlaut(char c) {
+            return KEY_DEAD_UMLAUT + c;
+        }
+
+        private static Map<Character, String> createDecompositionMap() {
+            Map<Character, String> map = new HashMap<>();
+            map.put('À', grave('A'));
+            map.put('È', grave('E'));
+            map.put('Ì', grave('I'));
+            map.put('Ò', grave('O'));
+            map.put('Ù', grave('U'));
+            map.put('à', grave('a'));
+            map.put('è', grave('e'));
+            map.put('ì', grave('i'));
+            map.put('ò', grave('o'));
+            map.put('ù', grave('u'));
+            map.put('Ǹ', grave('N'));
+            map.put('ǹ', grave('n'));
+            map.put('Ẁ', grave('W'));
+            map.put('ẁ', grave('w'));
+            map.put('Ỳ', grave('Y'));
+            map.put('ỳ', grave('y'));
+
+            map.put('Á', acute('A'));
+            map.put('É', acute('E'));
+            map.put('Í', acute('I'));
+            map.put('Ó', acute('O'));
+            map.put('Ú', acute('U'));
+            map.put('Ý', acute('Y'));
+            map.put('á', acute('a'));
+            map.put('é', acute('e'));
+            map.put('í', acute('i'));
+            map.put('ó', acute('o'));
+            map.put('ú', acute('u'));
+            map.put('ý', acute('y'));
+            map.put('Ć', acute('C'));
+            map.put('ć', acute('c'));
+            map.put('Ĺ', acute('L'));
+            map.put('ĺ', acute('l'));
+            map.put('Ń', acute('N'));
+            map.put('ń', acute('n'));
+            map.put('Ŕ', acute('R'));
+            map.put('ŕ', acute('r'));
+            map.put('Ś', acute('S'));
+            map.put('ś', acute('s'));
+            map.put('Ź', acute('Z'));
+            map.put('ź', acute('z'));
+            map.put('Ǵ', acute('G'));
+            map.put('ǵ', acute('g'));
+            map.put('Ḉ', acute('Ç'));
+            map.put('ḉ', acute('ç'));
+            map.put('Ḱ', acute('K'));
+            map.put('ḱ', acute('k'));
+            map.put('Ḿ', acute('M'));
+            map.put('ḿ', acute('m'));
+            map.put('Ṕ', acute('P'));
+            map.put('ṕ', acute('p'));
+            map.put('Ẃ', acute('W'));
+            map.put('ẃ', acute('w'));
+
+            map.put('Â', circumflex('A'));
+            map.put('Ê', circumflex('E'));
+            map.put('Î', circumflex('I'));
+            map.put('Ô', circumflex('O'));
+            map.put('Û', circumflex('U'));
+            map.put('â', circumflex('a'));
+            map.put('ê', circumflex('e'));
+            map.put('î', circumflex('i'));
+            map.put('ô', circumflex('o'));
+            map.put('û', circumflex('u'));
+            map.put('Ĉ', circumflex('C'));
+            map.put('ĉ', circumflex('c'));
+            map.put('Ĝ', circumflex('G'));
+            map.put('ĝ', circumflex('g'));
+            map.put('Ĥ', circumflex('H'));
+            map.put('ĥ', circumflex('h'));
+            map.put('Ĵ', circumflex('J'));
+            map.put('ĵ', circumflex('j'));
+            map.put('Ŝ', circumflex('S'));
+            map.put('ŝ', circumflex('s'));
+            map.put('Ŵ', circumflex('W'));
+            map.put('ŵ', circumflex('w'));
+            map.put('Ŷ', circumflex('Y'));
+            map.put('ŷ', circumflex('y'));
+            map.put('Ẑ', circumflex('Z'));
+            map.put('ẑ', circumflex('z'));
+
+            map.put('Ã', tilde('A'));
+            map.put('Ñ', tilde('N'));
+            map.put('Õ', tilde('O'));
+            map.put('ã', tilde('a'));
+            map.put('ñ', tilde('n'));
+            map.put('õ', tilde('o'));
+            map.put('Ĩ', tilde('I'));
+            map.put('ĩ', tilde('i'));
+            map.put('Ũ', tilde('U'));
+            map.put('ũ', tilde('u'));
+            map.put('Ẽ', tilde('E'));
+            map.put('ẽ', tilde('e'));
+            map.put('Ỹ', tilde('Y'));
+            map.put('ỹ', tilde('y'));
+
+            map.put('Ä', umlaut('A'));
+            map.put('Ë', umlaut('E'));
+            map.put('Ï', umlaut('I'));
+            map.put('Ö', umlaut('O'));
+            map.put('Ü', umlaut('U'));
+            map.put('ä', umlaut('a'));
+            map.put('ë', umlaut('e'));
+            map.put('ï', umlaut('i'));
+            map.put('ö', umlaut('o'));
+            map.put('ü', umlaut('u'));
+            map.put('ÿ', umlaut('y'));
+            map.put('Ÿ', umlaut('Y'));
+            map.put('Ḧ', umlaut('H'));
+            map.put('ḧ', umlaut('h'));
+            map.put('Ẅ', umlaut('W'));
+            map.put('ẅ', umlaut('w'));
+            map.put('Ẍ', umlaut('X'));
+            map.put('ẍ', umlaut('x'));
+            map.put('ẗ', umlaut('t'));
+
+            return map;
+        }
+    }
+
+    @Test
+    public void testDecompose() {
+        Assert.assertEquals("\u0301e", KeyComposition.decompose('é'));
+        Assert.assertEquals("\u0300A", KeyComposition.decompose('À'));
+        Assert.assertEquals("\u0308y", KeyComposition.decompose('ÿ'));
+        Assert.assertEquals("\u0308t", KeyComposition.decompose('ẗ'));
+        Assert.assertNull(KeyComposition.decompose('e'));
+        Assert.assertNull(KeyComposition.decompose('\u0000'));
+        Assert.assertNull(KeyComposition.decompose('\uffff'));
+
+        Assert.assertEquals('\u0301', KeyComposition.getDeadKey('é'));
+        Assert.assertEquals('e', KeyComposition.getBaseChar('é'));
+        Assert.assertEquals(0, KeyComposition.getDeadKey('e'));
+        Assert.assertEquals('e', KeyComposition.getBaseChar('e'));
+    }
+
+    @Test
+    public void testDecomposeSameAsLegacy() {
+        for (int c = 0; c <= Character.MAX_VALUE; ++c) {
+            Assert.assertEquals("Char u+" + Integer.toHexString(c), LegacyKeyComposition.decompose((char) c),
+                    KeyComposition.decompose((char) c));
+        }
+    }
+
+    @Test
+    public void testLatin1SameAsGetEvents() {
+        FakeResolver resolver = new FakeResolver();
+        KeyStrokeTable table = new KeyStrokeTable(resolver);
+
+        FakeResolver reference = new FakeResolver();
+        for (char c = 0; c < 0x100; ++c) {
+            // Previous implementation: resolve the decomposed characters directly
+            String decomposed = LegacyKeyComposition.decompose(c);
+            char[] chars = decomposed != null ? decomposed.toCharArray() : new char[] {c};
+            int[] expected = reference.resolve(chars);
+
+            Assert.assertArrayEquals("Char u+" + Integer.toHexString(c), expected, table.get(c));
+        }
+    }
+
+    @Test
+    public void testResolvedOnce() {
+        FakeResolver resolver = new FakeResolver();
+        KeyStrokeTable table = new KeyStrokeTable(resolver);
+
+        String text = "Hello, world! Ça va très bien. \u0090\u0090";
+        for (int i = 0; i < 10; ++i) {
+            for (int j = 0; j < text.length(); ++j) {
+                table.get(text.charAt(j));
+            }
+        }
+
+        // Including the character which cannot be typed
+        long distinct = text.chars().distinct().count();
+        Assert.assertEquals(distinct, resolver.calls);
+        Assert.assertNull(table.get('\u0090'));
+        Assert.assertEquals(distinct, resolver.calls);
+
+        // The composed characters are resolved from their decomposition
+        int[] strokes = table.get('è');
+        Assert.assertEquals(4 * KeyStrokeTable.STROKE_SIZE, strokes.length);
+        Assert.assertEquals(0x300, strokes[KeyStrokeTable.STROKE_KEY_CODE]);
+        Assert.assertEquals('e', strokes[2 * KeyStrokeTable.STROKE_SIZE + KeyStrokeTable.STROKE_KEY_CODE]);
+    }
+}
@@ -0,0 +1,310 @@
+package com.genymobile.scrcpy.control;
+
+import android.view.MotionEvent;
+import com.sun.management.ThreadMXBean;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class PointersStateTest {
+
+    /**
+     * Previous implementation (a list of pointer objects), used as a reference.
+     */
+    private static final class LegacyPointersState {
+
+        private static final class Pointer {
+            private final long id;
+            private final int localId;
+            private float x;
+            private float y;
+            private float pressure;
+            private boolean up;
+
+            Pointer(long id, int localId) {
+                this.id = id;
+                this.localId = localId;
+            }
+        }
+
+        private final List<Pointer> pointers = new ArrayList<>();
+
+        private int indexOf(long id) {
+            for (int i = 0; i < pointers.size(); ++i) {
+                if (pointers.get(i).id == id) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private boolean isLocalIdAvailable(int localId) {
+            for (int i = 0; i < pointers.size(); ++i) {
+                if (pointers.get(i).localId == localId) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int nextUnusedLocalId() {
+            for (int localId = 0; localId < PointersState.MAX_POINTERS; ++localId) {
+                if (isLocalIdAvailable(localId)) {
+                    return localId;
+                }
+            }
+            return -1;
+        }
+
+        int getPointerIndex(long id) {
+            int index = indexOf(id);
+            if (index != -1) {
+                return index;
+            }
+            if (pointers.size() >= PointersState.MAX_POINTERS) {
+                return -1;
+            }
+            pointers.add(new Pointer(id, nextUnusedLocalId()));
+            return pointers.size() - 1;
+        }
+
+        void set(int index, float x, float y, float pressure, boolean up) {
+            Pointer pointer = pointers.get(index);
+            pointer.x = x;
+            pointer.y = y;
+            pointer.pressure = pressure;
+            pointer.up = up;
+        }
+
+        int update(MotionEvent.PointerProperties[] props, MotionEvent.PointerCoords[] coords) {
+            int count = pointers.size();
+            for (int i = 0; i < count; ++i) {
+                Pointer pointer = pointers.get(i);
+                props[i].id = pointer.localId;
+                coords[i].x = pointer.x;
+                coords[i].y = pointer.y;
+                coords[i].pressure = pointer.pressure;
+            }
+            for (int i = pointers.size() - 1; i >= 0; --i) {
+                if (pointers.get(i).up) {
+                    pointers.remove(i);
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * A touch event: the client pointer id, its position and pressure, and whether it is released.
+     */
+    private static final class Event {
+        private final long pointerId;
+        private final float x;
+        private final float y;
+        private final float pressure;
+        private final boolean up;
+
+        Event(long pointerId, float x, float y, float pressure, boolean up) {
+            this.pointerId = pointerId;
+            this.x = x;
+            this.y = y;
+            this.pressure = pressure;
+            this.up = up;
+        }
+    }
+
+    /**
+     * Generate a random multi-touch trace with up to {@code maxFingers} fingers (more than {@link PointersState#MAX_POINTERS} to also
+     * exercise the "full" case).
+     */
+    private static Event[] generateTrace(long seed, int length, int maxFingers) {
+        Random random = new Random(seed);
+        long[] fingers = new long[maxFingers];
+        boolean[] down = new boolean[maxFingers];
+        long nextId = 0x1234_5678_9abcL;
+
+        Event[] trace = new Event[length];
+        for (int i = 0; i < length; ++i) {
+            int finger = random.nextInt(maxFingers);
+            float x = random.nextInt(1080);
+            float y = random.nextInt(1920);
+            float pressure = random.nextFloat();
+            boolean up;
+            if (!down[finger]) {
+                // New finger, with a new (arbitrary) client id
+                fingers[finger] = nextId;
+                nextId += 1 + random.nextInt(1000);
+                down[finger] = true;
+                up = false;
+            } else {
+                // Move most of the time
+                up = random.nextInt(8) == 0;
+                down[finger] = !up;
+            }
+            trace[i] = new Event(fingers[finger], x, y, pressure, up);
+        }
+        return trace;
+    }
+
+    private static MotionEvent.PointerProperties[] createProps() {
+        MotionEvent.PointerProperties[] props = new MotionEvent.PointerProperties[PointersState.MAX_POINTERS];
+        for (int i = 0; i < props.length; ++i) {
+            props[i] = new MotionEvent.PointerProperties();
+        }
+        return props;
+    }
+
+    private static MotionEvent.PointerCoords[] createCoords() {
+        MotionEvent.PointerCoords[] coords = new MotionEvent.PointerCoords[PointersState.MAX_POINTERS];
+        for (int i = 0; i < coords.length; ++i) {
+            coords[i] = new MotionEvent.PointerCoords();
+        }
+        return coords;
+    }
+
+    private static long replay(PointersState state, Event[] trace, MotionEvent.PointerProperties[] props, MotionEvent.PointerCoords[] coords) {
+        long checksum = 0;
+        for (Event event : trace) {
+            int index = state.getPointerIndex(event.pointerId);
+            if (index != -1) {
+                state.setPoint(index, event.x, event.y);
+                state.setPressure(index, event.pressure);
+                state.setUp(index, event.up);
+                int count = state.update(props, coords);
+                checksum = checksum * 31 + count * 16 + props[index].id;
+            }
+        }
+        return checksum;
+    }
+
+    private static long replay(LegacyPointersState state, Event[] trace, MotionEvent.PointerProperties[] props,
+            MotionEvent.PointerCoords[] coords) {
+        long checksum = 0;
+        for (Event event : trace) {
+            int index = state.getPointerIndex(event.pointerId);
+            if (index != -1) {
+                state.set(index, event.x, event.y, event.pressure, event.up);
+                int count = state.update(props, coords);
+                checksum = checksum * 31 + count * 16 + props[index].id;
+            }
+        }
+        return checksum;
+    }
+
+    @Test
+    public void testLocalIds() {
+        PointersState state = new PointersState();
+        MotionEvent.PointerProperties[] props = createProps();
+        MotionEvent.PointerCoords[] coords = createCoords();
+
+        Assert.assertEquals(0, state.getPointerIndex(100));
+        Assert.assertEquals(1, state.getPointerIndex(200));
+        Assert.assertEquals(2, state.getPointerIndex(300));
+        Assert.assertEquals(1, state.getPointerIndex(200));
+
+        // Release the second pointer
+        state.setUp(1, true);
+        Assert.assertEquals(3, state.update(props, coords));
+        Assert.assertEquals(2, state.getCount());
+
+        // The order of the remaining pointers is preserved
+        Assert.assertEquals(300, state.getId(1));
+        Assert.assertEquals(2, state.getLocalId(1));
+
+        // The lowest local id is reused
+        Assert.assertEquals(2, state.getPointerIndex(400));
+        Assert.assertEquals(1, state.getLocalId(2));
+    }
+
+    @Test
+    public void testFull() {
+        PointersState state = new PointersState();
+        for (int i = 0; i < PointersState.MAX_POINTERS; ++i) {
+            Assert.assertEquals(i, state.getPointerIndex(i));
+            Assert.assertEquals(i, state.getLocalId(i));
+        }
+        Assert.assertEquals(-1, state.getPointerIndex(PointersState.MAX_POINTERS));
+    }
+
+    @Test
+    public void testSameAsLegacy() {
+        Event[] trace = generateTrace(42, 100_000, 12);
+
+        PointersState state = new PointersState();
+        MotionEvent.PointerProperties[] props = createProps();
+        MotionEvent.PointerCoords[] coords = createCoords();
+
+        LegacyPointersState legacyState = new LegacyPointersState();
+        MotionEvent.PointerProperties[] legacyProps = createProps();
+        MotionEvent.PointerCoords[] legacyCoords = createCoords();
+
+        for (Event event : trace) {
+            int index = state.getPointerIndex(event.pointerId);
+            int legacyIndex = legacyState.getPointerIndex(event.pointerId);
+            Assert.assertEquals(legacyIndex, index);
+            if (index == -1) {
+                continue;
+            }
+
+            state.setPoint(index, event.x, event.y);
+            state.setPressure(index, event.pressure);
+            state.setUp(index, event.up);
+            legacyState.set(index, event.x, event.y, event.pressure, event.up);
+
+            int count = state.update(props, coords);
+            int legacyCount = legacyState.update(legacyProps, legacyCoords);
+            Assert.assertEquals(legacyCount, count);
+            for (int i = 0; i < count; ++i) {
+                Assert.assertEquals(legacyProps[i].id, props[i].id);
+                Assert.assertEquals(legacyCoords[i].x, coords[i].x, 0f);
+                Assert.assertEquals(legacyCoords[i].y, coords[i].y, 0f);
+                Assert.assertEquals(legacyCoords[i].pressure, coords[i].pressure, 0f);
+            }
+        }
+    }
+
+    @Test
+    public void testNoAllocation() {
+        ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+
+        Event[] trace = generateTrace(42, 100_000, PointersState.MAX_POINTERS);
+        PointersState state = new PointersState();
+        MotionEvent.PointerProperties[] props = createProps();
+        MotionEvent.PointerCoords[] coords = createCoords();
+
+        // warm-up
+        for (int i = 0; i < 5; ++i) {
+            replay(state, trace, props, coords);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        // Call it once before measuring, in case the first call allocates
+        threadMXBean.getThreadAllocatedBytes(threadId);
+
+        long before = threadMXBean.getThreadAllocatedBytes(threadId);
+        replay(state, trace, props, coords);
+        long after = threadMXBean.getThreadAllocatedBytes(threadId);
+
+        // No allocation per event (tolerate a few bytes allocated by the measurement itself)
+        long allocated = after - before;
+        Assert.assertTrue("Allocated: " + allocated + " bytes", allocated < 8L * trace.length);
+    }
+
+    @Test
+    public void testSameChecksumAsLegacy() {
+        Event[] trace = generateTrace(42, 100_000, PointersState.MAX_POINTERS);
+        MotionEvent.PointerProperties[] props = createProps();
+        MotionEvent.PointerCoords[] coords = createCoords();
+
+        long checksum = replay(new PointersState(), trace, props, coords);
+        long legacyChecksum = replay(new LegacyPointersState(), trace, props, coords);
+        Assert.assertEquals(legacyChecksum, checksum);
+    }
+}
@@ -0,0 +1,111 @@
+package com.genymobile.scrcpy.control;
+
+import com.genymobile.scrcpy.device.Point;
+import com.genymobile.scrcpy.device.Size;
+import com.genymobile.scrcpy.util.AffineMatrix;
+
+import com.sun.management.ThreadMXBean;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+public class PositionMapperTest {
+
+    private static final Size VIDEO_SIZE = new Size(1920, 864);
+    private static final Size DEVICE_SIZE = new Size(1080, 2400);
+
+    private static AffineMatrix[] createFilterTransforms() {
+        return new AffineMatrix[] {
+                null,
+                AffineMatrix.rotateOrtho(1),
+                AffineMatrix.rotateOrtho(3).multiply(AffineMatrix.reframe(0.1, 0.2, 0.5, 0.6)).invert(),
+                AffineMatrix.hflip().multiply(AffineMatrix.rotateOrtho(2)),
+                AffineMatrix.rotate(-25).withAspectRatio(DEVICE_SIZE).fromCenter().invert(),
+        };
+    }
+
+    @Test
+    public void testIdentity() {
+        PositionMapper mapper = PositionMapper.create(VIDEO_SIZE, null, VIDEO_SIZE);
+        float[] result = new float[2];
+        Assert.assertTrue(mapper.map(100, 200, 1920, 864, result));
+        Assert.assertEquals(100f, result[0], 0f);
+        Assert.assertEquals(200f, result[1], 0f);
+    }
+
+    @Test
+    public void testWrongVideoSize() {
+        PositionMapper mapper = PositionMapper.create(VIDEO_SIZE, null, DEVICE_SIZE);
+        float[] result = {-1, -1};
+        Assert.assertFalse(mapper.map(100, 200, 864, 1920, result));
+        // Not written
+        Assert.assertEquals(-1f, result[0], 0f);
+        Assert.assertEquals(-1f, result[1], 0f);
+    }
+
+    @Test
+    public void testSameAsDoublePrecision() {
+        float[] result = new float[2];
+        for (AffineMatrix filterTransform : createFilterTransforms()) {
+            PositionMapper mapper = PositionMapper.create(VIDEO_SIZE, filterTransform, DEVICE_SIZE);
+
+            // The reference transform, in double precision
+            AffineMatrix reference = AffineMatrix.ndcToPixels(DEVICE_SIZE).multiply(filterTransform)
+                    .multiply(AffineMatrix.ndcFromPixels(VIDEO_SIZE));
+
+            for (int y = 0; y < VIDEO_SIZE.getHeight(); y += 7) {
+                for (int x = 0; x < VIDEO_SIZE.getWidth(); x += 7) {
+                    Assert.assertTrue(mapper.map(x, y, VIDEO_SIZE.getWidth(), VIDEO_SIZE.getHeight(), result));
+                    Assert.assertEquals(reference.applyX(x, y), result[0], 0.01);
+                    Assert.assertEquals(reference.applyY(x, y), result[1], 0.01);
+
+                    // The previous implementation truncated the result to integers
+                    Point point = reference.apply(new Point(x, y));
+                    Assert.assertEquals(point.getX(), result[0], 1);
+                    Assert.assertEquals(point.getY(), result[1], 1);
+                }
+            }
+        }
+    }
+
+    private static float mapAll(PositionMapper mapper, int iterations, float[] result) {
+        // Use the results, so that the loop is not optimized out
+        float checksum = 0;
+        int w = VIDEO_SIZE.getWidth();
+        int h = VIDEO_SIZE.getHeight();
+        for (int i = 0; i < iterations; ++i) {
+            mapper.map(i % w, i % h, w, h, result);
+            checksum += result[0] + result[1];
+        }
+        return checksum;
+    }
+
+    @Test
+    public void testNoAllocation() {
+        ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+
+        PositionMapper mapper = PositionMapper.create(VIDEO_SIZE, createFilterTransforms()[4], DEVICE_SIZE);
+        float[] result = new float[2];
+
+        // warm-up
+        for (int i = 0; i < 5; ++i) {
+            mapAll(mapper, 100_000, result);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        // Call it once before measuring, in case the first call allocates
+        threadMXBean.getThreadAllocatedBytes(threadId);
+
+        long before = threadMXBean.getThreadAllocatedBytes(threadId);
+        mapAll(mapper, 100_000, result);
+        long after = threadMXBean.getThreadAllocatedBytes(threadId);
+
+        // No allocation per event (tolerate a few bytes allocated by the measurement itself)
+        long allocated = after - before;
+        Assert.assertTrue("Allocated: " + allocated + " bytes", allocated < 8L * 100_000);
+    }
+}
@@ -0,0 +1,164 @@
+package com.genymobile.scrcpy.control;
+
+import android.view.InputDevice;
+import android.view.MotionEvent;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class TouchMoveBatcherTest {
+
+    private static final int MAX_DELAY_MS = 8;
+    private static final int DISPLAY_ID = 0;
+
+    /**
+     * Record the injected events, as the list of their sample times.
+     */
+    private static final class RecordingSink implements TouchMoveBatcher.Sink {
+        private final List<List<Long>> injected = new ArrayList<>();
+        private List<Long> pending;
+        private boolean failing;
+
+        @Override
+        public void startBatch(long now, int action, int pointerCount, int buttons, int source) {
+            Assert.assertNull(pending);
+            pending = new ArrayList<>();
+            pending.add(now);
+        }
+
+        @Override
+        public void addSample(long now) {
+            Assert.assertNotNull(pending);
+            pending.add(now);
+        }
+
+        @Override
+        public boolean injectBatch(int displayId) {
+            Assert.assertNotNull(pending);
+            Assert.assertEquals(DISPLAY_ID, displayId);
+            injected.add(pending);
+            pending = null;
+            return !failing;
+        }
+    }
+
+    private static MotionEvent.PointerProperties[] createPointers(int... ids) {
+        MotionEvent.PointerProperties[] pointers = new MotionEvent.PointerProperties[ids.length];
+        for (int i = 0; i < ids.length; ++i) {
+            pointers[i] = new MotionEvent.PointerProperties();
+            pointers[i].id = ids[i];
+            pointers[i].toolType = MotionEvent.TOOL_TYPE_FINGER;
+        }
+        return pointers;
+    }
+
+    private static boolean move(TouchMoveBatcher batcher, long now, MotionEvent.PointerProperties[] pointers) {
+        return batcher.move(now, MotionEvent.ACTION_MOVE, pointers.length, pointers, 0, InputDevice.SOURCE_TOUCHSCREEN, DISPLAY_ID);
+    }
+
+    @Test
+    public void testMerge() {
+        RecordingSink sink = new RecordingSink();
+        TouchMoveBatcher batcher = new TouchMoveBatcher(MAX_DELAY_MS, sink);
+        MotionEvent.PointerProperties[] pointers = createPointers(0, 1);
+
+        Assert.assertTrue(move(batcher, 100, pointers));
+        Assert.assertTrue(move(batcher, 101, pointers));
+        Assert.assertTrue(move(batcher, 102, pointers));
+        Assert.assertTrue(batcher.hasPending());
+        Assert.assertTrue(sink.injected.isEmpty());
+
+        Assert.assertTrue(batcher.flush());
+        Assert.assertFalse(batcher.hasPending());
+        Assert.assertEquals(1, sink.injected.size());
+        Assert.assertEquals(Arrays.asList(100L, 101L, 102L), sink.injected.get(0));
+
+        // Nothing to flush
+        Assert.assertTrue(batcher.flush());
+        Assert.assertEquals(1, sink.injected.size());
+    }
+
+    @Test
+    public void testFlushOnPointersChange() {
+        RecordingSink sink = new RecordingSink();
+        TouchMoveBatcher batcher = new TouchMoveBatcher(MAX_DELAY_MS, sink);
+
+        move(batcher, 100, createPointers(0));
+        move(batcher, 101, createPointers(0));
+        // A second finger is down
+        move(batcher, 102, createPointers(0, 1));
+        move(batcher, 103, createPointers(0, 1));
+        // The second finger is up, and another one is down (same count, different ids)
+        move(batcher, 104, createPointers(0, 2));
+
+        MotionEvent.PointerProperties[] mouse = createPointers(0);
+        mouse[0].toolType = MotionEvent.TOOL_TYPE_MOUSE;
+        move(batcher, 105, mouse);
+        // Another display
+        batcher.move(106, MotionEvent.ACTION_MOVE, 1, mouse, 0, InputDevice.SOURCE_TOUCHSCREEN, DISPLAY_ID + 1);
+
+        Assert.assertEquals(4, sink.injected.size());
+        Assert.assertEquals(Arrays.asList(100L, 101L), sink.injected.get(0));
+        Assert.assertEquals(Arrays.asList(102L, 103L), sink.injected.get(1));
+        Assert.assertEquals(Arrays.asList(104L), sink.injected.get(2));
+        Assert.assertEquals(Arrays.asList(105L), sink.injected.get(3));
+    }
+
+    @Test
+    public void testFlushOnButtonsChange() {
+        RecordingSink sink = new RecordingSink();
+        TouchMoveBatcher batcher = new TouchMoveBatcher(MAX_DELAY_MS, sink);
+        MotionEvent.PointerProperties[] pointers = createPointers(0);
+
+        batcher.move(100, MotionEvent.ACTION_HOVER_MOVE, 1, pointers, 0, InputDevice.SOURCE_MOUSE, DISPLAY_ID);
+        batcher.move(101, MotionEvent.ACTION_MOVE, 1, pointers, MotionEvent.BUTTON_PRIMARY, InputDevice.SOURCE_MOUSE, DISPLAY_ID);
+        batcher.move(102, MotionEvent.ACTION_MOVE, 1, pointers, MotionEvent.BUTTON_SECONDARY, InputDevice.SOURCE_MOUSE, DISPLAY_ID);
+
+        Assert.assertEquals(2, sink.injected.size());
+        Assert.assertEquals(Arrays.asList(100L), sink.injected.get(0));
+        Assert.assertEquals(Arrays.asList(101L), sink.injected.get(1));
+    }
+
+    @Test
+    public void testTimeLimit() {
+        RecordingSink sink = new RecordingSink();
+        TouchMoveBatcher batcher = new TouchMoveBatcher(MAX_DELAY_MS, sink);
+        MotionEvent.PointerProperties[] pointers = createPointers(0);
+
+        move(batcher, 100, pointers);
+        Assert.assertFalse(batcher.isExpired(100 + MAX_DELAY_MS - 1));
+        Assert.assertTrue(batcher.isExpired(100 + MAX_DELAY_MS));
+
+        move(batcher, 100 + MAX_DELAY_MS - 1, pointers);
+        Assert.assertTrue(sink.injected.isEmpty());
+        // The first sample is too old, the batch is injected immediately
+        move(batcher, 100 + MAX_DELAY_MS, pointers);
+        Assert.assertFalse(batcher.hasPending());
+        Assert.assertFalse(batcher.isExpired(1000));
+        Assert.assertEquals(1, sink.injected.size());
+        Assert.assertEquals(Arrays.asList(100L, 100L + MAX_DELAY_MS - 1, 100L + MAX_DELAY_MS), sink.injected.get(0));
+
+        // A new batch starts
+        move(batcher, 200, pointers);
+        Assert.assertTrue(batcher.hasPending());
+        Assert.assertEquals(1, sink.injected.size());
+    }
+
+    @Test
+    public void testInjectionFailure() {
+        RecordingSink sink = new RecordingSink();
+        TouchMoveBatcher batcher = new TouchMoveBatcher(MAX_DELAY_MS, sink);
+        sink.failing = true;
+
+        Assert.assertTrue(move(batcher, 100, createPointers(0)));
+        // The pending event is injected (and fails), the new move starts a new batch anyway
+        Assert.assertFalse(move(batcher, 101, createPointers(1)));
+        Assert.assertTrue(batcher.hasPending());
+        Assert.assertFalse(batcher.flush());
+        Assert.assertFalse(batcher.hasPending());
+        Assert.assertEquals(2, sink.injected.size());
+    }
+}
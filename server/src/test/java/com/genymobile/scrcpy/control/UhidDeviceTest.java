@@ -0,0 +1,149 @@
+package com.genymobile.scrcpy.control;
+
+import com.sun.management.ThreadMXBean;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Pipe;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class UhidDeviceTest {
+
+    private static final class RecordingOutput implements UhidDevice.Output {
+        private final List<byte[]> writes = new ArrayList<>();
+
+        @Override
+        public void write(byte[] buffer, int offset, int len) {
+            writes.add(Arrays.copyOfRange(buffer, offset, offset + len));
+        }
+    }
+
+    /**
+     * Output to a pipe, drained by another thread (like the kernel consuming the UHID events).
+     */
+    private static final class PipeOutput implements UhidDevice.Output, AutoCloseable {
+        private final Pipe pipe;
+        private final Thread drainThread;
+        private ByteBuffer writeBuffer = ByteBuffer.allocate(0);
+
+        PipeOutput() throws IOException {
+            pipe = Pipe.open();
+            drainThread = new Thread(() -> {
+                ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+                try {
+                    while (pipe.source().read(readBuffer) != -1) {
+                        readBuffer.clear();
+                    }
+                } catch (IOException e) {
+                    // closed
+                }
+            });
+            drainThread.start();
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int len) throws IOException {
+            if (writeBuffer.array() != buffer) {
+                writeBuffer = ByteBuffer.wrap(buffer);
+            }
+            writeBuffer.limit(offset + len).position(offset);
+            while (writeBuffer.hasRemaining()) {
+                pipe.sink().write(writeBuffer);
+            }
+        }
+
+        @Override
+        public void close() throws Exception {
+            pipe.sink().close();
+            drainThread.join();
+            pipe.source().close();
+        }
+    }
+
+    @Test
+    public void testInputEvent() throws IOException {
+        RecordingOutput output = new RecordingOutput();
+        UhidDevice device = new UhidDevice(null, output);
+
+        device.writeInput(new byte[] {1, 2, 3});
+        device.writeInput(new byte[] {4, 5});
+
+        Assert.assertEquals(2, output.writes.size());
+
+        ByteBuffer event = ByteBuffer.wrap(output.writes.get(0)).order(ByteOrder.nativeOrder());
+        Assert.assertEquals(9, event.remaining());
+        Assert.assertEquals(UhidDevice.UHID_INPUT2, event.getInt());
+        Assert.assertEquals(3, event.getShort());
+        Assert.assertEquals(1, event.get());
+        Assert.assertEquals(2, event.get());
+        Assert.assertEquals(3, event.get());
+
+        event = ByteBuffer.wrap(output.writes.get(1)).order(ByteOrder.nativeOrder());
+        Assert.assertEquals(8, event.remaining());
+        Assert.assertEquals(UhidDevice.UHID_INPUT2, event.getInt());
+        Assert.assertEquals(2, event.getShort());
+        Assert.assertEquals(4, event.get());
+        Assert.assertEquals(5, event.get());
+    }
+
+    @Test
+    public void testMaxSize() throws IOException {
+        RecordingOutput output = new RecordingOutput();
+        UhidDevice device = new UhidDevice(null, output);
+
+        device.writeInput(new byte[UhidDevice.UHID_DATA_MAX]);
+        Assert.assertEquals(6 + UhidDevice.UHID_DATA_MAX, output.writes.get(0).length);
+
+        try {
+            device.writeInput(new byte[UhidDevice.UHID_DATA_MAX + 1]);
+            Assert.fail("The report must be rejected");
+        } catch (IOException e) {
+            // expected
+        }
+        Assert.assertEquals(1, output.writes.size());
+    }
+
+    private static void writeReports(UhidDevice device, byte[] report, int count) throws IOException {
+        for (int i = 0; i < count; ++i) {
+            report[0] = (byte) i;
+            device.writeInput(report);
+        }
+    }
+
+    @Test
+    public void testNoAllocation() throws Exception {
+        ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+
+        final int reports = 10_000;
+        byte[] report = new byte[8]; // typical mouse report
+        try (PipeOutput output = new PipeOutput()) {
+            UhidDevice device = new UhidDevice(null, output);
+
+            // warm-up
+            for (int i = 0; i < 5; ++i) {
+                writeReports(device, report, reports);
+            }
+
+            long threadId = Thread.currentThread().getId();
+            // Call it once before measuring, in case the first call allocates
+            threadMXBean.getThreadAllocatedBytes(threadId);
+
+            long before = threadMXBean.getThreadAllocatedBytes(threadId);
+            writeReports(device, report, reports);
+            long after = threadMXBean.getThreadAllocatedBytes(threadId);
+
+            // No allocation per report (tolerate a few bytes allocated by the measurement itself)
+            long allocated = after - before;
+            Assert.assertTrue("Allocated: " + allocated + " bytes", allocated < 8L * reports);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.genymobile.scrcpy.device;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public class PacketQueueTest {
+
+    private static ByteBuffer createPacket(int size, int value) {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (int i = 0; i < size; ++i) {
+            buffer.put((byte) value);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void assertPacket(PacketQueue.Packet packet, int size, int value, long pts) {
+        Assert.assertNotNull(packet);
+        Assert.assertEquals(pts, packet.getPts());
+        ByteBuffer buffer = packet.getBuffer();
+        Assert.assertEquals(size, buffer.remaining());
+        for (int i = buffer.position(); i < buffer.limit(); ++i) {
+            Assert.assertEquals((byte) value, buffer.get(i));
+        }
+    }
+
+    @Test
+    public void testFifo() throws Exception {
+        PacketQueue queue = new PacketQueue(3, PacketQueue.OverflowPolicy.BLOCK);
+
+        ByteBuffer data = createPacket(10, 1);
+        Assert.assertEquals(PacketQueue.PUSHED, queue.push(data, 0, true, false));
+        Assert.assertEquals(10, data.remaining()); // position unchanged
+        Assert.assertEquals(PacketQueue.PUSHED, queue.push(createPacket(200_000, 2), 1, false, true));
+        Assert.assertEquals(2, queue.getCount());
+
+        assertPacket(queue.take(), 10, 1, 0);
+        queue.release();
+
+        Assert.assertEquals(PacketQueue.PUSHED, queue.push(createPacket(30, 3), 2, false, false));
+        Assert.assertEquals(PacketQueue.PUSHED, queue.push(createPacket(40, 4), 3, false, false));
+
+        assertPacket(queue.take(), 200_000, 2, 1);
+        queue.release();
+        assertPacket(queue.take(), 30, 3, 2);
+        queue.release();
+        assertPacket(queue.take(), 40, 4, 3);
+        queue.release();
+
+        Assert.assertEquals(0, queue.getCount());
+        Assert.assertEquals(3, queue.getMaxCount());
+        Assert.assertEquals(0, queue.getDroppedCount());
+    }
+
+    @Test
+    public void testDropUntilKeyFrame() throws Exception {
+        PacketQueue queue = new PacketQueue(2, PacketQueue.OverflowPolicy.DROP);
+
+        Assert.assertEquals(PacketQueue.PUSHED, queue.push(createPacket(10, 1), 1, false, true));
+        Assert.assertEquals(PacketQueue.PUSHED, queue.push(createPacket(10, 2), 2, false, false));
+
+        // The queue is full, the producer must request a sync frame
+        Assert.assertEquals(PacketQueue.DROPPED_REQUEST_SYNC_FRAME, queue.push(createPacket(10, 3), 3, false, false));
+
+        assertPacket(queue.take(), 10, 1, 1);
+        queue.release();
+
+        // There is room in the queue, but non-key frames must be dropped until the next key frame
+        Assert.assertEquals(PacketQueue.DROPPED, queue.push(createPacket(10, 4), 4, false, false));
+        Assert.assertEquals(PacketQueue.PUSHED, queue.push(createPacket(10, 5), 5, false, true));
+
+        assertPacket(queue.take(), 10, 2, 2);
+        queue.release();
+
+        Assert.assertEquals(PacketQueue.PUSHED, queue.push(createPacket(10, 6), 6, false, false));
+
+        assertPacket(queue.take(), 10, 5, 5);
+        queue.release();
+        assertPacket(queue.take(), 10, 6, 6);
+        queue.release();
+
+        Assert.assertEquals(2, queue.getDroppedCount());
+    }
+
+    @Test
+    public void testConfigPacketNeverDropped() throws Exception {
+        PacketQueue queue = new PacketQueue(1, PacketQueue.OverflowPolicy.DROP);
+
+        Assert.assertEquals(PacketQueue.PUSHED, queue.push(createPacket(10, 1), 1, false, true));
+
+        Thread consumer = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+                queue.take();
+                queue.release();
+            } catch (InterruptedException e) {
+                // ignore
+            }
+        });
+        consumer.start();
+
+        // Blocks until the consumer releases the first packet
+        Assert.assertEquals(PacketQueue.PUSHED, queue.push(createPacket(20, 2), 0, true, false));
+        consumer.join();
+
+        assertPacket(queue.take(), 20, 2, 0);
+        queue.release();
+        Assert.assertEquals(0, queue.getDroppedCount());
+    }
+
+    @Test
+    public void testConsumerError() throws Exception {
+        PacketQueue queue = new PacketQueue(1, PacketQueue.OverflowPolicy.BLOCK);
+        Assert.assertEquals(PacketQueue.PUSHED, queue.push(createPacket(10, 1), 1, false, true));
+
+        IOException error = new IOException("Broken pipe");
+        Thread consumer = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                // ignore
+            }
+            queue.setConsumerError(error);
+        });
+        consumer.start();
+
+        try {
+            // Blocks until the error is reported
+            queue.push(createPacket(10, 2), 2, false, false);
+            Assert.fail("The consumer error must be thrown to the producer");
+        } catch (IOException e) {
+            Assert.assertSame(error, e);
+        }
+        consumer.join();
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        PacketQueue queue = new PacketQueue(2, PacketQueue.OverflowPolicy.BLOCK);
+        Assert.assertEquals(PacketQueue.PUSHED, queue.push(createPacket(10, 1), 1, false, true));
+        queue.close();
+        Assert.assertNull(queue.take());
+    }
+}
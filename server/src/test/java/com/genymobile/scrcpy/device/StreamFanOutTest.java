@@ -0,0 +1,301 @@
+package com.genymobile.scrcpy.device;
+
+import com.genymobile.scrcpy.metrics.Counter;
+import com.genymobile.scrcpy.metrics.Metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class StreamFanOutTest {
+
+    private static final long TIMEOUT_MS = 5000;
+
+    private static final class Packet {
+        private final long pts;
+        private final boolean config;
+        private final boolean keyFrame;
+        private final int size;
+
+        Packet(long pts, boolean config, boolean keyFrame, int size) {
+            this.pts = pts;
+            this.config = config;
+            this.keyFrame = keyFrame;
+            this.size = size;
+        }
+    }
+
+    private static final class MemorySink implements StreamFanOut.Sink {
+        private final List<Packet> packets = new ArrayList<>();
+        private Size header;
+        private boolean closed;
+        // If not null, the writes wait until it is released (or the sink is closed)
+        private final CountDownLatch gate;
+        private final boolean failing;
+
+        MemorySink() {
+            this(null, false);
+        }
+
+        MemorySink(CountDownLatch gate, boolean failing) {
+            this.gate = gate;
+            this.failing = failing;
+        }
+
+        @Override
+        public synchronized void writeHeader(Size videoSize) {
+            header = videoSize;
+        }
+
+        @Override
+        public void writePacket(ByteBuffer buffer, long pts, boolean config, boolean keyFrame, long dequeueNs, int queueDepth)
+                throws IOException {
+            if (gate != null) {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            synchronized (this) {
+                if (failing || closed) {
+                    throw new IOException("Broken pipe");
+                }
+                packets.add(new Packet(pts, config, keyFrame, buffer.remaining()));
+                notifyAll();
+            }
+        }
+
+        @Override
+        public synchronized void close() {
+            closed = true;
+            if (gate != null) {
+                gate.countDown();
+            }
+        }
+
+        synchronized boolean isClosed() {
+            return closed;
+        }
+
+        synchronized List<Packet> awaitPackets(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+            while (packets.size() < count) {
+                long remaining = deadline - System.currentTimeMillis();
+                Assert.assertTrue("Timeout waiting for " + count + " packets (received " + packets.size() + ")", remaining > 0);
+                wait(remaining);
+            }
+            return new ArrayList<>(packets);
+        }
+    }
+
+    private static ByteBuffer createPacket(int size) {
+        return ByteBuffer.allocate(size);
+    }
+
+    private static boolean pushConfig(StreamFanOut fanOut, long pts) throws IOException {
+        return fanOut.push(createPacket(20), pts, true, false, 0);
+    }
+
+    private static boolean pushFrame(StreamFanOut fanOut, long pts, boolean keyFrame) throws IOException {
+        return fanOut.push(createPacket(keyFrame ? 1000 : 100), pts, false, keyFrame, 0);
+    }
+
+    private static void assertPacket(Packet packet, long pts, boolean config, boolean keyFrame) {
+        Assert.assertEquals(pts, packet.pts);
+        Assert.assertEquals(config, packet.config);
+        Assert.assertEquals(keyFrame, packet.keyFrame);
+    }
+
+    @Test
+    public void testPrimaryClient() throws Exception {
+        StreamFanOut fanOut = new StreamFanOut(8, StreamFanOut.SlowClientPolicy.SKIP);
+        fanOut.setVideoSize(new Size(1920, 1080));
+        MemorySink primary = new MemorySink();
+        fanOut.addClient(primary, true);
+
+        Assert.assertFalse(pushConfig(fanOut, 0));
+        Assert.assertFalse(pushFrame(fanOut, 1, true));
+        Assert.assertFalse(pushFrame(fanOut, 2, false));
+        Assert.assertFalse(pushFrame(fanOut, 3, false));
+
+        List<Packet> packets = primary.awaitPackets(4);
+        assertPacket(packets.get(0), 0, true, false);
+        Assert.assertEquals(20, packets.get(0).size);
+        assertPacket(packets.get(1), 1, false, true);
+        Assert.assertEquals(1000, packets.get(1).size);
+        assertPacket(packets.get(2), 2, false, false);
+        assertPacket(packets.get(3), 3, false, false);
+        Assert.assertEquals(new Size(1920, 1080), primary.header);
+
+        fanOut.close();
+        // The primary connection is closed by its owner
+        Assert.assertFalse(primary.isClosed());
+    }
+
+    @Test
+    public void testViewerJoinsOnKeyFrame() throws Exception {
+        AtomicInteger keyFrameRequests = new AtomicInteger();
+        StreamFanOut fanOut = new StreamFanOut(8, StreamFanOut.SlowClientPolicy.SKIP);
+        fanOut.setListener(keyFrameRequests::incrementAndGet);
+        fanOut.setVideoSize(new Size(1920, 1080));
+        MemorySink primary = new MemorySink();
+        fanOut.addClient(primary, true);
+
+        pushConfig(fanOut, 0);
+        pushFrame(fanOut, 1, true);
+        pushFrame(fanOut, 2, false);
+
+        MemorySink viewer = new MemorySink();
+        fanOut.addClient(viewer, false);
+        Assert.assertEquals(2, keyFrameRequests.get()); // one per client
+
+        // The viewer cannot decode a non-key frame
+        Assert.assertFalse(pushFrame(fanOut, 3, false));
+
+        // The video size has changed since the primary client joined
+        fanOut.setVideoSize(new Size(1080, 1920));
+        pushConfig(fanOut, 4);
+        pushFrame(fanOut, 5, true);
+        pushFrame(fanOut, 6, false);
+
+        List<Packet> packets = viewer.awaitPackets(3);
+        Assert.assertEquals(3, packets.size());
+        assertPacket(packets.get(0), 4, true, false);
+        assertPacket(packets.get(1), 5, false, true);
+        assertPacket(packets.get(2), 6, false, false);
+        Assert.assertEquals(new Size(1080, 1920), viewer.header);
+
+        Assert.assertEquals(7, primary.awaitPackets(7).size());
+        Assert.assertEquals(new Size(1920, 1080), primary.header);
+
+        fanOut.close();
+        Assert.assertTrue(viewer.isClosed());
+    }
+
+    @Test
+    public void testSlowViewerSkipsToNextKeyFrame() throws Exception {
+        Counter resyncs = Metrics.counter("video.broadcast.resyncs");
+        long initialResyncs = resyncs.get();
+
+        StreamFanOut fanOut = new StreamFanOut(4, StreamFanOut.SlowClientPolicy.SKIP);
+        MemorySink primary = new MemorySink();
+        fanOut.addClient(primary, true);
+        CountDownLatch gate = new CountDownLatch(1);
+        MemorySink viewer = new MemorySink(gate, false);
+        fanOut.addClient(viewer, false);
+
+        pushConfig(fanOut, 0);
+        pushFrame(fanOut, 1, true);
+        primary.awaitPackets(2);
+
+        // The viewer does not read anymore, this must not stall the primary client
+        boolean syncFrameNeeded = false;
+        for (int i = 2; i < 100; ++i) {
+            syncFrameNeeded |= pushFrame(fanOut, i, false);
+            primary.awaitPackets(i + 1);
+        }
+        Assert.assertTrue(syncFrameNeeded);
+        Assert.assertEquals(initialResyncs + 1, resyncs.get());
+
+        // The viewer reads again: it receives the packets already in its ring, then resynchronizes on the next key frame
+        gate.countDown();
+        List<Packet> packets = viewer.awaitPackets(4);
+        Assert.assertEquals(4, packets.size());
+        Assert.assertFalse(pushFrame(fanOut, 100, false));
+        Assert.assertFalse(pushFrame(fanOut, 101, true));
+        Assert.assertFalse(pushFrame(fanOut, 102, false));
+
+        packets = viewer.awaitPackets(7);
+        assertPacket(packets.get(4), 0, true, false);
+        assertPacket(packets.get(5), 101, false, true);
+        assertPacket(packets.get(6), 102, false, false);
+
+        Assert.assertEquals(103, primary.awaitPackets(103).size());
+        Assert.assertFalse(viewer.isClosed());
+
+        fanOut.close();
+    }
+
+    @Test
+    public void testSlowViewerDisconnected() throws Exception {
+        Counter disconnections = Metrics.counter("video.broadcast.disconnections");
+        long initialDisconnections = disconnections.get();
+
+        StreamFanOut fanOut = new StreamFanOut(4, StreamFanOut.SlowClientPolicy.DISCONNECT);
+        MemorySink primary = new MemorySink();
+        fanOut.addClient(primary, true);
+        MemorySink viewer = new MemorySink(new CountDownLatch(1), false);
+        fanOut.addClient(viewer, false);
+
+        pushConfig(fanOut, 0);
+        pushFrame(fanOut, 1, true);
+        for (int i = 2; i < 100; ++i) {
+            // The disconnected viewer does not need any key frame
+            Assert.assertFalse(pushFrame(fanOut, i, false));
+            primary.awaitPackets(i + 1);
+        }
+
+        Assert.assertTrue(viewer.isClosed());
+        Assert.assertEquals(initialDisconnections + 1, disconnections.get());
+
+        fanOut.close();
+    }
+
+    @Test
+    public void testViewerError() throws Exception {
+        StreamFanOut fanOut = new StreamFanOut(4, StreamFanOut.SlowClientPolicy.SKIP);
+        MemorySink primary = new MemorySink();
+        fanOut.addClient(primary, true);
+        MemorySink viewer = new MemorySink(null, true);
+        fanOut.addClient(viewer, false);
+
+        pushConfig(fanOut, 0);
+        pushFrame(fanOut, 1, true);
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        int pts = 2;
+        while (!viewer.isClosed()) {
+            Assert.assertTrue(System.currentTimeMillis() < deadline);
+            pushFrame(fanOut, pts, false);
+            primary.awaitPackets(++pts);
+        }
+
+        fanOut.close();
+    }
+
+    @Test
+    public void testPrimaryErrorReported() throws Exception {
+        StreamFanOut fanOut = new StreamFanOut(4, StreamFanOut.SlowClientPolicy.SKIP);
+        fanOut.addClient(new MemorySink(null, true), true);
+
+        pushConfig(fanOut, 0);
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        try {
+            for (int i = 1; ; ++i) {
+                Assert.assertTrue(System.currentTimeMillis() < deadline);
+                pushFrame(fanOut, i, i == 1);
+                Thread.sleep(1);
+            }
+        } catch (IOException e) {
+            Assert.assertEquals("Broken pipe", e.getMessage());
+        }
+
+        fanOut.close();
+    }
+
+    @Test
+    public void testAddClientAfterClose() throws Exception {
+        StreamFanOut fanOut = new StreamFanOut(4, StreamFanOut.SlowClientPolicy.SKIP);
+        fanOut.close();
+
+        MemorySink viewer = new MemorySink();
+        fanOut.addClient(viewer, false);
+        Assert.assertTrue(viewer.isClosed());
+    }
+}
@@ -0,0 +1,122 @@
+package com.genymobile.scrcpy.device;
+
+import com.genymobile.scrcpy.metrics.Counter;
+import com.genymobile.scrcpy.metrics.Metrics;
+import com.genymobile.scrcpy.video.VideoCodec;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public class StreamerTest {
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        return data;
+    }
+
+    @Test
+    public void testFrameMeta() {
+        Streamer streamer = new Streamer(new FileDescriptor(), VideoCodec.H264, true, true);
+
+        ByteBuffer header = streamer.prepareFrameMeta(0x1234, 0x0102030405L, false, true, 42, 43, 7);
+        Assert.assertEquals(Streamer.FRAME_META_SIZE, header.remaining());
+
+        byte[] expected = {
+                0x40, 0x00, 0x00, 0x01, 0x02, 0x03, 0x04, 0x05, // key frame flag and PTS
+                0x00, 0x00, 0x12, 0x34, // packet size
+        };
+        Assert.assertArrayEquals(expected, toArray(header));
+    }
+
+    @Test
+    public void testConfigFrameMeta() {
+        Streamer streamer = new Streamer(new FileDescriptor(), VideoCodec.H264, true, true);
+
+        ByteBuffer header = streamer.prepareFrameMeta(16, 0x0102030405L, true, false, 0, 0, 0);
+
+        byte[] expected = {
+                (byte) 0x80, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, // config flag (no PTS)
+                0x00, 0x00, 0x00, 0x10, // packet size
+        };
+        Assert.assertArrayEquals(expected, toArray(header));
+    }
+
+    @Test
+    public void testExtendedFrameMeta() {
+        Streamer streamer = new Streamer(new FileDescriptor(), VideoCodec.H264, true, true, true);
+
+        ByteBuffer header = streamer.prepareFrameMeta(0x1234, 0x0102030405L, false, false, 0x1122334455667788L, 0x0A0B0C0D0E0FL, 3);
+        Assert.assertEquals(Streamer.FRAME_META_EXTENDED_SIZE, header.remaining());
+
+        byte[] expected = {
+                0x00, 0x00, 0x00, 0x01, 0x02, 0x03, 0x04, 0x05, // PTS
+                0x00, 0x00, 0x12, 0x34, // packet size
+                0x11, 0x22, 0x33, 0x44, 0x55, 0x66, 0x77, (byte) 0x88, // dequeue time
+                0x00, 0x00, 0x0A, 0x0B, 0x0C, 0x0D, 0x0E, 0x0F, // write start time
+                0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, // previous write end time (no previous packet)
+                0x00, 0x00, 0x00, 0x03, // queue depth
+        };
+        Assert.assertArrayEquals(expected, toArray(header));
+    }
+
+    @Test
+    public void testExtendedFrameMetaIgnoredWithoutFrameMeta() {
+        Streamer streamer = new Streamer(new FileDescriptor(), VideoCodec.H264, true, false, true);
+
+        ByteBuffer header = streamer.prepareFrameMeta(1, 2, false, false, 3, 4, 5);
+        Assert.assertEquals(Streamer.FRAME_META_SIZE, header.remaining());
+    }
+
+    @Test
+    public void testConfigCache() {
+        Streamer streamer = new Streamer(new FileDescriptor(), VideoCodec.H264, true, true);
+
+        byte[] sps = {0x00, 0x00, 0x00, 0x01, 0x67, 0x42, (byte) 0xc0, 0x29};
+        ByteBuffer config = ByteBuffer.wrap(sps);
+        Assert.assertFalse(streamer.isSameAsLastConfig(config));
+        Assert.assertEquals(0, config.position());
+
+        // A byte-identical config packet (from another buffer, at another offset)
+        ByteBuffer other = ByteBuffer.allocate(sps.length + 3);
+        other.position(3);
+        other.put(sps);
+        other.position(3);
+        Assert.assertTrue(streamer.isSameAsLastConfig(other));
+        Assert.assertEquals(3, other.position());
+
+        // Different content
+        byte[] sps2 = sps.clone();
+        sps2[7] = 0x1f;
+        Assert.assertFalse(streamer.isSameAsLastConfig(ByteBuffer.wrap(sps2)));
+        Assert.assertTrue(streamer.isSameAsLastConfig(ByteBuffer.wrap(sps2.clone())));
+
+        // Back to the first one: it must be sent again
+        Assert.assertFalse(streamer.isSameAsLastConfig(ByteBuffer.wrap(sps)));
+
+        // Different size (a prefix)
+        ByteBuffer prefix = ByteBuffer.wrap(sps, 0, 7);
+        Assert.assertFalse(streamer.isSameAsLastConfig(prefix));
+    }
+
+    @Test
+    public void testMetricPrefix() throws IOException {
+        Counter suppressed = Metrics.counter("video.config_packets_suppressed");
+        Counter viewerSuppressed = Metrics.counter("video.viewers.config_packets_suppressed");
+        long initialSuppressed = suppressed.get();
+        long initialViewerSuppressed = viewerSuppressed.get();
+
+        Streamer streamer = new Streamer(new FileDescriptor(), VideoCodec.H264, true, true, false, "video.viewers");
+        byte[] sps = {0x00, 0x00, 0x00, 0x01, 0x67, 0x42, (byte) 0xc0, 0x29};
+        Assert.assertFalse(streamer.isSameAsLastConfig(ByteBuffer.wrap(sps)));
+
+        // Suppressed, so nothing is written
+        streamer.writePacket(ByteBuffer.wrap(sps), 0, true, false, 0, 0);
+        Assert.assertEquals(initialViewerSuppressed + 1, viewerSuppressed.get());
+        Assert.assertEquals(initialSuppressed, suppressed.get());
+    }
+}
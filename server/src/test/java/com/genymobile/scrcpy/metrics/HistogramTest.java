@@ -0,0 +1,56 @@
+package com.genymobile.scrcpy.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HistogramTest {
+
+    @Test
+    public void testBuckets() {
+        Assert.assertEquals(0, Histogram.getBucket(0));
+        Assert.assertEquals(1, Histogram.getBucket(1));
+        Assert.assertEquals(2, Histogram.getBucket(2));
+        Assert.assertEquals(2, Histogram.getBucket(3));
+        Assert.assertEquals(3, Histogram.getBucket(4));
+        Assert.assertEquals(10, Histogram.getBucket(1023));
+        Assert.assertEquals(11, Histogram.getBucket(1024));
+        Assert.assertEquals(Histogram.BUCKET_COUNT - 1, Histogram.getBucket(Long.MAX_VALUE));
+
+        Assert.assertEquals(0, Histogram.getUpperBound(0));
+        Assert.assertEquals(1, Histogram.getUpperBound(1));
+        Assert.assertEquals(1023, Histogram.getUpperBound(10));
+    }
+
+    @Test
+    public void testSnapshot() {
+        Histogram histogram = new Histogram("test");
+        for (int i = 1; i <= 100; ++i) {
+            histogram.record(i);
+        }
+
+        Histogram.Snapshot snapshot = histogram.snapshotAndReset();
+        Assert.assertEquals(100, snapshot.getCount());
+        Assert.assertEquals(5050, snapshot.getSum());
+        Assert.assertEquals(100, snapshot.getMax());
+        // The percentiles are upper bounds of the buckets: 50 is in [32, 64), 90 and 99 are in [64, 128), capped by the max
+        Assert.assertEquals(63, snapshot.getPercentile(50));
+        Assert.assertEquals(100, snapshot.getPercentile(90));
+        Assert.assertEquals(100, snapshot.getPercentile(99));
+
+        // The snapshot resets the histogram
+        snapshot = histogram.snapshotAndReset();
+        Assert.assertEquals(0, snapshot.getCount());
+        Assert.assertEquals(0, snapshot.getSum());
+        Assert.assertEquals(0, snapshot.getMax());
+        Assert.assertEquals(0, snapshot.getPercentile(50));
+    }
+
+    @Test
+    public void testNegativeValue() {
+        Histogram histogram = new Histogram("test");
+        histogram.record(-5);
+        Histogram.Snapshot snapshot = histogram.snapshotAndReset();
+        Assert.assertEquals(1, snapshot.getCount());
+        Assert.assertEquals(0, snapshot.getSum());
+    }
+}
@@ -0,0 +1,99 @@
+package com.genymobile.scrcpy.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+public class MetricsTest {
+
+    @Test
+    public void testConcurrentCounter() throws InterruptedException {
+        Counter counter = new Counter("test");
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; ++i) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 100_000; ++j) {
+                    counter.increment();
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertEquals(800_000, counter.get());
+    }
+
+    @Test
+    public void testRegistry() {
+        Counter counter = Metrics.counter("test.registry.counter");
+        Assert.assertSame(counter, Metrics.counter("test.registry.counter"));
+        Assert.assertNotSame(counter, Metrics.counter("test.registry.other"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRegistryKindMismatch() {
+        Metrics.counter("test.registry.mismatch");
+        Metrics.gauge("test.registry.mismatch");
+    }
+
+    private static String readName(DataInputStream dis) throws IOException {
+        byte[] name = new byte[dis.readUnsignedByte()];
+        dis.readFully(name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testSerializeSnapshot() throws IOException {
+        Metrics.counter("test.snapshot.counter").add(42);
+        Metrics.gauge("test.snapshot.gauge").set(-1);
+        Histogram histogram = Metrics.histogram("test.snapshot.histogram");
+        histogram.record(3);
+        histogram.record(5);
+
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(Metrics.serializeSnapshot()));
+        int count = dis.readUnsignedShort();
+        Assert.assertEquals(Metrics.getAll().size(), count);
+
+        int found = 0;
+        for (int i = 0; i < count; ++i) {
+            int kind = dis.readUnsignedByte();
+            String name = readName(dis);
+            switch (kind) {
+                case Metric.KIND_COUNTER:
+                case Metric.KIND_GAUGE:
+                    long value = dis.readLong();
+                    if (name.equals("test.snapshot.counter")) {
+                        Assert.assertEquals(Metric.KIND_COUNTER, kind);
+                        Assert.assertEquals(42, value);
+                        ++found;
+                    } else if (name.equals("test.snapshot.gauge")) {
+                        Assert.assertEquals(Metric.KIND_GAUGE, kind);
+                        Assert.assertEquals(-1, value);
+                        ++found;
+                    }
+                    break;
+                case Metric.KIND_HISTOGRAM:
+                    long[] values = new long[6]; // count, sum, max, p50, p90, p99
+                    for (int j = 0; j < values.length; ++j) {
+                        values[j] = dis.readLong();
+                    }
+                    if (name.equals("test.snapshot.histogram")) {
+                        Assert.assertArrayEquals(new long[] {2, 8, 5, 3, 5, 5}, values);
+                        ++found;
+                    }
+                    break;
+                default:
+                    Assert.fail("Unknown metric kind: " + kind);
+            }
+        }
+
+        Assert.assertEquals(3, found);
+        Assert.assertEquals(-1, dis.read()); // EOS
+    }
+}
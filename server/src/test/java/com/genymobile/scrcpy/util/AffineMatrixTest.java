@@ -0,0 +1,46 @@
+package com.genymobile.scrcpy.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AffineMatrixTest {
+
+    @Test
+    public void testOrthoRotation() {
+        for (int rotation = 0; rotation < 4; ++rotation) {
+            Assert.assertEquals(rotation, AffineMatrix.rotateOrtho(rotation).getOrthoRotation());
+            // The inverse rotation is in the opposite direction
+            Assert.assertEquals((4 - rotation) % 4, AffineMatrix.rotateOrtho(rotation).invert().getOrthoRotation());
+        }
+    }
+
+    @Test
+    public void testOrthoRotationWithCropAndScale() {
+        AffineMatrix crop = AffineMatrix.reframe(0.25, 0.5, 0.5, 0.25);
+        Assert.assertEquals(0, crop.getOrthoRotation());
+        Assert.assertEquals(0, AffineMatrix.scale(2, 3).getOrthoRotation());
+
+        for (int rotation = 0; rotation < 4; ++rotation) {
+            AffineMatrix matrix = AffineMatrix.rotateOrtho(rotation).multiply(crop);
+            Assert.assertEquals(rotation, matrix.getOrthoRotation());
+            Assert.assertEquals((4 - rotation) % 4, matrix.invert().getOrthoRotation());
+        }
+    }
+
+    @Test
+    public void testOrthoRotationRoundingErrors() {
+        // cos(90°) is not exactly 0
+        Assert.assertEquals(1, AffineMatrix.rotate(90).getOrthoRotation());
+        Assert.assertEquals(2, AffineMatrix.rotate(180).getOrthoRotation());
+        Assert.assertEquals(3, AffineMatrix.rotate(-90).withAspectRatio(16.0 / 9).fromCenter().getOrthoRotation());
+    }
+
+    @Test
+    public void testNoOrthoRotation() {
+        Assert.assertEquals(-1, AffineMatrix.hflip().getOrthoRotation());
+        Assert.assertEquals(-1, AffineMatrix.vflip().getOrthoRotation());
+        Assert.assertEquals(-1, AffineMatrix.rotateOrtho(1).multiply(AffineMatrix.hflip()).getOrthoRotation());
+        Assert.assertEquals(-1, AffineMatrix.rotate(30).getOrthoRotation());
+        Assert.assertEquals(-1, AffineMatrix.rotate(45).withAspectRatio(16.0 / 9).fromCenter().getOrthoRotation());
+    }
+}
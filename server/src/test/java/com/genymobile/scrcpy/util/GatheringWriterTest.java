@@ -0,0 +1,126 @@
+package com.genymobile.scrcpy.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public class GatheringWriterTest {
+
+    private static final class FakeWritev implements GatheringWriter.Writev {
+        private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        private final int maxBytesPerCall;
+        private int calls;
+
+        FakeWritev(int maxBytesPerCall) {
+            this.maxBytesPerCall = maxBytesPerCall;
+        }
+
+        @Override
+        public int writev(Object[] buffers, int[] offsets, int[] byteCounts) {
+            ++calls;
+            int remaining = maxBytesPerCall;
+            int written = 0;
+            for (int i = 0; i < buffers.length && remaining > 0; ++i) {
+                ByteBuffer buffer = (ByteBuffer) buffers[i];
+                int len = Math.min(byteCounts[i], remaining);
+                for (int j = 0; j < len; ++j) {
+                    output.write(buffer.get(offsets[i] + j));
+                }
+                remaining -= len;
+                written += len;
+            }
+            return written;
+        }
+    }
+
+    private static ByteBuffer createDirectBuffer(int size, int seed) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        for (int i = 0; i < size; ++i) {
+            buffer.put((byte) (seed + i));
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static byte[] concat(ByteBuffer header, ByteBuffer payload) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        for (int i = header.position(); i < header.limit(); ++i) {
+            bos.write(header.get(i));
+        }
+        for (int i = payload.position(); i < payload.limit(); ++i) {
+            bos.write(payload.get(i));
+        }
+        return bos.toByteArray();
+    }
+
+    @Test
+    public void testSingleSyscall() throws IOException {
+        ByteBuffer header = createDirectBuffer(12, 0);
+        ByteBuffer payload = createDirectBuffer(1000, 42);
+        byte[] expected = concat(header, payload);
+
+        FakeWritev writev = new FakeWritev(Integer.MAX_VALUE);
+        GatheringWriter writer = new GatheringWriter(null, writev);
+        writer.writeFully(header, payload);
+
+        Assert.assertEquals(1, writev.calls);
+        Assert.assertArrayEquals(expected, writev.output.toByteArray());
+        Assert.assertFalse(header.hasRemaining());
+        Assert.assertFalse(payload.hasRemaining());
+    }
+
+    @Test
+    public void testPartialWrites() throws IOException {
+        ByteBuffer header = createDirectBuffer(12, 0);
+        ByteBuffer payload = createDirectBuffer(100, 42);
+        payload.position(10); // only write from position
+        byte[] expected = concat(header, payload);
+
+        // Partial writes must be resumed at the right position, even in the middle of the header
+        FakeWritev writev = new FakeWritev(7);
+        GatheringWriter writer = new GatheringWriter(null, writev);
+        writer.writeFully(header, payload);
+
+        Assert.assertEquals((12 + 90 + 6) / 7, writev.calls);
+        Assert.assertArrayEquals(expected, writev.output.toByteArray());
+        Assert.assertFalse(header.hasRemaining());
+        Assert.assertFalse(payload.hasRemaining());
+    }
+
+    @Test
+    public void testEmptyPayload() throws IOException {
+        ByteBuffer header = createDirectBuffer(12, 0);
+        ByteBuffer payload = createDirectBuffer(0, 0);
+        byte[] expected = concat(header, payload);
+
+        FakeWritev writev = new FakeWritev(Integer.MAX_VALUE);
+        GatheringWriter writer = new GatheringWriter(null, writev);
+        writer.writeFully(header, payload);
+
+        Assert.assertEquals(1, writev.calls);
+        Assert.assertArrayEquals(expected, writev.output.toByteArray());
+    }
+
+    @Test
+    public void testOneSyscallPerPacket() throws IOException {
+        final int packetCount = 100;
+
+        ByteBuffer header = createDirectBuffer(12, 0);
+        ByteBuffer payload = createDirectBuffer(4096, 0);
+
+        FakeWritev writev = new FakeWritev(Integer.MAX_VALUE);
+        GatheringWriter writer = new GatheringWriter(null, writev);
+        for (int i = 0; i < packetCount; ++i) {
+            header.rewind();
+            payload.rewind();
+            writer.writeFully(header, payload);
+        }
+
+        // The header and the payload are written together (separate writes would require 2 syscalls per packet)
+        Assert.assertEquals(packetCount, writev.calls);
+        Assert.assertEquals(packetCount * (12 + 4096), writev.output.size());
+    }
+}
@@ -0,0 +1,157 @@
+package com.genymobile.scrcpy.util;
+
+import com.sun.management.ThreadMXBean;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+public class TaskRingTest {
+
+    @Test
+    public void testFifo() throws InterruptedException {
+        TaskRing ring = new TaskRing(4);
+        int[] values = new int[ring.getCapacity()];
+
+        for (int i = 0; i < 10; ++i) {
+            int slot = ring.claim();
+            Assert.assertEquals(i % 4, slot);
+            values[slot] = 100 + i;
+            ring.publish();
+            Assert.assertEquals(1, ring.size());
+
+            slot = ring.take();
+            Assert.assertEquals(i % 4, slot);
+            Assert.assertEquals(100 + i, values[slot]);
+            ring.release();
+            Assert.assertEquals(0, ring.size());
+        }
+    }
+
+    @Test
+    public void testFull() throws InterruptedException {
+        TaskRing ring = new TaskRing(2);
+        Assert.assertEquals(0, ring.claim());
+        ring.publish();
+        Assert.assertEquals(1, ring.claim());
+        ring.publish();
+        Assert.assertEquals(-1, ring.claim());
+
+        // The slot is not reusable until it is released
+        Assert.assertEquals(0, ring.take());
+        Assert.assertEquals(-1, ring.claim());
+        ring.release();
+        Assert.assertEquals(0, ring.claim());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCapacity() {
+        new TaskRing(3);
+    }
+
+    @Test
+    public void testCloseWakesUpConsumer() throws InterruptedException {
+        TaskRing ring = new TaskRing(4);
+        int[] result = {0};
+        Thread consumer = new Thread(() -> {
+            try {
+                result[0] = ring.take();
+            } catch (InterruptedException e) {
+                result[0] = -2;
+            }
+        });
+        consumer.start();
+        Thread.sleep(50);
+        ring.close();
+        consumer.join();
+
+        Assert.assertEquals(-1, result[0]);
+        Assert.assertEquals(-1, ring.claimOrWait());
+    }
+
+    @Test
+    public void testInterruptConsumer() throws InterruptedException {
+        TaskRing ring = new TaskRing(4);
+        boolean[] interrupted = {false};
+        Thread consumer = new Thread(() -> {
+            try {
+                ring.take();
+            } catch (InterruptedException e) {
+                interrupted[0] = true;
+            }
+        });
+        consumer.start();
+        Thread.sleep(50);
+        consumer.interrupt();
+        consumer.join();
+
+        Assert.assertTrue(interrupted[0]);
+    }
+
+    @Test
+    public void testConcurrent() throws InterruptedException {
+        final int count = 1_000_000;
+        TaskRing ring = new TaskRing(8);
+        int[] values = new int[ring.getCapacity()];
+
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < count; ++i) {
+                int slot = ring.claimOrWait();
+                values[slot] = i;
+                ring.publish();
+            }
+        });
+        producer.start();
+
+        for (int i = 0; i < count; ++i) {
+            int slot = ring.take();
+            Assert.assertEquals(i, values[slot]);
+            ring.release();
+        }
+        producer.join();
+        Assert.assertEquals(0, ring.size());
+    }
+
+    @Test
+    public void testNoAllocation() throws InterruptedException {
+        ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+
+        TaskRing ring = new TaskRing(4);
+        int[] values = new int[ring.getCapacity()];
+
+        // warm-up
+        long checksum = 0;
+        for (int i = 0; i < 5; ++i) {
+            checksum += cycle(ring, values, 100_000);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        // Call it once before measuring, in case the first call allocates
+        threadMXBean.getThreadAllocatedBytes(threadId);
+
+        long before = threadMXBean.getThreadAllocatedBytes(threadId);
+        checksum += cycle(ring, values, 100_000);
+        long after = threadMXBean.getThreadAllocatedBytes(threadId);
+
+        Assert.assertNotEquals(0, checksum);
+        // No allocation per task (tolerate a few bytes allocated by the measurement itself)
+        long allocated = after - before;
+        Assert.assertTrue("Allocated: " + allocated + " bytes", allocated < 8L * 100_000);
+    }
+
+    private static long cycle(TaskRing ring, int[] values, int count) throws InterruptedException {
+        long checksum = 0;
+        for (int i = 0; i < count; ++i) {
+            int slot = ring.claim();
+            values[slot] = i;
+            ring.publish();
+            slot = ring.take();
+            checksum += values[slot];
+            ring.release();
+        }
+        return checksum;
+    }
+}
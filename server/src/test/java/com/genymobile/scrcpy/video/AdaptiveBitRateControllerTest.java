@@ -0,0 +1,171 @@
+package com.genymobile.scrcpy.video;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AdaptiveBitRateControllerTest {
+
+    private static final long SECOND_NS = 1_000_000_000L;
+    private static final int FPS = 60;
+
+    private interface ThroughputTrace {
+        // In bits per second
+        long getThroughput(long timeNs);
+    }
+
+    /**
+     * Deterministic simulation of an encoder writing to a socket.
+     * <p>
+     * The socket has a send buffer, drained at the throughput given by the trace. A write blocks until there is enough room in the buffer.
+     */
+    private static final class Simulation {
+        private static final double SOCKET_BUFFER_BYTES = 200_000;
+
+        private final AdaptiveBitRateController controller;
+        private final ThroughputTrace trace;
+
+        private long nowNs;
+        private long nextFrameNs;
+        private double bufferedBytes;
+        private int changes;
+
+        Simulation(AdaptiveBitRateController controller, ThroughputTrace trace) {
+            this.controller = controller;
+            this.trace = trace;
+        }
+
+        private void drain(long durationNs) {
+            double drained = trace.getThroughput(nowNs) / 8.0 * durationNs / SECOND_NS;
+            bufferedBytes = Math.max(0, bufferedBytes - drained);
+            nowNs += durationNs;
+        }
+
+        private void writeFrame() {
+            if (nowNs < nextFrameNs) {
+                drain(nextFrameNs - nowNs);
+            }
+
+            int size = controller.getBitRate() / 8 / FPS;
+            long writeStartNs = nowNs;
+            double excess = bufferedBytes + size - SOCKET_BUFFER_BYTES;
+            if (excess > 0) {
+                // Block until the excess is drained
+                long stallNs = (long) Math.ceil(excess * 8 * SECOND_NS / trace.getThroughput(nowNs));
+                drain(stallNs);
+            }
+            bufferedBytes += size;
+
+            if (controller.onPacketWritten(size, nowNs - writeStartNs, nowNs)) {
+                ++changes;
+            }
+
+            nextFrameNs += SECOND_NS / FPS;
+        }
+
+        /**
+         * Run the simulation until {@code endNs}.
+         */
+        void runUntil(long endNs) {
+            while (nowNs < endNs) {
+                writeFrame();
+            }
+        }
+
+        /**
+         * Run the simulation until {@code endNs}, and return the average bit rate over this period.
+         */
+        long runUntilAndAverage(long endNs) {
+            long sum = 0;
+            int count = 0;
+            while (nowNs < endNs) {
+                writeFrame();
+                sum += controller.getBitRate();
+                ++count;
+            }
+            return sum / count;
+        }
+
+        /**
+         * Run the simulation until {@code endNs}, and return the maximum bit rate over this period.
+         */
+        int runUntilAndMax(long endNs) {
+            int max = 0;
+            while (nowNs < endNs) {
+                writeFrame();
+                max = Math.max(max, controller.getBitRate());
+            }
+            return max;
+        }
+    }
+
+    @Test
+    public void testNoCongestion() {
+        AdaptiveBitRateController controller = new AdaptiveBitRateController(8_000_000, 1_000_000, 8_000_000);
+        Simulation simulation = new Simulation(controller, t -> 20_000_000);
+
+        simulation.runUntil(30 * SECOND_NS);
+
+        Assert.assertEquals(8_000_000, controller.getBitRate());
+        Assert.assertEquals(0, simulation.changes);
+    }
+
+    @Test
+    public void testThroughputDrop() {
+        AdaptiveBitRateController controller = new AdaptiveBitRateController(8_000_000, 500_000, 8_000_000);
+        Simulation simulation = new Simulation(controller, t -> t < 5 * SECOND_NS ? 20_000_000 : 3_000_000);
+
+        simulation.runUntil(5 * SECOND_NS);
+        Assert.assertEquals(8_000_000, controller.getBitRate());
+
+        // The bit rate must be adapted quickly
+        simulation.runUntil(8 * SECOND_NS);
+        Assert.assertTrue(controller.getBitRate() <= 3_000_000);
+
+        // Then it must remain close to the available throughput, without oscillating
+        int changesBefore = simulation.changes;
+        int max = simulation.runUntilAndMax(17 * SECOND_NS);
+        Assert.assertTrue("Bit rate too high: " + max, max <= 3_000_000);
+        long average = simulation.runUntilAndAverage(40 * SECOND_NS);
+        Assert.assertTrue("Average bit rate too low: " + average, average >= 2_000_000);
+        Assert.assertTrue("Average bit rate too high: " + average, average <= 3_000_000);
+        Assert.assertTrue("Too many changes: " + (simulation.changes - changesBefore), simulation.changes - changesBefore <= 20);
+    }
+
+    @Test
+    public void testThroughputRecovery() {
+        AdaptiveBitRateController controller = new AdaptiveBitRateController(8_000_000, 500_000, 8_000_000);
+        Simulation simulation = new Simulation(controller, t -> t >= 5 * SECOND_NS && t < 15 * SECOND_NS ? 2_000_000 : 20_000_000);
+
+        simulation.runUntil(15 * SECOND_NS);
+        Assert.assertTrue(controller.getBitRate() <= 2_000_000);
+
+        simulation.runUntil(60 * SECOND_NS);
+        Assert.assertEquals(8_000_000, controller.getBitRate());
+    }
+
+    @Test
+    public void testBounds() {
+        AdaptiveBitRateController controller = new AdaptiveBitRateController(4_000_000, 1_000_000, 6_000_000);
+        Simulation simulation = new Simulation(controller, t -> t < 15 * SECOND_NS ? 100_000_000 : 300_000);
+
+        // Never above the max
+        int max = simulation.runUntilAndMax(15 * SECOND_NS);
+        Assert.assertEquals(6_000_000, max);
+        Assert.assertEquals(6_000_000, controller.getBitRate());
+
+        // Never below the min, even if the throughput is lower
+        simulation.runUntil(25 * SECOND_NS);
+        Assert.assertEquals(1_000_000, controller.getBitRate());
+    }
+
+    @Test
+    public void testInitialBitRateClamped() {
+        AdaptiveBitRateController controller = new AdaptiveBitRateController(8_000_000, 1_000_000, 4_000_000);
+        Assert.assertEquals(4_000_000, controller.getBitRate());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBounds() {
+        new AdaptiveBitRateController(8_000_000, 4_000_000, 1_000_000);
+    }
+}
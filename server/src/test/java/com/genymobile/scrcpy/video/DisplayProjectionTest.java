@@ -0,0 +1,80 @@
+package com.genymobile.scrcpy.video;
+
+import com.genymobile.scrcpy.device.Orientation;
+import com.genymobile.scrcpy.device.Size;
+import com.genymobile.scrcpy.util.AffineMatrix;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DisplayProjectionTest {
+
+    private static final Size DISPLAY_SIZE = new Size(1080, 2400);
+
+    // Same transform as VideoFilter.addCrop()
+    private static AffineMatrix crop(int left, int top, int right, int bottom) {
+        double w = DISPLAY_SIZE.getWidth();
+        double h = DISPLAY_SIZE.getHeight();
+        return AffineMatrix.reframe(left / w, 1 - bottom / h, (right - left) / w, (bottom - top) / h);
+    }
+
+    private static void assertProjection(DisplayProjection projection, int orientation, int left, int top, int right, int bottom) {
+        Assert.assertNotNull(projection);
+        Assert.assertEquals(orientation, projection.getOrientation());
+        Assert.assertEquals(left, projection.getLeft());
+        Assert.assertEquals(top, projection.getTop());
+        Assert.assertEquals(right, projection.getRight());
+        Assert.assertEquals(bottom, projection.getBottom());
+    }
+
+    @Test
+    public void testNoTransform() {
+        DisplayProjection projection = DisplayProjection.fromInverseTransform(null, DISPLAY_SIZE);
+        assertProjection(projection, 0, 0, 0, 1080, 2400);
+    }
+
+    @Test
+    public void testCrop() {
+        AffineMatrix transform = crop(100, 200, 500, 1000);
+        DisplayProjection projection = DisplayProjection.fromInverseTransform(transform.invert(), DISPLAY_SIZE);
+        assertProjection(projection, 0, 100, 200, 500, 1000);
+    }
+
+    @Test
+    public void testCropAndRotation() {
+        // The content rotated counter-clockwise by the filter is rotated clockwise by the projection orientation
+        int[] expectedOrientations = {0, 3, 2, 1};
+        for (int rotation = 0; rotation < 4; ++rotation) {
+            AffineMatrix transform = AffineMatrix.rotateOrtho(rotation).multiply(crop(100, 200, 500, 1000));
+            DisplayProjection projection = DisplayProjection.fromInverseTransform(transform.invert(), DISPLAY_SIZE);
+            assertProjection(projection, expectedOrientations[rotation], 100, 200, 500, 1000);
+        }
+    }
+
+    @Test
+    public void testVideoFilter() {
+        VideoFilter filter = new VideoFilter(DISPLAY_SIZE);
+        filter.addOrientation(Orientation.Orient90);
+        Assert.assertEquals(new Size(2400, 1080), filter.getOutputSize());
+        assertProjection(filter.getDisplayProjection(), 1, 0, 0, 1080, 2400);
+
+        filter = new VideoFilter(DISPLAY_SIZE);
+        filter.addResize(new Size(540, 1200));
+        assertProjection(filter.getDisplayProjection(), 0, 0, 0, 1080, 2400);
+    }
+
+    @Test
+    public void testRequiresOpenGL() {
+        VideoFilter filter = new VideoFilter(DISPLAY_SIZE);
+        filter.addOrientation(Orientation.Flip0);
+        Assert.assertNull(filter.getDisplayProjection());
+
+        filter = new VideoFilter(DISPLAY_SIZE);
+        filter.addOrientation(Orientation.Flip90);
+        Assert.assertNull(filter.getDisplayProjection());
+
+        filter = new VideoFilter(DISPLAY_SIZE);
+        filter.addAngle(15);
+        Assert.assertNull(filter.getDisplayProjection());
+    }
+}
@@ -0,0 +1,138 @@
+package com.genymobile.scrcpy.video;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class InvalidationDebouncerTest {
+
+    private static final long MS_NS = 1_000_000;
+
+    /**
+     * Deterministic timer: the scheduled tasks are run when the clock is advanced.
+     */
+    private static final class FakeTimer implements InvalidationDebouncer.Timer {
+        private static final class Task {
+            private final long timeNs;
+            private final Runnable runnable;
+
+            Task(long timeNs, Runnable runnable) {
+                this.timeNs = timeNs;
+                this.runnable = runnable;
+            }
+        }
+
+        private long nowNs;
+        private final List<Task> tasks = new ArrayList<>();
+
+        @Override
+        public long nanoTime() {
+            return nowNs;
+        }
+
+        @Override
+        public void schedule(Runnable task, long delayNs) {
+            tasks.add(new Task(nowNs + delayNs, task));
+        }
+
+        void advanceTo(long timeNs) {
+            while (true) {
+                Task next = null;
+                for (Task task : tasks) {
+                    if (task.timeNs <= timeNs && (next == null || task.timeNs < next.timeNs)) {
+                        next = task;
+                    }
+                }
+                if (next == null) {
+                    break;
+                }
+                tasks.remove(next);
+                nowNs = next.timeNs;
+                next.runnable.run();
+            }
+            nowNs = timeNs;
+        }
+    }
+
+    private static final class ResetRecorder implements SurfaceCapture.CaptureListener {
+        private final FakeTimer timer;
+        private final List<Long> resetTimes = new ArrayList<>();
+
+        ResetRecorder(FakeTimer timer) {
+            this.timer = timer;
+        }
+
+        @Override
+        public void onInvalidated() {
+            resetTimes.add(timer.nanoTime() / MS_NS);
+        }
+    }
+
+    @Test
+    public void testSingleInvalidation() {
+        FakeTimer timer = new FakeTimer();
+        ResetRecorder recorder = new ResetRecorder(timer);
+        InvalidationDebouncer debouncer = new InvalidationDebouncer(recorder, 50 * MS_NS, 500 * MS_NS, timer);
+
+        timer.advanceTo(1000 * MS_NS);
+        debouncer.onInvalidated();
+
+        timer.advanceTo(1049 * MS_NS);
+        Assert.assertTrue(recorder.resetTimes.isEmpty());
+
+        timer.advanceTo(2000 * MS_NS);
+        Assert.assertEquals(1, recorder.resetTimes.size());
+        Assert.assertEquals(1050, (long) recorder.resetTimes.get(0));
+    }
+
+    @Test
+    public void testBurst() {
+        FakeTimer timer = new FakeTimer();
+        ResetRecorder recorder = new ResetRecorder(timer);
+        InvalidationDebouncer debouncer = new InvalidationDebouncer(recorder, 50 * MS_NS, 500 * MS_NS, timer);
+
+        // A fold: several size changes within a few milliseconds
+        long[] eventTimesMs = {1000, 1003, 1004, 1010, 1030, 1070};
+        for (long timeMs : eventTimesMs) {
+            timer.advanceTo(timeMs * MS_NS);
+            debouncer.onInvalidated();
+        }
+
+        timer.advanceTo(2000 * MS_NS);
+
+        // A single reset, 50ms after the last event
+        Assert.assertEquals(1, recorder.resetTimes.size());
+        Assert.assertEquals(1120, (long) recorder.resetTimes.get(0));
+
+        // A later event is not coalesced with the previous burst
+        debouncer.onInvalidated();
+        timer.advanceTo(3000 * MS_NS);
+        Assert.assertEquals(2, recorder.resetTimes.size());
+        Assert.assertEquals(2050, (long) recorder.resetTimes.get(1));
+    }
+
+    @Test
+    public void testMaxDelay() {
+        FakeTimer timer = new FakeTimer();
+        ResetRecorder recorder = new ResetRecorder(timer);
+        InvalidationDebouncer debouncer = new InvalidationDebouncer(recorder, 50 * MS_NS, 200 * MS_NS, timer);
+
+        // A continuous resize (freeform window dragged): an event every 20ms for 1 second
+        for (long timeMs = 1000; timeMs < 2000; timeMs += 20) {
+            timer.advanceTo(timeMs * MS_NS);
+            debouncer.onInvalidated();
+        }
+        timer.advanceTo(3000 * MS_NS);
+
+        // The capture is reset every 200ms during the burst (including for the last events)
+        List<Long> expected = new ArrayList<>();
+        expected.add(1200L);
+        expected.add(1400L);
+        expected.add(1600L);
+        expected.add(1800L);
+        expected.add(2000L);
+        Assert.assertEquals(expected, recorder.resetTimes);
+    }
+}
@@ -0,0 +1,88 @@
+package com.genymobile.scrcpy.video;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class KeyFrameRequesterTest {
+
+    private static final long MS_NS = 1_000_000;
+
+    private static final class FakeEncoder implements KeyFrameRequester.Encoder {
+        private int requested;
+
+        @Override
+        public void requestKeyFrame() {
+            ++requested;
+        }
+    }
+
+    @Test
+    public void testForwardImmediately() {
+        KeyFrameRequester requester = new KeyFrameRequester();
+        FakeEncoder encoder = new FakeEncoder();
+        requester.setRunningEncoder(encoder);
+
+        requester.request(1000 * MS_NS);
+        Assert.assertEquals(1, encoder.requested);
+        Assert.assertTrue(requester.isPending());
+
+        requester.onFrame(true, 1016 * MS_NS);
+        Assert.assertFalse(requester.isPending());
+    }
+
+    @Test
+    public void testCoalesce() {
+        KeyFrameRequester requester = new KeyFrameRequester();
+        FakeEncoder encoder = new FakeEncoder();
+        requester.setRunningEncoder(encoder);
+
+        // Many requests in a short time (for example, from several clients or after a burst of packet drops)
+        for (int i = 0; i < 10; ++i) {
+            requester.request((1000 + i) * MS_NS);
+        }
+        requester.onFrame(false, 1016 * MS_NS);
+        requester.onFrame(true, 1033 * MS_NS);
+
+        // A single key frame satisfies all of them
+        Assert.assertEquals(1, encoder.requested);
+        Assert.assertFalse(requester.isPending());
+
+        // Nothing more is forwarded
+        requester.onFrame(false, 2000 * MS_NS);
+        Assert.assertEquals(1, encoder.requested);
+    }
+
+    @Test
+    public void testForwardAgainIfNoKeyFrame() {
+        KeyFrameRequester requester = new KeyFrameRequester();
+        FakeEncoder encoder = new FakeEncoder();
+        requester.setRunningEncoder(encoder);
+
+        requester.request(1000 * MS_NS);
+        requester.onFrame(false, 1016 * MS_NS);
+        requester.onFrame(false, 1050 * MS_NS);
+        Assert.assertEquals(1, encoder.requested);
+
+        // No key frame was produced, request again after the rate limit
+        requester.onFrame(false, 1150 * MS_NS);
+        Assert.assertEquals(2, encoder.requested);
+
+        requester.onFrame(true, 1166 * MS_NS);
+        Assert.assertFalse(requester.isPending());
+    }
+
+    @Test
+    public void testNoRunningEncoder() {
+        KeyFrameRequester requester = new KeyFrameRequester();
+        requester.request(1000 * MS_NS);
+        Assert.assertTrue(requester.isPending());
+
+        FakeEncoder encoder = new FakeEncoder();
+        requester.setRunningEncoder(encoder);
+
+        // A new encoding session starts with a key frame
+        requester.onFrame(true, 1100 * MS_NS);
+        Assert.assertFalse(requester.isPending());
+        Assert.assertEquals(0, encoder.requested);
+    }
+}
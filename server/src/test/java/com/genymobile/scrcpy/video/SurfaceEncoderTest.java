@@ -0,0 +1,54 @@
+package com.genymobile.scrcpy.video;
+
+import com.genymobile.scrcpy.util.CodecUtils;
+
+import android.media.MediaFormat;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SurfaceEncoderTest {
+
+    private static final String KEY_MAX_FPS_TO_ENCODER = "max-fps-to-encoder";
+
+    @Test
+    public void testIsValidMaxFps() {
+        Assert.assertTrue(SurfaceEncoder.isValidMaxFps(0)); // unlimited
+        Assert.assertTrue(SurfaceEncoder.isValidMaxFps(29.97f));
+        Assert.assertTrue(SurfaceEncoder.isValidMaxFps(Float.MAX_VALUE));
+
+        Assert.assertFalse(SurfaceEncoder.isValidMaxFps(-1));
+        Assert.assertFalse(SurfaceEncoder.isValidMaxFps(Float.NaN));
+        Assert.assertFalse(SurfaceEncoder.isValidMaxFps(Float.POSITIVE_INFINITY));
+        Assert.assertFalse(SurfaceEncoder.isValidMaxFps(Float.NEGATIVE_INFINITY));
+    }
+
+    @Test
+    public void testCodecOptionsSurviveReset() {
+        // As created by createFormat(): the initial settings, then the codec options
+        MediaFormat format = new MediaFormat();
+        format.setInteger(MediaFormat.KEY_BIT_RATE, 8_000_000);
+        format.setFloat(KEY_MAX_FPS_TO_ENCODER, 60);
+        CodecUtils.setCodecOption(format, MediaFormat.KEY_BIT_RATE, 2_000_000);
+        CodecUtils.setCodecOption(format, KEY_MAX_FPS_TO_ENCODER, 30f);
+
+        // Several encoding sessions (on capture reset), without any change at runtime
+        for (int i = 0; i < 3; ++i) {
+            Assert.assertEquals(2_000_000, SurfaceEncoder.applySessionSettings(format, 8_000_000, false, 60, false));
+            Assert.assertEquals(2_000_000, format.getInteger(MediaFormat.KEY_BIT_RATE));
+            Assert.assertEquals(30f, format.getFloat(KEY_MAX_FPS_TO_ENCODER), 0f);
+        }
+
+        // Changed at runtime
+        Assert.assertEquals(4_000_000, SurfaceEncoder.applySessionSettings(format, 4_000_000, true, 0, true));
+        Assert.assertEquals(4_000_000, format.getInteger(MediaFormat.KEY_BIT_RATE));
+        Assert.assertEquals(0f, format.getFloat(KEY_MAX_FPS_TO_ENCODER), 0f);
+    }
+
+    @Test
+    public void testCodecOptionBitRateWithAnotherType() {
+        MediaFormat format = new MediaFormat();
+        CodecUtils.setCodecOption(format, MediaFormat.KEY_BIT_RATE, 2_000_000L);
+        Assert.assertEquals(8_000_000, SurfaceEncoder.applySessionSettings(format, 8_000_000, false, 0, false));
+        Assert.assertFalse(format.containsKey(KEY_MAX_FPS_TO_ENCODER));
+    }
+}
@@ -0,0 +1,85 @@
+package com.genymobile.scrcpy.wrappers;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HiddenMethodTest {
+
+    // Simulate a framework class, in which only some signatures exist
+    @SuppressWarnings("unused")
+    public static class Service {
+        private int calls;
+
+        public int getValue(String packageName, int userId) {
+            ++calls;
+            return userId + 1;
+        }
+
+        public int getValue(String packageName, String attributionTag, int userId) {
+            ++calls;
+            return userId + 2;
+        }
+
+        public boolean isEnabled(int displayId) {
+            ++calls;
+            return displayId == 0;
+        }
+
+        private static String getName() {
+            return "service";
+        }
+    }
+
+    @Test
+    public void testResolveFirstMatchingVariant() throws ReflectiveOperationException {
+        HiddenMethod method = HiddenMethod.resolve(Service.class,
+                HiddenMethod.signature("getValue", String.class, String.class, int.class, int.class),
+                HiddenMethod.signature("getValue", String.class, String.class, int.class),
+                HiddenMethod.signature("getValue", String.class, int.class));
+        Assert.assertEquals(1, method.getVariant());
+        Assert.assertEquals(44, method.invokeInt(new Service(), "pkg", null, 42));
+    }
+
+    @Test
+    public void testResolveNoMatch() {
+        try {
+            HiddenMethod.resolve(Service.class, HiddenMethod.signature("getValue", int.class), HiddenMethod.signature("getValue"));
+            Assert.fail("NoSuchMethodException expected");
+        } catch (NoSuchMethodException e) {
+            Assert.assertTrue(e.getMessage().contains("getValue(int)"));
+            Assert.assertTrue(e.getMessage().contains("getValue()"));
+        }
+    }
+
+    @Test
+    public void testResolveDeclared() throws ReflectiveOperationException {
+        // Not public, so only visible as a declared method
+        try {
+            HiddenMethod.resolve(Service.class, HiddenMethod.signature("getName"));
+            Assert.fail("NoSuchMethodException expected");
+        } catch (NoSuchMethodException e) {
+            // expected
+        }
+
+        HiddenMethod method = HiddenMethod.resolveDeclared(Service.class, HiddenMethod.signature("getName"));
+        Assert.assertEquals("service", method.invoke(null));
+    }
+
+    @Test
+    public void testInvokeBoolean() throws ReflectiveOperationException {
+        HiddenMethod method = HiddenMethod.resolve(Service.class, HiddenMethod.signature("isEnabled", int.class));
+        Assert.assertTrue(method.invokeBoolean(new Service(), 0));
+        Assert.assertFalse(method.invokeBoolean(new Service(), 1));
+    }
+
+    @Test
+    public void testResolveLastMatchingVariant() throws ReflectiveOperationException {
+        HiddenMethod method = HiddenMethod.resolve(Service.class,
+                HiddenMethod.signature("getValue", String.class, String.class, String.class, int.class),
+                HiddenMethod.signature("getValue", String.class, int.class, String.class),
+                HiddenMethod.signature("getValue", String.class, String.class, int.class, int.class),
+                HiddenMethod.signature("getValue", String.class, int.class));
+        Assert.assertEquals(3, method.getVariant());
+        Assert.assertEquals(43, method.invokeInt(new Service(), "pkg", 42));
+    }
+}